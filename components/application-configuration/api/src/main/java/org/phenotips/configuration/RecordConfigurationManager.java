@@ -44,7 +44,8 @@
      *
      * @param recordType an identifier for the type of record whose configuration is requested, such as {@code patient}
      *            or {@code family}
-     * @return a valid configuration, may be empty if no sections can be displayed
+     * @return a valid configuration, may be empty if no sections can be displayed; configurations reused across
+     *         requests are read-only, and their setters throw {@link UnsupportedOperationException}
      * @since 1.4
      */
     RecordConfiguration getConfiguration(String recordType);
@@ -21,9 +21,26 @@
 import org.phenotips.configuration.RecordConfigurationManager;
 import org.phenotips.configuration.spi.RecordConfigurationModule;
 
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.component.event.ComponentDescriptorRemovedEvent;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+import org.xwiki.uiextension.UIExtension;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
@@ -31,19 +48,36 @@
 
 import org.slf4j.Logger;
 
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
 /**
- * Default implementation for the {@link RecordConfigurationManager} component.
+ * Default implementation for the {@link RecordConfigurationManager} component. Configurations are cached for each
+ * record type, wiki, user, locale, and the {@link RecordConfigurationModule#getCacheKey(String) inputs} of each module,
+ * and reused as read-only snapshots until a configuration module or a document holding configuration objects changes.
  *
  * @version $Id$
  * @since 1.0M9
  */
 @Component
 @Singleton
-public class DefaultRecordConfigurationManager implements RecordConfigurationManager
+public class DefaultRecordConfigurationManager implements RecordConfigurationManager, Initializable
 {
     /** The label for record of type "patient". */
     private static final String PATIENT_RECORD_LABEL = "patient";
 
+    /** Separates the parts of a cache key. */
+    private static final char KEY_SEPARATOR = '\0';
+
+    /** The cache is cleared when it grows beyond this number of configurations. */
+    private static final int MAX_CACHED_CONFIGURATIONS = 1000;
+
+    /** The XClasses whose objects define the record configuration: UI extensions, global and study settings. */
+    @SuppressWarnings("deprecation")
+    private static final List<EntityReference> CONFIGURATION_CLASSES = Arrays.asList(
+        new EntityReference("UIExtensionClass", EntityType.DOCUMENT, new EntityReference("XWiki", EntityType.SPACE)),
+        RecordConfiguration.GLOBAL_PREFERENCES_CLASS, RecordConfiguration.CUSTOM_PREFERENCES_CLASS);
+
     /** Logging helper. */
     @Inject
     private Logger logger;
@@ -51,11 +85,90 @@ public class DefaultRecordConfigurationManager implements RecordConfigurationMan
     @Inject
     private Provider<List<RecordConfigurationModule>> modules;
 
+    /** Provides access to the current wiki, user and locale. */
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private ObservationManager observationManager;
+
+    /** The read-only configurations, for each cache key. */
+    private final Map<String, RecordConfiguration> cache = new ConcurrentHashMap<>();
+
+    /** Incremented whenever the cache is cleared, so that configurations built before that aren't cached. */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** @see #getBuildCount() */
+    private final AtomicLong builds = new AtomicLong();
+
+    /** @see #getCacheHitCount() */
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.observationManager.addListener(new CacheInvalidator());
+    }
+
     @Override
     public RecordConfiguration getConfiguration(String recordType)
     {
+        List<RecordConfigurationModule> activeModules = this.modules.get();
+        String key = getCacheKey(recordType, activeModules);
+        if (key == null) {
+            return buildConfiguration(recordType, activeModules);
+        }
+        RecordConfiguration config = this.cache.get(key);
+        if (config != null) {
+            this.cacheHits.incrementAndGet();
+            return config;
+        }
+        long buildGeneration = this.generation.get();
+        config = buildConfiguration(recordType, activeModules);
+        if (config == null) {
+            return null;
+        }
+        config = new RecordConfigurationSnapshot(config);
+        if (buildGeneration == this.generation.get()) {
+            if (this.cache.size() >= MAX_CACHED_CONFIGURATIONS) {
+                this.cache.clear();
+            }
+            this.cache.put(key, config);
+        }
+        return config;
+    }
+
+    @Override
+    public RecordConfiguration getActiveConfiguration()
+    {
+        return getConfiguration(PATIENT_RECORD_LABEL);
+    }
+
+    /**
+     * How many times a configuration was built by running the configuration modules, since the application started.
+     *
+     * @return a positive number
+     */
+    public long getBuildCount()
+    {
+        return this.builds.get();
+    }
+
+    /**
+     * How many times a cached configuration was returned, since the application started.
+     *
+     * @return a positive number
+     */
+    public long getCacheHitCount()
+    {
+        return this.cacheHits.get();
+    }
+
+    private RecordConfiguration buildConfiguration(String recordType, List<RecordConfigurationModule> activeModules)
+    {
+        this.builds.incrementAndGet();
         RecordConfiguration config = new DefaultRecordConfiguration();
-        for (RecordConfigurationModule service : this.modules.get()) {
+        for (RecordConfigurationModule service : activeModules) {
             try {
                 if (service.supportsRecordType(recordType)) {
                     config = service.process(config);
@@ -67,9 +180,85 @@ public RecordConfiguration getConfiguration(String recordType)
         return config;
     }
 
-    @Override
-    public RecordConfiguration getActiveConfiguration()
+    /**
+     * Combines the record type, the current wiki, user and locale, and the keys of the modules supporting the record
+     * type.
+     *
+     * @param recordType the type of record whose configuration is requested
+     * @param activeModules the available configuration modules
+     * @return a key, or {@code null} if one of the modules doesn't allow caching the configuration
+     */
+    private String getCacheKey(String recordType, List<RecordConfigurationModule> activeModules)
     {
-        return getConfiguration(PATIENT_RECORD_LABEL);
+        XWikiContext context = this.xcontextProvider.get();
+        if (context == null) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder();
+        key.append(recordType).append(KEY_SEPARATOR).append(context.getWikiId()).append(KEY_SEPARATOR)
+            .append(context.getUserReference()).append(KEY_SEPARATOR).append(context.getLocale());
+        for (RecordConfigurationModule service : activeModules) {
+            try {
+                if (service.supportsRecordType(recordType)) {
+                    String moduleKey = service.getCacheKey(recordType);
+                    if (moduleKey == null) {
+                        return null;
+                    }
+                    key.append(KEY_SEPARATOR).append(moduleKey);
+                }
+            } catch (Exception ex) {
+                return null;
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Drops the cached configurations whenever a configuration module or a UI extension is registered or unregistered,
+     * or a document holding configuration objects is created, modified or deleted.
+     */
+    private final class CacheInvalidator implements EventListener
+    {
+        @Override
+        public String getName()
+        {
+            return "record-configuration-cache-invalidator";
+        }
+
+        @Override
+        public List<Event> getEvents()
+        {
+            return Arrays.<Event>asList(new ComponentDescriptorAddedEvent(RecordConfigurationModule.class),
+                new ComponentDescriptorRemovedEvent(RecordConfigurationModule.class),
+                new ComponentDescriptorAddedEvent(UIExtension.class),
+                new ComponentDescriptorRemovedEvent(UIExtension.class), new DocumentCreatedEvent(),
+                new DocumentUpdatedEvent(), new DocumentDeletedEvent());
+        }
+
+        @Override
+        public void onEvent(Event event, Object source, Object data)
+        {
+            if (source instanceof XWikiDocument) {
+                XWikiDocument doc = (XWikiDocument) source;
+                if (!holdsConfiguration(doc) && !holdsConfiguration(doc.getOriginalDocument())) {
+                    return;
+                }
+            }
+            DefaultRecordConfigurationManager.this.generation.incrementAndGet();
+            DefaultRecordConfigurationManager.this.cache.clear();
+        }
+
+        private boolean holdsConfiguration(XWikiDocument doc)
+        {
+            if (doc == null) {
+                return false;
+            }
+            for (EntityReference xclass : CONFIGURATION_CLASSES) {
+                if (doc.getXObject(xclass) != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
     }
 }
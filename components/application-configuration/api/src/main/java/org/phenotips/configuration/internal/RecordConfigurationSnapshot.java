@@ -0,0 +1,200 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.configuration.internal;
+
+import org.phenotips.configuration.RecordConfiguration;
+import org.phenotips.configuration.RecordSection;
+
+import org.xwiki.model.reference.DocumentReference;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A read-only copy of a {@link RecordConfiguration}, which can be shared between requests. The lists of sections and
+ * fields are computed once, when the snapshot is taken, and the field name lists can be searched in constant time.
+ * Changing the configuration through its setters is not allowed.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+final class RecordConfigurationSnapshot implements RecordConfiguration
+{
+    /** @see #getAllSections() */
+    private final List<RecordSection> allSections;
+
+    /** @see #getEnabledSections() */
+    private final List<RecordSection> enabledSections;
+
+    /** @see #getEnabledFieldNames() */
+    private final List<String> enabledFieldNames;
+
+    /** @see #getEnabledNonIdentifiableFieldNames() */
+    private final List<String> enabledNonIdentifiableFieldNames;
+
+    /** @see #getAllFieldNames() */
+    private final List<String> allFieldNames;
+
+    /** @see #getPhenotypeMapping() */
+    private final DocumentReference phenotypeMapping;
+
+    /** @see #getISODateFormat() */
+    private final String isoDateFormat;
+
+    /** @see #getDateOfBirthFormat() */
+    private final String dateOfBirthFormat;
+
+    /**
+     * Copies a configuration.
+     *
+     * @param config the configuration to copy, must not be {@code null}
+     */
+    @SuppressWarnings("deprecation")
+    RecordConfigurationSnapshot(RecordConfiguration config)
+    {
+        this.allSections = copy(config.getAllSections());
+        this.enabledSections = copy(config.getEnabledSections());
+        this.enabledFieldNames = new FieldNames(config.getEnabledFieldNames());
+        this.enabledNonIdentifiableFieldNames = new FieldNames(config.getEnabledNonIdentifiableFieldNames());
+        this.allFieldNames = new FieldNames(config.getAllFieldNames());
+        this.phenotypeMapping = config.getPhenotypeMapping();
+        this.isoDateFormat = config.getISODateFormat();
+        this.dateOfBirthFormat = config.getDateOfBirthFormat();
+    }
+
+    @Override
+    public List<RecordSection> getEnabledSections()
+    {
+        return this.enabledSections;
+    }
+
+    @Override
+    public List<RecordSection> getAllSections()
+    {
+        return this.allSections;
+    }
+
+    @Override
+    public void setSections(List<RecordSection> sections)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<String> getEnabledFieldNames()
+    {
+        return this.enabledFieldNames;
+    }
+
+    @Deprecated
+    @Override
+    public List<String> getEnabledNonIdentifiableFieldNames()
+    {
+        return this.enabledNonIdentifiableFieldNames;
+    }
+
+    @Override
+    public List<String> getAllFieldNames()
+    {
+        return this.allFieldNames;
+    }
+
+    @Override
+    public DocumentReference getPhenotypeMapping()
+    {
+        return this.phenotypeMapping;
+    }
+
+    @Override
+    public void setPhenotypeMapping(DocumentReference mapping)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String getISODateFormat()
+    {
+        return this.isoDateFormat;
+    }
+
+    @Override
+    public String getDateOfBirthFormat()
+    {
+        return this.dateOfBirthFormat;
+    }
+
+    @Override
+    public void setDateOfBirthFormat(String format)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String toString()
+    {
+        return StringUtils.join(this.enabledSections, ", ");
+    }
+
+    private static <T> List<T> copy(List<T> list)
+    {
+        if (list == null || list.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(new ArrayList<>(list));
+    }
+
+    /** An unmodifiable list of field names, which also holds them in a set for fast {@link #contains} checks. */
+    private static final class FieldNames extends AbstractList<String> implements RandomAccess
+    {
+        private final String[] names;
+
+        private final Set<String> lookup;
+
+        FieldNames(List<String> names)
+        {
+            this.names = names != null ? names.toArray(new String[names.size()]) : new String[0];
+            this.lookup = new HashSet<>();
+            Collections.addAll(this.lookup, this.names);
+        }
+
+        @Override
+        public String get(int index)
+        {
+            return this.names[index];
+        }
+
+        @Override
+        public int size()
+        {
+            return this.names.length;
+        }
+
+        @Override
+        public boolean contains(Object name)
+        {
+            return this.lookup.contains(name);
+        }
+    }
+}
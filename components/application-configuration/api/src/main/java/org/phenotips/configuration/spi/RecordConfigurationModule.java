@@ -62,4 +62,20 @@
      * @return true iff this module supports the specified record type, false otherwise
      */
     boolean supportsRecordType(String recordType);
+
+    /**
+     * Identifies the inputs that the changes done by this module depend on, other than the record type, the current
+     * wiki, user and locale, such as the study bound to the current document. Configurations are cached, and reused as
+     * long as all the modules return the same keys, and the documents holding the configuration don't change. The
+     * default implementation returns {@code null}, since it cannot tell what the module depends on.
+     *
+     * @param recordType the string representing the type of record
+     * @return a key, empty if the changes only depend on the configuration documents, or {@code null} if the
+     *         configuration must be built anew on each request
+     * @since 1.4
+     */
+    default String getCacheKey(String recordType)
+    {
+        return null;
+    }
 }
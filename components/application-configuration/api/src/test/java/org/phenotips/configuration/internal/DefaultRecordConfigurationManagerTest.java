@@ -21,8 +21,12 @@
 import org.phenotips.configuration.RecordConfigurationManager;
 import org.phenotips.configuration.spi.RecordConfigurationModule;
 
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import java.lang.reflect.Type;
@@ -30,6 +34,7 @@
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 
 import javax.inject.Provider;
 
@@ -37,13 +42,22 @@
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.AdditionalAnswers;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -167,4 +181,89 @@ public void getActiveConfigurationReturnsPatientRecordConfiguration() throws Exc
         when(this.moduleOne.process(any(RecordConfiguration.class))).thenReturn(this.config);
         Assert.assertSame(this.config, this.mocker.getComponentUnderTest().getActiveConfiguration());
     }
+
+    @Test
+    public void configurationsAreReusedWhenModulesAllowIt() throws Exception
+    {
+        setupCaching();
+        DefaultRecordConfigurationManager manager =
+            (DefaultRecordConfigurationManager) this.mocker.getComponentUnderTest();
+
+        RecordConfiguration first = manager.getConfiguration(PATIENT_LABEL);
+        Assert.assertTrue(first instanceof RecordConfigurationSnapshot);
+        Assert.assertSame(first, manager.getConfiguration(PATIENT_LABEL));
+        verify(this.moduleOne, times(1)).process(any(RecordConfiguration.class));
+        Assert.assertEquals(1, manager.getBuildCount());
+        Assert.assertEquals(1, manager.getCacheHitCount());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void reusedConfigurationsAreReadOnly() throws Exception
+    {
+        setupCaching();
+        this.mocker.getComponentUnderTest().getConfiguration(PATIENT_LABEL).setDateOfBirthFormat("yyyy");
+    }
+
+    @Test
+    public void configurationsAreCachedForEachModuleKey() throws Exception
+    {
+        setupCaching();
+        DefaultRecordConfigurationManager manager =
+            (DefaultRecordConfigurationManager) this.mocker.getComponentUnderTest();
+
+        when(this.moduleOne.getCacheKey(PATIENT_LABEL)).thenReturn("xwiki:Studies.First");
+        RecordConfiguration first = manager.getConfiguration(PATIENT_LABEL);
+        when(this.moduleOne.getCacheKey(PATIENT_LABEL)).thenReturn("xwiki:Studies.Second");
+        Assert.assertNotSame(first, manager.getConfiguration(PATIENT_LABEL));
+        when(this.moduleOne.getCacheKey(PATIENT_LABEL)).thenReturn("xwiki:Studies.First");
+        Assert.assertSame(first, manager.getConfiguration(PATIENT_LABEL));
+        Assert.assertEquals(2, manager.getBuildCount());
+    }
+
+    @Test
+    public void configurationsAreNotCachedWhenAModuleHasNoKey() throws Exception
+    {
+        setupCaching();
+        this.moduleList = Arrays.asList(this.moduleOne, this.moduleTwo);
+        doReturn(this.moduleList).when(this.modules).get();
+        when(this.moduleTwo.process(any(RecordConfiguration.class))).then(AdditionalAnswers.returnsFirstArg());
+
+        RecordConfiguration first = this.mocker.getComponentUnderTest().getConfiguration(PATIENT_LABEL);
+        Assert.assertNotSame(first, this.mocker.getComponentUnderTest().getConfiguration(PATIENT_LABEL));
+        Assert.assertTrue(first instanceof DefaultRecordConfiguration);
+        verify(this.moduleOne, times(2)).process(any(RecordConfiguration.class));
+    }
+
+    @Test
+    public void configurationDocumentChangesInvalidateTheCache() throws Exception
+    {
+        setupCaching();
+        RecordConfigurationManager manager = this.mocker.getComponentUnderTest();
+        RecordConfiguration first = manager.getConfiguration(PATIENT_LABEL);
+        ArgumentCaptor<EventListener> listener = ArgumentCaptor.forClass(EventListener.class);
+        verify(this.mocker.<ObservationManager>getInstance(ObservationManager.class)).addListener(listener.capture());
+
+        XWikiDocument otherDocument = mock(XWikiDocument.class);
+        listener.getValue().onEvent(new DocumentUpdatedEvent(), otherDocument, null);
+        Assert.assertSame(first, manager.getConfiguration(PATIENT_LABEL));
+
+        XWikiDocument preferences = mock(XWikiDocument.class);
+        when(preferences.getXObject(any(EntityReference.class))).thenReturn(mock(BaseObject.class));
+        listener.getValue().onEvent(new DocumentUpdatedEvent(), preferences, null);
+        Assert.assertNotSame(first, manager.getConfiguration(PATIENT_LABEL));
+    }
+
+    private void setupCaching() throws Exception
+    {
+        XWikiContext context = mock(XWikiContext.class);
+        when(context.getWikiId()).thenReturn("xwiki");
+        when(context.getLocale()).thenReturn(Locale.ENGLISH);
+        Provider<XWikiContext> contextProvider = this.mocker.getInstance(XWikiContext.TYPE_PROVIDER);
+        when(contextProvider.get()).thenReturn(context);
+
+        this.moduleList = Collections.singletonList(this.moduleOne);
+        doReturn(this.moduleList).when(this.modules).get();
+        when(this.moduleOne.getCacheKey(PATIENT_LABEL)).thenReturn("");
+        when(this.moduleOne.process(any(RecordConfiguration.class))).then(AdditionalAnswers.returnsFirstArg());
+    }
 }
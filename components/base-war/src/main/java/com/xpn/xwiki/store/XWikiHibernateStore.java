@@ -46,6 +46,7 @@
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
@@ -53,6 +54,8 @@
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -63,6 +66,7 @@
 import org.apache.commons.lang3.StringUtils;
 import org.hibernate.EntityMode;
 import org.hibernate.FlushMode;
+import org.hibernate.HibernateException;
 import org.hibernate.ObjectNotFoundException;
 import org.hibernate.Query;
 import org.hibernate.Session;
@@ -92,9 +96,16 @@
 import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.objects.BaseProperty;
 import com.xpn.xwiki.objects.BaseStringProperty;
+import com.xpn.xwiki.objects.DBStringListProperty;
+import com.xpn.xwiki.objects.DateProperty;
+import com.xpn.xwiki.objects.DoubleProperty;
+import com.xpn.xwiki.objects.FloatProperty;
+import com.xpn.xwiki.objects.IntegerProperty;
 import com.xpn.xwiki.objects.LargeStringProperty;
 import com.xpn.xwiki.objects.ListProperty;
+import com.xpn.xwiki.objects.LongProperty;
 import com.xpn.xwiki.objects.PropertyInterface;
+import com.xpn.xwiki.objects.StringListProperty;
 import com.xpn.xwiki.objects.StringProperty;
 import com.xpn.xwiki.objects.classes.BaseClass;
 import com.xpn.xwiki.objects.classes.PropertyClass;
@@ -164,6 +175,25 @@ public class XWikiHibernateStore extends XWikiHibernateBaseStore implements XWik
 
     private Map<String, String[]> validTypesMap = new HashMap<String, String[]>();
 
+    /** Factories for the property types stored in the database, keyed by the type name stored along the property. */
+    private static final Map<String, Supplier<BaseProperty>> PROPERTY_FACTORIES =
+        new ConcurrentHashMap<String, Supplier<BaseProperty>>();
+
+    /** How many objects have their properties loaded with the same queries, when loading a document. */
+    private static final int BULK_LOAD_CHUNK_SIZE = 500;
+
+    static {
+        PROPERTY_FACTORIES.put(StringProperty.class.getName(), StringProperty::new);
+        PROPERTY_FACTORIES.put(LargeStringProperty.class.getName(), LargeStringProperty::new);
+        PROPERTY_FACTORIES.put(IntegerProperty.class.getName(), IntegerProperty::new);
+        PROPERTY_FACTORIES.put(LongProperty.class.getName(), LongProperty::new);
+        PROPERTY_FACTORIES.put(FloatProperty.class.getName(), FloatProperty::new);
+        PROPERTY_FACTORIES.put(DoubleProperty.class.getName(), DoubleProperty::new);
+        PROPERTY_FACTORIES.put(DateProperty.class.getName(), DateProperty::new);
+        PROPERTY_FACTORIES.put(DBStringListProperty.class.getName(), DBStringListProperty::new);
+        PROPERTY_FACTORIES.put(StringListProperty.class.getName(), StringListProperty::new);
+    }
+
     /**
      * This allows to initialize our storage engine. The hibernate config file path is taken from xwiki.cfg or directly
      * in the WEB-INF directory.
@@ -911,6 +941,7 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext context) throw
                         localGroupEntityReference.getName());
 
                 boolean hasGroups = false;
+                List<BaseObject> objects = new ArrayList<BaseObject>();
                 while (it.hasNext()) {
                     BaseObject object = it.next();
                     DocumentReference classReference = object.getXClassReference();
@@ -944,10 +975,11 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext context) throw
                         // Groups objects are handled differently.
                         hasGroups = true;
                     } else {
-                        loadXWikiCollectionInternal(object, doc, context, false, true);
+                        objects.add(object);
                     }
                     doc.setXObject(object.getNumber(), object);
                 }
+                loadXWikiCollections(objects, doc, context);
 
                 // AFAICT this was added as an emergency patch because loading of objects has proven
                 // too slow and the objects which cause the most overhead are the XWikiGroups objects
@@ -1303,17 +1335,7 @@ private void loadXWikiCollectionInternal(BaseCollection object1, XWikiDocument d
             // If the class reference is null in the loaded object then skip loading properties
             if (classReference != null) {
 
-                BaseClass bclass = null;
-                if (!classReference.equals(object.getDocumentReference())) {
-                    // Let's check if the class has a custom mapping
-                    bclass = object.getXClass(context);
-                } else {
-                    // We need to get it from the document otherwise
-                    // we will go in an endless loop
-                    if (doc != null) {
-                        bclass = doc.getXClass();
-                    }
-                }
+                BaseClass bclass = getCollectionClass(object, doc, context);
 
                 List<String> handledProps = new ArrayList<String>();
                 try {
@@ -1346,55 +1368,7 @@ private void loadXWikiCollectionInternal(BaseCollection object1, XWikiDocument d
                         continue;
                     }
                     String classType = (String) result[1];
-                    BaseProperty property = null;
-
-                    try {
-                        property = (BaseProperty) Class.forName(classType).newInstance();
-                        property.setObject(object);
-                        property.setName(name);
-                        loadXWikiProperty(property, context, false);
-                    } catch (Exception e) {
-                        // WORKAROUND IN CASE OF MIXMATCH BETWEEN STRING AND LARGESTRING
-                        try {
-                            if (property instanceof StringProperty) {
-                                LargeStringProperty property2 = new LargeStringProperty();
-                                property2.setObject(object);
-                                property2.setName(name);
-                                loadXWikiProperty(property2, context, false);
-                                property.setValue(property2.getValue());
-
-                                if (bclass != null) {
-                                    if (bclass.get(name) instanceof TextAreaClass) {
-                                        property = property2;
-                                    }
-                                }
-
-                            } else if (property instanceof LargeStringProperty) {
-                                StringProperty property2 = new StringProperty();
-                                property2.setObject(object);
-                                property2.setName(name);
-                                loadXWikiProperty(property2, context, false);
-                                property.setValue(property2.getValue());
-
-                                if (bclass != null) {
-                                    if (bclass.get(name) instanceof StringClass) {
-                                        property = property2;
-                                    }
-                                }
-                            } else {
-                                throw e;
-                            }
-                        } catch (Throwable e2) {
-                            Object[] args =
-                                { object.getName(), object.getClass(), Integer.valueOf(object.getNumber() + ""), name };
-                            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
-                                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_LOADING_OBJECT,
-                                "Exception while loading object '{0}' of class '{1}', number '{2}' and property '{3}'",
-                                e, args);
-                        }
-                    }
-
-                    object.addField(name, property);
+                    object.addField(name, loadXWikiProperty(object, bclass, name, classType, context));
                 }
             }
 
@@ -1418,6 +1392,232 @@ private void loadXWikiCollectionInternal(BaseCollection object1, XWikiDocument d
 
     }
 
+    /**
+     * Returns the class of an object, taking it from the document being loaded when the object is an instance of the
+     * class defined in that same document, otherwise we would go in an endless loop.
+     */
+    private BaseClass getCollectionClass(BaseCollection object, XWikiDocument doc, XWikiContext context)
+        throws XWikiException
+    {
+        if (!object.getXClassReference().equals(object.getDocumentReference())) {
+            // Let's check if the class has a custom mapping
+            return object.getXClass(context);
+        }
+        return doc != null ? doc.getXClass() : null;
+    }
+
+    /**
+     * Loads one property of an object, falling back to the other string table if the property isn't found in the
+     * table of its declared type.
+     */
+    private BaseProperty loadXWikiProperty(BaseCollection object, BaseClass bclass, String name, String classType,
+        XWikiContext context) throws XWikiException
+    {
+        BaseProperty property = null;
+        try {
+            property = newProperty(classType);
+            property.setObject(object);
+            property.setName(name);
+            loadXWikiProperty(property, context, false);
+        } catch (Exception e) {
+            // WORKAROUND IN CASE OF MIXMATCH BETWEEN STRING AND LARGESTRING
+            try {
+                if (property instanceof StringProperty) {
+                    LargeStringProperty property2 = new LargeStringProperty();
+                    property2.setObject(object);
+                    property2.setName(name);
+                    loadXWikiProperty(property2, context, false);
+                    property.setValue(property2.getValue());
+
+                    if (bclass != null) {
+                        if (bclass.get(name) instanceof TextAreaClass) {
+                            property = property2;
+                        }
+                    }
+
+                } else if (property instanceof LargeStringProperty) {
+                    StringProperty property2 = new StringProperty();
+                    property2.setObject(object);
+                    property2.setName(name);
+                    loadXWikiProperty(property2, context, false);
+                    property.setValue(property2.getValue());
+
+                    if (bclass != null) {
+                        if (bclass.get(name) instanceof StringClass) {
+                            property = property2;
+                        }
+                    }
+                } else {
+                    throw e;
+                }
+            } catch (Throwable e2) {
+                Object[] args =
+                    { object.getName(), object.getClass(), Integer.valueOf(object.getNumber() + ""), name };
+                throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                    XWikiException.ERROR_XWIKI_STORE_HIBERNATE_LOADING_OBJECT,
+                    "Exception while loading object '{0}' of class '{1}', number '{2}' and property '{3}'",
+                    e, args);
+            }
+        }
+        return property;
+    }
+
+    /**
+     * Creates an empty property of the given type, using the factories of the known property types instead of looking
+     * up the class for every property.
+     */
+    private static BaseProperty newProperty(String classType) throws ReflectiveOperationException
+    {
+        Supplier<BaseProperty> factory = PROPERTY_FACTORIES.get(classType);
+        if (factory == null) {
+            final Class<? extends BaseProperty> propertyClass =
+                Class.forName(classType).asSubclass(BaseProperty.class);
+            factory = () -> {
+                try {
+                    return propertyClass.newInstance();
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException(e);
+                }
+            };
+            PROPERTY_FACTORIES.put(classType, factory);
+        }
+        return factory.get();
+    }
+
+    /**
+     * Loads the properties of all the objects of a document in a fixed number of queries: one listing the names and
+     * types of all the properties, then one for each property type found, instead of one query for each object and
+     * one for each property. Objects are processed in chunks of {@link #BULK_LOAD_CHUNK_SIZE} to keep the parameter
+     * lists short. Objects whose class has a custom mapping, and properties missing from the table of their declared
+     * type, are loaded one by one. Visible for testing purposes.
+     */
+    void loadXWikiCollections(List<BaseObject> objects, XWikiDocument doc, XWikiContext context)
+        throws XWikiException
+    {
+        long start = System.currentTimeMillis();
+        Map<Long, BaseObject> bulkObjects = new LinkedHashMap<Long, BaseObject>();
+        Map<Long, BaseClass> classes = new HashMap<Long, BaseClass>();
+        for (BaseObject object : objects) {
+            BaseClass bclass = getCollectionClass(object, doc, context);
+            if (bclass != null && bclass.hasCustomMapping() && context.getWiki().hasCustomMappings()) {
+                loadXWikiCollectionInternal(object, doc, context, false, true);
+            } else {
+                bulkObjects.put(object.getId(), object);
+                classes.put(object.getId(), bclass);
+            }
+        }
+
+        int queries = 0;
+        int properties = 0;
+        int separateProperties = 0;
+        List<Long> ids = new ArrayList<Long>(bulkObjects.keySet());
+        for (int from = 0; from < ids.size(); from += BULK_LOAD_CHUNK_SIZE) {
+            List<Long> chunk = ids.subList(from, Math.min(from + BULK_LOAD_CHUNK_SIZE, ids.size()));
+            try {
+                Session session = getSession(context);
+                // Object id -> property name -> property type, for the properties not loaded yet
+                Map<Long, Map<String, String>> pending = new HashMap<Long, Map<String, String>>();
+                Set<String> types = new LinkedHashSet<String>();
+                Query query = session.createQuery("select prop.id.id, prop.name, prop.classType "
+                    + "from BaseProperty as prop where prop.id.id in (:ids)");
+                query.setParameterList("ids", chunk);
+                ++queries;
+                for (Object[] result : (List<Object[]>) query.list()) {
+                    Map<String, String> objectProperties = pending.get(result[0]);
+                    if (objectProperties == null) {
+                        objectProperties = new HashMap<String, String>();
+                        pending.put((Long) result[0], objectProperties);
+                    }
+                    objectProperties.put((String) result[1], (String) result[2]);
+                    types.add((String) result[2]);
+                }
+
+                for (String type : types) {
+                    List<BaseProperty> loaded = loadXWikiProperties(session, type, chunk);
+                    if (loaded == null) {
+                        continue;
+                    }
+                    ++queries;
+                    for (BaseProperty property : loaded) {
+                        Map<String, String> objectProperties = pending.get(property.getId());
+                        String name = property.getName();
+                        // Subclasses of the queried type are also returned, they are handled with their own type
+                        if (objectProperties != null && type.equals(objectProperties.get(name))
+                            && type.equals(property.getClass().getName())) {
+                            objectProperties.remove(name);
+                            BaseObject object = bulkObjects.get(property.getId());
+                            property.setObject(object);
+                            finishLoadingProperty(property);
+                            object.addField(name, property);
+                            ++properties;
+                        }
+                    }
+                }
+
+                for (Map.Entry<Long, Map<String, String>> leftovers : pending.entrySet()) {
+                    BaseObject object = bulkObjects.get(leftovers.getKey());
+                    for (Map.Entry<String, String> property : leftovers.getValue().entrySet()) {
+                        object.addField(property.getKey(), loadXWikiProperty(object,
+                            classes.get(leftovers.getKey()), property.getKey(), property.getValue(), context));
+                        ++separateProperties;
+                        ++properties;
+                    }
+                }
+            } catch (XWikiException e) {
+                throw e;
+            } catch (Exception e) {
+                Object[] args = { doc.getDocumentReference() };
+                throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                    XWikiException.ERROR_XWIKI_STORE_HIBERNATE_LOADING_OBJECT,
+                    "Exception while loading the objects of document [{0}]", e, args);
+            }
+        }
+        this.logger.debug("Loaded [{}] properties of [{}] objects of [{}] in [{}]ms, with [{}] bulk queries and [{}]"
+            + " properties loaded separately", properties, bulkObjects.size(), doc.getDocumentReference(),
+            System.currentTimeMillis() - start, queries, separateProperties);
+    }
+
+    /**
+     * Loads all the properties of one type belonging to the given objects. List items are fetched in the same query,
+     * otherwise each list would be loaded with a separate query.
+     *
+     * @return the loaded properties, or {@code null} if the type isn't a mapped property type
+     */
+    private List<BaseProperty> loadXWikiProperties(Session session, String type, List<Long> objectIds)
+    {
+        try {
+            Class<?> propertyClass = Class.forName(type);
+            String hql = "from " + type + " as prop where prop.id.id in (:ids)";
+            if (DBStringListProperty.class.isAssignableFrom(propertyClass)) {
+                hql = "select distinct prop from " + type + " as prop left join fetch prop.list "
+                    + "where prop.id.id in (:ids)";
+            }
+            Query query = session.createQuery(hql);
+            query.setParameterList("ids", objectIds);
+            @SuppressWarnings("unchecked")
+            List<BaseProperty> result = query.list();
+            return result;
+        } catch (ClassNotFoundException | HibernateException e) {
+            // Not a known entity, the properties of this type will be loaded one by one
+            this.logger.debug("Failed to bulk load properties of type [{}]: {}", type, e.getMessage());
+            return null;
+        }
+    }
+
+    /** The same post-processing as {@link #loadXWikiProperty(PropertyInterface, XWikiContext, boolean)}. */
+    private void finishLoadingProperty(BaseProperty property)
+    {
+        // In Oracle, empty string are converted to NULL. Since an undefined property is not found at all, it is
+        // safe to assume that a retrieved NULL value should actually be an empty string.
+        if (property instanceof BaseStringProperty && ((BaseStringProperty) property).getValue() == null) {
+            ((BaseStringProperty) property).setValue("");
+        }
+        property.setValueDirty(false);
+        if (property instanceof ListProperty) {
+            ((ListProperty) property).getList();
+        }
+    }
+
     /**
      * @deprecated This is internal to XWikiHibernateStore and may be removed in the future.
      */
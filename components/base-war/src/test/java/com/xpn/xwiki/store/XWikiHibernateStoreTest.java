@@ -0,0 +1,486 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package com.xpn.xwiki.store;
+
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.model.reference.DocumentReference;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.hibernate.EntityMode;
+import org.hibernate.HibernateException;
+import org.hibernate.ObjectNotFoundException;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseProperty;
+import com.xpn.xwiki.objects.DBStringListProperty;
+import com.xpn.xwiki.objects.IntegerProperty;
+import com.xpn.xwiki.objects.LargeStringProperty;
+import com.xpn.xwiki.objects.PropertyInterface;
+import com.xpn.xwiki.objects.StringProperty;
+import com.xpn.xwiki.objects.classes.BaseClass;
+import com.xpn.xwiki.objects.classes.StringClass;
+import com.xpn.xwiki.objects.classes.TextAreaClass;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for loading the objects of a document in the {@link XWikiHibernateStore} class. The Hibernate session is a
+ * fake backed by in-memory tables, which records every query it runs and every property it loads, so that the number
+ * of database roundtrips can be checked.
+ *
+ * @version $Id$
+ */
+public class XWikiHibernateStoreTest
+{
+    private static final String LIST_QUERY = "select prop.id.id, prop.name, prop.classType ";
+
+    private static final String OBJECT_QUERY = "select prop.name, prop.classType ";
+
+    private static final String LOAD = "load ";
+
+    private static final String FIRST_NAME = "first_name";
+
+    private static final String AGE = "age";
+
+    private static final String SYMPTOMS = "symptoms";
+
+    private static final DocumentReference DOCUMENT = new DocumentReference("xwiki", "data", "P0000001");
+
+    private static final DocumentReference CLASS = new DocumentReference("xwiki", "PhenoTips", "PatientClass");
+
+    /** The stored properties, by object id and name; the class of a property is the table holding its value. */
+    private final Map<Long, Map<String, BaseProperty>> table = new HashMap<>();
+
+    /** The type listed for each stored property, which may differ from the table actually holding its value. */
+    private final Map<Long, Map<String, String>> declaredTypes = new HashMap<>();
+
+    /** Every query run and property loaded by the session, in order. */
+    private final List<String> executed = new ArrayList<>();
+
+    /** The object ids passed to each entry of {@link #executed}. */
+    private final List<List<Object>> executedIds = new ArrayList<>();
+
+    /** The fields added to each object by the store, by object id and name. */
+    private final Map<Long, Map<String, PropertyInterface>> loaded = new HashMap<>();
+
+    private XWikiHibernateStore store;
+
+    private XWikiContext context;
+
+    private XWiki xwiki;
+
+    private XWikiDocument document;
+
+    private Session session;
+
+    private BaseClass xclass;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.context = mock(XWikiContext.class);
+        this.xwiki = mock(XWiki.class);
+        when(this.context.getWiki()).thenReturn(this.xwiki);
+        this.document = mock(XWikiDocument.class);
+        when(this.document.getDocumentReference()).thenReturn(DOCUMENT);
+        this.xclass = mock(BaseClass.class);
+
+        this.session = mock(Session.class);
+        when(this.session.createQuery(anyString())).thenAnswer(new Answer<Query>()
+        {
+            @Override
+            public Query answer(InvocationOnMock invocation)
+            {
+                return newQuery((String) invocation.getArguments()[0]);
+            }
+        });
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation)
+            {
+                // The objects themselves are already loaded along with their document, only properties are counted
+                if (invocation.getArguments()[0] instanceof BaseProperty) {
+                    loadProperty((BaseProperty) invocation.getArguments()[0]);
+                }
+                return null;
+            }
+        }).when(this.session).load(any(Object.class), any(Serializable.class));
+
+        this.store = spy(new XWikiHibernateStore());
+        doReturn(this.session).when(this.store).getSession(this.context);
+        ReflectionUtils.setFieldValue(this.store, "logger", mock(Logger.class));
+    }
+
+    @Test
+    public void loadsAllPropertiesWithOneQueryPerType() throws Exception
+    {
+        storeProperty(1, FIRST_NAME, new StringProperty(), "Jane");
+        storeProperty(1, AGE, new IntegerProperty(), 42);
+        storeProperty(2, FIRST_NAME, new StringProperty(), "John");
+        storeProperty(2, "notes", new LargeStringProperty(), "Some notes");
+        storeProperty(3, SYMPTOMS, new DBStringListProperty(), Arrays.asList("HP:0000001", "HP:0000002"));
+
+        this.store.loadXWikiCollections(Arrays.asList(newObject(1), newObject(2), newObject(3)), this.document,
+            this.context);
+
+        // One query listing the properties, then one for each of the four property types
+        Assert.assertEquals(5, this.executed.size());
+        Assert.assertTrue(this.executed.get(0).startsWith(LIST_QUERY));
+        Assert.assertEquals(Arrays.<Object>asList(1L, 2L, 3L), this.executedIds.get(0));
+        Assert.assertEquals("Jane", value(1, FIRST_NAME));
+        Assert.assertEquals(42, value(1, AGE));
+        Assert.assertEquals("John", value(2, FIRST_NAME));
+        Assert.assertEquals("Some notes", value(2, "notes"));
+        Assert.assertEquals(Arrays.asList("HP:0000001", "HP:0000002"), value(3, SYMPTOMS));
+        Assert.assertSame(LargeStringProperty.class, this.loaded.get(2L).get("notes").getClass());
+    }
+
+    @Test
+    public void bulkLoadingUsesFewerQueriesThanLoadingObjectsOneByOne() throws Exception
+    {
+        for (long id = 1; id <= 20; ++id) {
+            storeProperty(id, FIRST_NAME, new StringProperty(), "Name " + id);
+            storeProperty(id, AGE, new IntegerProperty(), (int) id);
+            storeProperty(id, SYMPTOMS, new DBStringListProperty(), Collections.singletonList("HP:" + id));
+        }
+
+        for (long id = 1; id <= 20; ++id) {
+            this.store.loadXWikiCollection(newObject(id), this.context, false);
+        }
+        // One query listing the properties of each object, then one for each property
+        Assert.assertEquals(20 * (1 + 3), this.executed.size());
+        Map<Long, Map<String, Object>> oneByOne = values();
+
+        this.executed.clear();
+        List<BaseObject> objects = new ArrayList<>();
+        for (long id = 1; id <= 20; ++id) {
+            objects.add(newObject(id));
+        }
+        this.store.loadXWikiCollections(objects, this.document, this.context);
+        Assert.assertEquals(1 + 3, this.executed.size());
+        Assert.assertEquals(oneByOne, values());
+    }
+
+    @Test
+    public void largeDocumentsAreLoadedInChunks() throws Exception
+    {
+        List<BaseObject> objects = new ArrayList<>();
+        for (long id = 1; id <= 1201; ++id) {
+            storeProperty(id, FIRST_NAME, new StringProperty(), "Name " + id);
+            objects.add(newObject(id));
+        }
+
+        this.store.loadXWikiCollections(objects, this.document, this.context);
+
+        // Each chunk is listed, then its string properties are loaded
+        Assert.assertEquals(6, this.executed.size());
+        List<Integer> chunkSizes = new ArrayList<>();
+        for (int i = 0; i < this.executed.size(); ++i) {
+            if (this.executed.get(i).startsWith(LIST_QUERY)) {
+                chunkSizes.add(this.executedIds.get(i).size());
+            } else {
+                Assert.assertEquals(this.executedIds.get(i - 1), this.executedIds.get(i));
+            }
+        }
+        Assert.assertEquals(Arrays.asList(500, 500, 201), chunkSizes);
+        for (long id = 1; id <= 1201; ++id) {
+            Assert.assertEquals("Name " + id, value(id, FIRST_NAME));
+        }
+    }
+
+    @Test
+    public void propertiesStoredInTheOtherStringTableAreLoadedSeparately() throws Exception
+    {
+        when(this.xclass.get("comments")).thenReturn(mock(TextAreaClass.class));
+        when(this.xclass.get("title")).thenReturn(mock(StringClass.class));
+        storeProperty(1, "comments", StringProperty.class, new LargeStringProperty(), "A long comment");
+        storeProperty(1, "title", LargeStringProperty.class, new StringProperty(), "A title");
+        storeProperty(1, FIRST_NAME, new StringProperty(), "Jane");
+        storeProperty(2, "other", StringProperty.class, new LargeStringProperty(), "Unknown field");
+
+        this.store.loadXWikiCollections(Arrays.asList(newObject(1), newObject(2)), this.document, this.context);
+
+        // The text area holds a large string, as does the field unknown to the class, as a plain string
+        Assert.assertSame(LargeStringProperty.class, this.loaded.get(1L).get("comments").getClass());
+        Assert.assertEquals("A long comment", value(1, "comments"));
+        Assert.assertSame(StringProperty.class, this.loaded.get(1L).get("title").getClass());
+        Assert.assertEquals("A title", value(1, "title"));
+        Assert.assertSame(StringProperty.class, this.loaded.get(2L).get("other").getClass());
+        Assert.assertEquals("Unknown field", value(2, "other"));
+        Assert.assertEquals("Jane", value(1, FIRST_NAME));
+
+        // Three bulk queries, then two attempts for each misplaced property
+        Assert.assertEquals(3 + 3 * 2, this.executed.size());
+        Assert.assertEquals(6, Collections.frequency(prefixes(), LOAD));
+    }
+
+    @Test
+    public void objectsWithCustomMappingsAreLoadedSeparately() throws Exception
+    {
+        BaseClass customClass = mock(BaseClass.class);
+        when(customClass.hasCustomMapping()).thenReturn(true);
+        when(customClass.getName()).thenReturn("PhenoTips.CustomClass");
+        when(customClass.getCustomMappingPropertyList(this.context))
+            .thenReturn(new ArrayList<>(Collections.singletonList("mapped")));
+        when(this.xwiki.hasCustomMappings()).thenReturn(true);
+        Session dynamicSession = mock(Session.class);
+        when(this.session.getSession(EntityMode.MAP)).thenReturn(dynamicSession);
+        Map<String, Object> mapped = Collections.<String, Object>singletonMap("mapped", "From the custom table");
+        when(dynamicSession.load("PhenoTips.CustomClass", (Serializable) Long.valueOf(7))).thenReturn(mapped);
+
+        storeProperty(7, "mapped", new StringProperty(), "Never read");
+        storeProperty(7, "extra", new StringProperty(), "Extra");
+        storeProperty(8, FIRST_NAME, new StringProperty(), "Jane");
+        BaseObject customObject = newObject(7);
+        when(customObject.getXClass(this.context)).thenReturn(customClass);
+
+        this.store.loadXWikiCollections(Arrays.asList(customObject, newObject(8)), this.document, this.context);
+
+        verify(customClass).fromValueMap(mapped, customObject);
+        verify(customObject, never()).addField(eq("mapped"), any(PropertyInterface.class));
+        Assert.assertEquals("Extra", value(7, "extra"));
+        Assert.assertEquals("Jane", value(8, FIRST_NAME));
+        for (int i = 0; i < this.executed.size(); ++i) {
+            if (this.executed.get(i).startsWith(LIST_QUERY)) {
+                Assert.assertEquals(Collections.<Object>singletonList(8L), this.executedIds.get(i));
+            } else if (this.executed.get(i).startsWith(OBJECT_QUERY)) {
+                Assert.assertEquals(Collections.<Object>singletonList(7L), this.executedIds.get(i));
+            }
+        }
+        Assert.assertEquals(Arrays.asList(OBJECT_QUERY, LOAD, LIST_QUERY, "from "), prefixes());
+    }
+
+    @Test
+    public void listItemsAreFetchedAlongWithTheirProperties() throws Exception
+    {
+        storeProperty(1, SYMPTOMS, new DBStringListProperty(), Arrays.asList("HP:0000001", "HP:0000002"));
+        storeProperty(2, SYMPTOMS, new DBStringListProperty(), Collections.<String>emptyList());
+
+        this.store.loadXWikiCollections(Arrays.asList(newObject(1), newObject(2)), this.document, this.context);
+
+        Assert.assertEquals(2, this.executed.size());
+        Assert.assertTrue(this.executed.get(1).startsWith("select distinct prop from "
+            + DBStringListProperty.class.getName() + " as prop left join fetch prop.list "));
+        Assert.assertSame(DBStringListProperty.class, this.loaded.get(1L).get(SYMPTOMS).getClass());
+        Assert.assertEquals(Arrays.asList("HP:0000001", "HP:0000002"), value(1, SYMPTOMS));
+        Assert.assertEquals(Collections.emptyList(), value(2, SYMPTOMS));
+    }
+
+    @Test
+    public void objectsWithoutPropertiesAreLeftEmpty() throws Exception
+    {
+        storeProperty(1, FIRST_NAME, new StringProperty(), "Jane");
+        BaseObject empty = newObject(2);
+
+        this.store.loadXWikiCollections(Arrays.asList(newObject(1), empty), this.document, this.context);
+
+        Assert.assertEquals(Arrays.asList(LIST_QUERY, "from "), prefixes());
+        Assert.assertEquals("Jane", value(1, FIRST_NAME));
+        Assert.assertTrue(this.loaded.get(2L).isEmpty());
+        verify(empty, never()).addField(anyString(), any(PropertyInterface.class));
+
+        this.executed.clear();
+        this.store.loadXWikiCollections(Collections.singletonList(newObject(3)), this.document, this.context);
+        Assert.assertEquals(Collections.singletonList(LIST_QUERY), prefixes());
+    }
+
+    private void storeProperty(long objectId, String name, BaseProperty stored, Object value)
+    {
+        storeProperty(objectId, name, stored.getClass(), stored, value);
+    }
+
+    private void storeProperty(long objectId, String name, Class<? extends BaseProperty> declaredType,
+        BaseProperty stored, Object value)
+    {
+        stored.setName(name);
+        stored.setValue(value);
+        if (!this.table.containsKey(objectId)) {
+            this.table.put(objectId, new LinkedHashMap<String, BaseProperty>());
+            this.declaredTypes.put(objectId, new LinkedHashMap<String, String>());
+        }
+        this.table.get(objectId).put(name, stored);
+        this.declaredTypes.get(objectId).put(name, declaredType.getName());
+    }
+
+    private BaseObject newObject(final long id) throws Exception
+    {
+        BaseObject object = mock(BaseObject.class);
+        when(object.getId()).thenReturn(id);
+        when(object.getDocumentReference()).thenReturn(DOCUMENT);
+        when(object.getXClassReference()).thenReturn(CLASS);
+        when(object.getXClass(this.context)).thenReturn(this.xclass);
+        this.loaded.put(id, new LinkedHashMap<String, PropertyInterface>());
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation)
+            {
+                XWikiHibernateStoreTest.this.loaded.get(id).put((String) invocation.getArguments()[0],
+                    (PropertyInterface) invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(object).addField(anyString(), any(PropertyInterface.class));
+        return object;
+    }
+
+    private Query newQuery(final String hql)
+    {
+        final Query query = mock(Query.class);
+        final List<Object> ids = new ArrayList<>();
+        when(query.setParameterList(eq("ids"), any(Collection.class))).thenAnswer(new Answer<Query>()
+        {
+            @Override
+            public Query answer(InvocationOnMock invocation)
+            {
+                ids.addAll((Collection<?>) invocation.getArguments()[1]);
+                return query;
+            }
+        });
+        when(query.setLong(eq("id"), anyLong())).thenAnswer(new Answer<Query>()
+        {
+            @Override
+            public Query answer(InvocationOnMock invocation)
+            {
+                ids.add(invocation.getArguments()[1]);
+                return query;
+            }
+        });
+        when(query.list()).thenAnswer(new Answer<List<Object>>()
+        {
+            @Override
+            public List<Object> answer(InvocationOnMock invocation) throws Exception
+            {
+                XWikiHibernateStoreTest.this.executed.add(hql);
+                XWikiHibernateStoreTest.this.executedIds.add(ids);
+                return runQuery(hql, ids);
+            }
+        });
+        return query;
+    }
+
+    private List<Object> runQuery(String hql, List<Object> ids) throws Exception
+    {
+        List<Object> result = new ArrayList<>();
+        for (Object id : ids) {
+            Map<String, String> types = this.declaredTypes.get(id);
+            if (types == null) {
+                continue;
+            }
+            for (Map.Entry<String, String> type : types.entrySet()) {
+                if (hql.startsWith(LIST_QUERY)) {
+                    result.add(new Object[] { id, type.getKey(), type.getValue() });
+                } else if (hql.startsWith(OBJECT_QUERY)) {
+                    result.add(new Object[] { type.getKey(), type.getValue() });
+                } else {
+                    Matcher queriedType = Pattern.compile("from (\\S+) as prop").matcher(hql);
+                    queriedType.find();
+                    BaseProperty stored = this.table.get(id).get(type.getKey());
+                    if (stored.getClass().getName().equals(queriedType.group(1))) {
+                        BaseProperty property = stored.getClass().newInstance();
+                        property.setId((Long) id);
+                        property.setName(stored.getName());
+                        property.setValue(stored.getValue());
+                        result.add(property);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private void loadProperty(BaseProperty property)
+    {
+        this.executed.add(LOAD + property.getClass().getName());
+        this.executedIds.add(Collections.<Object>singletonList(property.getId()));
+        Map<String, BaseProperty> properties = this.table.get(property.getId());
+        BaseProperty stored = properties != null ? properties.get(property.getName()) : null;
+        if (stored == null) {
+            throw new ObjectNotFoundException(property.getId(), property.getClass().getName());
+        }
+        if (stored.getClass() != property.getClass()) {
+            throw new HibernateException("Object with id " + property.getId() + " is not of the specified subclass");
+        }
+        property.setValue(stored.getValue());
+    }
+
+    private Object value(long objectId, String name)
+    {
+        return ((BaseProperty) this.loaded.get(objectId).get(name)).getValue();
+    }
+
+    private Map<Long, Map<String, Object>> values()
+    {
+        Map<Long, Map<String, Object>> result = new HashMap<>();
+        for (Map.Entry<Long, Map<String, PropertyInterface>> object : this.loaded.entrySet()) {
+            Map<String, Object> objectValues = new HashMap<>();
+            for (Map.Entry<String, PropertyInterface> property : object.getValue().entrySet()) {
+                objectValues.put(property.getKey(), ((BaseProperty) property.getValue()).getValue());
+            }
+            result.put(object.getKey(), objectValues);
+        }
+        return result;
+    }
+
+    /** The kind of each executed query: the start of its HQL, or {@link #LOAD} for properties loaded one by one. */
+    private List<String> prefixes()
+    {
+        List<String> result = new ArrayList<>();
+        for (String query : this.executed) {
+            for (String prefix : Arrays.asList(LIST_QUERY, OBJECT_QUERY, LOAD, "from ", "select distinct prop ")) {
+                if (query.startsWith(prefix)) {
+                    result.add(prefix);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -21,6 +21,8 @@
 import org.phenotips.configuration.RecordElement;
 import org.phenotips.configuration.RecordSection;
 import org.phenotips.configuration.spi.RecordConfigurationModule;
+import org.phenotips.consents.Consent;
+import org.phenotips.consents.ConsentManager;
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientRepository;
 
@@ -29,6 +31,9 @@
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
@@ -62,6 +67,9 @@ public class ConsentsRecordConfigurationModule implements RecordConfigurationMod
     @Inject
     private ConsentAuthorizer consentAuthorizer;
 
+    @Inject
+    private ConsentManager consentManager;
+
     @Override
     public RecordConfiguration process(RecordConfiguration config)
     {
@@ -125,4 +133,27 @@ public boolean supportsRecordType(String recordType)
     {
         return ArrayUtils.contains(SUPPORTED_RECORD_TYPES, recordType);
     }
+
+    @Override
+    public String getCacheKey(String recordType)
+    {
+        if (this.dab.getCurrentDocumentReference() == null) {
+            return "";
+        }
+        final Patient patient = this.patients.get(this.dab.getCurrentDocumentReference());
+        if (patient == null || !this.consentAuthorizer.consentsGloballyEnabled()) {
+            return "";
+        }
+        // The disabled elements only depend on the missing consents, and on the fields that they cover
+        final Set<Consent> missingConsents = this.consentManager.getMissingConsentsForPatient(patient);
+        if (missingConsents == null) {
+            return null;
+        }
+        final SortedSet<String> key = new TreeSet<>();
+        for (final Consent consent : missingConsents) {
+            key.add(consent.getId() + (consent.isRequired() ? "!" : "")
+                + (consent.affectsAllFields() ? "*" : String.valueOf(consent.getFields())));
+        }
+        return key.toString();
+    }
 }
@@ -172,23 +172,42 @@ public List<Feature> sortFeaturesSimple(@Nonnull Set<? extends Feature> features
      */
     public List<Feature> sortFeaturesWithSections(Set<? extends Feature> features)
     {
-        this.sectionFeatureTree = new HashMap<>();
-        List<Feature> positiveList = sortFeaturesBySection(filterFeaturesByPresentStatus(features, true));
-        List<Feature> negativeList = sortFeaturesBySection(filterFeaturesByPresentStatus(features, false));
+        Map<String, String> featureSections = new HashMap<>();
+        List<Feature> result = sortFeaturesWithSections(features, featureSections);
+        this.sectionFeatureTree = featureSections;
+        return result;
+    }
+
+    /**
+     * Same as {@link #sortFeaturesWithSections(Set)}, but the feature to section map is filled into the passed map
+     * instead of {@link #sectionFeatureTree}. Since this doesn't change the state of the helper, it can be called
+     * concurrently from several threads once {@link #featureSetUp(boolean)} was called.
+     *
+     * @param features set of features to sort. Cannot be null
+     * @param featureSections the map where feature ids will be mapped to the title of their category. Cannot be null
+     * @return a subset of the passed in features in a specific order
+     */
+    public List<Feature> sortFeaturesWithSections(Set<? extends Feature> features,
+        Map<String, String> featureSections)
+    {
+        List<Feature> positiveList =
+            sortFeaturesBySection(filterFeaturesByPresentStatus(features, true), featureSections);
+        List<Feature> negativeList =
+            sortFeaturesBySection(filterFeaturesByPresentStatus(features, false), featureSections);
 
         positiveList.addAll(negativeList);
         return positiveList;
     }
 
     /**
-     * Fills {@link #sectionFeatureTree} with feature ids mapped to section names. This function is used internally only
-     * in {@link #sortFeaturesWithSections(java.util.Set)}; if changing that, keep in mind the mutation of
-     * {@link #sectionFeatureTree}.
+     * Fills {@code featureSections} with feature ids mapped to section names. This function is used internally only
+     * in {@link #sortFeaturesWithSections(Set, Map)}.
      *
      * @param features list of features to be sorted. Cannot be null
+     * @param featureSections the map to fill
      * @return list of features sorted in the same order as {@link #categoryMapping}
      */
-    private List<Feature> sortFeaturesBySection(List<Feature> features)
+    private List<Feature> sortFeaturesBySection(List<Feature> features, Map<String, String> featureSections)
     {
         List<Feature> sortedFeatures = new LinkedList<>();
 
@@ -204,7 +223,7 @@ private List<Feature> sortFeaturesBySection(List<Feature> features)
                 while (iter.hasNext()) {
                     Feature feature = iter.next();
                     if (getCategoriesFromOntology(feature.getId()).contains(category)) {
-                        this.sectionFeatureTree.put(feature.getId(), section);
+                        featureSections.put(feature.getId(), section);
                         sortedFeatures.add(feature);
                         iter.remove();
                     }
@@ -212,7 +231,7 @@ private List<Feature> sortFeaturesBySection(List<Feature> features)
             }
         }
         for (Feature feature : features) {
-            this.sectionFeatureTree.put(feature.getId(), "No category");
+            featureSections.put(feature.getId(), "No category");
         }
         sortedFeatures.addAll(features);
         return sortedFeatures;
@@ -87,6 +87,20 @@ public DataToCellConverter()
         }
     }
 
+    /**
+     * Makes the setup state of this converter read-only. Must be called after all the setup and header methods, which
+     * configure the sections, and before calling the body methods from several threads: once frozen, the body methods
+     * only read the setup state, and can be called concurrently.
+     */
+    public void freezeSetup()
+    {
+        Map<String, Set<String>> frozen = new HashMap<>();
+        for (Map.Entry<String, Set<String>> section : this.enabledHeaderIdsBySection.entrySet()) {
+            frozen.put(section.getKey(), Collections.unmodifiableSet(new LinkedHashSet<>(section.getValue())));
+        }
+        this.enabledHeaderIdsBySection = Collections.unmodifiableMap(frozen);
+    }
+
     public void phenotypeSetup(Set<String> enabledFields) throws Exception
     {
         String sectionName = "phenotype";
@@ -145,8 +159,7 @@ public DataSection phenotypeBody(Patient patient) throws Exception
         if (!categoriesEnabled) {
             sortedFeatures = this.phenotypeHelper.sortFeaturesSimple(features);
         } else {
-            sortedFeatures = this.phenotypeHelper.sortFeaturesWithSections(features);
-            sectionFeatureLookup = this.phenotypeHelper.getSectionFeatureTree();
+            sortedFeatures = this.phenotypeHelper.sortFeaturesWithSections(features, sectionFeatureLookup);
         }
 
         Boolean lastStatus = null;
@@ -0,0 +1,214 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.export.internal;
+
+import org.phenotips.components.ComponentManagerRegistry;
+import org.phenotips.data.Patient;
+
+import org.xwiki.component.manager.ComponentLookupException;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Provider;
+
+import org.slf4j.LoggerFactory;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.util.AbstractXWikiRunnable;
+
+/**
+ * Converts patients into their assembled {@link DataSection}s, one {@link SheetAssembler#assemblePatient section per
+ * patient}, on a bounded pool of worker threads. Sections are returned in the same order as the patients, and only a
+ * limited number of patients are converted ahead of the consumer, so memory usage doesn't depend on the number of
+ * patients. With a parallelism of {@code 1}, patients are converted on the calling thread, when requested.
+ * <p>
+ * The converter must have been {@link DataToCellConverter#freezeSetup() frozen}. Each worker thread runs with its own
+ * copy of the XWiki context of the thread that created the pipeline, so that translations and data access behave the
+ * same as on the request thread.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+public class PatientSectionPipeline
+{
+    /** How many patients are converted ahead of the consumer, for each worker thread. */
+    private static final int QUEUED_PER_WORKER = 2;
+
+    private final DataToCellConverter converter;
+
+    private final Iterator<Patient> patients;
+
+    private final ExecutorService executor;
+
+    private final int window;
+
+    /** The patients currently being converted, in the order in which they must be returned. */
+    private final Deque<Future<DataSection>> pending = new ArrayDeque<>();
+
+    /**
+     * Constructor.
+     *
+     * @param converter the converter to use, already set up and {@link DataToCellConverter#freezeSetup() frozen}
+     * @param patients the patients to convert; {@code null} values are skipped
+     * @param parallelism the number of worker threads to use; {@code 1} or less means that patients are converted on
+     *            the calling thread
+     */
+    public PatientSectionPipeline(DataToCellConverter converter, Iterator<Patient> patients, int parallelism)
+    {
+        this.converter = converter;
+        this.patients = patients;
+        if (parallelism > 1) {
+            this.executor = Executors.newFixedThreadPool(parallelism, new WorkerThreadFactory());
+            this.window = parallelism * QUEUED_PER_WORKER;
+        } else {
+            this.executor = null;
+            this.window = 1;
+        }
+    }
+
+    /**
+     * Checks if there are more patients to return.
+     *
+     * @return {@code true} if {@link #next()} will return a section
+     */
+    public boolean hasNext()
+    {
+        fill();
+        return !this.pending.isEmpty();
+    }
+
+    /**
+     * Returns the section of the next patient, waiting for its conversion to finish if needed.
+     *
+     * @return the finalized and styled section of the next patient
+     * @throws Exception if converting the patient failed
+     */
+    public DataSection next() throws Exception
+    {
+        fill();
+        Future<DataSection> next = this.pending.poll();
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+        try {
+            return next.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Stops the worker threads, abandoning the conversions still in progress. Must always be called once the pipeline
+     * is no longer needed.
+     */
+    public void close()
+    {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+        }
+        this.pending.clear();
+    }
+
+    /** Starts converting patients until the window is full or there are no more patients. */
+    private void fill()
+    {
+        while (this.pending.size() < this.window && this.patients.hasNext()) {
+            final Patient patient = this.patients.next();
+            if (patient == null) {
+                continue;
+            }
+            FutureTask<DataSection> task = new FutureTask<>(new Callable<DataSection>()
+            {
+                @Override
+                public DataSection call() throws Exception
+                {
+                    return SheetAssembler.assemblePatient(PatientSectionPipeline.this.converter, patient);
+                }
+            });
+            if (this.executor == null) {
+                task.run();
+            } else {
+                this.executor.execute(task);
+            }
+            this.pending.add(task);
+        }
+    }
+
+    /**
+     * Creates daemon worker threads that run inside a copy of the XWiki context of the thread creating them. Threads
+     * are created by the executor when tasks are submitted, i.e. on the thread that uses the pipeline.
+     */
+    private static final class WorkerThreadFactory implements ThreadFactory
+    {
+        private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+        private final String namePrefix = "Spreadsheet export " + POOL_COUNTER.incrementAndGet() + " worker ";
+
+        private final AtomicInteger threadCounter = new AtomicInteger();
+
+        private final Provider<XWikiContext> contextProvider;
+
+        WorkerThreadFactory()
+        {
+            Provider<XWikiContext> provider = null;
+            try {
+                provider =
+                    ComponentManagerRegistry.getContextComponentManager().getInstance(XWikiContext.TYPE_PROVIDER);
+            } catch (ComponentLookupException | RuntimeException ex) {
+                LoggerFactory.getLogger(PatientSectionPipeline.class)
+                    .warn("Failed to lookup the XWiki context provider: [{}]", ex.getMessage());
+            }
+            this.contextProvider = provider;
+        }
+
+        @Override
+        public Thread newThread(final Runnable worker)
+        {
+            XWikiContext context = this.contextProvider != null ? this.contextProvider.get() : null;
+            Runnable wrapped = worker;
+            if (context != null) {
+                wrapped = new AbstractXWikiRunnable(XWikiContext.EXECUTIONCONTEXT_KEY, context.clone())
+                {
+                    @Override
+                    protected void runInternal()
+                    {
+                        worker.run();
+                    }
+                };
+            }
+            Thread thread = new Thread(wrapped, this.namePrefix + this.threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
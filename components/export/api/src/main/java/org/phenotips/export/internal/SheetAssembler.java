@@ -48,6 +48,54 @@
      * @throws java.lang.Exception half of the functions used throw exceptions
      */
     public SheetAssembler(Set<String> enabledFields, List<Patient> patients) throws Exception
+    {
+        this(enabledFields, patients, 1);
+    }
+
+    /**
+     * Same as {@link #SheetAssembler(Set, List)}, but the patients are converted in parallel.
+     *
+     * @param enabledFields set of fields for which data should be exported
+     * @param patients list of patients from whom data should exported
+     * @param parallelism how many patients can be converted at the same time, on separate threads
+     * @throws java.lang.Exception half of the functions used throw exceptions
+     * @see PatientSectionPipeline
+     */
+    public SheetAssembler(Set<String> enabledFields, List<Patient> patients, int parallelism) throws Exception
+    {
+        DataToCellConverter converter = createConverter(enabledFields);
+
+        /* Headers MUST be generated first. Some of them contain setup code for the body */
+        DataSection headerCombined = assembleHeader(converter, enabledFields);
+        converter.freezeSetup();
+
+        List<DataSection> patientsCombined = new LinkedList<>();
+        PatientSectionPipeline pipeline = new PatientSectionPipeline(converter, patients.iterator(), parallelism);
+        try {
+            while (pipeline.hasNext()) {
+                patientsCombined.add(pipeline.next());
+            }
+        } finally {
+            pipeline.close();
+        }
+        DataSection bodyCombined = assembleSectionsY(patientsCombined, false);
+
+        this.headerHeight = headerCombined.getMaxY() + 1;
+        this.oneSection = assembleSectionsY(Arrays.asList(headerCombined, bodyCombined), true);
+
+        /* Extend the section borders all the way to the bottom of the sheet */
+        Styler
+            .extendStyleVertically(this.oneSection, StyleOption.SECTION_BORDER_LEFT, StyleOption.SECTION_BORDER_RIGHT);
+    }
+
+    /**
+     * Creates a converter and runs the setup code that some sections require.
+     *
+     * @param enabledFields set of fields for which data should be exported
+     * @return a converter ready for generating the header
+     * @throws Exception if the setup fails
+     */
+    static DataToCellConverter createConverter(Set<String> enabledFields) throws Exception
     {
         DataToCellConverter converter = new DataToCellConverter();
 
@@ -56,24 +104,22 @@ public SheetAssembler(Set<String> enabledFields, List<Patient> patients) throws
         converter.prenatalPhenotypeSetup(enabledFields);
         converter.genesSetup(enabledFields);
         converter.variantsSetup(enabledFields);
+        return converter;
+    }
 
-        /* Headers MUST be generated first. Some of them contain setup code for the body */
+    /**
+     * Generates, merges and styles the header sections, and combines them into one finalized section. Must be called
+     * before {@link #assemblePatient(DataToCellConverter, Patient)}, since some headers contain setup code for the
+     * body.
+     *
+     * @param converter a converter obtained from {@link #createConverter(Set)}
+     * @param enabledFields set of fields for which data should be exported
+     * @return the finalized header section, positioned at the top-left corner
+     * @throws Exception if generating or styling the sections fails
+     */
+    static DataSection assembleHeader(DataToCellConverter converter, Set<String> enabledFields) throws Exception
+    {
         List<DataSection> headers = generateHeader(converter, enabledFields);
-        List<List<DataSection>> bodySections = generateBody(converter, patients);
-
-        List<DataSection> patientsCombined = new LinkedList<>();
-        for (List<DataSection> patientSections : bodySections) {
-            for (DataSection section : patientSections) {
-                section.finalizeToMatrix();
-                Styler.disallowBodyStyles(section);
-                Styler.extendStyleHorizontally(section, StyleOption.FEATURE_SEPARATOR, StyleOption.YES_NO_SEPARATOR);
-                Styler.styleSectionBorder(section, StyleOption.SECTION_BORDER_LEFT, StyleOption.SECTION_BORDER_RIGHT);
-            }
-
-            DataSection assembled = assembleSectionsX(patientSections, true);
-            Styler.styleSectionBottom(assembled, StyleOption.PATIENT_BORDER);
-            patientsCombined.add(assembled);
-        }
 
         /* Inserting styling calls here is fairly unavoidable. Also don't forget to merge BEFORE styling. */
         for (DataSection header : headers) {
@@ -81,19 +127,35 @@ public SheetAssembler(Set<String> enabledFields, List<Patient> patients) throws
             header.mergeX();
             Styler.styleSectionBorder(header, StyleOption.SECTION_BORDER_LEFT, StyleOption.SECTION_BORDER_RIGHT);
         }
-
-        DataSection bodyCombined = assembleSectionsY(patientsCombined, false);
         DataSection headerCombined = assembleSectionsX(headers, true);
 
         /* Add style through functions. Use only with finalized sections. */
         Styler.styleSectionBottom(headerCombined, StyleOption.HEADER_BOTTOM);
+        return headerCombined;
+    }
 
-        this.headerHeight = headerCombined.getMaxY() + 1;
-        this.oneSection = assembleSectionsY(Arrays.asList(headerCombined, bodyCombined), true);
+    /**
+     * Generates and styles the sections of one patient, and combines them into one finalized section.
+     *
+     * @param converter a converter which already generated the {@link #assembleHeader(DataToCellConverter, Set)
+     *            header}
+     * @param patient the patient whose data should be exported, not null
+     * @return the finalized section holding all the rows of the patient, positioned at the top-left corner
+     * @throws Exception if generating or styling the sections fails
+     */
+    static DataSection assemblePatient(DataToCellConverter converter, Patient patient) throws Exception
+    {
+        List<DataSection> patientSections = generateBody(converter, patient);
+        for (DataSection section : patientSections) {
+            section.finalizeToMatrix();
+            Styler.disallowBodyStyles(section);
+            Styler.extendStyleHorizontally(section, StyleOption.FEATURE_SEPARATOR, StyleOption.YES_NO_SEPARATOR);
+            Styler.styleSectionBorder(section, StyleOption.SECTION_BORDER_LEFT, StyleOption.SECTION_BORDER_RIGHT);
+        }
 
-        /* Extend the section borders all the way to the bottom of the sheet */
-        Styler
-            .extendStyleVertically(this.oneSection, StyleOption.SECTION_BORDER_LEFT, StyleOption.SECTION_BORDER_RIGHT);
+        DataSection assembled = assembleSectionsX(patientSections, true);
+        Styler.styleSectionBottom(assembled, StyleOption.PATIENT_BORDER);
+        return assembled;
     }
 
     /**
@@ -102,50 +164,43 @@ public SheetAssembler(Set<String> enabledFields, List<Patient> patients) throws
      *
      * @return list of generated, not null {@link org.phenotips.export.internal.DataSection}s
      */
-    private List<List<DataSection>> generateBody(DataToCellConverter converter, List<Patient> patients)
-        throws Exception
+    private static List<DataSection> generateBody(DataToCellConverter converter, Patient patient) throws Exception
     {
-        List<List<DataSection>> allSections = new LinkedList<>();
-        for (Patient patient : patients) {
-            if (patient == null) {
-                continue;
-            }
-            List<DataSection> patientSections = new LinkedList<>();
-            patientSections.add(converter.idBody(patient));
-            patientSections.add(converter.documentInfoBody(patient));
-            patientSections.add(converter.patientInfoBody(patient));
-            patientSections.add(converter.familyHistoryBody(patient));
-            patientSections.add(converter.prenatalPerinatalHistoryBody(patient));
-            patientSections.add(converter.prenatalPhenotypeBody(patient));
-            patientSections.add(converter.medicalHistoryBody(patient));
-            patientSections.add(converter.isNormalBody(patient));
-            patientSections.add(converter.phenotypeBody(patient));
-            patientSections.add(converter.genesBody(patient));
-            patientSections.add(converter.variantsBody(patient));
-            patientSections.add(converter.geneticNotesBody(patient));
-            patientSections.add(converter.clinicalDiagnosisBody(patient));
-            patientSections.add(converter.disordersBody(patient));
-            patientSections.add(converter.diagnosisNotesBody(patient));
-            patientSections.add(converter.isSolvedBody(patient));
-
-            /* Null section filter */
-            Iterator<DataSection> it = patientSections.iterator();
-            while (it.hasNext()) {
-                DataSection i = it.next();
-                if (i == null) {
-                    it.remove();
-                }
+        List<DataSection> patientSections = new LinkedList<>();
+        patientSections.add(converter.idBody(patient));
+        patientSections.add(converter.documentInfoBody(patient));
+        patientSections.add(converter.patientInfoBody(patient));
+        patientSections.add(converter.familyHistoryBody(patient));
+        patientSections.add(converter.prenatalPerinatalHistoryBody(patient));
+        patientSections.add(converter.prenatalPhenotypeBody(patient));
+        patientSections.add(converter.medicalHistoryBody(patient));
+        patientSections.add(converter.isNormalBody(patient));
+        patientSections.add(converter.phenotypeBody(patient));
+        patientSections.add(converter.genesBody(patient));
+        patientSections.add(converter.variantsBody(patient));
+        patientSections.add(converter.geneticNotesBody(patient));
+        patientSections.add(converter.clinicalDiagnosisBody(patient));
+        patientSections.add(converter.disordersBody(patient));
+        patientSections.add(converter.diagnosisNotesBody(patient));
+        patientSections.add(converter.isSolvedBody(patient));
+
+        /* Null section filter */
+        Iterator<DataSection> it = patientSections.iterator();
+        while (it.hasNext()) {
+            DataSection i = it.next();
+            if (i == null) {
+                it.remove();
             }
-            allSections.add(patientSections);
         }
-        return allSections;
+        return patientSections;
     }
 
     /**
-     * Same as {@link #generateBody(DataToCellConverter, java.util.List)} but for header sections. Most of header
+     * Same as {@link #generateBody(DataToCellConverter, Patient)} but for header sections. Most of header
      * functions from {@link org.phenotips.export.internal.DataToCellConverter} contain some set up code.
      */
-    private List<DataSection> generateHeader(DataToCellConverter converter, Set<String> enabledFields) throws Exception
+    private static List<DataSection> generateHeader(DataToCellConverter converter, Set<String> enabledFields)
+        throws Exception
     {
         List<DataSection> headerSections = new LinkedList<>();
         headerSections.add(converter.idHeader(enabledFields));
@@ -176,7 +231,7 @@ private List<DataSection> generateHeader(DataToCellConverter converter, Set<Stri
     }
 
     /** Combines the passed in sections into one large section, keeping track of positioning along the x axis. */
-    private DataSection assembleSectionsX(List<DataSection> sections, Boolean finalize) throws Exception
+    private static DataSection assembleSectionsX(List<DataSection> sections, Boolean finalize) throws Exception
     {
         DataSection combinedSection = new DataSection();
 
@@ -199,7 +254,7 @@ private DataSection assembleSectionsX(List<DataSection> sections, Boolean finali
     }
 
     /** Combines the passed in sections into one large section, keeping track of positioning along the y axis. */
-    private DataSection assembleSectionsY(List<DataSection> sections, Boolean finalize) throws Exception
+    private static DataSection assembleSectionsY(List<DataSection> sections, Boolean finalize) throws Exception
     {
         DataSection combinedSection = new DataSection();
 
@@ -52,6 +52,22 @@
      */
     protected Map<String, Sheet> sheets = new HashMap<String, Sheet>();
 
+    /** How many patients can be converted at the same time, on separate threads. */
+    protected int parallelism = 1;
+
+    /**
+     * Sets how many patients can be converted into spreadsheet cells at the same time. Converting a patient involves
+     * resolving vocabulary terms and reading its data, and is independent from the other patients, so large exports
+     * benefit from using several threads.
+     *
+     * @param parallelism the number of worker threads to use; {@code 1}, the default, means that all the patients are
+     *            converted on the calling thread
+     */
+    public void setParallelism(int parallelism)
+    {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
     /**
      * For the list of patients, completes an export limited by the list of fields that are requested, and writes the
      * result to the output stream.
@@ -110,7 +126,7 @@ protected void freezeHeader(Short height, Sheet sheet)
     protected SheetAssembler runAssembler(Set<String> enabledFields, List<Patient> patients)
         throws Exception
     {
-        return new SheetAssembler(enabledFields, patients);
+        return new SheetAssembler(enabledFields, patients, this.parallelism);
     }
 
     /**
@@ -121,7 +137,6 @@ protected SheetAssembler runAssembler(Set<String> enabledFields, List<Patient> p
      */
     protected void commit(DataSection section, Sheet sheet)
     {
-        DataCell[][] cells = section.getMatrix();
         Styler styler = new Styler();
 
         commitRows(section, sheet, styler);
@@ -135,11 +150,25 @@ protected void commit(DataSection section, Sheet sheet)
         }
 
         /* Merging has to be done after autosizing because otherwise autosizing breaks */
+        mergeCells(section, sheet, 0);
+    }
+
+    /**
+     * Merges the spreadsheet cells covered by the {@link DataCell}s of a section that span several columns.
+     *
+     * @param section a finalized section
+     * @param sheet the sheet to which the section was committed
+     * @param rowOffset the index of the sheet row where the first row of the section was committed
+     */
+    protected void mergeCells(DataSection section, Sheet sheet, int rowOffset)
+    {
+        DataCell[][] cells = section.getMatrix();
         for (Integer y = 0; y <= section.getMaxY(); y++) {
             for (Integer x = 0; x <= section.getMaxX(); x++) {
                 DataCell dataCell = cells[x][y];
                 if (dataCell != null && dataCell.getMergeX() != null) {
-                    sheet.addMergedRegion(new CellRangeAddress(y, y, x, x + dataCell.getMergeX()));
+                    sheet.addMergedRegion(
+                        new CellRangeAddress(rowOffset + y, rowOffset + y, x, x + dataCell.getMergeX()));
                 }
                 /*
                  * No longer will be merging cells on the Y axis, but keep this code for future reference.
@@ -151,11 +180,24 @@ protected void commit(DataSection section, Sheet sheet)
     }
 
     protected void commitRows(DataSection section, Sheet sheet, Styler styler)
+    {
+        commitRows(section, sheet, styler, 0);
+    }
+
+    /**
+     * Commits the cells of a section row by row, starting at a given row of the sheet, and sets the row heights.
+     *
+     * @param section a finalized section
+     * @param sheet a workbook sheet to which the cells from the section will be written
+     * @param styler the styler which translates the cell styles, shared by all the sections of the workbook
+     * @param rowOffset the index of the sheet row where the first row of the section should be written
+     */
+    protected void commitRows(DataSection section, Sheet sheet, Styler styler, int rowOffset)
     {
         DataCell[][] cells = section.getMatrix();
         Row row;
         for (Integer y = 0; y <= section.getMaxY(); y++) {
-            row = sheet.createRow(y);
+            row = sheet.createRow(rowOffset + y);
             Integer maxLines = 0;
 
             for (Integer x = 0; x <= section.getMaxX(); x++) {
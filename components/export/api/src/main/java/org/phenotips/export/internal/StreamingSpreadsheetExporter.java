@@ -0,0 +1,234 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.export.internal;
+
+import org.phenotips.data.Patient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+/**
+ * Export which keeps the memory usage bounded regardless of the number of exported patients. Instead of assembling the
+ * whole sheet into one {@link DataSection} and auto-sizing the columns at the end, patients are pulled one at a time
+ * from an iterator, their rows are written as soon as they are assembled, and a {@link SXSSFWorkbook} flushes the rows
+ * that fall out of a fixed window to a temporary file. Column widths are estimated from the contents of the first
+ * rows, since auto-sizing would need all the rows in memory.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+public class StreamingSpreadsheetExporter extends SpreadsheetExporter
+{
+    /** The default number of rows kept in memory. */
+    public static final int DEFAULT_ROW_WINDOW = 100;
+
+    /** The default number of rows, counting the header, from which the column widths are estimated. */
+    public static final int DEFAULT_WIDTH_SAMPLE_ROWS = 500;
+
+    /** The width of one character of the default font, in 1/256th of the width of a standard character. */
+    private static final int CHARACTER_WIDTH = 210;
+
+    /** Same as the limit used when auto-sizing columns. */
+    private static final int MAX_COLUMN_WIDTH = DataToCellConverter.MAX_CHARACTERS_PER_LINE * CHARACTER_WIDTH;
+
+    /** Room left around the content of a cell, in characters. */
+    private static final int COLUMN_PADDING = 2;
+
+    private final int rowWindow;
+
+    private final int widthSampleRows;
+
+    /** The estimated width of each column, in characters, computed while the first rows are committed. */
+    private int[] columnWidths = new int[0];
+
+    /** How many rows were used so far for estimating the column widths. */
+    private int sampledRows;
+
+    /** Constructor using the {@link #DEFAULT_ROW_WINDOW default row window} and width sample size. */
+    public StreamingSpreadsheetExporter()
+    {
+        this(DEFAULT_ROW_WINDOW, DEFAULT_WIDTH_SAMPLE_ROWS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param rowWindow how many rows are kept in memory before being flushed to the temporary file, must be positive
+     * @param widthSampleRows how many rows, counting the header, are used for estimating the column widths
+     */
+    public StreamingSpreadsheetExporter(int rowWindow, int widthSampleRows)
+    {
+        this.rowWindow = rowWindow;
+        this.widthSampleRows = widthSampleRows;
+    }
+
+    @Override
+    public void export(String[] enabledFieldsArray, List<Patient> patients, OutputStream outputStream)
+        throws Exception
+    {
+        export(enabledFieldsArray, patients != null ? patients.iterator() : Collections.<Patient>emptyIterator(),
+            outputStream);
+    }
+
+    /**
+     * For the patients returned by the iterator, completes an export limited by the list of fields that are requested,
+     * and writes the result to the output stream. Patients are requested from the iterator only when their rows are
+     * about to be written, so the iterator can load them lazily.
+     *
+     * @param enabledFieldsArray array of field ids that should be present in the export
+     * @param patients iterator over the patients whose information should be present in the export; {@code null}
+     *            values are skipped
+     * @param outputStream stream to which the export will be written to
+     * @throws Exception an attempt to close outputStream will be made, but the exception will not be handled
+     */
+    public void export(String[] enabledFieldsArray, Iterator<Patient> patients, OutputStream outputStream)
+        throws Exception
+    {
+        if (enabledFieldsArray == null || outputStream == null) {
+            return;
+        }
+        Set<String> enabledFields = new HashSet<String>(Arrays.asList(enabledFieldsArray));
+        try {
+            this.wBook = createNewWorkbook();
+            processMainSheet(enabledFields, patients);
+            this.wBook.write(outputStream);
+            outputStream.flush();
+        } finally {
+            if (this.wBook instanceof SXSSFWorkbook) {
+                ((SXSSFWorkbook) this.wBook).dispose();
+            }
+            try {
+                outputStream.close();
+            } catch (IOException ex) {
+                //If this happens,something went very wrong.
+            }
+        }
+    }
+
+    @Override
+    protected Workbook createNewWorkbook()
+    {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(this.rowWindow);
+        workbook.setCompressTempFiles(true);
+        return workbook;
+    }
+
+    @Override
+    protected void processMainSheet(Set<String> enabledFields, List<Patient> patients) throws Exception
+    {
+        processMainSheet(enabledFields, patients.iterator());
+    }
+
+    /**
+     * Creates the main sheet in the workbook, then assembles and commits the header, followed by each patient, in
+     * order. Patients are converted by a {@link PatientSectionPipeline}, which only keeps a few of them in memory.
+     */
+    protected void processMainSheet(Set<String> enabledFields, Iterator<Patient> patients) throws Exception
+    {
+        String sheetName = "main";
+        Sheet sheet = this.wBook.createSheet("Patient Sheet");
+        this.sheets.put(sheetName, sheet);
+        Styler styler = new Styler();
+
+        DataToCellConverter converter = SheetAssembler.createConverter(enabledFields);
+        DataSection header = SheetAssembler.assembleHeader(converter, enabledFields);
+        /* The section borders are defined by the header, and extended all the way to the bottom of the sheet */
+        Styler.extendStyleVertically(header, StyleOption.SECTION_BORDER_LEFT, StyleOption.SECTION_BORDER_RIGHT);
+        List<Set<StyleOption>> borders =
+            Styler.getColumnStyles(header, StyleOption.SECTION_BORDER_LEFT, StyleOption.SECTION_BORDER_RIGHT);
+
+        int nextRow = commitSection(header, sheet, styler, 0);
+        freezeHeader((short) nextRow, sheet);
+
+        converter.freezeSetup();
+        PatientSectionPipeline pipeline = new PatientSectionPipeline(converter, patients, this.parallelism);
+        try {
+            while (pipeline.hasNext()) {
+                DataSection section = pipeline.next();
+                Styler.extendColumnStyles(section, borders);
+                nextRow = commitSection(section, sheet, styler, nextRow);
+            }
+        } finally {
+            pipeline.close();
+        }
+
+        setColumnWidths(sheet);
+    }
+
+    /**
+     * Commits the rows of one section right below the previously committed rows, merges its cells, and uses it for
+     * estimating the column widths if the sample isn't complete yet.
+     *
+     * @return the index of the sheet row following the last row of the section
+     */
+    protected int commitSection(DataSection section, Sheet sheet, Styler styler, int rowOffset)
+    {
+        commitRows(section, sheet, styler, rowOffset);
+        mergeCells(section, sheet, rowOffset);
+        sampleColumnWidths(section);
+        return rowOffset + section.getMaxY() + 1;
+    }
+
+    /**
+     * Updates the estimated column widths with the longest line of each cell, as long as fewer than
+     * {@link #widthSampleRows} rows were sampled. Cells spanning several columns are ignored, like when auto-sizing.
+     */
+    private void sampleColumnWidths(DataSection section)
+    {
+        if (this.sampledRows >= this.widthSampleRows) {
+            return;
+        }
+        if (this.columnWidths.length <= section.getMaxX()) {
+            this.columnWidths = Arrays.copyOf(this.columnWidths, section.getMaxX() + 1);
+        }
+        DataCell[][] cells = section.getMatrix();
+        for (int y = 0; y <= section.getMaxY() && this.sampledRows < this.widthSampleRows; y++, this.sampledRows++) {
+            for (int x = 0; x <= section.getMaxX(); x++) {
+                DataCell dataCell = cells[x][y];
+                if (dataCell == null || dataCell.getMergeX() != null || dataCell.isChild()) {
+                    continue;
+                }
+                for (String line : StringUtils.split(dataCell.getValue(), '\n')) {
+                    this.columnWidths[x] = Math.max(this.columnWidths[x], line.length());
+                }
+            }
+        }
+    }
+
+    /** Applies the estimated column widths; empty columns keep the default width. */
+    private void setColumnWidths(Sheet sheet)
+    {
+        for (int col = 0; col < this.columnWidths.length; col++) {
+            if (this.columnWidths[col] > 0) {
+                int width = (this.columnWidths[col] + COLUMN_PADDING) * CHARACTER_WIDTH;
+                sheet.setColumnWidth(col, Math.min(width, MAX_COLUMN_WIDTH));
+            }
+        }
+    }
+}
@@ -17,6 +17,7 @@
  */
 package org.phenotips.export.internal;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -251,6 +252,78 @@ public static void extendStyleVertically(DataSection section, StyleOption... sty
         }
     }
 
+    /**
+     * Reads which of the passed in styles each column of a section carries, the same way
+     * {@link #extendStyleVertically(DataSection, StyleOption[])} does. Together with
+     * {@link #extendColumnStyles(DataSection, List)}, this allows extending styles over sections that are committed
+     * one after the other, instead of being assembled into a single section first.
+     *
+     * @param section cannot be null
+     * @param styles an array of styles to look for
+     * @return a list with one entry for each column of the section, holding the styles found in that column, or an
+     *         empty set
+     * @throws Exception if the section was not {@link DataSection#finalizeToMatrix()}
+     */
+    public static List<Set<StyleOption>> getColumnStyles(DataSection section, StyleOption... styles)
+        throws Exception
+    {
+        DataCell[][] cellMatrix = section.getMatrix();
+        if (cellMatrix == null) {
+            throw new Exception(NO_MATRIX_ERR_MSG);
+        }
+
+        List<Set<StyleOption>> result = new ArrayList<>(section.getMaxX() + 1);
+        for (int x = 0; x <= section.getMaxX(); x++) {
+            Set<StyleOption> found = new HashSet<>();
+            for (int y = 0; y <= section.getMaxY() && found.isEmpty(); y++) {
+                DataCell cell = cellMatrix[x][y];
+                if (cell == null || cell.isChild() || cell.getStyles() == null) {
+                    continue;
+                }
+                for (StyleOption style : styles) {
+                    if (cell.getStyles().contains(style)) {
+                        found.add(style);
+                    }
+                }
+            }
+            result.add(found);
+        }
+        return result;
+    }
+
+    /**
+     * Adds the passed in styles to every cell of the corresponding column, from the top to the bottom of the section.
+     *
+     * @param section cannot be null
+     * @param columnStyles the styles to add to each column, as returned by
+     *            {@link #getColumnStyles(DataSection, StyleOption[])}; columns past the end of the list are left as is
+     * @throws Exception if the section was not {@link DataSection#finalizeToMatrix()}
+     */
+    public static void extendColumnStyles(DataSection section, List<Set<StyleOption>> columnStyles)
+        throws Exception
+    {
+        DataCell[][] cellMatrix = section.getMatrix();
+        if (cellMatrix == null) {
+            throw new Exception(NO_MATRIX_ERR_MSG);
+        }
+
+        for (int x = 0; x <= section.getMaxX() && x < columnStyles.size(); x++) {
+            Set<StyleOption> toExtend = columnStyles.get(x);
+            if (toExtend.isEmpty()) {
+                continue;
+            }
+            /* In case the border passes through non-existent cells */
+            for (int y = 0; y <= section.getMaxY(); y++) {
+                DataCell cell = cellMatrix[x][y];
+                if (cell == null) {
+                    cell = new DataCell("", x, y);
+                    section.addCell(cell);
+                }
+                cell.addStyles(toExtend);
+            }
+        }
+    }
+
     /**
      * Translates the internal styling into styling that {@link org.apache.poi.ss.usermodel.Workbook} can use.
      *
@@ -261,6 +334,14 @@ public static void extendStyleVertically(DataSection section, StyleOption... sty
     public void style(DataCell dataCell, Cell cell, Workbook wBook)
     {
         Set<StyleOption> styles = dataCell.getStyles();
+        /* Look in the cache before creating anything, since every created style is stored in the workbook. */
+        CellStyle cachedStyle =
+            this.styleCache.get(styles != null ? styles : Collections.<StyleOption>emptySet());
+        if (cachedStyle != null) {
+            cell.setCellStyle(cachedStyle);
+            return;
+        }
+
         CellStyle cellStyle = wBook.createCellStyle();
         /* For \n to work properly set to true */
         cellStyle.setWrapText(true);
@@ -274,17 +355,13 @@ public void style(DataCell dataCell, Cell cell, Workbook wBook)
         if (this.setDefaultStyle(styles, cell, cellStyle)) {
             return;
         }
-        if (this.styleCache.containsKey(styles)) {
-            cell.setCellStyle(this.styleCache.get(styles));
-            return;
-        }
 
         /* Priority of styles can be coded in by placing the if statement lower within the corresponding function. */
         this.setFontStyles(styles, cell, cellStyle, wBook);
         this.setBorderStyles(styles, cell, cellStyle, wBook);
 
         /* Keep this as the last statement. */
-        this.styleCache.put(styles, cellStyle);
+        this.styleCache.put(new HashSet<>(styles), cellStyle);
     }
 
     /**
@@ -293,10 +370,6 @@ public void style(DataCell dataCell, Cell cell, Workbook wBook)
     private boolean setDefaultStyle(Set<StyleOption> styles, Cell cell, CellStyle cellStyle)
     {
         if (styles == null) {
-            if (this.styleCache.containsKey(Collections.<StyleOption>emptySet())) {
-                cell.setCellStyle(this.styleCache.get(Collections.<StyleOption>emptySet()));
-                return true;
-            }
             cell.setCellStyle(cellStyle);
             this.styleCache.put(Collections.<StyleOption>emptySet(), cellStyle);
             return true;
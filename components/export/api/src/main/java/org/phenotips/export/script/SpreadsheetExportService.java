@@ -19,19 +19,22 @@
 
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientRepository;
-import org.phenotips.export.internal.SpreadsheetExporter;
+import org.phenotips.export.internal.StreamingSpreadsheetExporter;
 import org.phenotips.security.authorization.AuthorizationService;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.script.service.ScriptService;
 import org.xwiki.security.authorization.Right;
 import org.xwiki.stability.Unstable;
+import org.xwiki.users.User;
 import org.xwiki.users.UserManager;
 
 import java.io.OutputStream;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -51,6 +54,9 @@
 @Singleton
 public class SpreadsheetExportService implements ScriptService
 {
+    /** The configuration property holding how many patients can be converted at the same time. */
+    private static final String PARALLELISM_PROPERTY = "phenotips.export.parallelism";
+
     @Inject
     private Logger logger;
 
@@ -69,9 +75,16 @@ public class SpreadsheetExportService implements ScriptService
     @Inject
     private AuthorizationService access;
 
+    /** Used for reading the number of threads to use for converting patients. */
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
     /**
      * Export the provided list of patients into an Excel file, containing the specified columns. The resulting binary
-     * filled will be sent through the provided output stream, usually the {@code $response}'s output stream.
+     * filled will be sent through the provided output stream, usually the {@code $response}'s output stream. Patients
+     * are loaded one at a time, while the spreadsheet is written, so that memory usage doesn't grow with the number of
+     * exported patients.
      *
      * @param patientIds list of patient IDs of the the patients to export
      * @param enabledFields a list of field names to export; these are internal names, which will be turned into human
@@ -80,27 +93,67 @@ public class SpreadsheetExportService implements ScriptService
      */
     public void export(List<String> patientIds, String[] enabledFields, OutputStream outputStream)
     {
-        SpreadsheetExporter exporter = new SpreadsheetExporter();
+        StreamingSpreadsheetExporter exporter = new StreamingSpreadsheetExporter();
+        exporter.setParallelism(this.configuration.getProperty(PARALLELISM_PROPERTY,
+            Runtime.getRuntime().availableProcessors()));
         try {
+            exporter.export(enabledFields, new AccessiblePatientIterator(patientIds.iterator()), outputStream);
+        } catch (Exception ex) {
+            this.logger.error("Error caught while generating an export spreadsheet", ex);
+        }
+    }
+
+    /**
+     * Loads patients lazily, skipping those that don't exist or that the current user is not allowed to view.
+     */
+    private final class AccessiblePatientIterator implements Iterator<Patient>
+    {
+        private final Iterator<String> patientIds;
+
+        private final User user;
+
+        private Patient next;
+
+        AccessiblePatientIterator(Iterator<String> patientIds)
+        {
+            this.patientIds = patientIds;
+            this.user = SpreadsheetExportService.this.userManager.getCurrentUser();
+        }
+
+        @Override
+        public boolean hasNext()
+        {
             // since scripts do not have access to a non-secure versionof the patient, need to
             // get the actual Patient objects here, and check access rights here
             //
             // FIXME: once new version of entities is in, need to refactor PrimaryEntityManager and incorporate
             //        security features into the entities framework to avoid doing permission checks in client code
             //        that requires non-secure versions of the Patient object
-            List<Patient> patients = new LinkedList<>();
-            for (String patientId : patientIds) {
-                Patient patient = this.patientRepository.get(patientId);
-                if (patient == null || !this.access.hasAccess(
-                        this.userManager.getCurrentUser(), Right.VIEW, patient.getDocumentReference())) {
-                    continue;
+            while (this.next == null && this.patientIds.hasNext()) {
+                Patient patient = SpreadsheetExportService.this.patientRepository.get(this.patientIds.next());
+                if (patient != null && SpreadsheetExportService.this.access.hasAccess(
+                        this.user, Right.VIEW, patient.getDocumentReference())) {
+                    this.next = patient;
                 }
-                patients.add(patient);
             }
+            return this.next != null;
+        }
 
-            exporter.export(enabledFields, patients, outputStream);
-        } catch (Exception ex) {
-            this.logger.error("Error caught while generating an export spreadsheet", ex);
+        @Override
+        public Patient next()
+        {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Patient result = this.next;
+            this.next = null;
+            return result;
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
         }
     }
 }
@@ -0,0 +1,125 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.export.internal;
+
+import org.phenotips.data.Patient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PatientSectionPipelineTest
+{
+    private DataToCellConverter converter;
+
+    private List<Patient> patients = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.converter = mock(DataToCellConverter.class);
+        final Random random = new Random(42);
+        when(this.converter.idBody(any(Patient.class))).thenAnswer(new Answer<DataSection>()
+        {
+            @Override
+            public DataSection answer(InvocationOnMock invocation) throws Exception
+            {
+                Patient patient = (Patient) invocation.getArguments()[0];
+                if ("fail".equals(patient.getId())) {
+                    throw new IllegalStateException("fail");
+                }
+                /* Make the conversions finish in a different order than they were started */
+                Thread.sleep(random.nextInt(5));
+                DataSection section = new DataSection();
+                section.addCell(new DataCell(patient.getId(), 0, 0));
+                return section;
+            }
+        });
+        for (int i = 0; i < 30; i++) {
+            this.patients.add(patient("P" + i));
+        }
+    }
+
+    @Test
+    public void sequentialConversionKeepsTheOrder() throws Exception
+    {
+        assertConvertedInOrder(1);
+    }
+
+    @Test
+    public void parallelConversionKeepsTheOrder() throws Exception
+    {
+        assertConvertedInOrder(4);
+    }
+
+    @Test
+    public void nullPatientsAreSkipped() throws Exception
+    {
+        this.patients.add(1, null);
+        assertConvertedInOrder(3);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void conversionFailuresArePropagated() throws Exception
+    {
+        this.patients.add(5, patient("fail"));
+        PatientSectionPipeline pipeline = new PatientSectionPipeline(this.converter, this.patients.iterator(), 4);
+        try {
+            while (pipeline.hasNext()) {
+                pipeline.next();
+            }
+        } finally {
+            pipeline.close();
+        }
+    }
+
+    private void assertConvertedInOrder(int parallelism) throws Exception
+    {
+        PatientSectionPipeline pipeline =
+            new PatientSectionPipeline(this.converter, this.patients.iterator(), parallelism);
+        try {
+            int count = 0;
+            while (pipeline.hasNext()) {
+                DataSection section = pipeline.next();
+                Assert.assertEquals("P" + count, section.getMatrix()[0][0].getValue());
+                ++count;
+            }
+            Assert.assertEquals(30, count);
+        } finally {
+            pipeline.close();
+        }
+    }
+
+    private Patient patient(String id)
+    {
+        Patient patient = mock(Patient.class);
+        doReturn(id).when(patient).getId();
+        return patient;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.export.internal;
+
+import org.phenotips.data.Patient;
+
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anySetOf;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class StreamingSpreadsheetExporterTest
+{
+    private StreamingSpreadsheetExporter exporter;
+
+    private SXSSFWorkbook workbook;
+
+    private Sheet sheet;
+
+    @Before
+    public void setUp()
+    {
+        this.exporter = new StreamingSpreadsheetExporter(2, 100);
+        this.workbook = (SXSSFWorkbook) this.exporter.createNewWorkbook();
+        this.exporter.wBook = this.workbook;
+        this.sheet = this.workbook.createSheet("test");
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.workbook.dispose();
+    }
+
+    @Test
+    public void sectionsAreCommittedBelowEachOther() throws Exception
+    {
+        Styler styler = new Styler();
+
+        int next = this.exporter.commitSection(section("a", "b"), this.sheet, styler, 0);
+        Assert.assertEquals(2, next);
+        next = this.exporter.commitSection(section("c"), this.sheet, styler, next);
+        Assert.assertEquals(3, next);
+        next = this.exporter.commitSection(section("d", "e"), this.sheet, styler, next);
+        Assert.assertEquals(5, next);
+
+        /* Only the last rows are kept in memory, the others were flushed */
+        Assert.assertNull(this.sheet.getRow(0));
+        Assert.assertEquals("d", this.sheet.getRow(3).getCell(0).getStringCellValue());
+        Assert.assertEquals("e", this.sheet.getRow(4).getCell(0).getStringCellValue());
+    }
+
+    @Test
+    public void mergedRegionsAreOffset() throws Exception
+    {
+        DataSection section = new DataSection();
+        section.addCell(new DataCell("merged", 0, 0));
+        section.addCell(new DataCell("x", 0, 1));
+        section.addCell(new DataCell("y", 1, 1));
+        section.finalizeToMatrix();
+        section.mergeX();
+
+        this.exporter.commitSection(section, this.sheet, new Styler(), 5);
+
+        Assert.assertEquals(1, this.sheet.getNumMergedRegions());
+        CellRangeAddress region = this.sheet.getMergedRegion(0);
+        Assert.assertEquals(5, region.getFirstRow());
+        Assert.assertEquals(5, region.getLastRow());
+        Assert.assertEquals(0, region.getFirstColumn());
+        Assert.assertEquals(1, region.getLastColumn());
+    }
+
+    @Test
+    public void badParameters() throws Exception
+    {
+        StreamingSpreadsheetExporter spy = spy(this.exporter);
+        OutputStream stream = mock(OutputStream.class);
+
+        spy.export(null, (Iterator<Patient>) null, stream);
+        spy.export(new String[1], (Iterator<Patient>) null, null);
+        verify(spy, times(0)).createNewWorkbook();
+    }
+
+    @Test
+    public void exportWritesAndClosesTheStream() throws Exception
+    {
+        StreamingSpreadsheetExporter spy = spy(this.exporter);
+        OutputStream stream = mock(OutputStream.class);
+        Workbook mockWorkbook = mock(Workbook.class);
+        @SuppressWarnings("unchecked")
+        Iterator<Patient> patients = mock(Iterator.class);
+
+        doReturn(mockWorkbook).when(spy).createNewWorkbook();
+        doNothing().when(spy).processMainSheet(anySetOf(String.class), any(Iterator.class));
+
+        spy.export(new String[0], patients, stream);
+        verify(mockWorkbook, times(1)).write(stream);
+        verify(stream, times(1)).flush();
+        verify(stream, times(1)).close();
+    }
+
+    private DataSection section(String... values) throws Exception
+    {
+        DataSection section = new DataSection();
+        for (int y = 0; y < values.length; y++) {
+            section.addCell(new DataCell(values[y], 0, y));
+        }
+        section.finalizeToMatrix();
+        return section;
+    }
+}
@@ -17,7 +17,10 @@
  */
 package org.phenotips.export.internal;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.poi.ss.usermodel.Cell;
@@ -29,6 +32,7 @@
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anySetOf;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.atMost;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
@@ -286,4 +290,61 @@ public void extendVerticallyNullMatrix() throws Exception
 
         verifyNoMoreInteractions(section);
     }
+
+    @Test
+    public void columnStylesAreReadFromTheFirstStyledCell() throws Exception
+    {
+        DataSection header = new DataSection();
+        header.addCell(new DataCell("left", 0, 0, StyleOption.SECTION_BORDER_LEFT));
+        header.addCell(new DataCell("middle", 1, 0, StyleOption.HEADER));
+        header.addCell(new DataCell("right", 2, 1, StyleOption.SECTION_BORDER_RIGHT));
+        header.finalizeToMatrix();
+
+        List<Set<StyleOption>> styles =
+            Styler.getColumnStyles(header, StyleOption.SECTION_BORDER_LEFT, StyleOption.SECTION_BORDER_RIGHT);
+
+        Assert.assertEquals(3, styles.size());
+        Assert.assertEquals(Collections.singleton(StyleOption.SECTION_BORDER_LEFT), styles.get(0));
+        Assert.assertTrue(styles.get(1).isEmpty());
+        Assert.assertEquals(Collections.singleton(StyleOption.SECTION_BORDER_RIGHT), styles.get(2));
+    }
+
+    @Test
+    public void columnStylesAreExtendedThroughMissingCells() throws Exception
+    {
+        DataSection section = new DataSection();
+        DataCell value = new DataCell("value", 1, 0);
+        section.addCell(value);
+        section.addCell(new DataCell("other", 2, 1));
+        section.finalizeToMatrix();
+
+        Styler.extendColumnStyles(section, Arrays.asList(Collections.singleton(StyleOption.SECTION_BORDER_LEFT),
+            Collections.<StyleOption>emptySet(), Collections.singleton(StyleOption.SECTION_BORDER_RIGHT)));
+
+        DataCell[][] matrix = section.getMatrix();
+        Assert.assertTrue(matrix[0][0].getStyles().contains(StyleOption.SECTION_BORDER_LEFT));
+        Assert.assertTrue(matrix[0][1].getStyles().contains(StyleOption.SECTION_BORDER_LEFT));
+        Assert.assertNull(value.getStyles());
+        Assert.assertNull(matrix[1][1]);
+        Assert.assertTrue(matrix[2][0].getStyles().contains(StyleOption.SECTION_BORDER_RIGHT));
+        Assert.assertTrue(matrix[2][1].getStyles().contains(StyleOption.SECTION_BORDER_RIGHT));
+    }
+
+    @Test
+    public void cachedStylesDontCreateNewWorkbookStyles()
+    {
+        Styler styler = new Styler();
+        Workbook workbook = mock(Workbook.class);
+        CellStyle style = mock(CellStyle.class);
+        Font font = mock(Font.class);
+        doReturn(style).when(workbook).createCellStyle();
+        doReturn(font).when(workbook).createFont();
+
+        for (int i = 0; i < 3; i++) {
+            Cell cell = mock(Cell.class);
+            styler.style(new DataCell("", 0, i, StyleOption.HEADER_BOTTOM), cell, workbook);
+            verify(cell, atLeastOnce()).setCellStyle(style);
+        }
+        verify(workbook, times(1)).createCellStyle();
+    }
 }
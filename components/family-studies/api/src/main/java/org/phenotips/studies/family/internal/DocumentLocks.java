@@ -0,0 +1,127 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.studies.family.internal;
+
+import org.xwiki.model.reference.DocumentReference;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive, reentrant locks on sets of documents, used for serializing the updates of a family and of its members
+ * without blocking the updates of unrelated families. All the documents of a set are locked in the order of their
+ * serialized reference, so two threads locking overlapping sets can't wait for each other. A lock is only kept while
+ * at least one thread holds or waits for it, so the number of entries doesn't grow with the number of documents ever
+ * locked.
+ * <p>
+ * These locks are independent of the {@code DocumentLockManager} used for action requests: the thread updating a family
+ * may already hold an action lock on one of the affected documents, and that manager would make it wait for itself.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+final class DocumentLocks
+{
+    private static final Comparator<DocumentReference> ORDER = Comparator.comparing(DocumentReference::toString);
+
+    /** The locks currently held or waited for. */
+    private final ConcurrentHashMap<DocumentReference, LockEntry> locks = new ConcurrentHashMap<>();
+
+    /**
+     * Locks all the specified documents, blocking until all of them are available. Documents already locked by the
+     * current thread are locked again, and must be released as many times.
+     *
+     * @param documents the documents to lock; {@code null} and duplicate references are ignored
+     * @return the acquired locks, which must be released by the same thread, usually in a try-with-resources block
+     */
+    Held lock(Collection<DocumentReference> documents)
+    {
+        TreeSet<DocumentReference> ordered = new TreeSet<>(ORDER);
+        for (DocumentReference document : documents) {
+            if (document != null) {
+                ordered.add(document);
+            }
+        }
+        final List<DocumentReference> acquired = new ArrayList<>(ordered.size());
+        try {
+            for (DocumentReference document : ordered) {
+                acquire(document);
+                acquired.add(document);
+            }
+        } catch (RuntimeException ex) {
+            release(acquired);
+            throw ex;
+        }
+        return () -> release(acquired);
+    }
+
+    /**
+     * The number of documents currently locked or waited for.
+     *
+     * @return a positive number, or {@code 0}
+     */
+    int size()
+    {
+        return this.locks.size();
+    }
+
+    private void acquire(DocumentReference document)
+    {
+        // Registering as a user of the entry prevents it from being evicted while this thread needs it
+        LockEntry entry = this.locks.compute(document, (k, existing) -> {
+            LockEntry result = existing != null ? existing : new LockEntry();
+            ++result.users;
+            return result;
+        });
+        entry.lock.lock();
+    }
+
+    /** Releases the locks in the reverse order of their acquisition. */
+    private void release(List<DocumentReference> acquired)
+    {
+        for (int i = acquired.size() - 1; i >= 0; --i) {
+            DocumentReference document = acquired.get(i);
+            this.locks.get(document).lock.unlock();
+            // Evict the entry once nobody holds or waits for it anymore
+            this.locks.computeIfPresent(document, (k, existing) -> --existing.users == 0 ? null : existing);
+        }
+    }
+
+    /** The locks acquired by one {@link DocumentLocks#lock(Collection)} call. */
+    interface Held extends AutoCloseable
+    {
+        /** Releases all the acquired locks. */
+        @Override
+        void close();
+    }
+
+    /** The lock of a document, along with the number of threads holding or waiting for it. */
+    private static final class LockEntry
+    {
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /** Guarded by the map, only updated while computing the entry. */
+        private int users;
+    }
+}
@@ -85,6 +85,13 @@ public boolean supportsRecordType(final String recordType)
         return "family".equals(recordType);
     }
 
+    @Override
+    public String getCacheKey(String recordType)
+    {
+        // Only depends on the UI extensions and the global configuration
+        return "";
+    }
+
     /**
      * Returns all the {@link UIExtension} sections for the default family sheet, and sorts them in preferred order.
      *
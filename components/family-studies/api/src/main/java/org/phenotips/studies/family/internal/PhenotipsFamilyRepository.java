@@ -45,8 +45,14 @@
 import org.xwiki.users.User;
 import org.xwiki.users.UserManager;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -61,7 +67,9 @@
 import com.xpn.xwiki.objects.BaseObject;
 
 /**
- * Provides utility methods for working with family documents and patients.
+ * Provides utility methods for working with family documents and patients. Operations updating a family lock the family
+ * document and the documents of the affected patients, so that concurrent updates of the same family are serialized,
+ * while updates of unrelated families proceed in parallel.
  *
  * @version $Id$
  * @since 1.4
@@ -92,6 +100,9 @@ public class PhenotipsFamilyRepository extends FamilyEntityManager implements Fa
     @Inject
     private EntityReferenceSerializer<String> entitySerializer;
 
+    /** Serializes the updates of the same family and of the same patients. */
+    private final DocumentLocks locks = new DocumentLocks();
+
     @Override
     public Family createFamily(User creator)
     {
@@ -99,7 +110,7 @@ public Family createFamily(User creator)
     }
 
     @Override
-    public synchronized Family create(final DocumentReference creator)
+    public Family create(final DocumentReference creator)
     {
         try {
             final XWikiContext context = this.xcontextProvider.get();
@@ -123,19 +134,29 @@ public synchronized Family create(final DocumentReference creator)
     }
 
     @Override
-    public synchronized boolean deleteFamily(Family family, User updatingUser, boolean deleteAllMembers)
+    public boolean deleteFamily(Family family, User updatingUser, boolean deleteAllMembers)
     {
         return delete(family, deleteAllMembers);
     }
 
     @Override
-    public synchronized boolean delete(final Family family)
+    public boolean delete(final Family family)
     {
         return delete(family, false);
     }
 
     @Override
-    public synchronized boolean delete(final Family family, boolean deleteAllMembers)
+    public boolean delete(final Family family, boolean deleteAllMembers)
+    {
+        if (family == null) {
+            return false;
+        }
+        try (DocumentLocks.Held held = lock(family, family.getMembersIds())) {
+            return deleteLocked(family, deleteAllMembers);
+        }
+    }
+
+    private boolean deleteLocked(final Family family, boolean deleteAllMembers)
     {
         // TODO: Should there be a SecureFamilyRepository to perform these checks (similar to SecurePatientRepository)?
         final User currentUser = this.userManager.getCurrentUser();
@@ -164,7 +185,7 @@ public boolean forceRemoveAllMembers(Family family, User updatingUser)
         if (!this.authorizationService.hasAccess(updatingUser, Right.EDIT, family.getDocumentReference())) {
             return false;
         }
-        try {
+        try (DocumentLocks.Held held = lock(family, family.getMembersIds())) {
             for (Patient patient : family.getMembers()) {
                 // remove the member without updating family document (use "batch mode")
                 // since we don't care about it as it will be removed anyway
@@ -218,9 +239,11 @@ public Family getFamilyForPatient(Patient patient)
     }
 
     @Override
-    public synchronized void addMember(Family family, Patient patient, User updatingUser) throws PTException
+    public void addMember(Family family, Patient patient, User updatingUser) throws PTException
     {
-        this.addMember(family, patient, updatingUser, false);
+        try (DocumentLocks.Held held = lock(family, patient)) {
+            this.addMember(family, patient, updatingUser, false);
+        }
     }
 
     /**
@@ -289,9 +312,11 @@ private void addMember(Family family, Patient patient, User updatingUser, boolea
     }
 
     @Override
-    public synchronized void removeMember(Family family, Patient patient, User updatingUser) throws PTException
+    public void removeMember(Family family, Patient patient, User updatingUser) throws PTException
     {
-        this.removeMember(family, patient, updatingUser, false);
+        try (DocumentLocks.Held held = lock(family, patient)) {
+            this.removeMember(family, patient, updatingUser, false);
+        }
     }
 
     private void removeMember(Family family, Patient patient, User updatingUser, boolean batchUpdate)
@@ -450,13 +475,41 @@ private void checkIfPatientCanBeRemovedFromFamily(Family family, Patient patient
     }
 
     @Override
-    public synchronized void setPedigree(Family family, Pedigree pedigree, User updatingUser) throws PTException
+    public void setPedigree(Family family, Pedigree pedigree, User updatingUser) throws PTException
+    {
+        List<String> oldMembers = getStoredMembersIds(family);
+        List<String> currentMembers = pedigree.extractIds();
+
+        // lock both the patients leaving and the patients joining the family; the members may change until the locks
+        // are held, so they are read again once locked, and the locks are taken again if new members appeared
+        Set<String> affectedMembers = new LinkedHashSet<>(currentMembers);
+        while (true) {
+            affectedMembers.addAll(oldMembers);
+            try (DocumentLocks.Held held = lock(family, affectedMembers)) {
+                oldMembers = getStoredMembersIds(family);
+                if (affectedMembers.containsAll(oldMembers)) {
+                    setPedigree(family, pedigree, updatingUser, oldMembers, currentMembers);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the members of a family from its stored document, which may have changed since the family was loaded.
+     */
+    private List<String> getStoredMembersIds(Family family)
+    {
+        Family stored = get(family.getId());
+        List<String> members = (stored != null ? stored : family).getMembersIds();
+        return members != null ? members : Collections.<String>emptyList();
+    }
+
+    private void setPedigree(Family family, Pedigree pedigree, User updatingUser, List<String> oldMembers,
+        List<String> currentMembers) throws PTException
     {
         // note: whenever available, internal versions of helper methods are used which modify the
         // family document but do not save it to disk
-        List<String> oldMembers = family.getMembersIds();
-
-        List<String> currentMembers = pedigree.extractIds();
 
         // Add new members to family
         List<String> patientsToAdd = new LinkedList<>();
@@ -610,7 +663,7 @@ private boolean savePatientDocument(XWikiDocument patientDocument, String docume
         return true;
     }
 
-    private synchronized boolean saveFamilyDocument(Family family, String documentHistoryComment, XWikiContext context)
+    private boolean saveFamilyDocument(Family family, String documentHistoryComment, XWikiContext context)
     {
         try {
             family.getXDocument().setAuthorReference(context.getUserReference());
@@ -623,6 +676,28 @@ private synchronized boolean saveFamilyDocument(Family family, String documentHi
         return true;
     }
 
+    /**
+     * Locks the family document and the document of a patient, if they are specified.
+     */
+    private DocumentLocks.Held lock(Family family, Patient patient)
+    {
+        return this.locks.lock(Arrays.asList(family == null ? null : family.getDocumentReference(),
+            patient == null ? null : patient.getDocumentReference()));
+    }
+
+    /**
+     * Locks the family document and the documents of the listed patients.
+     */
+    private DocumentLocks.Held lock(Family family, Collection<String> patientIds)
+    {
+        List<DocumentReference> documents = new ArrayList<>(patientIds.size() + 1);
+        documents.add(family.getDocumentReference());
+        for (String patientId : patientIds) {
+            documents.add(this.stringResolver.resolve(patientId, Patient.DEFAULT_DATA_SPACE));
+        }
+        return this.locks.lock(documents);
+    }
+
     /*
      * returns a reference to a family document from an XWiki patient document.
      */
@@ -0,0 +1,102 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.studies.family.internal;
+
+import org.xwiki.model.reference.DocumentReference;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link DocumentLocks} class.
+ *
+ * @version $Id$
+ */
+public class DocumentLocksTest
+{
+    private DocumentLocks locks = new DocumentLocks();
+
+    private DocumentReference family = new DocumentReference("xwiki", "Families", "FAM0000001");
+
+    private DocumentReference patient1 = new DocumentReference("xwiki", "data", "P0000001");
+
+    private DocumentReference patient2 = new DocumentReference("xwiki", "data", "P0000002");
+
+    @Test
+    public void locksAreReentrantAndEvictedWhenReleased()
+    {
+        try (DocumentLocks.Held outer = this.locks.lock(Arrays.asList(this.family, this.patient1, null))) {
+            Assert.assertEquals(2, this.locks.size());
+            try (DocumentLocks.Held inner = this.locks.lock(Arrays.asList(this.patient1, this.patient1))) {
+                Assert.assertEquals(2, this.locks.size());
+            }
+            Assert.assertEquals(2, this.locks.size());
+        }
+        Assert.assertEquals(0, this.locks.size());
+    }
+
+    @Test
+    public void lockedDocumentsBlockOtherThreads() throws InterruptedException
+    {
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread other = new Thread(() -> {
+            try (DocumentLocks.Held held = this.locks.lock(Collections.singleton(this.patient1))) {
+                acquired.countDown();
+            }
+        });
+        try (DocumentLocks.Held held = this.locks.lock(Arrays.asList(this.family, this.patient1))) {
+            other.start();
+            Assert.assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        }
+        Assert.assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        other.join();
+        Assert.assertEquals(0, this.locks.size());
+    }
+
+    @Test
+    public void overlappingSetsListedInDifferentOrdersDontDeadlock() throws InterruptedException
+    {
+        final AtomicInteger updates = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; ++i) {
+            final boolean reversed = i % 2 == 0;
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 200; ++j) {
+                    try (DocumentLocks.Held held = this.locks.lock(reversed
+                        ? Arrays.asList(this.patient2, this.patient1, this.family)
+                        : Arrays.asList(this.family, this.patient1, this.patient2))) {
+                        updates.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join(10000);
+            Assert.assertFalse(thread.isAlive());
+        }
+        Assert.assertEquals(1600, updates.get());
+        Assert.assertEquals(0, this.locks.size());
+    }
+}
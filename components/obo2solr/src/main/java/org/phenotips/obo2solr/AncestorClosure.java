@@ -0,0 +1,180 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.obo2solr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replaces the {@link TermData#TERM_CATEGORY_FIELD_NAME term categories} of all the terms of an ontology with the
+ * term itself and all its ancestors. Term identifiers are mapped to integers, and the closures are computed once per
+ * term, in topological order, each one being the union of the memoized closures of its parents. Identifiers
+ * referenced as parents but not defined in the ontology are kept as ancestors without parents of their own.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+final class AncestorClosure
+{
+    private static final int[] NONE = new int[0];
+
+    private static final byte UNVISITED = 0;
+
+    private static final byte VISITING = 1;
+
+    private static final byte DONE = 2;
+
+    private final Map<String, Integer> indexes = new HashMap<>();
+
+    private final List<String> ids = new ArrayList<>();
+
+    /** The direct parents of each term, as indexes. */
+    private final List<int[]> parents = new ArrayList<>();
+
+    /** The memoized closures, sorted arrays of indexes; the term itself is not included. */
+    private int[][] closures;
+
+    private AncestorClosure()
+    {
+        // Only used by expand
+    }
+
+    /**
+     * Expands the term categories of all the terms in the ontology.
+     *
+     * @param data the parsed ontology, will be modified
+     */
+    static void expand(Map<String, TermData> data)
+    {
+        AncestorClosure closure = new AncestorClosure();
+        for (String id : data.keySet()) {
+            closure.index(id);
+        }
+        for (TermData term : data.values()) {
+            Collection<String> categories = term.get(TermData.TERM_CATEGORY_FIELD_NAME);
+            if (categories == null || categories.isEmpty()) {
+                continue;
+            }
+            int termIndex = closure.indexes.get(term.getId());
+            int[] termParents = new int[categories.size()];
+            int i = 0;
+            for (String category : categories) {
+                termParents[i++] = closure.index(category);
+            }
+            closure.parents.set(termIndex, termParents);
+        }
+        closure.compute();
+
+        for (TermData term : data.values()) {
+            int termIndex = closure.indexes.get(term.getId());
+            Set<String> result = new LinkedHashSet<>();
+            result.add(term.getId());
+            for (int parent : closure.parents.get(termIndex)) {
+                result.add(closure.ids.get(parent));
+            }
+            for (int ancestor : closure.closures[termIndex]) {
+                result.add(closure.ids.get(ancestor));
+            }
+            term.put(TermData.TERM_CATEGORY_FIELD_NAME, result);
+        }
+    }
+
+    private int index(String id)
+    {
+        Integer result = this.indexes.get(id);
+        if (result == null) {
+            result = this.ids.size();
+            this.indexes.put(id, result);
+            this.ids.add(id);
+            this.parents.add(NONE);
+        }
+        return result;
+    }
+
+    /**
+     * Computes the closures with an iterative depth-first traversal, so that the parents of a term are always done
+     * before the term itself. Edges closing a cycle, which shouldn't exist in an is_a hierarchy, are not followed.
+     */
+    private void compute()
+    {
+        int size = this.ids.size();
+        this.closures = new int[size][];
+        byte[] state = new byte[size];
+        int[] stack = new int[size];
+        int[] cursor = new int[size];
+        BitSet seen = new BitSet(size);
+        int[] buffer = new int[16];
+
+        for (int root = 0; root < size; ++root) {
+            if (state[root] != UNVISITED) {
+                continue;
+            }
+            int depth = 0;
+            stack[0] = root;
+            cursor[0] = 0;
+            state[root] = VISITING;
+            while (depth >= 0) {
+                int node = stack[depth];
+                int[] nodeParents = this.parents.get(node);
+                if (cursor[depth] < nodeParents.length) {
+                    int parent = nodeParents[cursor[depth]++];
+                    if (state[parent] == UNVISITED) {
+                        state[parent] = VISITING;
+                        stack[++depth] = parent;
+                        cursor[depth] = 0;
+                    }
+                    continue;
+                }
+
+                // All the parents are done, merge their closures
+                int count = 0;
+                for (int parent : nodeParents) {
+                    int[] parentClosure = state[parent] == DONE ? this.closures[parent] : NONE;
+                    if (count + parentClosure.length + 1 > buffer.length) {
+                        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + parentClosure.length + 1));
+                    }
+                    if (!seen.get(parent)) {
+                        seen.set(parent);
+                        buffer[count++] = parent;
+                    }
+                    for (int ancestor : parentClosure) {
+                        if (!seen.get(ancestor)) {
+                            seen.set(ancestor);
+                            buffer[count++] = ancestor;
+                        }
+                    }
+                }
+                int[] nodeClosure = count == 0 ? NONE : Arrays.copyOf(buffer, count);
+                Arrays.sort(nodeClosure);
+                for (int ancestor : nodeClosure) {
+                    seen.clear(ancestor);
+                }
+                this.closures[node] = nodeClosure;
+                state[node] = DONE;
+                --depth;
+            }
+        }
+    }
+}
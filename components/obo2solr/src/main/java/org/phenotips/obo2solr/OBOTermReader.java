@@ -0,0 +1,322 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.obo2solr;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Streaming reader for OBO files, returning the parsed terms one by one, as soon as their stanza ends. Only
+ * {@code [Term]} stanzas are returned, plus a {@code HEADER_INFO} pseudo-term holding the {@code version} of the
+ * ontology when the header declares a {@code data-version}. Lines are scanned by hand instead of being matched
+ * against regular expressions, which used to dominate the parsing time.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+public class OBOTermReader implements Closeable
+{
+    private static final String TERM_MARKER = "[Term]";
+
+    private static final String DATA_VERSION = "data-version";
+
+    private static final String HEADER_ID = "HEADER_INFO";
+
+    private static final String VERSION_FIELD_NAME = "version";
+
+    /** Removes the quotes around a value, along with any modifiers and references following it. */
+    private static final Pattern QUOTED_VALUE = Pattern.compile("^\"(.+)\"\\s*?(?:[A-Z]+|\\[).*");
+
+    /** Removes trailing qualifiers, such as {@code {source="..."}}. */
+    private static final Pattern TRAILING_QUALIFIERS = Pattern.compile("\\s+\\{.*$");
+
+    /** Removes the comment following a HPO identifier, such as {@code HP:0000118 ! Phenotypic abnormality}. */
+    private static final Pattern COMMENTED_ID = Pattern.compile("^(HP:\\d{7}) ! .*$");
+
+    private static final String ESCAPED_QUOTE = "\\\"";
+
+    private static final String QUOTE = "\"";
+
+    private static final int HPO_ID_LENGTH = 10;
+
+    private final BufferedReader in;
+
+    private final Map<String, Double> fieldSelection;
+
+    /** Field names are the same in all the terms, only keep one instance of each. */
+    private final Map<String, String> fieldNames = new HashMap<>();
+
+    /** The number of stanzas started so far; nothing is stored until the first stanza starts. */
+    private int counter;
+
+    /** Data outside a {@code [Term]} stanza is skipped. */
+    private boolean skip;
+
+    private TermData crtTerm = new TermData();
+
+    private boolean done;
+
+    /**
+     * Simple constructor.
+     *
+     * @param in the OBO source to parse
+     * @param fieldSelection the fields to keep, all the other fields are ignored; if empty, all fields are kept
+     */
+    public OBOTermReader(Reader in, Map<String, Double> fieldSelection)
+    {
+        this.in = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+        this.fieldSelection = fieldSelection;
+    }
+
+    /**
+     * Reads the next term. Terms without an identifier are skipped.
+     *
+     * @return the next term, or {@code null} if the end of the input was reached
+     * @throws IOException if reading the input fails
+     */
+    public TermData readTerm() throws IOException
+    {
+        if (this.done) {
+            return null;
+        }
+        String line;
+        while ((line = this.in.readLine()) != null) {
+            TermData result = null;
+            int start = 0;
+            int end = line.length();
+            while (start < end && line.charAt(start) <= ' ') {
+                ++start;
+            }
+            while (end > start && line.charAt(end - 1) <= ' ') {
+                --end;
+            }
+            if (isStanzaHeader(line, start, end)) {
+                if (this.counter > 0) {
+                    result = nextTerm();
+                }
+                // Overridden below
+                this.skip = true;
+                if (end - start == TERM_MARKER.length()
+                    && line.regionMatches(true, start, TERM_MARKER, 0, TERM_MARKER.length())) {
+                    ++this.counter;
+                    this.skip = false;
+                }
+            } else if (!this.skip) {
+                readField(line);
+            }
+            if (result != null) {
+                return result;
+            }
+        }
+        this.done = true;
+        return this.counter > 0 ? nextTerm() : null;
+    }
+
+    /**
+     * Returns the number of {@code [Term]} stanzas encountered so far, plus one for a header declaring a
+     * {@code data-version}.
+     *
+     * @return a positive number
+     */
+    public int getStanzaCount()
+    {
+        return this.counter;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        this.in.close();
+    }
+
+    private TermData nextTerm()
+    {
+        TermData term = this.crtTerm;
+        this.crtTerm = new TermData();
+        return term.getId() != null ? term : null;
+    }
+
+    /** Checks if the trimmed line looks like {@code [Name]}. */
+    private static boolean isStanzaHeader(String line, int start, int end)
+    {
+        if (end - start < 3 || line.charAt(start) != '[' || line.charAt(end - 1) != ']') {
+            return false;
+        }
+        for (int i = start + 1; i < end - 1; ++i) {
+            char c = line.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Splits a {@code name: value} line on the first colon followed by whitespace. */
+    private void readField(String line)
+    {
+        int length = line.length();
+        int separator = -1;
+        for (int i = 0; i < length - 1; ++i) {
+            if (line.charAt(i) == ':' && isWhitespace(line.charAt(i + 1))) {
+                separator = i;
+                break;
+            }
+        }
+        if (separator < 0) {
+            return;
+        }
+        int nameEnd = separator;
+        while (nameEnd > 0 && isWhitespace(line.charAt(nameEnd - 1))) {
+            --nameEnd;
+        }
+        int valueStart = separator + 1;
+        while (valueStart < length && isWhitespace(line.charAt(valueStart))) {
+            ++valueStart;
+        }
+        String name = line.substring(0, nameEnd);
+        String value = line.substring(valueStart);
+        if (DATA_VERSION.equals(name.trim())) {
+            this.crtTerm.addTo(VERSION_FIELD_NAME, value);
+            this.crtTerm.addTo(TermData.ID_FIELD_NAME, HEADER_ID);
+            this.counter++;
+        }
+        if (isFieldSelected(name)) {
+            this.crtTerm.addTo(canonicalName(name), normalizeValue(value));
+        }
+    }
+
+    private boolean isFieldSelected(String name)
+    {
+        return this.fieldSelection.isEmpty() || this.fieldSelection.containsKey(name);
+    }
+
+    private String canonicalName(String name)
+    {
+        String result = this.fieldNames.get(name);
+        if (result == null) {
+            result = name;
+            this.fieldNames.put(name, name);
+        }
+        return result;
+    }
+
+    /**
+     * Strips quotes, modifiers, trailing qualifiers and identifier comments from a value, and unescapes quotes.
+     *
+     * @param value the raw value, as found in the OBO file
+     * @return the cleaned up value
+     */
+    static String normalizeValue(String value)
+    {
+        if (hasLineTerminator(value)) {
+            // Let the original patterns deal with the corner cases of . and $
+            return COMMENTED_ID.matcher(TRAILING_QUALIFIERS.matcher(QUOTED_VALUE.matcher(value).replaceFirst("$1"))
+                .replaceFirst("")).replaceFirst("$1").replace(ESCAPED_QUOTE, QUOTE);
+        }
+        String result = unquote(value);
+        result = stripQualifiers(result);
+        result = stripIdComment(result);
+        if (result.indexOf(ESCAPED_QUOTE) >= 0) {
+            result = result.replace(ESCAPED_QUOTE, QUOTE);
+        }
+        return result;
+    }
+
+    /** {@code "text" EXACT [refs]} or {@code "text" [refs]} becomes {@code text}, using the last matching quote. */
+    private static String unquote(String value)
+    {
+        int length = value.length();
+        if (length < 3 || value.charAt(0) != '"') {
+            return value;
+        }
+        for (int quote = length - 1; quote >= 2; --quote) {
+            if (value.charAt(quote) != '"') {
+                continue;
+            }
+            int next = quote + 1;
+            while (next < length && isWhitespace(value.charAt(next))) {
+                ++next;
+            }
+            char c = next < length ? value.charAt(next) : 0;
+            if (c >= 'A' && c <= 'Z' || c == '[') {
+                return value.substring(1, quote);
+            }
+        }
+        return value;
+    }
+
+    /** Removes everything starting with the first whitespace followed by an opening brace. */
+    private static String stripQualifiers(String value)
+    {
+        int length = value.length();
+        int i = 0;
+        while (i < length) {
+            if (!isWhitespace(value.charAt(i))) {
+                ++i;
+                continue;
+            }
+            int next = i;
+            while (next < length && isWhitespace(value.charAt(next))) {
+                ++next;
+            }
+            if (next < length && value.charAt(next) == '{') {
+                return value.substring(0, i);
+            }
+            i = next;
+        }
+        return value;
+    }
+
+    /** {@code HP:0000118 ! Phenotypic abnormality} becomes {@code HP:0000118}. */
+    private static String stripIdComment(String value)
+    {
+        if (value.length() < HPO_ID_LENGTH + 3 || !value.startsWith("HP:")
+            || !value.startsWith(" ! ", HPO_ID_LENGTH)) {
+            return value;
+        }
+        for (int i = 3; i < HPO_ID_LENGTH; ++i) {
+            if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+                return value;
+            }
+        }
+        return value.substring(0, HPO_ID_LENGTH);
+    }
+
+    /** Same as {@code \s} in regular expressions. */
+    private static boolean isWhitespace(char c)
+    {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /** Characters that {@code .} doesn't match in regular expressions. */
+    private static boolean hasLineTerminator(String value)
+    {
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
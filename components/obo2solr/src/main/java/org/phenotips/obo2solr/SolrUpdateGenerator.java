@@ -30,21 +30,8 @@
 
 public class SolrUpdateGenerator
 {
-    private static final String TERM_MARKER = "[Term]";
-
-    /** Not all entities are terms prompted by the presence of a {@link #TERM_MARKER} */
-    private static final String ENTITY_SEPARATION_REGEX = "^\\[[a-zA-Z]+\\]$";
-
-    private static final String FIELD_NAME_VALUE_SEPARATOR = "\\s*:\\s+";
-
-    private int counter;
-
-    private TermData crtTerm = new TermData();
-
     private Map<String, TermData> data = new LinkedHashMap<>();
 
-    private Map<String, Double> fieldSelection;
-
     private Logger logger = LoggerFactory.getLogger(this.getClass());
 
     public Map<String, TermData> transform(String ontologyUrl, Map<String, Double> fieldSelection)
@@ -60,86 +47,18 @@ public Map<String, TermData> transform(String ontologyUrl, Map<String, Double> f
 
     public Map<String, TermData> transform(URL input, Map<String, Double> fieldSelection)
     {
-        this.fieldSelection = fieldSelection;
-        try {
-            BufferedReader in = new BufferedReader(new InputStreamReader(input.openConnection().getInputStream()));
-            String line;
-            this.counter = 0;
-
-            /*
-             * When encountering a separator that is not a term separator, all data should be skipped until a term
-             * separator is encountered again
-             */
-            boolean skip = false;
-            while ((line = in.readLine()) != null) {
-                if (line.trim().matches(ENTITY_SEPARATION_REGEX)) {
-                    if (this.counter > 0) {
-                        storeCrtTerm();
-                    }
-                    // Overridden below
-                    skip = true;
-                }
-                if (line.trim().equalsIgnoreCase(TERM_MARKER)) {
-                    ++this.counter;
-                    skip = false;
-                    continue;
-                }
-                if (!skip) {
-                    String[] pieces = line.split(FIELD_NAME_VALUE_SEPARATOR, 2);
-                    if (pieces.length != 2) {
-                        continue;
-                    }
-                    if (pieces[0].trim().equals("data-version")) {
-                        this.crtTerm.addTo("version", pieces[1]);
-                        this.crtTerm.addTo(TermData.ID_FIELD_NAME, "HEADER_INFO");
-                        this.counter++;
-                    }
-                    loadField(pieces[0], pieces[1]);
-                }
-            }
-            if (this.counter > 0) {
-                storeCrtTerm();
+        try (OBOTermReader in = new OBOTermReader(
+            new BufferedReader(new InputStreamReader(input.openConnection().getInputStream())), fieldSelection)) {
+            TermData term;
+            while ((term = in.readTerm()) != null) {
+                this.data.put(term.getId(), term);
             }
-            if (isFieldSelected(TermData.TERM_CATEGORY_FIELD_NAME)) {
-                propagateAncestors();
+            if (fieldSelection.isEmpty() || fieldSelection.containsKey(TermData.TERM_CATEGORY_FIELD_NAME)) {
+                TermData.expandAllTermCategories(this.data);
             }
-        } catch (NullPointerException ex) {
-            this.logger.error("NullPointer: {}", ex.getMessage());
         } catch (IOException ex) {
             this.logger.error("IOException: {}", ex.getMessage());
-        } finally {
-            this.fieldSelection = null;
         }
         return this.data;
     }
-
-    private void storeCrtTerm()
-    {
-        if (this.crtTerm.getId() != null) {
-            this.data.put(this.crtTerm.getId(), this.crtTerm);
-        }
-        this.crtTerm = new TermData();
-    }
-
-    private boolean isFieldSelected(String name)
-    {
-        return this.fieldSelection.isEmpty() || this.fieldSelection.containsKey(name);
-    }
-
-    private void loadField(String name, String value)
-    {
-        if (!(isFieldSelected(name))) {
-            return;
-        }
-        this.crtTerm.addTo(name, value.replaceFirst("^\"(.+)\"\\s*?(?:[A-Z]+|\\[).*", "$1")
-            .replaceFirst("\\s+\\{.*$", "").replaceFirst("^(HP:\\d{7}) ! .*$", "$1").replace("\\\"", "\""));
-    }
-
-    private void propagateAncestors()
-    {
-        for (String id : this.data.keySet()) {
-            TermData term = this.data.get(id);
-            term.expandTermCategories(this.data);
-        }
-    }
 }
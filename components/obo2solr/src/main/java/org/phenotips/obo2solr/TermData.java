@@ -20,11 +20,13 @@
 import org.phenotips.obo2solr.maps.SetMap;
 
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.regex.Pattern;
 
 public class TermData extends SetMap<String, String>
 {
@@ -38,6 +40,10 @@ public class TermData extends SetMap<String, String>
 
     public static final String PARENT_ID_REGEX = "^(HP\\:[0-9]{7})\\s*!\\s*.*";
 
+    private static final Pattern PARENT_ID_PATTERN = Pattern.compile(PARENT_ID_REGEX);
+
+    private static final String PARENT_ID_PREFIX = "HP:";
+
     private String id;
 
     @Override
@@ -58,7 +64,7 @@ public boolean addTo(String key, String value)
         if (ID_FIELD_NAME.equals(key)) {
             this.id = value;
         } else if (PARENT_FIELD_NAME.equals(key)) {
-            this.addTo(TERM_CATEGORY_FIELD_NAME, value.replaceAll(PARENT_ID_REGEX, "$1"));
+            this.addTo(TERM_CATEGORY_FIELD_NAME, getParentId(value));
         }
         return super.addTo(key, value);
     }
@@ -73,10 +79,19 @@ public boolean addTo(String key, Collection<String> values)
         return result;
     }
 
+    /**
+     * Expands the term categories of this term only. Expanding all the terms this way is quadratic, use
+     * {@link #expandAllTermCategories(Map)} instead.
+     *
+     * @param data the whole ontology
+     * @deprecated since 1.4, use {@link #expandAllTermCategories(Map)}
+     */
+    @Deprecated
     public void expandTermCategories(Map<String, TermData> data)
     {
         Set<String> result = new LinkedHashSet<>();
         Queue<String> front = new LinkedList<>();
+        Set<String> queued = new HashSet<>();
 
         if (this.get(TERM_CATEGORY_FIELD_NAME) == null) {
             this.put(TERM_CATEGORY_FIELD_NAME, super.getEmptyCollection());
@@ -84,6 +99,7 @@ public void expandTermCategories(Map<String, TermData> data)
 
         result.add(this.id);
         front.addAll(this.get(TERM_CATEGORY_FIELD_NAME));
+        queued.addAll(front);
         String nextTermId;
         while ((nextTermId = front.poll()) != null) {
             result.add(nextTermId);
@@ -91,12 +107,32 @@ public void expandTermCategories(Map<String, TermData> data)
                 continue;
             }
             for (String parentTermId : data.get(nextTermId).get(PARENT_FIELD_NAME)) {
-                parentTermId = parentTermId.replaceAll(PARENT_ID_REGEX, "$1");
-                if (!result.contains(parentTermId) && !front.contains(parentTermId)) {
+                parentTermId = getParentId(parentTermId);
+                if (!result.contains(parentTermId) && queued.add(parentTermId)) {
                     front.add(parentTermId);
                 }
             }
         }
         this.put(TERM_CATEGORY_FIELD_NAME, result);
     }
+
+    /**
+     * Replaces the term categories of all the terms with the term itself and all its ancestors, computing the
+     * ancestors of each term only once.
+     *
+     * @param data the whole ontology, will be modified
+     * @since 1.4
+     */
+    public static void expandAllTermCategories(Map<String, TermData> data)
+    {
+        AncestorClosure.expand(data);
+    }
+
+    private static String getParentId(String value)
+    {
+        if (!value.startsWith(PARENT_ID_PREFIX)) {
+            return value;
+        }
+        return PARENT_ID_PATTERN.matcher(value).replaceAll("$1");
+    }
 }
@@ -0,0 +1,127 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.obo2solr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link AncestorClosure} class.
+ *
+ * @version $Id$
+ */
+public class AncestorClosureTest
+{
+    @Test
+    public void categoriesHoldTheTermAndAllItsAncestors()
+    {
+        Map<String, TermData> data = new LinkedHashMap<>();
+        addTerm(data, "HP:0000004", "HP:0000002", "HP:0000003");
+        addTerm(data, "HP:0000001");
+        addTerm(data, "HP:0000002", "HP:0000001");
+        addTerm(data, "HP:0000003", "HP:0000001");
+
+        AncestorClosure.expand(data);
+
+        Assert.assertEquals(Arrays.asList("HP:0000004", "HP:0000002", "HP:0000003", "HP:0000001"),
+            categories(data, "HP:0000004"));
+        Assert.assertEquals(Arrays.asList("HP:0000002", "HP:0000001"), categories(data, "HP:0000002"));
+        Assert.assertEquals(Arrays.asList("HP:0000001"), categories(data, "HP:0000001"));
+    }
+
+    @Test
+    public void cyclesAreExpandedOnce()
+    {
+        Map<String, TermData> data = new LinkedHashMap<>();
+        addTerm(data, "HP:0000001", "HP:0000002");
+        addTerm(data, "HP:0000002", "HP:0000001");
+        addTerm(data, "HP:0000003", "HP:0000002");
+
+        AncestorClosure.expand(data);
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList("HP:0000001", "HP:0000002")),
+            new HashSet<>(categories(data, "HP:0000001")));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("HP:0000001", "HP:0000002")),
+            new HashSet<>(categories(data, "HP:0000002")));
+        Assert.assertEquals(Arrays.asList("HP:0000003", "HP:0000002", "HP:0000001"), categories(data, "HP:0000003"));
+    }
+
+    @Test
+    public void missingParentsAreKeptAsAncestors()
+    {
+        Map<String, TermData> data = new LinkedHashMap<>();
+        addTerm(data, "HP:0000001", "HP:9999999");
+        addTerm(data, "HP:0000002", "HP:0000001");
+
+        AncestorClosure.expand(data);
+
+        Assert.assertEquals(Arrays.asList("HP:0000002", "HP:0000001", "HP:9999999"), categories(data, "HP:0000002"));
+        Assert.assertEquals(2, data.size());
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void closuresMatchThePerTermExpansion()
+    {
+        Random random = new Random(42);
+        Map<String, TermData> expected = new LinkedHashMap<>();
+        Map<String, TermData> actual = new LinkedHashMap<>();
+        for (int i = 0; i < 300; ++i) {
+            String id = String.format("HP:%07d", i);
+            List<String> parents = new ArrayList<>();
+            for (int j = random.nextInt(4); j > 0 && i > 0; --j) {
+                parents.add(String.format("HP:%07d", random.nextInt(i)));
+            }
+            addTerm(expected, id, parents.toArray(new String[parents.size()]));
+            addTerm(actual, id, parents.toArray(new String[parents.size()]));
+        }
+
+        for (TermData term : expected.values()) {
+            term.expandTermCategories(expected);
+        }
+        TermData.expandAllTermCategories(actual);
+
+        for (String id : expected.keySet()) {
+            Assert.assertEquals(id, new HashSet<>(categories(expected, id)), new HashSet<>(categories(actual, id)));
+            Assert.assertEquals(id, categories(actual, id).get(0));
+        }
+    }
+
+    private static void addTerm(Map<String, TermData> data, String id, String... parents)
+    {
+        TermData term = new TermData();
+        term.addTo(TermData.ID_FIELD_NAME, id);
+        for (String parent : parents) {
+            term.addTo(TermData.PARENT_FIELD_NAME, parent + " ! Parent of " + id);
+        }
+        data.put(id, term);
+    }
+
+    private static List<String> categories(Map<String, TermData> data, String id)
+    {
+        return new ArrayList<>(data.get(id).get(TermData.TERM_CATEGORY_FIELD_NAME));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.obo2solr;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the OBO parsing throughput on a real ontology, either only streaming the terms with {@link OBOTermReader},
+ * or building the whole ontology with its term categories expanded, as {@link SolrUpdateGenerator} does. The number
+ * of parsed terms per second is reported as the {@code terms} secondary result, and the memory allocated for each
+ * parse as the {@code gc.alloc.rate.norm} result of the JMH {@code gc} profiler. Download {@code hp.obo} and run
+ * with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.phenotips.obo2solr.OBOParserBenchmark -Dexec.args=/path/to/hp.obo}.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class OBOParserBenchmark
+{
+    private static final String INPUT_PROPERTY = "obo";
+
+    private static final Map<String, Double> ALL_FIELDS = Collections.emptyMap();
+
+    private File input;
+
+    /** Counts the parsed terms, reported by JMH as terms per second. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Terms
+    {
+        public long terms;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            this.terms = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        this.input = new File(System.getProperty(INPUT_PROPERTY, "hp.obo"));
+        if (!this.input.isFile()) {
+            throw new IllegalStateException("Missing OBO file: " + this.input.getAbsolutePath());
+        }
+    }
+
+    @Benchmark
+    public int streamTerms(Terms counter) throws IOException
+    {
+        int fields = 0;
+        try (OBOTermReader reader = new OBOTermReader(
+            new InputStreamReader(new FileInputStream(this.input), StandardCharsets.UTF_8), ALL_FIELDS)) {
+            TermData term;
+            while ((term = reader.readTerm()) != null) {
+                fields += term.size();
+                ++counter.terms;
+            }
+        }
+        return fields;
+    }
+
+    @Benchmark
+    public Map<String, TermData> transform(Terms counter) throws IOException
+    {
+        Map<String, TermData> result = new SolrUpdateGenerator().transform(this.input.toURI().toURL(), ALL_FIELDS);
+        counter.terms += result.size();
+        return result;
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        String input = args.length > 0 ? args[0] : System.getProperty(INPUT_PROPERTY, "hp.obo");
+        new Runner(new OptionsBuilder().include(OBOParserBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .jvmArgsAppend("-D" + INPUT_PROPERTY + "=" + new File(input).getAbsolutePath()).build()).run();
+    }
+}
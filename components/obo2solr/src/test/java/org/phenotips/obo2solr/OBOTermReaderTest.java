@@ -0,0 +1,264 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.obo2solr;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link OBOTermReader} class, comparing its output with the regular expressions used before.
+ *
+ * @version $Id$
+ */
+public class OBOTermReaderTest
+{
+    private static final String FIXTURE = "/test.obo";
+
+    private static final List<String> VALUES = Arrays.asList(
+        "\"Head and neck abnormality\" EXACT layperson [HPO:skoehler]",
+        "\"Abnormal head\" RELATED []",
+        "\"An abnormality of head and neck.\" [HPO:probinson]",
+        "\"The \\\"quoted\\\" head\" NARROW [HPO:skoehler]",
+        "\"a\" \"b\" EXACT []",
+        "\"no space\"EXACT []",
+        "\"tab\tseparated\"\tRELATED []",
+        "\"lowercase modifier\" exact []",
+        "\"no modifier\"",
+        "\"\" EXACT []",
+        "\"x\" EXACT [] {source=\"HPO\"}",
+        "UMLS:C4021817 {source=\"HPO\"}",
+        "UMLS:C4021817  {source=\"HPO\"} {other=\"x\"}",
+        "{source=\"HPO\"}",
+        "value\t{qualifier}",
+        "HP:0000118 ! Phenotypic abnormality",
+        "HP:000011 ! Too short",
+        "HP:00001189 ! Too long",
+        "HP:0000118 !No space",
+        "HP:0000118",
+        "ORPHA:1234 ! Not HPO",
+        "An \\\"escaped\\\" quote",
+        "\"line\u2028separator\" EXACT []",
+        "",
+        "plain");
+
+    @Test
+    public void quotedValuesAreUnquoted()
+    {
+        Assert.assertEquals("Head and neck abnormality",
+            OBOTermReader.normalizeValue("\"Head and neck abnormality\" EXACT layperson [HPO:skoehler]"));
+        Assert.assertEquals("Abnormal head", OBOTermReader.normalizeValue("\"Abnormal head\" []"));
+        Assert.assertEquals("The \"quoted\" head",
+            OBOTermReader.normalizeValue("\"The \\\"quoted\\\" head\" NARROW [HPO:skoehler]"));
+        Assert.assertEquals("\"no modifier\"", OBOTermReader.normalizeValue("\"no modifier\""));
+    }
+
+    @Test
+    public void qualifiersAndCommentsAreRemoved()
+    {
+        Assert.assertEquals("UMLS:C4021817", OBOTermReader.normalizeValue("UMLS:C4021817 {source=\"HPO\"}"));
+        Assert.assertEquals("HP:0000118", OBOTermReader.normalizeValue("HP:0000118 ! Phenotypic abnormality"));
+        Assert.assertEquals("HP:000011 ! Too short", OBOTermReader.normalizeValue("HP:000011 ! Too short"));
+    }
+
+    @Test
+    public void valuesAreNormalizedLikeBefore()
+    {
+        for (String value : VALUES) {
+            Assert.assertEquals(value, normalizeWithRegularExpressions(value), OBOTermReader.normalizeValue(value));
+        }
+    }
+
+    @Test
+    public void onlyTermsAndTheHeaderAreRead() throws IOException
+    {
+        List<String> ids = new ArrayList<>();
+        try (OBOTermReader reader = open(Collections.<String, Double>emptyMap())) {
+            TermData term;
+            while ((term = reader.readTerm()) != null) {
+                ids.add(term.getId());
+            }
+            Assert.assertNull(reader.readTerm());
+            // Seven term stanzas, and the header declaring a data-version
+            Assert.assertEquals(8, reader.getStanzaCount());
+        }
+        Assert.assertEquals(Arrays.asList("HEADER_INFO", "HP:0000001", "HP:0000118", "HP:0000152", "HP:0000234",
+            "HP:0000900", "HP:0000901"), ids);
+    }
+
+    @Test
+    public void headerHoldsTheDataVersion() throws IOException
+    {
+        try (OBOTermReader reader = open(Collections.<String, Double>emptyMap())) {
+            TermData header = reader.readTerm();
+            Assert.assertEquals(Collections.singletonList("hp/releases/2019-09-06"),
+                new ArrayList<>(header.get("version")));
+            Assert.assertEquals(Collections.singletonList("hp"), new ArrayList<>(header.get("ontology")));
+        }
+    }
+
+    @Test
+    public void fieldsAreSplitOnTheFirstColon() throws IOException
+    {
+        TermData term = read("[Term]\nid: HP:0000234\ncomment: A comment: with a colon\nnocolon\nurl:http://x\n")
+            .get("HP:0000234");
+        Assert.assertEquals(Collections.singletonList("A comment: with a colon"),
+            new ArrayList<>(term.get("comment")));
+        Assert.assertNull(term.get("url"));
+        Assert.assertEquals(2, term.size());
+    }
+
+    @Test
+    public void emptyInputHasNoTerms() throws IOException
+    {
+        Assert.assertTrue(read("").isEmpty());
+        Assert.assertTrue(read("format-version: 1.2\n\n[Typedef]\nid: part_of\n").isEmpty());
+    }
+
+    @Test
+    public void termsAreReadLikeBefore() throws IOException
+    {
+        assertSameTerms(Collections.<String, Double>emptyMap());
+    }
+
+    @Test
+    public void selectedFieldsAreReadLikeBefore() throws IOException
+    {
+        Map<String, Double> selection = new HashMap<>();
+        selection.put(TermData.ID_FIELD_NAME, 1.0);
+        selection.put("name", 1.0);
+        selection.put("synonym", 0.5);
+        selection.put(TermData.PARENT_FIELD_NAME, 1.0);
+        assertSameTerms(selection);
+    }
+
+    private void assertSameTerms(Map<String, Double> selection) throws IOException
+    {
+        URL source = getClass().getResource(FIXTURE);
+        Map<String, TermData> expected = readWithRegularExpressions(source, selection);
+        Map<String, TermData> actual = new SolrUpdateGenerator().transform(source, selection);
+        Assert.assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(actual.keySet()));
+        for (Map.Entry<String, TermData> term : expected.entrySet()) {
+            TermData actualTerm = actual.get(term.getKey());
+            Assert.assertEquals(term.getKey(), new ArrayList<>(term.getValue().keySet()),
+                new ArrayList<>(actualTerm.keySet()));
+            for (Map.Entry<String, Collection<String>> field : term.getValue().entrySet()) {
+                if (TermData.TERM_CATEGORY_FIELD_NAME.equals(field.getKey())) {
+                    // The ancestors are listed in a different order
+                    Assert.assertEquals(term.getKey(), new HashSet<>(field.getValue()),
+                        new HashSet<>(actualTerm.get(field.getKey())));
+                } else {
+                    Assert.assertEquals(term.getKey(), new ArrayList<>(field.getValue()),
+                        new ArrayList<>(actualTerm.get(field.getKey())));
+                }
+            }
+        }
+    }
+
+    private OBOTermReader open(Map<String, Double> selection)
+    {
+        return new OBOTermReader(
+            new InputStreamReader(getClass().getResourceAsStream(FIXTURE), StandardCharsets.UTF_8), selection);
+    }
+
+    private Map<String, TermData> read(String source) throws IOException
+    {
+        Map<String, TermData> result = new LinkedHashMap<>();
+        try (OBOTermReader reader = new OBOTermReader(new StringReader(source),
+            Collections.<String, Double>emptyMap())) {
+            TermData term;
+            while ((term = reader.readTerm()) != null) {
+                result.put(term.getId(), term);
+            }
+        }
+        return result;
+    }
+
+    private static String normalizeWithRegularExpressions(String value)
+    {
+        return value.replaceFirst("^\"(.+)\"\\s*?(?:[A-Z]+|\\[).*", "$1").replaceFirst("\\s+\\{.*$", "")
+            .replaceFirst("^(HP:\\d{7}) ! .*$", "$1").replace("\\\"", "\"");
+    }
+
+    /** The line by line parsing done by {@link SolrUpdateGenerator} before the scanner was introduced. */
+    @SuppressWarnings("deprecation")
+    private static Map<String, TermData> readWithRegularExpressions(URL source, Map<String, Double> selection)
+        throws IOException
+    {
+        Map<String, TermData> data = new LinkedHashMap<>();
+        TermData crtTerm = new TermData();
+        int counter = 0;
+        boolean skip = false;
+        try (BufferedReader in =
+            new BufferedReader(new InputStreamReader(source.openStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.trim().matches("^\\[[a-zA-Z]+\\]$")) {
+                    if (counter > 0) {
+                        if (crtTerm.getId() != null) {
+                            data.put(crtTerm.getId(), crtTerm);
+                        }
+                        crtTerm = new TermData();
+                    }
+                    skip = true;
+                }
+                if (line.trim().equalsIgnoreCase("[Term]")) {
+                    ++counter;
+                    skip = false;
+                    continue;
+                }
+                String[] pieces = line.split("\\s*:\\s+", 2);
+                if (skip || pieces.length != 2) {
+                    continue;
+                }
+                if ("data-version".equals(pieces[0].trim())) {
+                    crtTerm.addTo("version", pieces[1]);
+                    crtTerm.addTo(TermData.ID_FIELD_NAME, "HEADER_INFO");
+                    counter++;
+                }
+                if (selection.isEmpty() || selection.containsKey(pieces[0])) {
+                    crtTerm.addTo(pieces[0], normalizeWithRegularExpressions(pieces[1]));
+                }
+            }
+        }
+        if (counter > 0 && crtTerm.getId() != null) {
+            data.put(crtTerm.getId(), crtTerm);
+        }
+        if (selection.isEmpty() || selection.containsKey(TermData.TERM_CATEGORY_FIELD_NAME)) {
+            for (TermData term : data.values()) {
+                term.expandTermCategories(data);
+            }
+        }
+        return data;
+    }
+}
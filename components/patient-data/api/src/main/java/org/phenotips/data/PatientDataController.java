@@ -130,6 +130,20 @@ default void save(Patient patient, PatientWritePolicy policy)
      */
     void writeJSON(Patient patient, JSONObject json, Collection<String> selectedFieldNames);
 
+    /**
+     * The patient record fields which enable this controller when {@link #writeJSON(Patient, JSONObject, Collection)
+     * writing JSON} for a list of selected fields. If none of these fields is selected, the controller must not write
+     * anything, so that it can be skipped without even loading its data.
+     *
+     * @return the names of the supported fields, or {@code null} if this controller must always be called, which is
+     *         what the default implementation returns
+     * @since 1.4
+     */
+    default Collection<String> getSupportedFieldNames()
+    {
+        return null;
+    }
+
     /**
      * Given a JSON object, extracts data from it and returns it to the patient.
      *
@@ -66,6 +66,7 @@ protected AbstractPhenoTipsVocabularyProperty(String id)
         if (VOCABULARY_TERM_PATTERN.matcher(id).matches()) {
             this.id = id;
             this.name = null;
+            VocabularyTermResolutionContext.request(id);
         } else {
             this.id = "";
             this.name = id;
@@ -81,6 +82,9 @@ protected AbstractPhenoTipsVocabularyProperty(JSONObject json)
     {
         this.id = json.has(ID_JSON_KEY_NAME) ? json.getString(ID_JSON_KEY_NAME) : "";
         this.name = json.has(NAME_JSON_KEY_NAME) ? json.getString(NAME_JSON_KEY_NAME) : null;
+        if (this.name == null) {
+            VocabularyTermResolutionContext.request(this.id);
+        }
     }
 
     @Override
@@ -95,6 +99,15 @@ public String getName()
         if (this.name != null) {
             return this.name;
         }
+        VocabularyTermResolutionContext context = VocabularyTermResolutionContext.current();
+        if (context != null) {
+            VocabularyTerm term = context.getTerm(this.id);
+            if (term != null && StringUtils.isNotEmpty(term.getName())) {
+                this.name = term.getName();
+                return this.name;
+            }
+            return this.id;
+        }
         try {
             VocabularyManager vm =
                 ComponentManagerRegistry.getContextComponentManager().getInstance(VocabularyManager.class);
@@ -131,6 +131,13 @@ public boolean supportsRecordType(final String recordType)
         return "patient".equals(recordType);
     }
 
+    @Override
+    public String getCacheKey(String recordType)
+    {
+        // Only depends on the UI extensions and the global configuration
+        return "";
+    }
+
     /**
      * Returns all the {@link UIExtension} sections for the default patient sheet, and sorts them in preferred order.
      *
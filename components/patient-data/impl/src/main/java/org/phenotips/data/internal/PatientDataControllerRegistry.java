@@ -0,0 +1,241 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.PatientDataController;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.component.event.ComponentDescriptorRemovedEvent;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.ModelContext;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+
+/**
+ * Keeps the available {@link PatientDataController patient data controllers}, sorted by their name, and indexed by the
+ * {@link PatientDataController#getSupportedFieldNames() patient record fields} that they support, so that patients
+ * don't have to look them up every time they are created, and can skip the controllers which aren't needed for
+ * serializing a list of selected fields. The controllers are looked up once for each wiki, and reused until a
+ * controller is registered or unregistered.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Component(roles = { PatientDataControllerRegistry.class })
+@Singleton
+public class PatientDataControllerRegistry implements Initializable
+{
+    /** The key used for the controllers when there is no current wiki. */
+    private static final String NO_WIKI = "";
+
+    @Inject
+    @Named("wiki")
+    private ComponentManager componentManager;
+
+    @Inject
+    private ModelContext modelContext;
+
+    @Inject
+    private ObservationManager observationManager;
+
+    @Inject
+    private Logger logger;
+
+    /** The indexed controllers, for each wiki. */
+    private final Map<String, Controllers> cache = new ConcurrentHashMap<>();
+
+    /** Incremented whenever the cache is cleared, so that controllers looked up before that aren't cached. */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** @see #getLookupCount() */
+    private final AtomicLong lookups = new AtomicLong();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.observationManager.addListener(new CacheInvalidator());
+    }
+
+    /**
+     * All the available controllers. If several controllers have the same name, only the last one is kept.
+     *
+     * @return an unmodifiable map, with controller names as keys, sorted by name; may be empty if the lookup fails
+     */
+    public Map<String, PatientDataController<?>> getControllers()
+    {
+        return getCurrentControllers().byName;
+    }
+
+    /**
+     * The controllers which must be called for serializing a list of selected fields: the ones supporting at least one
+     * of the selected fields, and the ones which don't list their supported fields.
+     *
+     * @param selectedFieldNames the names of the selected patient record fields, may be {@code null}, in which case all
+     *            the controllers are returned
+     * @return the needed controllers, sorted by name; may be empty
+     */
+    public Collection<PatientDataController<?>> getControllers(Collection<String> selectedFieldNames)
+    {
+        Controllers controllers = getCurrentControllers();
+        if (selectedFieldNames == null) {
+            return controllers.byName.values();
+        }
+        Set<String> names = new TreeSet<>(controllers.unconditional);
+        for (String field : selectedFieldNames) {
+            Set<String> fieldControllers = controllers.byField.get(field);
+            if (fieldControllers != null) {
+                names.addAll(fieldControllers);
+            }
+        }
+        List<PatientDataController<?>> result = new ArrayList<>(names.size());
+        for (String name : names) {
+            result.add(controllers.byName.get(name));
+        }
+        return result;
+    }
+
+    /**
+     * How many times the controllers were looked up, since the application started.
+     *
+     * @return a positive number
+     */
+    public long getLookupCount()
+    {
+        return this.lookups.get();
+    }
+
+    private Controllers getCurrentControllers()
+    {
+        String wiki = getCurrentWiki();
+        Controllers controllers = this.cache.get(wiki);
+        if (controllers != null) {
+            return controllers;
+        }
+        long lookupGeneration = this.generation.get();
+        this.lookups.incrementAndGet();
+        try {
+            controllers = new Controllers(
+                this.componentManager.<PatientDataController<?>>getInstanceList(PatientDataController.class));
+            if (lookupGeneration == this.generation.get()) {
+                this.cache.put(wiki, controllers);
+            }
+            return controllers;
+        } catch (ComponentLookupException ex) {
+            this.logger.error("Failed to lookup serializers", ex);
+            return new Controllers(Collections.<PatientDataController<?>>emptyList());
+        }
+    }
+
+    private String getCurrentWiki()
+    {
+        EntityReference current = this.modelContext.getCurrentEntityReference();
+        EntityReference wiki = current != null ? current.extractReference(EntityType.WIKI) : null;
+        return wiki != null ? wiki.getName() : NO_WIKI;
+    }
+
+    /** The controllers available in a wiki, indexed by name and by supported field. */
+    private final class Controllers
+    {
+        private final Map<String, PatientDataController<?>> byName;
+
+        /** For each supported field, the names of the controllers supporting it. */
+        private final Map<String, Set<String>> byField = new HashMap<>();
+
+        /** The names of the controllers which don't list their supported fields. */
+        private final Set<String> unconditional = new TreeSet<>();
+
+        Controllers(List<PatientDataController<?>> controllers)
+        {
+            Map<String, PatientDataController<?>> sorted = new TreeMap<>();
+            for (PatientDataController<?> controller : controllers) {
+                if (sorted.containsKey(controller.getName())) {
+                    PatientDataControllerRegistry.this.logger
+                        .warn("Overwriting patient data controller with the name [{}]", controller.getName());
+                }
+                sorted.put(controller.getName(), controller);
+            }
+            this.byName = Collections.unmodifiableMap(sorted);
+
+            for (PatientDataController<?> controller : sorted.values()) {
+                Collection<String> fields = controller.getSupportedFieldNames();
+                if (fields == null) {
+                    this.unconditional.add(controller.getName());
+                    continue;
+                }
+                for (String field : fields) {
+                    Set<String> fieldControllers = this.byField.get(field);
+                    if (fieldControllers == null) {
+                        fieldControllers = new TreeSet<>();
+                        this.byField.put(field, fieldControllers);
+                    }
+                    fieldControllers.add(controller.getName());
+                }
+            }
+        }
+    }
+
+    /** Drops the cached controllers whenever a patient data controller is registered or unregistered. */
+    private final class CacheInvalidator implements EventListener
+    {
+        @Override
+        public String getName()
+        {
+            return "patient-data-controller-registry-invalidator";
+        }
+
+        @Override
+        public List<Event> getEvents()
+        {
+            return Arrays.<Event>asList(new ComponentDescriptorAddedEvent(PatientDataController.class),
+                new ComponentDescriptorRemovedEvent(PatientDataController.class));
+        }
+
+        @Override
+        public void onEvent(Event event, Object source, Object data)
+        {
+            PatientDataControllerRegistry.this.generation.incrementAndGet();
+            PatientDataControllerRegistry.this.cache.clear();
+        }
+    }
+}
@@ -20,7 +20,6 @@
 import org.phenotips.data.Patient;
 import org.phenotips.data.events.PatientChangingEvent;
 import org.phenotips.vocabulary.VocabularyManager;
-import org.phenotips.vocabulary.VocabularyTerm;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.observation.AbstractEventListener;
@@ -88,11 +87,9 @@ private void updateField(String baseFieldName, String extendedFieldName, BaseObj
         Set<String> sortedPhenotypes = new TreeSet<>();
         for (String phenotype : phenotypes) {
             sortedPhenotypes.add(phenotype);
-            VocabularyTerm phenotypeTerm = this.vocabularyManager.resolveTerm(phenotype);
-            if (phenotypeTerm != null) {
-                for (VocabularyTerm term : phenotypeTerm.getAncestorsAndSelf()) {
-                    extendedPhenotypes.add(term.getId());
-                }
+            Set<String> ancestors = this.vocabularyManager.getAncestorIdsAndSelf(phenotype);
+            if (!ancestors.isEmpty()) {
+                extendedPhenotypes.addAll(ancestors);
             } else {
                 extendedPhenotypes.add(phenotype);
             }
@@ -163,6 +163,9 @@ public PhenoTipsFeature(XWikiDocument doc, ListProperty property, String value)
             this.logger.info("Failed to retrieve phenotype categories: {}", ex.getMessage());
         }
         this.categories = categoriesList;
+        for (String category : this.categories) {
+            VocabularyTermResolutionContext.request(category);
+        }
     }
 
     /**
@@ -264,26 +267,47 @@ public JSONObject toJSON()
         }
         if (!this.categories.isEmpty()) {
             JSONArray categoriesList = new JSONArray();
-            try {
-                VocabularyManager vm =
-                    ComponentManagerRegistry.getContextComponentManager().getInstance(VocabularyManager.class);
-                for (String category : this.categories) {
-                    VocabularyTerm term = vm.resolveTerm(category);
-                    if (term != null && StringUtils.isNotEmpty(term.getName())) {
-                        JSONObject categoryObject = new JSONObject();
-                        categoryObject.put(ID_JSON_KEY_NAME, term.getId());
-                        categoryObject.put(NAME_JSON_KEY_NAME, term.getName());
-                        categoriesList.put(categoryObject);
-                    }
+            for (VocabularyTerm term : resolveCategories()) {
+                if (term != null && StringUtils.isNotEmpty(term.getName())) {
+                    JSONObject categoryObject = new JSONObject();
+                    categoryObject.put(ID_JSON_KEY_NAME, term.getId());
+                    categoryObject.put(NAME_JSON_KEY_NAME, term.getName());
+                    categoriesList.put(categoryObject);
                 }
-            } catch (ComponentLookupException ex) {
-                // Shouldn't happen
             }
             result.put(CATEGORIES_JSON_KEY_NAME, categoriesList);
         }
         return result;
     }
 
+    /**
+     * Resolves the categories of this feature, from the current {@link VocabularyTermResolutionContext} if one is
+     * available, or one by one otherwise.
+     *
+     * @return the resolved terms, in the order of the categories, with {@code null} values for unknown terms
+     */
+    private List<VocabularyTerm> resolveCategories()
+    {
+        List<VocabularyTerm> result = new ArrayList<>(this.categories.size());
+        VocabularyTermResolutionContext context = VocabularyTermResolutionContext.current();
+        if (context != null) {
+            for (String category : this.categories) {
+                result.add(context.getTerm(category));
+            }
+            return result;
+        }
+        try {
+            VocabularyManager vm =
+                ComponentManagerRegistry.getContextComponentManager().getInstance(VocabularyManager.class);
+            for (String category : this.categories) {
+                result.add(vm.resolveTerm(category));
+            }
+        } catch (ComponentLookupException ex) {
+            // Shouldn't happen
+        }
+        return result;
+    }
+
     /**
      * Find the XObject that contains metadata for this feature, if any.
      *
@@ -35,7 +35,6 @@
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -75,7 +74,10 @@ public class PhenoTipsPatient extends AbstractPrimaryEntity implements Patient
     private Logger logger = LoggerFactory.getLogger(PhenoTipsPatient.class);
 
     /** The list of all the initialized data holders (PatientDataSerializer). */
-    private Map<String, PatientDataController<?>> serializers = new TreeMap<>();
+    private Map<String, PatientDataController<?>> serializers = Collections.emptyMap();
+
+    /** Provides the data holders, and selects the ones needed for serializing a list of fields. */
+    private PatientDataControllerRegistry controllerRegistry;
 
     /** Extra data that can be plugged into the patient record. */
     private Map<String, PatientData<?>> extraData = new TreeMap<>();
@@ -106,15 +108,9 @@ public EntityReference getType()
     private void loadSerializers()
     {
         try {
-            List<PatientDataController<?>> availableSerializers = ComponentManagerRegistry
-                .getContextComponentManager()
-                .getInstanceList(PatientDataController.class);
-            for (PatientDataController<?> serializer : availableSerializers) {
-                if (this.serializers.containsKey(serializer.getName())) {
-                    this.logger.warn("Overwriting patient data controller with the name [{}]", serializer.getName());
-                }
-                this.serializers.put(serializer.getName(), serializer);
-            }
+            this.controllerRegistry = ComponentManagerRegistry.getContextComponentManager()
+                .getInstance(PatientDataControllerRegistry.class);
+            this.serializers = this.controllerRegistry.getControllers();
         } catch (ComponentLookupException ex) {
             this.logger.error("Failed to lookup serializers", ex);
         }
@@ -215,13 +211,36 @@ public JSONObject toJSON(Collection<String> selectedFields)
             result.put(JSON_KEY_REPORTER, getReporter().getName());
         }
 
-        for (PatientDataController<?> serializer : this.serializers.values()) {
-            serializer.writeJSON(this, result, selectedFields);
+        // Only the controllers supporting the selected fields are called, the others would not write anything
+        Collection<PatientDataController<?>> selectedSerializers = this.controllerRegistry != null
+            ? this.controllerRegistry.getControllers(selectedFields) : this.serializers.values();
+        try (VocabularyTermResolutionContext.Scope scope = VocabularyTermResolutionContext.open()) {
+            // Load the data that will be serialized first, so that all the terms are resolved in one batch
+            for (PatientDataController<?> serializer : selectedSerializers) {
+                if (selectedFields == null || serializer.getSupportedFieldNames() != null) {
+                    preloadPatientData(serializer.getName());
+                }
+            }
+            for (PatientDataController<?> serializer : selectedSerializers) {
+                serializer.writeJSON(this, result, selectedFields);
+            }
         }
 
         return result;
     }
 
+    /**
+     * Loads the data of a controller ahead of its serialization. Failures are left for the serialization to report.
+     */
+    private void preloadPatientData(String name)
+    {
+        try {
+            getData(name);
+        } catch (RuntimeException ex) {
+            this.logger.debug("Failed to preload patient data [{}]: {}", name, ex.getMessage());
+        }
+    }
+
     @Override
     public void updateFromJSON(JSONObject json)
     {
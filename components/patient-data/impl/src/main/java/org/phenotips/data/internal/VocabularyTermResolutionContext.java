@@ -0,0 +1,210 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.components.ComponentManagerRegistry;
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyManager;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import org.xwiki.component.manager.ComponentLookupException;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves vocabulary terms in batches while a patient is serialized. While a resolution scope is {@link #open() open}
+ * on the current thread, vocabulary properties {@link #request(String) register} their term identifiers as soon as
+ * they are created, and the first time a term is needed, all the registered identifiers are resolved with one
+ * {@link Vocabulary#getTerms(Collection)} call per vocabulary, instead of one {@link VocabularyManager#resolveTerm}
+ * call per term. Identifiers not found this way, for example alternative identifiers, are resolved one by one.
+ * Outside a scope, {@link #current()} returns {@code null} and terms must be resolved individually. Each instance is
+ * confined to the thread that opened the scope.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+final class VocabularyTermResolutionContext
+{
+    /** The context of the scope open on each thread, if any. */
+    private static final ThreadLocal<VocabularyTermResolutionContext> CURRENT = new ThreadLocal<>();
+
+    /** Closes a nested scope, which leaves the outer scope open. */
+    private static final Scope NESTED_SCOPE = () -> { };
+
+    private static final String PREFIX_SEPARATOR = ":";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VocabularyTermResolutionContext.class);
+
+    /** The identifiers requested since the last batch, in request order. */
+    private final Set<String> pending = new LinkedHashSet<>();
+
+    /** The resolved terms, with {@code null} values for identifiers that couldn't be resolved. */
+    private final Map<String, VocabularyTerm> terms = new HashMap<>();
+
+    private VocabularyManager vocabularyManager;
+
+    private VocabularyTermResolutionContext()
+    {
+        // Only created by open()
+    }
+
+    /**
+     * Opens a resolution scope on the current thread. If a scope is already open, it is reused, and closing the
+     * returned scope leaves it open.
+     *
+     * @return the opened scope, to be closed once the serialization is done
+     */
+    static Scope open()
+    {
+        if (CURRENT.get() != null) {
+            return NESTED_SCOPE;
+        }
+        CURRENT.set(new VocabularyTermResolutionContext());
+        return CURRENT::remove;
+    }
+
+    /**
+     * The context of the scope open on the current thread.
+     *
+     * @return the current context, or {@code null} if no scope is open
+     */
+    static VocabularyTermResolutionContext current()
+    {
+        return CURRENT.get();
+    }
+
+    /**
+     * Registers a term identifier with the scope open on the current thread, if any, so that it is resolved with the
+     * next batch.
+     *
+     * @param termId a term identifier, in the format {@code <vocabulary prefix>:<term id>}; blank values are ignored
+     */
+    static void request(String termId)
+    {
+        VocabularyTermResolutionContext context = CURRENT.get();
+        if (context != null && StringUtils.isNotBlank(termId) && !context.terms.containsKey(termId)) {
+            context.pending.add(termId);
+        }
+    }
+
+    /**
+     * Retrieves a term, resolving it along with all the other pending terms if it wasn't resolved yet.
+     *
+     * @param termId a term identifier, in the format {@code <vocabulary prefix>:<term id>}
+     * @return the requested term, or {@code null} if the term doesn't exist, or no matching vocabulary is available
+     */
+    VocabularyTerm getTerm(String termId)
+    {
+        if (StringUtils.isBlank(termId)) {
+            return null;
+        }
+        if (!this.terms.containsKey(termId)) {
+            this.pending.add(termId);
+            resolvePending();
+        }
+        return this.terms.get(termId);
+    }
+
+    private void resolvePending()
+    {
+        VocabularyManager vm = getVocabularyManager();
+        if (vm == null) {
+            for (String termId : this.pending) {
+                this.terms.put(termId, null);
+            }
+            this.pending.clear();
+            return;
+        }
+
+        Map<String, Set<String>> idsByPrefix = new LinkedHashMap<>();
+        for (String termId : this.pending) {
+            String prefix = StringUtils.substringBefore(termId, PREFIX_SEPARATOR);
+            Set<String> ids = idsByPrefix.get(prefix);
+            if (ids == null) {
+                ids = new LinkedHashSet<>();
+                idsByPrefix.put(prefix, ids);
+            }
+            ids.add(termId);
+        }
+        this.pending.clear();
+
+        for (Map.Entry<String, Set<String>> group : idsByPrefix.entrySet()) {
+            Vocabulary vocabulary = StringUtils.isNotBlank(group.getKey()) ? vm.getVocabulary(group.getKey()) : null;
+            if (vocabulary == null) {
+                for (String termId : group.getValue()) {
+                    this.terms.put(termId, null);
+                }
+                continue;
+            }
+            resolveGroup(vm, vocabulary, group.getValue());
+        }
+    }
+
+    private void resolveGroup(VocabularyManager vm, Vocabulary vocabulary, Set<String> ids)
+    {
+        try {
+            for (VocabularyTerm term : vocabulary.getTerms(ids)) {
+                if (term != null && ids.contains(term.getId())) {
+                    this.terms.put(term.getId(), term);
+                }
+            }
+        } catch (RuntimeException ex) {
+            LOGGER.warn("Failed to resolve terms in bulk from [{}]: {}", vocabulary.getIdentifier(), ex.getMessage());
+        }
+        for (String termId : ids) {
+            if (!this.terms.containsKey(termId)) {
+                this.terms.put(termId, vm.resolveTerm(termId));
+            }
+        }
+    }
+
+    private VocabularyManager getVocabularyManager()
+    {
+        if (this.vocabularyManager == null) {
+            try {
+                this.vocabularyManager =
+                    ComponentManagerRegistry.getContextComponentManager().getInstance(VocabularyManager.class);
+            } catch (ComponentLookupException ex) {
+                // Shouldn't happen
+            }
+        }
+        return this.vocabularyManager;
+    }
+
+    /**
+     * An open resolution scope.
+     *
+     * @version $Id$
+     * @since 1.4
+     */
+    @FunctionalInterface
+    interface Scope extends AutoCloseable
+    {
+        @Override
+        void close();
+    }
+}
@@ -144,6 +144,16 @@ public void writeJSON(Patient patient, JSONObject json, Collection<String> selec
         }
     }
 
+    @Override
+    public Collection<String> getSupportedFieldNames()
+    {
+        Set<String> result = new LinkedHashSet<>();
+        for (String property : getProperties()) {
+            result.add(getControllingFieldName(property));
+        }
+        return result;
+    }
+
     /**
      * @return name of controlling field which is responsible for export fields grouping
      */
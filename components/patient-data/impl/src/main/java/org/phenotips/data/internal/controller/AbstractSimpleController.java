@@ -207,6 +207,12 @@ public void writeJSON(Patient patient, JSONObject json, Collection<String> selec
         }
     }
 
+    @Override
+    public Collection<String> getSupportedFieldNames()
+    {
+        return getProperties();
+    }
+
     @Override
     public PatientData<String> readJSON(JSONObject json)
     {
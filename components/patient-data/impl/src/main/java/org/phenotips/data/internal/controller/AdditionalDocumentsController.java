@@ -33,6 +33,7 @@
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.function.Function;
@@ -251,6 +252,12 @@ public void writeJSON(Patient patient, JSONObject json, Collection<String> selec
         json.put(DATA_NAME, result);
     }
 
+    @Override
+    public Collection<String> getSupportedFieldNames()
+    {
+        return Collections.singleton(getName());
+    }
+
     @Override
     public PatientData<Attachment> readJSON(JSONObject json)
     {
@@ -29,6 +29,7 @@
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
@@ -211,6 +212,12 @@ public void writeJSON(Patient patient, JSONObject json, Collection<String> selec
         json.put(JSON_KEY_CLINICAL_DIAGNOSIS, diseasesToJSON(data));
     }
 
+    @Override
+    public Collection<String> getSupportedFieldNames()
+    {
+        return Collections.singleton(DIAGNOSIS_PROPERTY);
+    }
+
     /** creates & returns a new JSON array of all patient clinical diseases (as JSON objects). */
     private JSONArray diseasesToJSON(PatientData<Disorder> data)
     {
@@ -27,6 +27,7 @@
 import org.xwiki.model.reference.ObjectPropertyReference;
 
 import java.util.Collection;
+import java.util.Collections;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -120,6 +121,12 @@ public void writeJSON(Patient patient, JSONObject json, Collection<String> selec
         json.put(JSON_FIELDNAME, data.getValue());
     }
 
+    @Override
+    public Collection<String> getSupportedFieldNames()
+    {
+        return Collections.singleton(CONTROLLING_FIELDNAME);
+    }
+
     @Override
     public void writeJSON(Patient patient, JSONObject json)
     {
@@ -28,6 +28,7 @@
 import org.xwiki.component.annotation.Component;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
@@ -153,6 +154,12 @@ public void writeJSON(Patient patient, JSONObject json, Collection<String> selec
         json.put(JSON_KEY_DISORDERS, diseasesToJSON(data, selectedFieldNames));
     }
 
+    @Override
+    public Collection<String> getSupportedFieldNames()
+    {
+        return Arrays.asList(DISORDER_PROPERTIES);
+    }
+
     /** creates & returns a new JSON array of all patient diseases (as JSON objects). */
     private JSONArray diseasesToJSON(PatientData<Disorder> data, Collection<String> selectedFieldNames)
     {
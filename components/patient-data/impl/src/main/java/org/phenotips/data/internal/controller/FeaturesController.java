@@ -187,6 +187,13 @@ public void writeJSON(Patient patient, JSONObject json, Collection<String> selec
         json.put(JSON_KEY_NON_STANDARD_FEATURES, nonStandardFeaturesToJSON(data, selectedFieldNames));
     }
 
+    @Override
+    public Collection<String> getSupportedFieldNames()
+    {
+        // Phenotype fields are selected by their suffix, so they can't be listed
+        return null;
+    }
+
     /**
      * creates & returns a new JSON array of all patient features (as JSON objects).
      */
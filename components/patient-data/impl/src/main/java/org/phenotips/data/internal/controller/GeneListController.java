@@ -28,6 +28,7 @@
 import org.xwiki.component.annotation.Component;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
@@ -200,6 +201,12 @@ public void writeJSON(Patient patient, JSONObject json, Collection<String> selec
         json.put(GENES_STRING, geneArray);
     }
 
+    @Override
+    public Collection<String> getSupportedFieldNames()
+    {
+        return Collections.singleton(GENES_ENABLING_FIELD_NAME);
+    }
+
     @Override
     public PatientData<Gene> readJSON(JSONObject json)
     {
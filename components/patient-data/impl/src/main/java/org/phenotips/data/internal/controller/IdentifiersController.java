@@ -26,6 +26,7 @@
 import org.xwiki.component.annotation.Component;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -139,6 +140,12 @@ public void writeJSON(Patient patient, JSONObject json, Collection<String> selec
         }
     }
 
+    @Override
+    public Collection<String> getSupportedFieldNames()
+    {
+        return Collections.singleton(EXTERNAL_IDENTIFIER_PROPERTY_NAME);
+    }
+
     @Override
     public PatientData<String> readJSON(JSONObject json)
     {
@@ -27,6 +27,7 @@
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -137,6 +138,12 @@ public void writeJSON(Patient patient, JSONObject json, Collection<String> selec
         json.put(DATA_NAME, lifeStatusData.getValue());
     }
 
+    @Override
+    public Collection<String> getSupportedFieldNames()
+    {
+        return Collections.singleton(DATA_NAME);
+    }
+
     @Override
     public PatientData<String> readJSON(JSONObject json)
     {
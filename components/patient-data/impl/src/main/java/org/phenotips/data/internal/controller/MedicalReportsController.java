@@ -29,6 +29,7 @@
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -242,6 +243,12 @@ public void writeJSON(Patient patient, JSONObject json, Collection<String> selec
         json.put(DATA_NAME, result);
     }
 
+    @Override
+    public Collection<String> getSupportedFieldNames()
+    {
+        return Arrays.asList(getName(), FIELD_NAME);
+    }
+
     @Override
     public PatientData<Attachment> readJSON(JSONObject json)
     {
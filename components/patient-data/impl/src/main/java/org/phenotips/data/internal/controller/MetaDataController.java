@@ -24,6 +24,7 @@
 
 import org.xwiki.component.annotation.Component;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
@@ -123,6 +124,12 @@ public void writeJSON(Patient patient, JSONObject json, Collection<String> selec
 
     }
 
+    @Override
+    public Collection<String> getSupportedFieldNames()
+    {
+        return Arrays.asList(DOCUMENT_NAME, CREATION_DATE, AUTHOR, DATE);
+    }
+
     @Override
     protected List<String> getProperties()
     {
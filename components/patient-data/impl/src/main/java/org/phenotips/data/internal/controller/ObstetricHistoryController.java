@@ -30,6 +30,7 @@
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -203,6 +204,12 @@ public void writeJSON(Patient patient, JSONObject json, Collection<String> selec
         }
     }
 
+    @Override
+    public Collection<String> getSupportedFieldNames()
+    {
+        return Collections.singleton(getName());
+    }
+
     @Override
     public PatientData<Integer> readJSON(JSONObject json)
     {
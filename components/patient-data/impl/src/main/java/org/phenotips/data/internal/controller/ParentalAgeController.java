@@ -30,6 +30,7 @@
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -195,6 +196,12 @@ public void writeJSON(Patient patient, JSONObject json, Collection<String> selec
         }
     }
 
+    @Override
+    public Collection<String> getSupportedFieldNames()
+    {
+        return Collections.singleton(ENABLING_FIELD_NAME);
+    }
+
     @Override
     public PatientData<Integer> readJSON(JSONObject json)
     {
@@ -26,6 +26,7 @@
 import org.xwiki.component.annotation.Component;
 
 import java.util.Collection;
+import java.util.Collections;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
@@ -145,6 +146,12 @@ public void writeJSON(Patient patient, JSONObject json, Collection<String> selec
         json.put(DATA_NAME, patientData.getValue());
     }
 
+    @Override
+    public Collection<String> getSupportedFieldNames()
+    {
+        return Collections.singleton(INTERNAL_PROPERTY_NAME);
+    }
+
     @Override
     public PatientData<String> readJSON(JSONObject json)
     {
@@ -340,6 +340,12 @@ public void writeJSON(Patient patient, JSONObject json, Collection<String> selec
         }
     }
 
+    @Override
+    public Collection<String> getSupportedFieldNames()
+    {
+        return Collections.singleton(VARIANTS_ENABLING_FIELD_NAME);
+    }
+
     @Override
     public PatientData<Map<String, String>> readJSON(JSONObject json)
     {
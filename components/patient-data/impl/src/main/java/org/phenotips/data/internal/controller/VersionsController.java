@@ -138,6 +138,12 @@ public void writeJSON(Patient patient, JSONObject json, Collection<String> selec
         }
     }
 
+    @Override
+    public Collection<String> getSupportedFieldNames()
+    {
+        return Collections.singleton(getEnablingFieldName());
+    }
+
     @Override
     protected List<String> getProperties()
     {
@@ -0,0 +1,140 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.PatientDataController;
+
+import org.xwiki.component.event.ComponentDescriptorRemovedEvent;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests for the {@link PatientDataControllerRegistry} component.
+ *
+ * @version $Id$
+ */
+public class PatientDataControllerRegistryTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<PatientDataControllerRegistry> mocker =
+        new MockitoComponentMockingRule<>(PatientDataControllerRegistry.class);
+
+    private ComponentManager componentManager;
+
+    private List<PatientDataController<?>> controllers = new LinkedList<>();
+
+    private PatientDataController<?> sex;
+
+    private PatientDataController<?> features;
+
+    private PatientDataController<?> dates;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.sex = controller("sex", Collections.singleton("gender"));
+        this.features = controller("features", null);
+        this.dates = controller("dates", Arrays.asList("date_of_birth", "date_of_death"));
+        this.controllers.addAll(Arrays.asList(this.sex, this.features, this.dates));
+
+        this.componentManager = this.mocker.getInstance(ComponentManager.class, "wiki");
+        doReturn(this.controllers).when(this.componentManager).getInstanceList(PatientDataController.class);
+    }
+
+    @Test
+    public void controllersAreSortedByName() throws Exception
+    {
+        PatientDataControllerRegistry registry = this.mocker.getComponentUnderTest();
+
+        Assert.assertEquals(Arrays.asList("dates", "features", "sex"),
+            new ArrayList<>(registry.getControllers().keySet()));
+        Assert.assertEquals(Arrays.asList(this.dates, this.features, this.sex),
+            new ArrayList<>(registry.getControllers(null)));
+    }
+
+    @Test
+    public void onlyControllersSupportingTheSelectedFieldsAreReturned() throws Exception
+    {
+        PatientDataControllerRegistry registry = this.mocker.getComponentUnderTest();
+
+        Assert.assertEquals(Arrays.asList(this.dates, this.features),
+            new ArrayList<>(registry.getControllers(Arrays.asList("date_of_death", "unknown"))));
+        Assert.assertEquals(Arrays.asList(this.features, this.sex),
+            new ArrayList<>(registry.getControllers(Collections.singleton("gender"))));
+        Assert.assertEquals(Collections.singletonList(this.features),
+            new ArrayList<>(registry.getControllers(Collections.<String>emptyList())));
+    }
+
+    @Test
+    public void controllersAreReusedUntilTheyChange() throws Exception
+    {
+        PatientDataControllerRegistry registry = this.mocker.getComponentUnderTest();
+
+        registry.getControllers();
+        registry.getControllers(Collections.singleton("gender"));
+        Assert.assertEquals(1, registry.getLookupCount());
+        verify(this.componentManager, times(1)).getInstanceList(PatientDataController.class);
+
+        this.controllers.remove(this.sex);
+        ArgumentCaptor<EventListener> listener = ArgumentCaptor.forClass(EventListener.class);
+        verify(this.mocker.<ObservationManager>getInstance(ObservationManager.class)).addListener(listener.capture());
+        listener.getValue().onEvent(new ComponentDescriptorRemovedEvent(PatientDataController.class), null, null);
+
+        Assert.assertEquals(Arrays.asList("dates", "features"), new ArrayList<>(registry.getControllers().keySet()));
+        Assert.assertEquals(2, registry.getLookupCount());
+    }
+
+    @Test
+    public void lookupFailuresReturnNoControllers() throws Exception
+    {
+        doThrow(new ComponentLookupException("test")).when(this.componentManager)
+            .getInstanceList(PatientDataController.class);
+
+        Assert.assertTrue(this.mocker.getComponentUnderTest().getControllers().isEmpty());
+    }
+
+    private PatientDataController<?> controller(String name, Collection<String> fields)
+    {
+        PatientDataController<?> controller = mock(PatientDataController.class);
+        doReturn(name).when(controller).getName();
+        doReturn(fields).when(controller).getSupportedFieldNames();
+        return controller;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.components.ComponentManagerRegistry;
+import org.phenotips.data.Disorder;
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyManager;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.ReflectionUtils;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+
+import javax.inject.Provider;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.xpn.xwiki.objects.ListProperty;
+import net.jcip.annotations.NotThreadSafe;
+
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link VocabularyTermResolutionContext} class.
+ *
+ * @version $Id$
+ */
+@NotThreadSafe
+public class VocabularyTermResolutionContextTest
+{
+    @Mock
+    private ComponentManager cm;
+
+    @Mock
+    private Provider<ComponentManager> mockProvider;
+
+    @Mock
+    private VocabularyManager vm;
+
+    @Mock
+    private Vocabulary omim;
+
+    @Mock
+    private VocabularyTerm mim200100;
+
+    @Mock
+    private VocabularyTerm mim200110;
+
+    @Before
+    public void setup() throws ComponentLookupException
+    {
+        MockitoAnnotations.initMocks(this);
+        ReflectionUtils.setFieldValue(new ComponentManagerRegistry(), "cmProvider", this.mockProvider);
+        when(this.mockProvider.get()).thenReturn(this.cm);
+        when(this.cm.getInstance(VocabularyManager.class)).thenReturn(this.vm);
+        when(this.vm.getVocabulary("MIM")).thenReturn(this.omim);
+
+        when(this.mim200100.getId()).thenReturn("MIM:200100");
+        when(this.mim200100.getName()).thenReturn("#200100 ABETALIPOPROTEINEMIA");
+        when(this.mim200110.getId()).thenReturn("MIM:200110");
+        when(this.mim200110.getName()).thenReturn("ABLEPHARON-MACROSTOMIA SYNDROME");
+        when(this.omim.getTerms(anyCollectionOf(String.class))).thenReturn(
+            new LinkedHashSet<>(Arrays.asList(this.mim200100, this.mim200110)));
+    }
+
+    @Test
+    public void termsAreResolvedInOneBatchInsideAScope()
+    {
+        try (VocabularyTermResolutionContext.Scope scope = VocabularyTermResolutionContext.open()) {
+            Disorder first = disorder("200100");
+            Disorder second = disorder("200110");
+
+            Assert.assertEquals("#200100 ABETALIPOPROTEINEMIA", first.getName());
+            Assert.assertEquals("ABLEPHARON-MACROSTOMIA SYNDROME", second.getName());
+        }
+
+        verify(this.omim, times(1)).getTerms(ids("MIM:200100", "MIM:200110"));
+        verify(this.vm, never()).resolveTerm(anyString());
+        Assert.assertNull(VocabularyTermResolutionContext.current());
+    }
+
+    @Test
+    public void termsMissingFromTheBatchAreResolvedIndividually()
+    {
+        VocabularyTerm alternative = mock(VocabularyTerm.class);
+        when(alternative.getId()).thenReturn("MIM:100100");
+        when(alternative.getName()).thenReturn("PRUNE BELLY SYNDROME");
+        when(this.vm.resolveTerm("MIM:609102")).thenReturn(alternative);
+        when(this.omim.getTerms(anyCollectionOf(String.class))).thenReturn(Collections.<VocabularyTerm>emptySet());
+
+        try (VocabularyTermResolutionContext.Scope scope = VocabularyTermResolutionContext.open()) {
+            Assert.assertEquals("PRUNE BELLY SYNDROME", disorder("609102").getName());
+            Assert.assertEquals("MIM:999999", disorder("999999").getName());
+        }
+        verify(this.omim, times(1)).getTerms(anyCollectionOf(String.class));
+    }
+
+    @Test
+    public void nestedScopesShareTheOuterContext()
+    {
+        try (VocabularyTermResolutionContext.Scope outer = VocabularyTermResolutionContext.open()) {
+            VocabularyTermResolutionContext context = VocabularyTermResolutionContext.current();
+            try (VocabularyTermResolutionContext.Scope inner = VocabularyTermResolutionContext.open()) {
+                Assert.assertSame(context, VocabularyTermResolutionContext.current());
+            }
+            Assert.assertSame(context, VocabularyTermResolutionContext.current());
+        }
+        Assert.assertNull(VocabularyTermResolutionContext.current());
+    }
+
+    @Test
+    public void termsAreResolvedIndividuallyOutsideAScope()
+    {
+        when(this.vm.resolveTerm("MIM:200100")).thenReturn(this.mim200100);
+
+        Assert.assertEquals("#200100 ABETALIPOPROTEINEMIA", disorder("200100").getName());
+        verify(this.omim, never()).getTerms(anyCollectionOf(String.class));
+    }
+
+    private Disorder disorder(String value)
+    {
+        ListProperty prop = mock(ListProperty.class);
+        when(prop.getName()).thenReturn("omim_id");
+        return new PhenoTipsDisorder(prop, value);
+    }
+
+    private static Collection<String> ids(String... ids)
+    {
+        return new LinkedHashSet<>(Arrays.asList(ids));
+    }
+}
@@ -47,7 +47,42 @@
     void delete(Patient patient);
 
     /**
-     * Reindex all the patients.
+     * Reindex all the patients. The new index is built next to the current one, which remains searchable until the
+     * reindex finishes. If a previous reindex was interrupted, this continues from its last checkpoint instead of
+     * starting over. Progress can be followed through {@link #getReindexStatus()}.
      */
     void reindex();
+
+    /**
+     * The status of the last reindex started by {@link #reindex()}.
+     *
+     * @return the reindex status, never {@code null}
+     * @since 1.4
+     */
+    PatientReindexStatus getReindexStatus();
+
+    /**
+     * Changes submitted through {@link #index(Patient)} and {@link #delete(Patient)} are written to the index in
+     * batches, and only become visible in searches after a short delay. This method writes all the pending changes and
+     * waits until they are visible, for callers that need to search the index right after changing a patient.
+     *
+     * @since 1.4
+     */
+    void flush();
+
+    /**
+     * The number of submitted changes not yet written to the index.
+     *
+     * @return a positive number, or {@code 0} if there are no pending changes
+     * @since 1.4
+     */
+    int getQueueSize();
+
+    /**
+     * For how long the oldest change not yet written to the index has been waiting.
+     *
+     * @return a duration in milliseconds, or {@code 0} if there are no pending changes
+     * @since 1.4
+     */
+    long getQueueLag();
 }
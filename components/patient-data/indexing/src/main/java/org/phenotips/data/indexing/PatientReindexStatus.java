@@ -0,0 +1,95 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.indexing;
+
+import org.xwiki.stability.Unstable;
+
+import java.util.Date;
+
+/**
+ * The status of the last {@link PatientIndexer#reindex() full patient reindex} started since the indexer was
+ * initialized. The values change while the reindex is running, so this status can be polled for displaying progress.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Unstable
+public interface PatientReindexStatus
+{
+    /** The lifecycle of a reindex. */
+    enum State
+    {
+        /** No reindex was started yet. */
+        NONE,
+        /** The reindex is running. */
+        RUNNING,
+        /** The reindex finished, and the new index replaced the old one. */
+        FINISHED,
+        /** The reindex stopped before finishing; the next reindex will resume from the last checkpoint. */
+        FAILED
+    }
+
+    /**
+     * The current state of the reindex.
+     *
+     * @return the state, never {@code null}
+     */
+    State getState();
+
+    /**
+     * Whether this reindex continues a previous reindex which was interrupted, instead of starting from scratch.
+     *
+     * @return {@code true} if the reindex was resumed from a checkpoint
+     */
+    boolean isResumed();
+
+    /**
+     * The number of patients to index.
+     *
+     * @return a positive number, or {@code 0} if the patients weren't counted yet
+     */
+    int getTotal();
+
+    /**
+     * The number of patients already indexed, including the ones indexed before the last checkpoint when resuming.
+     *
+     * @return a number between {@code 0} and {@link #getTotal()}
+     */
+    int getProcessed();
+
+    /**
+     * When the reindex started.
+     *
+     * @return a date, or {@code null} if no reindex was started yet
+     */
+    Date getStartDate();
+
+    /**
+     * When the reindex stopped, either because it finished or because it failed.
+     *
+     * @return a date, or {@code null} if the reindex is still running
+     */
+    Date getEndDate();
+
+    /**
+     * Why the reindex failed.
+     *
+     * @return an error message if the reindex {@link State#FAILED failed}, {@code null} otherwise
+     */
+    String getError();
+}
@@ -0,0 +1,76 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.indexing;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.stability.Unstable;
+
+import java.util.Map;
+
+/**
+ * A patient found by a {@link PatientSuggestionIndex}, holding only the values stored in the index, so that
+ * suggestions can be displayed without loading the patient record.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Unstable
+public interface PatientSuggestion
+{
+    /**
+     * The document holding the patient record.
+     *
+     * @return a document reference, never {@code null}
+     */
+    DocumentReference getDocumentReference();
+
+    /**
+     * The internal identifier of the patient, the name of its document.
+     *
+     * @return the identifier, for example {@code P0000001}
+     */
+    String getId();
+
+    /**
+     * The external identifier of the patient.
+     *
+     * @return the identifier, or {@code null} if the patient doesn't have one
+     */
+    String getExternalId();
+
+    /**
+     * The first name of the patient.
+     *
+     * @return the name, or {@code null} if not set
+     */
+    String getFirstName();
+
+    /**
+     * The last name of the patient.
+     *
+     * @return the name, or {@code null} if not set
+     */
+    String getLastName();
+
+    /**
+     * The metadata provided for the patient by the {@code PrimaryEntityMetadataManager} when it was indexed.
+     *
+     * @return a map of simple metadata, may be empty
+     */
+    Map<String, Object> getMetadata();
+}
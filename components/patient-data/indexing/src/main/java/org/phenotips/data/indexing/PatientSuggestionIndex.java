@@ -0,0 +1,53 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.indexing;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.stability.Unstable;
+
+import java.util.List;
+
+/**
+ * Suggests patients matching a partial identifier or name, using the patient index instead of scanning the patient
+ * records. Since the index is updated asynchronously, recent changes may be reflected with a short delay.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Unstable
+@Role
+public interface PatientSuggestionIndex
+{
+    /**
+     * Finds the patients whose internal or external identifier contains the input, or, if requested, whose first or
+     * last name contains words starting with the words of the input, and to which the current user has the required
+     * right.
+     *
+     * @param input the text typed by the user, must not be empty
+     * @param matchNames whether names should be matched as well
+     * @param requiredRight the right that the current user must have on the suggested patients
+     * @param orderField field used for ordering the patients, {@code eid} for the external identifier, anything else
+     *            for the internal identifier
+     * @param order the sorting order, {@code desc} for descending, anything else for ascending
+     * @param maxResults the maximum number of patients to return
+     * @return the matching patients, in the requested order; may be empty if no patients match or searching fails
+     */
+    List<PatientSuggestion> suggest(String input, boolean matchNames, Right requiredRight, String orderField,
+        String order, int maxResults);
+}
@@ -0,0 +1,186 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.indexing.internal;
+
+import org.phenotips.vocabulary.SolrCoreContainerHandler;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.environment.Environment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Properties;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
+import org.apache.solr.core.CoreContainer;
+import org.slf4j.Logger;
+
+/**
+ * Default implementation for the {@link SolrPatientCoreManager} component. The replacement core is stored next to the
+ * patients core, in {@code solr/patients_temp}, and uses the same configuration. The live core is replaced by copying
+ * the data directory of the replacement core over its own, the same way vocabulary cores are replaced.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Component
+@Singleton
+public class DefaultSolrPatientCoreManager implements SolrPatientCoreManager
+{
+    private static final String CORE = "patients";
+
+    private static final String REPLACEMENT_CORE = CORE + "_temp";
+
+    private static final String CHECKPOINT_FILE = "reindex.checkpoint";
+
+    private static final String LAST_DOCUMENT_KEY = "lastDocument";
+
+    private static final String SINCE_KEY = "since";
+
+    private static final String DATA = "data";
+
+    private static final String CORE_PROPERTIES = "core.properties";
+
+    /** Logging helper object. */
+    @Inject
+    private Logger logger;
+
+    /** Provides access to the Solr cores. */
+    @Inject
+    private SolrCoreContainerHandler cores;
+
+    @Inject
+    private Environment environment;
+
+    /** @see #getSolrConnection() */
+    private SolrClient connection;
+
+    @Override
+    public synchronized SolrClient getSolrConnection()
+    {
+        if (this.connection == null) {
+            this.connection = new EmbeddedSolrServer(this.cores.getContainer(), CORE);
+        }
+        return this.connection;
+    }
+
+    @Override
+    public synchronized SolrClient createReplacementCore(boolean resume) throws IOException
+    {
+        CoreContainer container = this.cores.getContainer();
+        File replacementDirectory = getCoreDirectory(REPLACEMENT_CORE);
+        boolean loaded = container.getAllCoreNames().contains(REPLACEMENT_CORE);
+        if (!resume) {
+            if (loaded) {
+                container.unload(REPLACEMENT_CORE, true, true, true);
+                loaded = false;
+            }
+            FileUtils.deleteDirectory(replacementDirectory);
+        }
+        if (!loaded) {
+            FileUtils.copyDirectory(new File(getCoreDirectory(CORE), "conf"), new File(replacementDirectory, "conf"));
+            // container.create will fail if core.properties is already there
+            Files.deleteIfExists(new File(replacementDirectory, CORE_PROPERTIES).toPath());
+            container.create(REPLACEMENT_CORE, Collections.<String, String>emptyMap());
+        }
+        return new EmbeddedSolrServer(container, REPLACEMENT_CORE);
+    }
+
+    @Override
+    public synchronized void replaceCore() throws IOException
+    {
+        CoreContainer container = this.cores.getContainer();
+        File coreDirectory = getCoreDirectory(CORE);
+        File replacementDirectory = getCoreDirectory(REPLACEMENT_CORE);
+
+        // Close the new index before copying it, and drop the old index together with its transaction log
+        container.unload(REPLACEMENT_CORE, false, false, false);
+        container.unload(CORE, true, true, false);
+        FileUtils.copyDirectory(new File(replacementDirectory, DATA), new File(coreDirectory, DATA));
+        Files.deleteIfExists(new File(coreDirectory, CORE_PROPERTIES).toPath());
+        container.create(CORE, Collections.<String, String>emptyMap());
+        FileUtils.deleteDirectory(replacementDirectory);
+    }
+
+    @Override
+    public synchronized void discardReplacementCore()
+    {
+        CoreContainer container = this.cores.getContainer();
+        if (container.getAllCoreNames().contains(REPLACEMENT_CORE)) {
+            container.unload(REPLACEMENT_CORE, true, true, true);
+        }
+        try {
+            FileUtils.deleteDirectory(getCoreDirectory(REPLACEMENT_CORE));
+        } catch (IOException ex) {
+            this.logger.warn("Failed to delete the replacement patient index: {}", ex.getMessage());
+        }
+    }
+
+    @Override
+    public ReindexCheckpoint loadCheckpoint()
+    {
+        File checkpointFile = new File(getCoreDirectory(REPLACEMENT_CORE), CHECKPOINT_FILE);
+        if (!checkpointFile.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(checkpointFile.toPath())) {
+            properties.load(in);
+            String lastDocument = properties.getProperty(LAST_DOCUMENT_KEY);
+            String since = properties.getProperty(SINCE_KEY);
+            if (StringUtils.isNotEmpty(lastDocument) && StringUtils.isNumeric(since)) {
+                return new ReindexCheckpoint(lastDocument, new Date(Long.parseLong(since)));
+            }
+        } catch (IOException ex) {
+            this.logger.warn("Failed to read the patient reindex checkpoint: {}", ex.getMessage());
+        }
+        return null;
+    }
+
+    @Override
+    public void saveCheckpoint(ReindexCheckpoint checkpoint) throws IOException
+    {
+        Properties properties = new Properties();
+        properties.setProperty(LAST_DOCUMENT_KEY, checkpoint.getLastDocument());
+        properties.setProperty(SINCE_KEY, String.valueOf(checkpoint.getSince().getTime()));
+        File checkpointFile = new File(getCoreDirectory(REPLACEMENT_CORE), CHECKPOINT_FILE);
+        File newCheckpointFile = new File(getCoreDirectory(REPLACEMENT_CORE), CHECKPOINT_FILE + ".new");
+        try (OutputStream out = Files.newOutputStream(newCheckpointFile.toPath())) {
+            properties.store(out, null);
+        }
+        // Replace the previous checkpoint only once the new one is completely written
+        Files.move(newCheckpointFile.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private File getCoreDirectory(String coreIdentifier)
+    {
+        return new File(new File(this.environment.getPermanentDirectory(), "solr"), coreIdentifier);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.indexing.internal;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.solr.common.SolrInputDocument;
+
+/**
+ * Holds the patient index changes that were not yet sent to Solr. Changes are keyed by the patient document, so that
+ * several changes to the same patient submitted before the queue is drained are collapsed into the last one, while
+ * keeping the position and the submission time of the first one. This class is thread safe.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+final class PatientIndexingQueue
+{
+    /** The pending changes, in submission order. */
+    private final Map<String, Change> pending = new LinkedHashMap<>();
+
+    private boolean closed;
+
+    /**
+     * Queues the new version of a patient's index document.
+     *
+     * @param documentId the serialized reference of the patient document, the unique key of the index
+     * @param document the document to index
+     */
+    synchronized void update(String documentId, SolrInputDocument document)
+    {
+        enqueue(documentId, document);
+    }
+
+    /**
+     * Queues the removal of a patient from the index.
+     *
+     * @param documentId the serialized reference of the patient document, the unique key of the index
+     */
+    synchronized void delete(String documentId)
+    {
+        enqueue(documentId, null);
+    }
+
+    /**
+     * Removes and returns all the pending changes.
+     *
+     * @return the pending changes, in submission order, with {@code null} values standing for deletions; may be empty
+     */
+    synchronized Map<String, SolrInputDocument> drain()
+    {
+        if (this.pending.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, SolrInputDocument> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Change> change : this.pending.entrySet()) {
+            result.put(change.getKey(), change.getValue().document);
+        }
+        this.pending.clear();
+        return result;
+    }
+
+    /**
+     * Waits until a batch of changes should be sent to the index: either the oldest pending change waited for the
+     * maximum latency, or enough changes were queued to fill a batch.
+     *
+     * @param maxLatency how long a change can wait in the queue, in milliseconds
+     * @param batchSize how many changes trigger a batch regardless of their age
+     * @return {@code false} if the queue was {@link #close() closed}, {@code true} otherwise
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    synchronized boolean awaitBatch(long maxLatency, int batchSize) throws InterruptedException
+    {
+        while (!this.closed && this.pending.isEmpty()) {
+            wait();
+        }
+        while (!this.closed && !this.pending.isEmpty() && this.pending.size() < batchSize) {
+            long remaining = this.pending.values().iterator().next().queuedAt + maxLatency - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            wait(remaining);
+        }
+        return !this.closed;
+    }
+
+    /** Wakes up the threads {@link #awaitBatch(long, int) waiting for a batch}, and makes them stop waiting. */
+    synchronized void close()
+    {
+        this.closed = true;
+        notifyAll();
+    }
+
+    /**
+     * The number of pending changes.
+     *
+     * @return a positive number, or {@code 0} if no changes are pending
+     */
+    synchronized int size()
+    {
+        return this.pending.size();
+    }
+
+    /**
+     * For how long the oldest pending change has been waiting.
+     *
+     * @return a duration in milliseconds, {@code 0} if no changes are pending
+     */
+    synchronized long getLag()
+    {
+        if (this.pending.isEmpty()) {
+            return 0;
+        }
+        return System.currentTimeMillis() - this.pending.values().iterator().next().queuedAt;
+    }
+
+    private void enqueue(String documentId, SolrInputDocument document)
+    {
+        Change previous = this.pending.get(documentId);
+        long queuedAt = previous != null ? previous.queuedAt : System.currentTimeMillis();
+        this.pending.put(documentId, new Change(document, queuedAt));
+        notifyAll();
+    }
+
+    /** A pending change: the new document of a patient, or {@code null} if it must be removed. */
+    private static final class Change
+    {
+        private final SolrInputDocument document;
+
+        private final long queuedAt;
+
+        Change(SolrInputDocument document, long queuedAt)
+        {
+            this.document = document;
+            this.queuedAt = queuedAt;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.indexing.internal;
+
+import java.util.Date;
+
+/**
+ * A point up to which a reindex was saved in the replacement core. Patient documents are indexed in the order of their
+ * names, so everything up to {@link #getLastDocument() the last document} is already indexed; patients changed since
+ * {@link #getSince() the start of the reindex} may have been indexed with an older version, and must be indexed again
+ * when resuming.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+public final class ReindexCheckpoint
+{
+    private final String lastDocument;
+
+    private final Date since;
+
+    /**
+     * Constructor.
+     *
+     * @param lastDocument the name of the last indexed patient document
+     * @param since the moment from which patient changes may be missing from the replacement core
+     */
+    public ReindexCheckpoint(String lastDocument, Date since)
+    {
+        this.lastDocument = lastDocument;
+        this.since = since;
+    }
+
+    /**
+     * The name of the last indexed patient document.
+     *
+     * @return a document name, as returned by the patients query
+     */
+    public String getLastDocument()
+    {
+        return this.lastDocument;
+    }
+
+    /**
+     * The moment from which patient changes may be missing from the replacement core.
+     *
+     * @return a date
+     */
+    public Date getSince()
+    {
+        return this.since;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.indexing.internal;
+
+import org.phenotips.data.indexing.PatientReindexStatus;
+
+import java.util.Date;
+
+/**
+ * Mutable {@link PatientReindexStatus}, updated by the thread running the reindex and read by any other thread.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+final class ReindexStatus implements PatientReindexStatus
+{
+    private volatile State state = State.NONE;
+
+    private volatile boolean resumed;
+
+    private volatile int total;
+
+    private volatile int processed;
+
+    private volatile Date startDate;
+
+    private volatile Date endDate;
+
+    private volatile String error;
+
+    /**
+     * Marks the reindex as running.
+     *
+     * @param isResumed whether the reindex continues from a checkpoint
+     */
+    void start(boolean isResumed)
+    {
+        this.resumed = isResumed;
+        this.startDate = new Date();
+        this.state = State.RUNNING;
+    }
+
+    /**
+     * Sets the number of patients, once they are counted.
+     *
+     * @param totalPatients the number of patients to index
+     * @param alreadyProcessed the number of patients indexed before the checkpoint
+     */
+    void setTotal(int totalPatients, int alreadyProcessed)
+    {
+        this.total = totalPatients;
+        this.processed = alreadyProcessed;
+    }
+
+    /**
+     * Records that more patients were indexed. Only called by the thread running the reindex.
+     *
+     * @param count the number of newly indexed patients
+     */
+    void advance(int count)
+    {
+        this.processed = Math.min(this.total, this.processed + count);
+    }
+
+    /** Marks the reindex as successfully finished. */
+    void finish()
+    {
+        this.processed = this.total;
+        this.endDate = new Date();
+        this.state = State.FINISHED;
+    }
+
+    /**
+     * Marks the reindex as failed.
+     *
+     * @param message the reason of the failure
+     */
+    void fail(String message)
+    {
+        this.error = message;
+        this.endDate = new Date();
+        this.state = State.FAILED;
+    }
+
+    @Override
+    public State getState()
+    {
+        return this.state;
+    }
+
+    @Override
+    public boolean isResumed()
+    {
+        return this.resumed;
+    }
+
+    @Override
+    public int getTotal()
+    {
+        return this.total;
+    }
+
+    @Override
+    public int getProcessed()
+    {
+        return this.processed;
+    }
+
+    @Override
+    public Date getStartDate()
+    {
+        return this.startDate;
+    }
+
+    @Override
+    public Date getEndDate()
+    {
+        return this.endDate;
+    }
+
+    @Override
+    public String getError()
+    {
+        return this.error;
+    }
+}
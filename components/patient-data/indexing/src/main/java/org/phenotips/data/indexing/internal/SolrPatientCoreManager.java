@@ -0,0 +1,79 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.indexing.internal;
+
+import org.xwiki.component.annotation.Role;
+
+import java.io.IOException;
+
+import org.apache.solr.client.solrj.SolrClient;
+
+/**
+ * Manages the Solr core holding the patient index, and the replacement core in which a full reindex is built before
+ * replacing the live one, similar to how vocabularies are reindexed.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Role
+public interface SolrPatientCoreManager
+{
+    /**
+     * Connection to the live patient index.
+     *
+     * @return a Solr client
+     */
+    SolrClient getSolrConnection();
+
+    /**
+     * Creates the core in which a new index is built. If {@code resume} is {@code true} and a replacement core was left
+     * by a previous, interrupted reindex, it is reused together with its contents; otherwise any leftover replacement
+     * core is discarded, and a new, empty one is created.
+     *
+     * @param resume whether to reuse an existing replacement core
+     * @return a Solr client connected to the replacement core
+     * @throws IOException if creating the core fails
+     */
+    SolrClient createReplacementCore(boolean resume) throws IOException;
+
+    /**
+     * Replaces the live patient index with the contents of the replacement core, then removes the replacement core
+     * together with its checkpoint. All the changes to the replacement core must have been committed.
+     *
+     * @throws IOException if copying the new index fails
+     */
+    void replaceCore() throws IOException;
+
+    /** Removes the replacement core, if any, together with its contents and its checkpoint. */
+    void discardReplacementCore();
+
+    /**
+     * Reads the checkpoint saved by an interrupted reindex.
+     *
+     * @return the last checkpoint saved in the replacement core, or {@code null} if there is no reindex to resume
+     */
+    ReindexCheckpoint loadCheckpoint();
+
+    /**
+     * Saves a checkpoint next to the replacement core. The changes up to the checkpoint must have been committed.
+     *
+     * @param checkpoint the checkpoint to save
+     * @throws IOException if writing the checkpoint fails
+     */
+    void saveCheckpoint(ReindexCheckpoint checkpoint) throws IOException;
+}
@@ -17,49 +17,90 @@
  */
 package org.phenotips.data.indexing.internal;
 
+import org.phenotips.Constants;
 import org.phenotips.data.Feature;
 import org.phenotips.data.Gene;
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientData;
 import org.phenotips.data.PatientRepository;
 import org.phenotips.data.indexing.PatientIndexer;
+import org.phenotips.data.indexing.PatientReindexStatus;
+import org.phenotips.data.permissions.Collaborator;
+import org.phenotips.data.permissions.EntityAccess;
 import org.phenotips.data.permissions.EntityPermissionsManager;
-import org.phenotips.vocabulary.SolrCoreContainerHandler;
+import org.phenotips.data.permissions.Owner;
+import org.phenotips.entities.PrimaryEntityMetadataManager;
 import org.phenotips.vocabulary.Vocabulary;
-import org.phenotips.vocabulary.VocabularyTerm;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryManager;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
-import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
-import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.CursorMarkParams;
 import org.slf4j.Logger;
 
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.util.AbstractXWikiRunnable;
+
 /**
- * Indexes patients in a local Solr core.
+ * Indexes patients in a local Solr core. Updates and deletions are queued and written by a background thread, in
+ * batches, followed by a soft commit; the maximum delay and the batch size are configurable in
+ * {@code xwiki.properties}.
+ * <p>
+ * A full reindex is built in a replacement core, while the live index remains searchable, and replaces it once
+ * finished. Patients are loaded and converted in batches by a pool of worker threads, and checkpoints are saved
+ * regularly, so that an interrupted reindex can be resumed by the next call to {@link #reindex()}.
+ * </p>
  *
  * @version $Id$
  * @since 1.0M8
  */
 @Component
 @Singleton
-public class SolrPatientIndexer implements PatientIndexer, Initializable
+public class SolrPatientIndexer implements PatientIndexer, Initializable, Disposable
 {
     private static final String GENES_KEY = "genes";
 
@@ -67,12 +108,69 @@ public class SolrPatientIndexer implements PatientIndexer, Initializable
 
     private static final String SOLR_GENE_STATUS_FIELD_POSTFIX = "_genes";
 
+    /** The configuration property holding how long a change can wait before being written, in milliseconds. */
+    private static final String MAX_LATENCY_PROPERTY = "phenotips.indexing.patients.maxLatency";
+
+    private static final int DEFAULT_MAX_LATENCY = 1000;
+
+    /** The configuration property holding how many pending changes are written without waiting for the latency. */
+    private static final String BATCH_SIZE_PROPERTY = "phenotips.indexing.patients.batchSize";
+
+    private static final int DEFAULT_BATCH_SIZE = 500;
+
+    /** The configuration property holding how many threads load and convert patients during a reindex. */
+    private static final String REINDEX_THREADS_PROPERTY = "phenotips.indexing.patients.reindexThreads";
+
+    /** The configuration property holding how many patients are loaded together during a reindex. */
+    private static final String REINDEX_BATCH_SIZE_PROPERTY = "phenotips.indexing.patients.reindexBatchSize";
+
+    private static final int DEFAULT_REINDEX_BATCH_SIZE = 100;
+
+    /** How many reindex batches are written between two checkpoints. */
+    private static final int BATCHES_PER_CHECKPOINT = 10;
+
+    /** How many reindex batches are loaded ahead of the one being written, for each worker thread. */
+    private static final int QUEUED_BATCHES_PER_WORKER = 2;
+
+    /** The field holding the serialized reference of the patient document, the unique key of the index. */
+    static final String DOCUMENT_FIELD = "document";
+
+    /** The field holding the name of the patient document, used for sorting suggestions. */
+    static final String PATIENT_ID_FIELD = "patient_id";
+
+    /** The field holding the external identifier of the patient. */
+    static final String EXTERNAL_ID_FIELD = "external_id";
+
+    static final String FIRST_NAME_FIELD = "first_name";
+
+    static final String LAST_NAME_FIELD = "last_name";
+
+    /** The field holding the serialized reference of the owner, missing for patients owned by guests. */
+    static final String OWNER_FIELD = "owner";
+
+    /** Prefix of the fields holding the serialized references of the collaborators, followed by their access level. */
+    static final String COLLABORATOR_FIELD_PREFIX = "collaborator_";
+
+    /** Prefix of the fields holding the {@link PrimaryEntityMetadataManager metadata} of the patient. */
+    static final String METADATA_FIELD_PREFIX = "metadata_";
+
+    /** The field which is {@code true} for locked patients, which can only be viewed. */
+    static final String LOCKED_FIELD = "locked";
+
+    /** The XClass of the objects marking a patient record as locked. */
+    private static final EntityReference LOCK_CLASS =
+        new EntityReference("PatientLock", EntityType.DOCUMENT, Constants.CODE_SPACE_REFERENCE);
+
+    private static final String PATIENTS_QUERY = "from doc.object(PhenoTips.PatientClass) as patient";
+
+    private static final String CHANGED_PATIENTS_QUERY = PATIENTS_QUERY + " where doc.date >= :since";
+
     /** Logging helper object. */
     @Inject
     private Logger logger;
 
     @Inject
-    private SolrCoreContainerHandler cores;
+    private SolrPatientCoreManager cores;
 
     /** The Solr server instance used. */
     private SolrClient server;
@@ -88,6 +186,9 @@ public class SolrPatientIndexer implements PatientIndexer, Initializable
     @Inject
     private EntityPermissionsManager permissions;
 
+    @Inject
+    private PrimaryEntityMetadataManager metadataManager;
+
     /** Provides access to the HPO ontology. */
     @Inject
     @Named("hpo")
@@ -96,22 +197,82 @@ public class SolrPatientIndexer implements PatientIndexer, Initializable
     @Inject
     private EntityReferenceSerializer<String> referenceSerializer;
 
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> documentResolver;
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    /** Changes submitted but not yet written to the index. */
+    private final PatientIndexingQueue queue = new PatientIndexingQueue();
+
+    /** Serializes writing and committing changes between the {@link #worker} and {@link #flush()}. */
+    private final Object writeLock = new Object();
+
+    /** Whether changes were written since the last commit; guarded by {@link #writeLock}. */
+    private boolean uncommitted;
+
+    /** Background thread writing the queued changes. */
+    private Thread worker;
+
+    private long maxLatency;
+
+    private int batchSize;
+
+    /** The status of the last reindex; replaced when a new reindex starts. */
+    private volatile ReindexStatus reindexStatus = new ReindexStatus();
+
+    /**
+     * The changes written to the live index while a reindex is running, which must also be applied to the new index
+     * before it replaces the live one; {@code null} when no reindex is running. Guarded by {@link #writeLock}.
+     */
+    private Map<String, SolrInputDocument> changedDuringReindex;
+
     @Override
     public void initialize() throws InitializationException
     {
-        this.server = new EmbeddedSolrServer(this.cores.getContainer(), "patients");
+        this.server = this.cores.getSolrConnection();
+        this.maxLatency = getConfiguredValue(MAX_LATENCY_PROPERTY, DEFAULT_MAX_LATENCY);
+        this.batchSize = getConfiguredValue(BATCH_SIZE_PROPERTY, DEFAULT_BATCH_SIZE);
+        this.worker = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                processQueue();
+            }
+        }, "Patient indexer");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.queue.close();
+        try {
+            this.worker.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
     }
 
     @Override
     public void index(Patient patient)
     {
-        this.internalIndex(patient, true);
+        this.queue.update(this.referenceSerializer.serialize(patient.getDocumentReference()), createDocument(patient));
     }
 
-    private void internalIndex(Patient patient, boolean commit)
+    private SolrInputDocument createDocument(Patient patient)
     {
         SolrInputDocument input = new SolrInputDocument();
-        input.setField("document", this.referenceSerializer.serialize(patient.getDocumentReference()));
+        input.setField(DOCUMENT_FIELD, this.referenceSerializer.serialize(patient.getDocumentReference()));
         String reporter = "";
         if (patient.getReporter() != null) {
             reporter = patient.getReporter().toString();
@@ -128,63 +289,453 @@ private void internalIndex(Patient patient, boolean commit)
             if (StringUtils.isNotBlank(termId)) {
                 input.addField(fieldName, termId);
                 // Add ancestors of the term
-                VocabularyTerm term = this.ontologyService.getTerm(termId);
-                if (term != null) {
-                    for (VocabularyTerm ancestor : term.getAncestorsAndSelf()) {
-                        input.addField(ancestorFieldName, ancestor.getId());
-                    }
+                for (String ancestorId : this.ontologyService.getAncestorIdsAndSelf(termId)) {
+                    input.addField(ancestorFieldName, ancestorId);
                 }
             }
         }
 
-        input.setField("visibility", this.permissions.getEntityAccess(patient).getVisibility().getName());
-        input.setField("accessLevel", this.permissions.getEntityAccess(patient).getVisibility().getPermissiveness());
+        EntityAccess access = this.permissions.getEntityAccess(patient);
+        input.setField("visibility", access.getVisibility().getName());
+        input.setField("accessLevel", access.getVisibility().getPermissiveness());
 
         addGenes(input, patient);
+        addSuggestionFields(input, patient, access);
+        return input;
+    }
 
-        try {
-            this.server.add(input);
-            if (commit) {
-                this.server.commit();
+    /**
+     * Adds the fields needed for suggesting patients without loading them: identifiers and names for matching, the
+     * owner, collaborators and lock for filtering by access rights, and the metadata displayed along with the
+     * suggestion.
+     */
+    private void addSuggestionFields(SolrInputDocument input, Patient patient, EntityAccess access)
+    {
+        input.setField(PATIENT_ID_FIELD, patient.getDocumentReference().getName());
+        if (StringUtils.isNotBlank(patient.getExternalId())) {
+            input.setField(EXTERNAL_ID_FIELD, patient.getExternalId());
+        }
+        PatientData<String> names = patient.getData("patientName");
+        if (names != null) {
+            setIfNotBlank(input, FIRST_NAME_FIELD, names.get(FIRST_NAME_FIELD));
+            setIfNotBlank(input, LAST_NAME_FIELD, names.get(LAST_NAME_FIELD));
+        }
+
+        Owner owner = access.getOwner();
+        if (owner != null && owner.getUser() != null) {
+            input.setField(OWNER_FIELD, this.referenceSerializer.serialize(owner.getUser()));
+        }
+        for (Collaborator collaborator : access.getCollaborators()) {
+            if (collaborator.getUser() != null && collaborator.getAccessLevel() != null) {
+                input.addField(COLLABORATOR_FIELD_PREFIX + collaborator.getAccessLevel().getName(),
+                    this.referenceSerializer.serialize(collaborator.getUser()));
+            }
+        }
+
+        XWikiDocument document = patient.getXDocument();
+        if (document != null && document.getXObject(LOCK_CLASS) != null) {
+            input.setField(LOCKED_FIELD, true);
+        }
+
+        Map<String, Object> metadata = this.metadataManager.getMetadata(patient);
+        if (metadata != null) {
+            for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+                if (entry.getValue() != null) {
+                    input.setField(METADATA_FIELD_PREFIX + entry.getKey(), String.valueOf(entry.getValue()));
+                }
             }
-        } catch (SolrServerException ex) {
-            this.logger.warn("Failed to perform Solr search: {}", ex.getMessage());
-        } catch (IOException ex) {
-            this.logger.warn("Error occurred while performing Solr search: {}", ex.getMessage());
+        }
+    }
+
+    private void setIfNotBlank(SolrInputDocument input, String field, String value)
+    {
+        if (StringUtils.isNotBlank(value)) {
+            input.setField(field, value);
         }
     }
 
     @Override
     public void delete(Patient patient)
     {
+        this.queue.delete(this.referenceSerializer.serialize(patient.getDocumentReference()));
+    }
+
+    @Override
+    public void flush()
+    {
+        synchronized (this.writeLock) {
+            write(this.queue.drain());
+            commit(true);
+        }
+    }
+
+    @Override
+    public int getQueueSize()
+    {
+        return this.queue.size();
+    }
+
+    @Override
+    public long getQueueLag()
+    {
+        return this.queue.getLag();
+    }
+
+    /**
+     * Runs on the {@link #worker} thread: waits for batches of changes, writes them to the index, and makes them
+     * visible with a soft commit. Durability is ensured by the hard auto-commit configured for the patients core.
+     */
+    private void processQueue()
+    {
+        try {
+            while (this.queue.awaitBatch(this.maxLatency, this.batchSize)) {
+                try {
+                    synchronized (this.writeLock) {
+                        write(this.queue.drain());
+                        commit(false);
+                    }
+                } catch (RuntimeException ex) {
+                    // Keep the worker alive, otherwise no further changes would ever be indexed
+                    this.logger.error("Failed to write patient index changes: {}", ex.getMessage(), ex);
+                }
+                this.logger.debug("Patient indexing queue: {} pending changes, lag {} ms", this.queue.size(),
+                    this.queue.getLag());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sends a batch of changes to the index, without committing them. If Solr rejects the batch, for example because
+     * one of the documents is invalid, the changes are sent again one by one, so that only the invalid ones are lost.
+     *
+     * @param changes the new documents of the updated patients, with {@code null} values for deleted patients
+     */
+    private void write(Map<String, SolrInputDocument> changes)
+    {
+        if (this.changedDuringReindex != null) {
+            this.changedDuringReindex.putAll(changes);
+        }
+        List<String> deleted = new ArrayList<>();
+        List<SolrInputDocument> updated = new ArrayList<>(changes.size());
+        for (Map.Entry<String, SolrInputDocument> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                deleted.add(change.getKey());
+            } else {
+                updated.add(change.getValue());
+            }
+        }
+
+        if (!deleted.isEmpty()) {
+            try {
+                this.server.deleteById(deleted);
+                this.uncommitted = true;
+            } catch (SolrServerException ex) {
+                this.logger.warn("Failed to delete from Solr: {}", ex.getMessage());
+            } catch (IOException ex) {
+                this.logger.warn("Error occurred while deleting Solr documents: {}", ex.getMessage());
+            } catch (RuntimeException ex) {
+                writeEach(changes, true);
+            }
+        }
+        if (!updated.isEmpty()) {
+            try {
+                this.server.add(updated);
+                this.uncommitted = true;
+            } catch (SolrServerException ex) {
+                this.logger.warn("Failed to add documents to Solr: {}", ex.getMessage());
+            } catch (IOException ex) {
+                this.logger.warn("Error occurred while adding Solr documents: {}", ex.getMessage());
+            } catch (RuntimeException ex) {
+                writeEach(changes, false);
+            }
+        }
+    }
+
+    /**
+     * Sends changes to the index one at a time, after the batch containing them was rejected.
+     *
+     * @param changes the new documents of the updated patients, with {@code null} values for deleted patients
+     * @param deletions whether to send the deletions or the updates from {@code changes}
+     */
+    private void writeEach(Map<String, SolrInputDocument> changes, boolean deletions)
+    {
+        for (Map.Entry<String, SolrInputDocument> change : changes.entrySet()) {
+            if (deletions != (change.getValue() == null)) {
+                continue;
+            }
+            try {
+                if (deletions) {
+                    this.server.deleteById(change.getKey());
+                } else {
+                    this.server.add(change.getValue());
+                }
+                this.uncommitted = true;
+            } catch (SolrServerException | IOException | RuntimeException ex) {
+                this.logger.warn("Failed to index changes for patient [{}], skipping them: {}", change.getKey(),
+                    ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Makes the written changes visible in searches, using a soft commit.
+     *
+     * @param waitSearcher whether to wait until the new searcher is available
+     */
+    private void commit(boolean waitSearcher)
+    {
+        if (!this.uncommitted) {
+            return;
+        }
         try {
-            this.server.deleteByQuery("document:"
-                + ClientUtils.escapeQueryChars(this.referenceSerializer.serialize(patient.getDocumentReference())));
-            this.server.commit();
+            this.server.commit(waitSearcher, waitSearcher, true);
+            this.uncommitted = false;
         } catch (SolrServerException ex) {
-            this.logger.warn("Failed to delete from Solr: {}", ex.getMessage());
+            this.logger.warn("Failed to commit patient index changes: {}", ex.getMessage());
         } catch (IOException ex) {
-            this.logger.warn("Error occurred while deleting Solr documents: {}", ex.getMessage());
+            this.logger.warn("Error occurred while committing patient index changes: {}", ex.getMessage());
         }
     }
 
+    private int getConfiguredValue(String property, int defaultValue)
+    {
+        Integer value = this.configuration.getProperty(property, Integer.class);
+        return value != null && value > 0 ? value : defaultValue;
+    }
+
     @Override
     public void reindex()
     {
+        ReindexStatus status;
+        ReindexCheckpoint checkpoint;
+        synchronized (this) {
+            if (this.reindexStatus.getState() == PatientReindexStatus.State.RUNNING) {
+                this.logger.warn("A patient reindex is already running");
+                return;
+            }
+            checkpoint = this.cores.loadCheckpoint();
+            status = new ReindexStatus();
+            status.start(checkpoint != null);
+            this.reindexStatus = status;
+        }
+        Date since = checkpoint != null ? checkpoint.getSince() : status.getStartDate();
         try {
-            List<String> patientDocs =
-                this.qm.createQuery("from doc.object(PhenoTips.PatientClass) as patient", Query.XWQL).execute();
-            this.server.deleteByQuery("*:*");
-            for (String patientDoc : patientDocs) {
-                this.internalIndex(this.patientRepository.get(patientDoc), false);
+            List<String> patientDocs = this.qm.createQuery(PATIENTS_QUERY, Query.XWQL).execute();
+            List<String> remainingDocs = getRemainingDocuments(patientDocs, checkpoint);
+            status.setTotal(patientDocs.size(), patientDocs.size() - remainingDocs.size());
+            if (checkpoint != null) {
+                this.logger.info("Resuming patient reindexing after [{}], {} patients left",
+                    checkpoint.getLastDocument(), remainingDocs.size());
             }
-            this.server.commit();
+
+            SolrClient replacement = this.cores.createReplacementCore(checkpoint != null);
+            synchronized (this.writeLock) {
+                this.changedDuringReindex = new LinkedHashMap<>();
+            }
+            indexAll(replacement, remainingDocs, status, since);
+            if (checkpoint != null) {
+                removeDeletedPatients(replacement, patientDocs);
+            }
+            synchronized (this.writeLock) {
+                // Pending changes go to the live index, and from there to the new one, which then replaces it
+                write(this.queue.drain());
+                commit(true);
+                writeChanges(replacement, this.changedDuringReindex);
+                replacement.commit();
+                this.cores.replaceCore();
+                this.server = this.cores.getSolrConnection();
+            }
+            status.finish();
         } catch (SolrServerException ex) {
             this.logger.warn("Failed to reindex patients: {}", ex.getMessage());
+            status.fail(ex.getMessage());
         } catch (IOException ex) {
             this.logger.warn("Error occurred while reindexing patients: {}", ex.getMessage());
+            status.fail(ex.getMessage());
         } catch (QueryException ex) {
             this.logger.warn("Failed to search patients for reindexing: {}", ex.getMessage());
+            status.fail(ex.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            this.logger.warn("Patient reindexing was interrupted");
+            status.fail("Interrupted");
+        } finally {
+            synchronized (this.writeLock) {
+                this.changedDuringReindex = null;
+            }
+            if (status.getState() == PatientReindexStatus.State.RUNNING) {
+                status.fail("Unexpected error");
+            }
+        }
+    }
+
+    @Override
+    public PatientReindexStatus getReindexStatus()
+    {
+        return this.reindexStatus;
+    }
+
+    /**
+     * Sorts the patient documents in the order in which they are indexed, and skips the ones already indexed before
+     * the checkpoint, if any. Patients changed since the checkpointed reindex started are indexed again, first.
+     */
+    private List<String> getRemainingDocuments(List<String> patientDocs, ReindexCheckpoint checkpoint)
+        throws QueryException
+    {
+        List<String> result = new ArrayList<>(new TreeSet<>(patientDocs));
+        if (checkpoint == null) {
+            return result;
+        }
+        String lastDocument = checkpoint.getLastDocument();
+        int next = Collections.binarySearch(result, lastDocument);
+        next = next >= 0 ? next + 1 : -next - 1;
+        List<String> changedDocs = this.qm.createQuery(CHANGED_PATIENTS_QUERY, Query.XWQL)
+            .bindValue("since", checkpoint.getSince()).execute();
+        List<String> remaining = new ArrayList<>();
+        for (String changedDoc : new TreeSet<>(changedDocs)) {
+            if (changedDoc.compareTo(lastDocument) <= 0) {
+                remaining.add(changedDoc);
+            }
+        }
+        remaining.addAll(result.subList(next, result.size()));
+        return remaining;
+    }
+
+    /**
+     * Removes from a resumed replacement core the patients indexed by the interrupted reindex, but deleted since then.
+     * Deletions made during the current reindex are applied afterwards, from {@link #changedDuringReindex}.
+     */
+    private void removeDeletedPatients(SolrClient replacement, List<String> patientDocs)
+        throws SolrServerException, IOException
+    {
+        Set<String> existing = new HashSet<>();
+        for (String patientDoc : patientDocs) {
+            existing.add(this.referenceSerializer.serialize(this.documentResolver.resolve(patientDoc)));
+        }
+        List<String> deleted = new ArrayList<>();
+        SolrQuery query = new SolrQuery("*:*");
+        query.setFields(DOCUMENT_FIELD);
+        query.setRows(getConfiguredValue(REINDEX_BATCH_SIZE_PROPERTY, DEFAULT_REINDEX_BATCH_SIZE));
+        query.setSort(DOCUMENT_FIELD, SolrQuery.ORDER.asc);
+        String cursor = CursorMarkParams.CURSOR_MARK_START;
+        boolean done = false;
+        while (!done) {
+            query.set(CursorMarkParams.CURSOR_MARK_PARAM, cursor);
+            QueryResponse response = replacement.query(query);
+            for (SolrDocument document : response.getResults()) {
+                String id = String.valueOf(document.getFieldValue(DOCUMENT_FIELD));
+                if (!existing.contains(id)) {
+                    deleted.add(id);
+                }
+            }
+            String next = response.getNextCursorMark();
+            done = next == null || next.equals(cursor);
+            cursor = next;
+        }
+        if (!deleted.isEmpty()) {
+            this.logger.info("Removing {} patients deleted since the interrupted reindex", deleted.size());
+            replacement.deleteById(deleted);
+        }
+    }
+
+    /**
+     * Loads and converts the patients in batches, on a pool of worker threads, and writes the batches to the
+     * replacement core in order, saving a checkpoint every {@link #BATCHES_PER_CHECKPOINT} batches.
+     */
+    private void indexAll(SolrClient replacement, List<String> patientDocs, ReindexStatus status, Date since)
+        throws SolrServerException, IOException, InterruptedException
+    {
+        int threads = getConfiguredValue(REINDEX_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+        int reindexBatchSize = getConfiguredValue(REINDEX_BATCH_SIZE_PROPERTY, DEFAULT_REINDEX_BATCH_SIZE);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ReindexThreadFactory());
+        Deque<Future<List<SolrInputDocument>>> pending = new ArrayDeque<>();
+        Deque<List<String>> pendingBatches = new ArrayDeque<>();
+        String lastDocument = null;
+        int uncheckpointedBatches = 0;
+        try {
+            int nextBatch = 0;
+            while (nextBatch < patientDocs.size() || !pending.isEmpty()) {
+                while (nextBatch < patientDocs.size() && pending.size() < threads * QUEUED_BATCHES_PER_WORKER) {
+                    final List<String> batch =
+                        patientDocs.subList(nextBatch, Math.min(nextBatch + reindexBatchSize, patientDocs.size()));
+                    pending.add(executor.submit(new Callable<List<SolrInputDocument>>()
+                    {
+                        @Override
+                        public List<SolrInputDocument> call()
+                        {
+                            return loadDocuments(batch);
+                        }
+                    }));
+                    pendingBatches.add(batch);
+                    nextBatch += batch.size();
+                }
+
+                List<String> batch = pendingBatches.poll();
+                List<SolrInputDocument> documents = getResult(pending.poll());
+                if (!documents.isEmpty()) {
+                    replacement.add(documents);
+                }
+                status.advance(batch.size());
+                String batchEnd = batch.get(batch.size() - 1);
+                lastDocument = lastDocument == null || lastDocument.compareTo(batchEnd) < 0 ? batchEnd : lastDocument;
+                if (++uncheckpointedBatches >= BATCHES_PER_CHECKPOINT) {
+                    replacement.commit();
+                    this.cores.saveCheckpoint(new ReindexCheckpoint(lastDocument, since));
+                    uncheckpointedBatches = 0;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<SolrInputDocument> getResult(Future<List<SolrInputDocument>> result)
+        throws SolrServerException, InterruptedException
+    {
+        try {
+            return result.get();
+        } catch (ExecutionException ex) {
+            throw new SolrServerException(ex.getCause());
+        }
+    }
+
+    /** Runs on the reindex worker threads. Patients that fail to load or convert are skipped. */
+    private List<SolrInputDocument> loadDocuments(List<String> patientDocs)
+    {
+        List<SolrInputDocument> result = new ArrayList<>(patientDocs.size());
+        for (String patientDoc : patientDocs) {
+            try {
+                Patient patient = this.patientRepository.get(patientDoc);
+                if (patient != null) {
+                    result.add(createDocument(patient));
+                }
+            } catch (RuntimeException ex) {
+                this.logger.warn("Failed to index patient [{}]: {}", patientDoc, ex.getMessage());
+            }
+        }
+        return result;
+    }
+
+    /** Applies the changes written to the live index during the reindex to the replacement core. */
+    private void writeChanges(SolrClient replacement, Map<String, SolrInputDocument> changes)
+        throws SolrServerException, IOException
+    {
+        List<String> deleted = new ArrayList<>();
+        List<SolrInputDocument> updated = new ArrayList<>(changes.size());
+        for (Map.Entry<String, SolrInputDocument> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                deleted.add(change.getKey());
+            } else {
+                updated.add(change.getValue());
+            }
+        }
+        if (!deleted.isEmpty()) {
+            replacement.deleteById(deleted);
+        }
+        if (!updated.isEmpty()) {
+            replacement.add(updated);
         }
     }
 
@@ -216,4 +767,33 @@ private void addGenes(SolrInputDocument input, Patient patient)
             input.addField(field, name);
         }
     }
+
+    /**
+     * Creates daemon reindex worker threads, which run inside a copy of the XWiki context of the thread that started
+     * the reindex, so that patients can be loaded with the same rights as on the calling thread.
+     */
+    private final class ReindexThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger threadCounter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable worker)
+        {
+            XWikiContext context = SolrPatientIndexer.this.contextProvider.get();
+            Runnable wrapped = worker;
+            if (context != null) {
+                wrapped = new AbstractXWikiRunnable(XWikiContext.EXECUTIONCONTEXT_KEY, context.clone())
+                {
+                    @Override
+                    protected void runInternal()
+                    {
+                        worker.run();
+                    }
+                };
+            }
+            Thread thread = new Thread(wrapped, "Patient reindexer " + this.threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
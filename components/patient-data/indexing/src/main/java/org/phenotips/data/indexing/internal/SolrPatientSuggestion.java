@@ -0,0 +1,90 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.indexing.internal;
+
+import org.phenotips.data.indexing.PatientSuggestion;
+
+import org.xwiki.model.reference.DocumentReference;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A {@link PatientSuggestion} built from the stored fields of a patient index document.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+final class SolrPatientSuggestion implements PatientSuggestion
+{
+    private final DocumentReference document;
+
+    private final String externalId;
+
+    private final String firstName;
+
+    private final String lastName;
+
+    private final Map<String, Object> metadata;
+
+    SolrPatientSuggestion(DocumentReference document, String externalId, String firstName, String lastName,
+        Map<String, Object> metadata)
+    {
+        this.document = document;
+        this.externalId = externalId;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.metadata = Collections.unmodifiableMap(metadata);
+    }
+
+    @Override
+    public DocumentReference getDocumentReference()
+    {
+        return this.document;
+    }
+
+    @Override
+    public String getId()
+    {
+        return this.document.getName();
+    }
+
+    @Override
+    public String getExternalId()
+    {
+        return this.externalId;
+    }
+
+    @Override
+    public String getFirstName()
+    {
+        return this.firstName;
+    }
+
+    @Override
+    public String getLastName()
+    {
+        return this.lastName;
+    }
+
+    @Override
+    public Map<String, Object> getMetadata()
+    {
+        return this.metadata;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.indexing.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.indexing.PatientSuggestion;
+import org.phenotips.data.indexing.PatientSuggestionIndex;
+import org.phenotips.data.permissions.AccessLevel;
+import org.phenotips.data.permissions.EntityPermissionsManager;
+import org.phenotips.data.permissions.Visibility;
+import org.phenotips.security.authorization.AuthorizationService;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.users.User;
+import org.xwiki.users.UserManager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.SolrDocument;
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.user.api.XWikiGroupService;
+
+/**
+ * {@link PatientSuggestionIndex} implementation querying the {@code patients} Solr core. Identifiers are matched
+ * against n-grams, and names against word prefixes, so that matching doesn't need to scan all the patients. The query
+ * is restricted to the patients accessible to the current user using the owner, collaborators, visibility and lock
+ * stored in the index, mirroring the patient authorization modules, so that suggestions are built from the stored
+ * fields alone.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Component
+@Singleton
+public class SolrPatientSuggestionIndex implements PatientSuggestionIndex
+{
+    private static final String DOCUMENT_FIELD = "document";
+
+    private static final String VISIBILITY_FIELD = "visibility";
+
+    private static final String IDENTIFIER_SEARCH_FIELD = "identifier_search";
+
+    private static final String NAME_SEARCH_FIELD = "name_search";
+
+    private static final String OR = " OR ";
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private SolrPatientCoreManager cores;
+
+    @Inject
+    private UserManager users;
+
+    @Inject
+    private AuthorizationService access;
+
+    @Inject
+    private EntityPermissionsManager permissions;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> resolver;
+
+    /** Fills in missing reference fields with those from the current context document to create a full reference. */
+    @Inject
+    @Named("current")
+    private EntityReferenceResolver<EntityReference> currentResolver;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Override
+    public List<PatientSuggestion> suggest(String input, boolean matchNames, Right requiredRight, String orderField,
+        String order, int maxResults)
+    {
+        if (StringUtils.isBlank(input) || maxResults <= 0) {
+            return Collections.emptyList();
+        }
+
+        SolrQuery query = new SolrQuery(getMatchQuery(input.toLowerCase(), matchNames));
+        query.addFilterQuery("-" + SolrPatientIndexer.PATIENT_ID_FIELD + ":PatientTemplate");
+        Right right = requiredRight != null ? requiredRight : Right.VIEW;
+        String accessFilter = getAccessFilter(right);
+        if (StringUtils.isNotEmpty(accessFilter)) {
+            query.addFilterQuery(accessFilter);
+        }
+        if (!right.isReadOnly()) {
+            // Locked patients can only be viewed, even by administrators
+            query.addFilterQuery("-" + SolrPatientIndexer.LOCKED_FIELD + ":true");
+        }
+        SolrQuery.ORDER direction = "desc".equals(order) ? SolrQuery.ORDER.desc : SolrQuery.ORDER.asc;
+        if ("eid".equals(orderField)) {
+            query.addSort(SolrPatientIndexer.EXTERNAL_ID_FIELD, direction);
+        }
+        query.addSort(SolrPatientIndexer.PATIENT_ID_FIELD, direction);
+        query.setFields(DOCUMENT_FIELD, SolrPatientIndexer.EXTERNAL_ID_FIELD, SolrPatientIndexer.FIRST_NAME_FIELD,
+            SolrPatientIndexer.LAST_NAME_FIELD, SolrPatientIndexer.METADATA_FIELD_PREFIX + '*');
+        query.setRows(maxResults);
+
+        try {
+            QueryResponse response = this.cores.getSolrConnection().query(query);
+            List<PatientSuggestion> result = new ArrayList<>(response.getResults().size());
+            for (SolrDocument document : response.getResults()) {
+                result.add(toSuggestion(document));
+            }
+            return result;
+        } catch (SolrServerException | IOException ex) {
+            this.logger.error("Error while searching suggested patients: [{}]", ex.getMessage());
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Matches the whole input inside the identifiers, and optionally each word of the input at the start of words in
+     * the names.
+     */
+    private String getMatchQuery(String input, boolean matchNames)
+    {
+        StringBuilder result = new StringBuilder(IDENTIFIER_SEARCH_FIELD).append(':')
+            .append(ClientUtils.escapeQueryChars(input.trim()));
+        if (matchNames) {
+            List<String> words = new ArrayList<>();
+            for (String word : StringUtils.split(input)) {
+                words.add(ClientUtils.escapeQueryChars(word));
+            }
+            result.append(OR).append(NAME_SEARCH_FIELD).append(":(").append(StringUtils.join(words, " AND "))
+                .append(')');
+        }
+        return result.toString();
+    }
+
+    /**
+     * Builds the filter query which restricts the results to the patients on which the current user has the required
+     * right.
+     *
+     * @return a filter query, or an empty string if the user has access to all the patients
+     */
+    private String getAccessFilter(Right right)
+    {
+        User user = this.users.getCurrentUser();
+        EntityReference dataSpace = this.currentResolver.resolve(Patient.DEFAULT_DATA_SPACE, EntityType.SPACE);
+        if (this.access.hasAccess(user, Right.ADMIN, dataSpace)) {
+            return "";
+        }
+
+        List<String> clauses = new ArrayList<>();
+        // Patients owned by guests are accessible to everyone
+        clauses.add("(*:* -" + SolrPatientIndexer.OWNER_FIELD + ":[* TO *])");
+        if (user != null && user.getProfileDocument() != null) {
+            String principals = getPrincipals(user.getProfileDocument());
+            clauses.add(SolrPatientIndexer.OWNER_FIELD + ':' + principals);
+            for (AccessLevel level : this.permissions.listAllAccessLevels()) {
+                if (grants(level, right)) {
+                    clauses.add(SolrPatientIndexer.COLLABORATOR_FIELD_PREFIX + level.getName() + ':' + principals);
+                }
+            }
+            for (Visibility visibility : this.permissions.listAllVisibilityOptions()) {
+                if (grants(visibility.getDefaultAccessLevel(), right)) {
+                    clauses.add(VISIBILITY_FIELD + ':' + ClientUtils.escapeQueryChars(visibility.getName()));
+                }
+            }
+        }
+        return StringUtils.join(clauses, OR);
+    }
+
+    private boolean grants(AccessLevel level, Right right)
+    {
+        Right granted = level == null ? null : level.getGrantedRight();
+        return granted != null && (granted.equals(right)
+            || (granted.getImpliedRights() != null && granted.getImpliedRights().contains(right)));
+    }
+
+    /**
+     * Lists the user and all the groups it belongs to, directly or through other groups.
+     *
+     * @return a query value matching any of the serialized references
+     */
+    private String getPrincipals(DocumentReference user)
+    {
+        Set<DocumentReference> processed = new HashSet<>();
+        Queue<DocumentReference> toProcess = new LinkedList<>();
+        toProcess.add(user);
+        XWikiContext context = this.xcontextProvider.get();
+        try {
+            XWikiGroupService groupService = context.getWiki().getGroupService(context);
+            while (!toProcess.isEmpty()) {
+                DocumentReference current = toProcess.poll();
+                if (processed.add(current)) {
+                    Collection<DocumentReference> groups =
+                        groupService.getAllGroupsReferencesForMember(current, 0, 0, context);
+                    toProcess.addAll(groups);
+                }
+            }
+        } catch (XWikiException ex) {
+            this.logger.warn("Failed to list the groups of [{}]: {}", user, ex.getMessage());
+            processed.add(user);
+        }
+        List<String> values = new ArrayList<>(processed.size());
+        for (DocumentReference principal : processed) {
+            values.add(ClientUtils.escapeQueryChars(this.serializer.serialize(principal)));
+        }
+        return '(' + StringUtils.join(values, OR) + ')';
+    }
+
+    private PatientSuggestion toSuggestion(SolrDocument document)
+    {
+        Map<String, Object> metadata = new LinkedHashMap<>();
+        for (String field : document.getFieldNames()) {
+            if (field.startsWith(SolrPatientIndexer.METADATA_FIELD_PREFIX)) {
+                metadata.put(StringUtils.removeStart(field, SolrPatientIndexer.METADATA_FIELD_PREFIX),
+                    document.getFirstValue(field));
+            }
+        }
+        return new SolrPatientSuggestion(this.resolver.resolve((String) document.getFirstValue(DOCUMENT_FIELD)),
+            (String) document.getFirstValue(SolrPatientIndexer.EXTERNAL_ID_FIELD),
+            (String) document.getFirstValue(SolrPatientIndexer.FIRST_NAME_FIELD),
+            (String) document.getFirstValue(SolrPatientIndexer.LAST_NAME_FIELD), metadata);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.indexing.internal;
+
+import org.phenotips.vocabulary.SolrCoreContainerHandler;
+
+import org.xwiki.environment.Environment;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.solr.core.CoreContainer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.InOrder;
+
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DefaultSolrPatientCoreManagerTest
+{
+    @Rule
+    public MockitoComponentMockingRule<SolrPatientCoreManager> mocker =
+        new MockitoComponentMockingRule<SolrPatientCoreManager>(DefaultSolrPatientCoreManager.class);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CoreContainer container;
+
+    private File solrHome;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.container = mock(CoreContainer.class);
+        when(this.container.getAllCoreNames()).thenReturn(Collections.<String>emptyList());
+        SolrCoreContainerHandler cores = this.mocker.getInstance(SolrCoreContainerHandler.class);
+        when(cores.getContainer()).thenReturn(this.container);
+        Environment environment = this.mocker.getInstance(Environment.class);
+        when(environment.getPermanentDirectory()).thenReturn(this.folder.getRoot());
+
+        this.solrHome = new File(this.folder.getRoot(), "solr");
+        write("patients/conf/solrconfig.xml", "<config/>");
+    }
+
+    @Test
+    public void solrConnectionIsReused() throws Exception
+    {
+        Assert.assertNotNull(this.mocker.getComponentUnderTest().getSolrConnection());
+        Assert.assertSame(this.mocker.getComponentUnderTest().getSolrConnection(),
+            this.mocker.getComponentUnderTest().getSolrConnection());
+    }
+
+    @Test
+    public void createReplacementCoreCopiesTheConfiguration() throws Exception
+    {
+        write("patients_temp/data/index/leftover", "old");
+
+        Assert.assertNotNull(this.mocker.getComponentUnderTest().createReplacementCore(false));
+
+        Assert.assertTrue(new File(this.solrHome, "patients_temp/conf/solrconfig.xml").isFile());
+        Assert.assertFalse(new File(this.solrHome, "patients_temp/data").exists());
+        verify(this.container).create("patients_temp", Collections.<String, String>emptyMap());
+    }
+
+    @Test
+    public void createReplacementCoreDiscardsLoadedLeftovers() throws Exception
+    {
+        when(this.container.getAllCoreNames()).thenReturn(Arrays.asList("patients", "patients_temp"));
+
+        this.mocker.getComponentUnderTest().createReplacementCore(false);
+
+        InOrder order = inOrder(this.container);
+        order.verify(this.container).unload("patients_temp", true, true, true);
+        order.verify(this.container).create("patients_temp", Collections.<String, String>emptyMap());
+    }
+
+    @Test
+    public void createReplacementCoreReusesTheLoadedCoreWhenResuming() throws Exception
+    {
+        when(this.container.getAllCoreNames()).thenReturn(Arrays.asList("patients", "patients_temp"));
+        write("patients_temp/data/index/segment", "data");
+
+        Assert.assertNotNull(this.mocker.getComponentUnderTest().createReplacementCore(true));
+
+        Assert.assertTrue(new File(this.solrHome, "patients_temp/data/index/segment").isFile());
+        verify(this.container, never()).unload(anyString(), anyBoolean(), anyBoolean(), anyBoolean());
+        verify(this.container, never()).create(anyString(), anyMapOf(String.class, String.class));
+    }
+
+    @Test
+    public void replaceCoreCopiesTheNewIndex() throws Exception
+    {
+        write("patients_temp/data/index/segment", "new");
+        write("patients_temp/reindex.checkpoint", "lastDocument=P0000001");
+
+        this.mocker.getComponentUnderTest().replaceCore();
+
+        InOrder order = inOrder(this.container);
+        order.verify(this.container).unload("patients_temp", false, false, false);
+        order.verify(this.container).unload("patients", true, true, false);
+        order.verify(this.container).create("patients", Collections.<String, String>emptyMap());
+        Assert.assertEquals("new",
+            FileUtils.readFileToString(new File(this.solrHome, "patients/data/index/segment"), StandardCharsets.UTF_8));
+        Assert.assertFalse(new File(this.solrHome, "patients_temp").exists());
+    }
+
+    @Test
+    public void discardReplacementCoreRemovesEverything() throws Exception
+    {
+        when(this.container.getAllCoreNames()).thenReturn(Arrays.asList("patients", "patients_temp"));
+        write("patients_temp/reindex.checkpoint", "lastDocument=P0000001");
+
+        this.mocker.getComponentUnderTest().discardReplacementCore();
+
+        verify(this.container).unload("patients_temp", true, true, true);
+        Assert.assertFalse(new File(this.solrHome, "patients_temp").exists());
+        Assert.assertNull(this.mocker.getComponentUnderTest().loadCheckpoint());
+    }
+
+    @Test
+    public void checkpointsAreSavedAndLoaded() throws Exception
+    {
+        SolrPatientCoreManager manager = this.mocker.getComponentUnderTest();
+        Assert.assertNull(manager.loadCheckpoint());
+
+        new File(this.solrHome, "patients_temp").mkdirs();
+        manager.saveCheckpoint(new ReindexCheckpoint("data.P0000001", new Date(1000)));
+        manager.saveCheckpoint(new ReindexCheckpoint("data.P0000002", new Date(1000)));
+
+        ReindexCheckpoint checkpoint = manager.loadCheckpoint();
+        Assert.assertEquals("data.P0000002", checkpoint.getLastDocument());
+        Assert.assertEquals(new Date(1000), checkpoint.getSince());
+    }
+
+    @Test
+    public void invalidCheckpointsAreIgnored() throws Exception
+    {
+        write("patients_temp/reindex.checkpoint", "lastDocument=P0000001\nsince=yesterday");
+
+        Assert.assertNull(this.mocker.getComponentUnderTest().loadCheckpoint());
+    }
+
+    private void write(String path, String content) throws IOException
+    {
+        FileUtils.writeStringToFile(new File(this.solrHome, path), content, StandardCharsets.UTF_8);
+    }
+}
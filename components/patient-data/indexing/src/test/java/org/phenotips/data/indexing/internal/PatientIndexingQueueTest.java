@@ -0,0 +1,113 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.indexing.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link PatientIndexingQueue} class.
+ *
+ * @version $Id$
+ */
+public class PatientIndexingQueueTest
+{
+    private PatientIndexingQueue queue = new PatientIndexingQueue();
+
+    @Test
+    public void changesAreDrainedInSubmissionOrder()
+    {
+        SolrInputDocument first = new SolrInputDocument();
+        SolrInputDocument second = new SolrInputDocument();
+        this.queue.update("P1", first);
+        this.queue.delete("P2");
+        this.queue.update("P3", second);
+
+        Map<String, SolrInputDocument> changes = this.queue.drain();
+
+        Assert.assertEquals(Arrays.asList("P1", "P2", "P3"), new ArrayList<>(changes.keySet()));
+        Assert.assertSame(first, changes.get("P1"));
+        Assert.assertNull(changes.get("P2"));
+        Assert.assertSame(second, changes.get("P3"));
+        Assert.assertEquals(0, this.queue.size());
+        Assert.assertTrue(this.queue.drain().isEmpty());
+    }
+
+    @Test
+    public void repeatedChangesKeepTheirPositionAndTheLastValue()
+    {
+        SolrInputDocument last = new SolrInputDocument();
+        this.queue.update("P1", new SolrInputDocument());
+        this.queue.delete("P2");
+        this.queue.delete("P1");
+        this.queue.update("P1", last);
+
+        Assert.assertEquals(2, this.queue.size());
+        Map<String, SolrInputDocument> changes = this.queue.drain();
+        Assert.assertEquals(Arrays.asList("P1", "P2"), new ArrayList<>(changes.keySet()));
+        Assert.assertSame(last, changes.get("P1"));
+    }
+
+    @Test
+    public void lagIsMeasuredFromTheOldestChange() throws InterruptedException
+    {
+        Assert.assertEquals(0, this.queue.getLag());
+        this.queue.update("P1", new SolrInputDocument());
+        Thread.sleep(20);
+        this.queue.update("P1", new SolrInputDocument());
+        Assert.assertTrue(this.queue.getLag() >= 20);
+    }
+
+    @Test
+    public void fullBatchesDontWaitForTheLatency() throws InterruptedException
+    {
+        this.queue.update("P1", new SolrInputDocument());
+        this.queue.update("P2", new SolrInputDocument());
+        long start = System.currentTimeMillis();
+        Assert.assertTrue(this.queue.awaitBatch(60000, 2));
+        Assert.assertTrue(System.currentTimeMillis() - start < 30000);
+    }
+
+    @Test
+    public void oldChangesAreReleasedAfterTheLatency() throws InterruptedException
+    {
+        this.queue.update("P1", new SolrInputDocument());
+        Assert.assertTrue(this.queue.awaitBatch(10, 100));
+        Assert.assertTrue(this.queue.getLag() >= 10);
+    }
+
+    @Test
+    public void closingReleasesWaitingThreads() throws InterruptedException
+    {
+        Thread closer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                PatientIndexingQueueTest.this.queue.close();
+            }
+        });
+        closer.start();
+        Assert.assertFalse(this.queue.awaitBatch(10, 100));
+    }
+}
@@ -18,6 +18,7 @@
 package org.phenotips.data.indexing.internal;
 
 import org.phenotips.components.ComponentManagerRegistry;
+import org.phenotips.data.DictionaryPatientData;
 import org.phenotips.data.Feature;
 import org.phenotips.data.Gene;
 import org.phenotips.data.IndexedPatientData;
@@ -25,20 +26,26 @@
 import org.phenotips.data.PatientData;
 import org.phenotips.data.PatientRepository;
 import org.phenotips.data.indexing.PatientIndexer;
+import org.phenotips.data.indexing.PatientReindexStatus;
+import org.phenotips.data.permissions.AccessLevel;
+import org.phenotips.data.permissions.Collaborator;
 import org.phenotips.data.permissions.EntityAccess;
 import org.phenotips.data.permissions.EntityPermissionsManager;
+import org.phenotips.data.permissions.Owner;
 import org.phenotips.data.permissions.Visibility;
 import org.phenotips.data.permissions.internal.DefaultEntityAccess;
 import org.phenotips.data.permissions.internal.visibility.PublicVisibility;
-import org.phenotips.vocabulary.SolrCoreContainerHandler;
+import org.phenotips.entities.PrimaryEntityMetadataManager;
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyManager;
-import org.phenotips.vocabulary.VocabularyTerm;
 
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
@@ -50,19 +57,26 @@
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.inject.Provider;
 
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.client.solrj.response.UpdateResponse;
-import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrInputDocument;
-import org.apache.solr.core.CoreContainer;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.params.SolrParams;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
@@ -70,20 +84,32 @@
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.internal.matchers.CapturingMatcher;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.slf4j.Logger;
 
 import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.objects.classes.BaseClass;
 import com.xpn.xwiki.objects.classes.StaticListClass;
 import com.xpn.xwiki.web.Utils;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -91,6 +117,8 @@
 {
     private static final String STATUS_KEY = "status";
 
+    private static final String PATIENTS_QUERY = "from doc.object(PhenoTips.PatientClass) as patient";
+
     private static final List<String> STATUS_VALUES = Arrays.asList("candidate", "rejected", "rejected_candidate",
         "solved", "carrier");
 
@@ -104,6 +132,9 @@
     @Mock
     private SolrClient server;
 
+    @Mock
+    private SolrClient replacement;
+
     @Mock
     private ComponentManager cm;
 
@@ -131,14 +162,17 @@
 
     private DocumentReference patientDocReference;
 
+    private SolrPatientCoreManager cores;
+
     @Before
     public void setUp() throws Exception
     {
 
         MockitoAnnotations.initMocks(this);
 
-        SolrCoreContainerHandler cores = this.mocker.getInstance(SolrCoreContainerHandler.class);
-        doReturn(mock(CoreContainer.class)).when(cores).getContainer();
+        this.cores = this.mocker.getInstance(SolrPatientCoreManager.class);
+        doReturn(this.server).when(this.cores).getSolrConnection();
+        doReturn(this.replacement).when(this.cores).createReplacementCore(anyBoolean());
 
         Utils.setComponentManager(this.cm);
         ReflectionUtils.setFieldValue(new ComponentManagerRegistry(), "cmProvider", this.mockProvider);
@@ -180,20 +214,11 @@ public void setupVocabulary() throws ComponentLookupException
         // Setup the vocabulary
         Vocabulary hpo = this.mocker.getInstance(Vocabulary.class, "hpo");
 
-        // Setup mock term
-        String[] ancestorIds = { "HP:0011842", "HP:0000924", "HP:0000118", "HP:0000001" };
-        Set<VocabularyTerm> ancestors = new HashSet<>();
-        for (String id : ancestorIds) {
-            VocabularyTerm ancestor = mock(VocabularyTerm.class);
-            when(ancestor.getId()).thenReturn(id);
-            ancestors.add(ancestor);
-        }
-        VocabularyTerm term = mock(VocabularyTerm.class);
-        when(term.getId()).thenReturn("HP:0001367");
-        ancestors.add(term);
+        // Setup mock term ancestors
+        String[] ancestorIds = { "HP:0001367", "HP:0011842", "HP:0000924", "HP:0000118", "HP:0000001" };
+        Set<String> ancestors = new HashSet<>(Arrays.asList(ancestorIds));
 
-        when(term.getAncestorsAndSelf()).thenReturn(ancestors);
-        when(hpo.getTerm(term.getId())).thenReturn(term);
+        when(hpo.getAncestorIdsAndSelf("HP:0001367")).thenReturn(ancestors);
     }
 
     @Test
@@ -216,7 +241,7 @@ public void indexDefaultPhenotypeBehaviourTest() throws IOException, SolrServerE
         EntityAccess entityAccess = mock(DefaultEntityAccess.class);
         Visibility patientVisibility = new PublicVisibility();
 
-        CapturingMatcher<SolrInputDocument> capturedArgument = new CapturingMatcher<>();
+        CapturingMatcher<Collection<SolrInputDocument>> capturedArgument = new CapturingMatcher<>();
         when(this.server.add(argThat(capturedArgument))).thenReturn(mock(UpdateResponse.class));
 
         doReturn(this.patientDocReference).when(this.patient).getDocumentReference();
@@ -225,9 +250,10 @@ public void indexDefaultPhenotypeBehaviourTest() throws IOException, SolrServerE
         doReturn(patientVisibility).when(entityAccess).getVisibility();
 
         this.patientIndexer.index(this.patient);
+        this.patientIndexer.flush();
 
-        SolrInputDocument inputDoc = capturedArgument.getLastValue();
-        verify(this.server).add(inputDoc);
+        SolrInputDocument inputDoc = capturedArgument.getLastValue().iterator().next();
+        verify(this.server).add(Collections.singletonList(inputDoc));
         Assert.assertEquals("public", inputDoc.getFieldValue("visibility"));
         Assert.assertEquals("HP:0001367", inputDoc.getFieldValue("phenotype"));
         Assert.assertEquals("id2", inputDoc.getFieldValue("negative_phenotype"));
@@ -244,7 +270,7 @@ public void indexDefaultGeneBehaviourTest() throws IOException, SolrServerExcept
         EntityAccess entityAccess = mock(DefaultEntityAccess.class);
         Visibility patientVisibility = new PublicVisibility();
 
-        CapturingMatcher<SolrInputDocument> capturedArgument = new CapturingMatcher<>();
+        CapturingMatcher<Collection<SolrInputDocument>> capturedArgument = new CapturingMatcher<>();
         when(this.server.add(argThat(capturedArgument))).thenReturn(mock(UpdateResponse.class));
 
         doReturn(this.patientDocReference).when(this.patient).getDocumentReference();
@@ -267,8 +293,9 @@ public void indexDefaultGeneBehaviourTest() throws IOException, SolrServerExcept
         doReturn(patientVisibility).when(entityAccess).getVisibility();
 
         this.patientIndexer.index(this.patient);
-        SolrInputDocument inputDoc = capturedArgument.getLastValue();
-        verify(this.server).add(inputDoc);
+        this.patientIndexer.flush();
+        SolrInputDocument inputDoc = capturedArgument.getLastValue().iterator().next();
+        verify(this.server).add(Collections.singletonList(inputDoc));
 
         Collection<Object> indexedGenes;
         indexedGenes = inputDoc.getFieldValues("candidate_genes");
@@ -313,11 +340,12 @@ public void indexThrowsSolrException() throws IOException, SolrServerException
         doReturn(entityAccess).when(this.permissions).getEntityAccess(this.patient);
         doReturn(patientVisibility).when(entityAccess).getVisibility();
         doThrow(new SolrServerException("Error while adding SolrInputDocument")).when(this.server)
-            .add(any(SolrInputDocument.class));
+            .add(anyCollectionOf(SolrInputDocument.class));
 
         this.patientIndexer.index(this.patient);
+        this.patientIndexer.flush();
 
-        verify(this.logger).warn("Failed to perform Solr search: {}", "Error while adding SolrInputDocument");
+        verify(this.logger).warn("Failed to add documents to Solr: {}", "Error while adding SolrInputDocument");
     }
 
     @Test
@@ -341,11 +369,12 @@ public void indexThrowsIOException() throws IOException, SolrServerException
         doReturn(entityAccess).when(this.permissions).getEntityAccess(this.patient);
         doReturn(patientVisibility).when(entityAccess).getVisibility();
         doThrow(new IOException("Error while adding SolrInputDocument")).when(this.server)
-            .add(any(SolrInputDocument.class));
+            .add(anyCollectionOf(SolrInputDocument.class));
 
         this.patientIndexer.index(this.patient);
+        this.patientIndexer.flush();
 
-        verify(this.logger).warn("Error occurred while performing Solr search: {}",
+        verify(this.logger).warn("Error occurred while adding Solr documents: {}",
             "Error while adding SolrInputDocument");
     }
 
@@ -358,7 +387,7 @@ public void indexGetReporterIsNull() throws IOException, SolrServerException
         EntityAccess entityAccess = mock(DefaultEntityAccess.class);
         Visibility patientVisibility = new PublicVisibility();
 
-        CapturingMatcher<SolrInputDocument> capturedArgument = new CapturingMatcher<>();
+        CapturingMatcher<Collection<SolrInputDocument>> capturedArgument = new CapturingMatcher<>();
         when(this.server.add(argThat(capturedArgument))).thenReturn(mock(UpdateResponse.class));
 
         doReturn(this.patientDocReference).when(this.patient).getDocumentReference();
@@ -373,37 +402,210 @@ public void indexGetReporterIsNull() throws IOException, SolrServerException
         doReturn(patientVisibility).when(entityAccess).getVisibility();
 
         this.patientIndexer.index(this.patient);
-        SolrInputDocument inputDoc = capturedArgument.getLastValue();
-        verify(this.server).add(inputDoc);
+        this.patientIndexer.flush();
+        SolrInputDocument inputDoc = capturedArgument.getLastValue().iterator().next();
+        verify(this.server).add(Collections.singletonList(inputDoc));
         Assert.assertEquals(inputDoc.getFieldValue("reporter"), "");
     }
 
+    @Test
+    public void indexStoresSuggestionFields() throws Exception
+    {
+        EntityAccess entityAccess = mock(DefaultEntityAccess.class);
+        DocumentReference ownerReference = new DocumentReference("xwiki", "XWiki", "owner");
+        DocumentReference collaboratorReference = new DocumentReference("xwiki", "XWiki", "Team");
+        Owner owner = mock(Owner.class);
+        doReturn(ownerReference).when(owner).getUser();
+        AccessLevel edit = mock(AccessLevel.class);
+        doReturn("edit").when(edit).getName();
+        Collaborator collaborator = mock(Collaborator.class);
+        doReturn(collaboratorReference).when(collaborator).getUser();
+        doReturn(edit).when(collaborator).getAccessLevel();
+        EntityReferenceSerializer<String> serializer = this.mocker.getInstance(EntityReferenceSerializer.TYPE_STRING);
+        when(serializer.serialize(ownerReference)).thenReturn("xwiki:XWiki.owner");
+        when(serializer.serialize(collaboratorReference)).thenReturn("xwiki:XWiki.Team");
+
+        CapturingMatcher<Collection<SolrInputDocument>> capturedArgument = new CapturingMatcher<>();
+        when(this.server.add(argThat(capturedArgument))).thenReturn(mock(UpdateResponse.class));
+
+        doReturn(this.patientDocReference).when(this.patient).getDocumentReference();
+        doReturn("EXT-1").when(this.patient).getExternalId();
+        Map<String, String> names = new HashMap<>();
+        names.put("first_name", "John");
+        names.put("last_name", "Doe");
+        doReturn(new DictionaryPatientData<>("patientName", names)).when(this.patient).getData("patientName");
+        doReturn(entityAccess).when(this.permissions).getEntityAccess(this.patient);
+        doReturn(new PublicVisibility()).when(entityAccess).getVisibility();
+        doReturn(owner).when(entityAccess).getOwner();
+        doReturn(Collections.singletonList(collaborator)).when(entityAccess).getCollaborators();
+        PrimaryEntityMetadataManager metadata = this.mocker.getInstance(PrimaryEntityMetadataManager.class);
+        doReturn(Collections.singletonMap("family", "FAM0000001")).when(metadata).getMetadata(this.patient);
+
+        this.patientIndexer.index(this.patient);
+        this.patientIndexer.flush();
+
+        SolrInputDocument inputDoc = capturedArgument.getLastValue().iterator().next();
+        Assert.assertEquals("P0000001", inputDoc.getFieldValue("patient_id"));
+        Assert.assertEquals("EXT-1", inputDoc.getFieldValue("external_id"));
+        Assert.assertEquals("John", inputDoc.getFieldValue("first_name"));
+        Assert.assertEquals("Doe", inputDoc.getFieldValue("last_name"));
+        Assert.assertEquals("xwiki:XWiki.owner", inputDoc.getFieldValue("owner"));
+        Assert.assertEquals("xwiki:XWiki.Team", inputDoc.getFieldValue("collaborator_edit"));
+        Assert.assertEquals("FAM0000001", inputDoc.getFieldValue("metadata_family"));
+    }
+
+    @Test
+    public void guestOwnedPatientsHaveNoOwnerField() throws Exception
+    {
+        EntityAccess entityAccess = mock(DefaultEntityAccess.class);
+        CapturingMatcher<Collection<SolrInputDocument>> capturedArgument = new CapturingMatcher<>();
+        when(this.server.add(argThat(capturedArgument))).thenReturn(mock(UpdateResponse.class));
+
+        doReturn(this.patientDocReference).when(this.patient).getDocumentReference();
+        doReturn(entityAccess).when(this.permissions).getEntityAccess(this.patient);
+        doReturn(new PublicVisibility()).when(entityAccess).getVisibility();
+        doReturn(mock(Owner.class)).when(entityAccess).getOwner();
+
+        this.patientIndexer.index(this.patient);
+        this.patientIndexer.flush();
+
+        SolrInputDocument inputDoc = capturedArgument.getLastValue().iterator().next();
+        Assert.assertNull(inputDoc.getFieldValue("owner"));
+        Assert.assertNull(inputDoc.getFieldValue("external_id"));
+        Assert.assertEquals("P0000001", inputDoc.getFieldValue("patient_id"));
+    }
+
+    @Test
+    public void lockedPatientsAreMarked() throws Exception
+    {
+        mockIndexablePatient();
+        XWikiDocument document = mock(XWikiDocument.class);
+        doReturn(document).when(this.patient).getXDocument();
+        doReturn(mock(BaseObject.class)).when(document).getXObject(any(EntityReference.class));
+        CapturingMatcher<Collection<SolrInputDocument>> capturedArgument = new CapturingMatcher<>();
+        when(this.server.add(argThat(capturedArgument))).thenReturn(mock(UpdateResponse.class));
+
+        this.patientIndexer.index(this.patient);
+        this.patientIndexer.flush();
+
+        Assert.assertEquals(Boolean.TRUE, capturedArgument.getLastValue().iterator().next().getFieldValue("locked"));
+    }
+
     @Test
     public void deleteDefaultBehaviourTest() throws IOException, SolrServerException
     {
         doReturn(this.patientDocReference).when(this.patient).getDocumentReference();
         this.patientIndexer.delete(this.patient);
-        verify(this.server).deleteByQuery("document:"
-            + ClientUtils.escapeQueryChars(this.patientDocReference.toString()));
-        verify(this.server).commit();
+        this.patientIndexer.flush();
+        verify(this.server).deleteById(Collections.singletonList("wiki:patient.P0000001"));
+        verify(this.server).commit(true, true, true);
     }
 
     @Test
     public void deleteThrowsSolrException() throws IOException, SolrServerException
     {
         doReturn(this.patientDocReference).when(this.patient).getDocumentReference();
-        doThrow(new SolrServerException("commit failed")).when(this.server).commit();
+        doThrow(new SolrServerException("delete failed")).when(this.server).deleteById(anyListOf(String.class));
         this.patientIndexer.delete(this.patient);
-        verify(this.logger).warn("Failed to delete from Solr: {}", "commit failed");
+        this.patientIndexer.flush();
+        verify(this.logger).warn("Failed to delete from Solr: {}", "delete failed");
     }
 
     @Test
     public void deleteThrowsIOException() throws IOException, SolrServerException
     {
         doReturn(this.patientDocReference).when(this.patient).getDocumentReference();
-        doThrow(new IOException("commit failed")).when(this.server).commit();
+        doThrow(new IOException("delete failed")).when(this.server).deleteById(anyListOf(String.class));
+        this.patientIndexer.delete(this.patient);
+        this.patientIndexer.flush();
+        verify(this.logger).warn("Error occurred while deleting Solr documents: {}", "delete failed");
+    }
+
+    @Test
+    public void commitThrowsSolrException() throws IOException, SolrServerException
+    {
+        doReturn(this.patientDocReference).when(this.patient).getDocumentReference();
+        doThrow(new SolrServerException("commit failed")).when(this.server).commit(true, true, true);
+        this.patientIndexer.delete(this.patient);
+        this.patientIndexer.flush();
+        verify(this.logger).warn("Failed to commit patient index changes: {}", "commit failed");
+    }
+
+    @Test
+    public void repeatedChangesAreCollapsed() throws IOException, SolrServerException
+    {
+        mockIndexablePatient();
+
+        this.patientIndexer.index(this.patient);
+        this.patientIndexer.index(this.patient);
         this.patientIndexer.delete(this.patient);
-        verify(this.logger).warn("Error occurred while deleting Solr documents: {}", "commit failed");
+        Assert.assertEquals(1, this.patientIndexer.getQueueSize());
+        Assert.assertTrue(this.patientIndexer.getQueueLag() >= 0);
+        this.patientIndexer.flush();
+
+        Assert.assertEquals(0, this.patientIndexer.getQueueSize());
+        Assert.assertEquals(0, this.patientIndexer.getQueueLag());
+        verify(this.server).deleteById(Collections.singletonList("wiki:patient.P0000001"));
+        verify(this.server, never()).add(anyCollectionOf(SolrInputDocument.class));
+        verify(this.server, times(1)).commit(true, true, true);
+    }
+
+    @Test
+    public void flushWithoutChangesDoesNotCommit() throws IOException, SolrServerException
+    {
+        this.patientIndexer.flush();
+        verify(this.server, never()).commit(anyBoolean(), anyBoolean(), anyBoolean());
+    }
+
+    @Test
+    public void queuedChangesAreWrittenInTheBackground() throws Exception
+    {
+        mockIndexablePatient();
+
+        this.patientIndexer.index(this.patient);
+
+        verify(this.server, timeout(5000)).commit(false, false, true);
+        verify(this.server).add(anyCollectionOf(SolrInputDocument.class));
+    }
+
+    @Test
+    public void rejectedBatchesAreRetriedOneByOne() throws Exception
+    {
+        mockIndexablePatient();
+        Patient other = mock(Patient.class);
+        doReturn(new DocumentReference("wiki", "patient", "P0000002")).when(other).getDocumentReference();
+        EntityReferenceSerializer<String> referenceSerializer =
+            this.mocker.getInstance(EntityReferenceSerializer.TYPE_STRING);
+        when(referenceSerializer.serialize(other.getDocumentReference())).thenReturn("wiki:patient.P0000002");
+        doThrow(new SolrException(SolrException.ErrorCode.BAD_REQUEST, "invalid document")).when(this.server)
+            .add(anyCollectionOf(SolrInputDocument.class));
+        doThrow(new SolrException(SolrException.ErrorCode.BAD_REQUEST, "invalid document")).when(this.server)
+            .add(any(SolrInputDocument.class));
+
+        this.patientIndexer.index(this.patient);
+        this.patientIndexer.delete(other);
+        this.patientIndexer.flush();
+
+        verify(this.server).add(any(SolrInputDocument.class));
+        verify(this.logger).warn("Failed to index changes for patient [{}], skipping them: {}",
+            "wiki:patient.P0000001", "invalid document");
+        verify(this.server).deleteById(Collections.singletonList("wiki:patient.P0000002"));
+        verify(this.server).commit(true, true, true);
+    }
+
+    @Test
+    public void backgroundWriterSurvivesUnexpectedErrors() throws Exception
+    {
+        mockIndexablePatient();
+        doThrow(new SolrException(SolrException.ErrorCode.SERVER_ERROR, "commit failed"))
+            .doReturn(mock(UpdateResponse.class)).when(this.server).commit(false, false, true);
+
+        this.patientIndexer.index(this.patient);
+        verify(this.server, timeout(5000)).commit(false, false, true);
+        this.patientIndexer.index(this.patient);
+
+        verify(this.server, timeout(5000).times(2)).commit(false, false, true);
+        verify(this.server, times(2)).add(anyCollectionOf(SolrInputDocument.class));
     }
 
     @Test
@@ -413,7 +615,7 @@ public void reindexDefaultBehaviour() throws QueryException, IOException, SolrSe
         patientDocs.add("P0000001");
 
         Query testQuery = mock(Query.class);
-        doReturn(testQuery).when(this.qm).createQuery("from doc.object(PhenoTips.PatientClass) as patient", Query.XWQL);
+        doReturn(testQuery).when(this.qm).createQuery(PATIENTS_QUERY, Query.XWQL);
         doReturn(patientDocs).when(testQuery).execute();
         doReturn(this.patient).when(this.patientRepository).get("P0000001");
 
@@ -435,11 +637,29 @@ public void reindexDefaultBehaviour() throws QueryException, IOException, SolrSe
         doReturn(entityAccess).when(this.permissions).getEntityAccess(this.patient);
         doReturn(patientVisibility).when(entityAccess).getVisibility();
 
-        this.patientIndexer.reindex();
+        CapturingMatcher<Collection<SolrInputDocument>> capturedArgument = new CapturingMatcher<>();
+        when(this.replacement.add(argThat(capturedArgument))).thenReturn(mock(UpdateResponse.class));
 
-        verify(this.server).deleteByQuery("*:*");
-        verify(this.server).commit();
+        Assert.assertEquals(PatientReindexStatus.State.NONE, this.patientIndexer.getReindexStatus().getState());
+        this.patientIndexer.reindex();
 
+        verify(this.cores).createReplacementCore(false);
+        Assert.assertEquals("wiki:patient.P0000001",
+            capturedArgument.getLastValue().iterator().next().getFieldValue("document"));
+        verify(this.replacement).commit();
+        verify(this.cores).replaceCore();
+        // The live index is never emptied
+        verify(this.server, never()).deleteByQuery(anyString());
+        verify(this.server, never()).add(anyCollectionOf(SolrInputDocument.class));
+
+        PatientReindexStatus status = this.patientIndexer.getReindexStatus();
+        Assert.assertEquals(PatientReindexStatus.State.FINISHED, status.getState());
+        Assert.assertFalse(status.isResumed());
+        Assert.assertEquals(1, status.getTotal());
+        Assert.assertEquals(1, status.getProcessed());
+        Assert.assertNotNull(status.getStartDate());
+        Assert.assertNotNull(status.getEndDate());
+        Assert.assertNull(status.getError());
     }
 
     @Test
@@ -449,14 +669,21 @@ public void reindexSolrServerException() throws QueryException, IOException, Sol
         patientDocs.add("P0000001");
 
         Query testQuery = mock(Query.class);
-        doReturn(testQuery).when(this.qm).createQuery("from doc.object(PhenoTips.PatientClass) as patient", Query.XWQL);
+        doReturn(testQuery).when(this.qm).createQuery(PATIENTS_QUERY, Query.XWQL);
         doReturn(patientDocs).when(testQuery).execute();
+        mockIndexablePatient();
+        doReturn(this.patient).when(this.patientRepository).get("P0000001");
 
-        doThrow(new SolrServerException("deleteByQuery failed")).when(this.server).deleteByQuery("*:*");
+        doThrow(new SolrServerException("add failed")).when(this.replacement)
+            .add(anyCollectionOf(SolrInputDocument.class));
 
         this.patientIndexer.reindex();
 
-        verify(this.logger).warn("Failed to reindex patients: {}", "deleteByQuery failed");
+        verify(this.logger).warn("Failed to reindex patients: {}", "add failed");
+        verify(this.cores, never()).replaceCore();
+        verify(this.cores, never()).discardReplacementCore();
+        Assert.assertEquals(PatientReindexStatus.State.FAILED, this.patientIndexer.getReindexStatus().getState());
+        Assert.assertEquals("add failed", this.patientIndexer.getReindexStatus().getError());
     }
 
     @Test
@@ -466,25 +693,177 @@ public void reindexIOException() throws QueryException, IOException, SolrServerE
         patientDocs.add("P0000001");
 
         Query testQuery = mock(Query.class);
-        doReturn(testQuery).when(this.qm).createQuery("from doc.object(PhenoTips.PatientClass) as patient", Query.XWQL);
+        doReturn(testQuery).when(this.qm).createQuery(PATIENTS_QUERY, Query.XWQL);
         doReturn(patientDocs).when(testQuery).execute();
 
-        doThrow(new IOException("deleteByQuery failed")).when(this.server).deleteByQuery("*:*");
+        doThrow(new IOException("core creation failed")).when(this.cores).createReplacementCore(anyBoolean());
 
         this.patientIndexer.reindex();
 
-        verify(this.logger).warn("Error occurred while reindexing patients: {}", "deleteByQuery failed");
+        verify(this.logger).warn("Error occurred while reindexing patients: {}", "core creation failed");
+        verify(this.cores, never()).replaceCore();
+        Assert.assertEquals(PatientReindexStatus.State.FAILED, this.patientIndexer.getReindexStatus().getState());
     }
 
     @Test
     public void reindexQueryException() throws QueryException, IOException, SolrServerException
     {
         doThrow(new QueryException("createQuery failed", null, null))
-            .when(this.qm).createQuery("from doc.object(PhenoTips.PatientClass) as patient", Query.XWQL);
+            .when(this.qm).createQuery(PATIENTS_QUERY, Query.XWQL);
 
         this.patientIndexer.reindex();
 
         verify(this.logger).warn("Failed to search patients for reindexing: {}", "createQuery failed");
+        Assert.assertEquals(PatientReindexStatus.State.FAILED, this.patientIndexer.getReindexStatus().getState());
+    }
+
+    @Test
+    public void reindexSavesCheckpoints() throws Exception
+    {
+        List<String> patientDocs = new ArrayList<>();
+        for (int i = 25; i > 0; i--) {
+            patientDocs.add(String.format("P%07d", i));
+        }
+        Query testQuery = mock(Query.class);
+        doReturn(testQuery).when(this.qm).createQuery(PATIENTS_QUERY, Query.XWQL);
+        doReturn(patientDocs).when(testQuery).execute();
+        mockIndexablePatient();
+        doReturn(this.patient).when(this.patientRepository).get(anyString());
+        ConfigurationSource configuration = this.mocker.getInstance(ConfigurationSource.class, "xwikiproperties");
+        doReturn(1).when(configuration).getProperty("phenotips.indexing.patients.reindexBatchSize", Integer.class);
+        doReturn(3).when(configuration).getProperty("phenotips.indexing.patients.reindexThreads", Integer.class);
+
+        CapturingMatcher<ReindexCheckpoint> checkpoints = new CapturingMatcher<>();
+        doNothing().when(this.cores).saveCheckpoint(argThat(checkpoints));
+
+        this.patientIndexer.reindex();
+
+        // Patients are indexed in the order of their names, and a checkpoint is saved every 10 batches
+        Assert.assertEquals(2, checkpoints.getAllValues().size());
+        Assert.assertEquals("P0000010", checkpoints.getAllValues().get(0).getLastDocument());
+        Assert.assertEquals("P0000020", checkpoints.getAllValues().get(1).getLastDocument());
+        Assert.assertEquals(this.patientIndexer.getReindexStatus().getStartDate(),
+            checkpoints.getAllValues().get(1).getSince());
+        verify(this.replacement, times(25)).add(anyCollectionOf(SolrInputDocument.class));
+        verify(this.replacement, times(3)).commit();
+        verify(this.cores).replaceCore();
+        Assert.assertEquals(25, this.patientIndexer.getReindexStatus().getProcessed());
+    }
+
+    @Test
+    public void reindexResumesFromCheckpoint() throws Exception
+    {
+        Date since = new Date(1000);
+        doReturn(new ReindexCheckpoint("P0000002", since)).when(this.cores).loadCheckpoint();
+        Query testQuery = mock(Query.class);
+        doReturn(testQuery).when(this.qm).createQuery(PATIENTS_QUERY, Query.XWQL);
+        doReturn(Arrays.asList("P0000003", "P0000002", "P0000001")).when(testQuery).execute();
+        Query changedQuery = mock(Query.class);
+        doReturn(changedQuery).when(this.qm).createQuery(PATIENTS_QUERY + " where doc.date >= :since", Query.XWQL);
+        doReturn(changedQuery).when(changedQuery).bindValue("since", since);
+        doReturn(Arrays.asList("P0000001", "P0000003")).when(changedQuery).execute();
+        mockIndexablePatient();
+        doReturn(this.patient).when(this.patientRepository).get(anyString());
+        mockIndexedDocuments("P0000001", "P0000002", "P0000004");
+
+        this.patientIndexer.reindex();
+
+        verify(this.cores).createReplacementCore(true);
+        verify(this.patientRepository).get("P0000001");
+        verify(this.patientRepository, never()).get("P0000002");
+        verify(this.patientRepository).get("P0000003");
+        verify(this.replacement).deleteById(Collections.singletonList("wiki:patient.P0000004"));
+        verify(this.cores).replaceCore();
+        PatientReindexStatus status = this.patientIndexer.getReindexStatus();
+        Assert.assertEquals(PatientReindexStatus.State.FINISHED, status.getState());
+        Assert.assertTrue(status.isResumed());
+        Assert.assertEquals(3, status.getTotal());
+        Assert.assertEquals(3, status.getProcessed());
+    }
+
+    @Test
+    public void resumedReindexKeepsPatientsWhichStillExist() throws Exception
+    {
+        doReturn(new ReindexCheckpoint("P0000002", new Date(1000))).when(this.cores).loadCheckpoint();
+        Query testQuery = mock(Query.class);
+        doReturn(testQuery).when(this.qm).createQuery(PATIENTS_QUERY, Query.XWQL);
+        doReturn(Arrays.asList("P0000002", "P0000001")).when(testQuery).execute();
+        Query changedQuery = mock(Query.class);
+        doReturn(changedQuery).when(this.qm).createQuery(PATIENTS_QUERY + " where doc.date >= :since", Query.XWQL);
+        doReturn(changedQuery).when(changedQuery).bindValue(anyString(), any());
+        doReturn(Collections.emptyList()).when(changedQuery).execute();
+        mockIndexedDocuments("P0000001", "P0000002");
+
+        this.patientIndexer.reindex();
+
+        verify(this.replacement, never()).deleteById(anyListOf(String.class));
+        verify(this.cores).replaceCore();
+        Assert.assertEquals(PatientReindexStatus.State.FINISHED, this.patientIndexer.getReindexStatus().getState());
+    }
+
+    @Test
+    public void changesDuringReindexAreAppliedToTheNewIndex() throws Exception
+    {
+        Query testQuery = mock(Query.class);
+        doReturn(testQuery).when(this.qm).createQuery(PATIENTS_QUERY, Query.XWQL);
+        doReturn(Collections.singletonList("P0000001")).when(testQuery).execute();
+        mockIndexablePatient();
+        final Patient deleted = mock(Patient.class);
+        doReturn(new DocumentReference("wiki", "patient", "P0000002")).when(deleted).getDocumentReference();
+        EntityReferenceSerializer<String> referenceSerializer =
+            this.mocker.getInstance(EntityReferenceSerializer.TYPE_STRING);
+        when(referenceSerializer.serialize(deleted.getDocumentReference())).thenReturn("wiki:patient.P0000002");
+        when(this.patientRepository.get("P0000001")).thenAnswer(new Answer<Patient>()
+        {
+            @Override
+            public Patient answer(InvocationOnMock invocation)
+            {
+                SolrPatientIndexerTest.this.patientIndexer.delete(deleted);
+                SolrPatientIndexerTest.this.patientIndexer.flush();
+                return SolrPatientIndexerTest.this.patient;
+            }
+        });
+
+        this.patientIndexer.reindex();
+
+        verify(this.server).deleteById(Collections.singletonList("wiki:patient.P0000002"));
+        verify(this.replacement).deleteById(Collections.singletonList("wiki:patient.P0000002"));
+        verify(this.cores).replaceCore();
+    }
+
+    @Test
+    public void concurrentReindexIsIgnored() throws Exception
+    {
+        Query testQuery = mock(Query.class);
+        doReturn(testQuery).when(this.qm).createQuery(PATIENTS_QUERY, Query.XWQL);
+        doReturn(Collections.singletonList("P0000001")).when(testQuery).execute();
+        mockIndexablePatient();
+        when(this.patientRepository.get("P0000001")).thenAnswer(new Answer<Patient>()
+        {
+            @Override
+            public Patient answer(InvocationOnMock invocation)
+            {
+                Assert.assertEquals(PatientReindexStatus.State.RUNNING,
+                    SolrPatientIndexerTest.this.patientIndexer.getReindexStatus().getState());
+                SolrPatientIndexerTest.this.patientIndexer.reindex();
+                return SolrPatientIndexerTest.this.patient;
+            }
+        });
+
+        this.patientIndexer.reindex();
+
+        verify(this.logger).warn("A patient reindex is already running");
+        verify(this.cores, times(1)).createReplacementCore(false);
+        verify(this.cores, times(1)).replaceCore();
+    }
+
+    private void mockIndexablePatient()
+    {
+        EntityAccess entityAccess = mock(DefaultEntityAccess.class);
+        doReturn(this.patientDocReference).when(this.patient).getDocumentReference();
+        doReturn(Collections.EMPTY_SET).when(this.patient).getFeatures();
+        doReturn(entityAccess).when(this.permissions).getEntityAccess(this.patient);
+        doReturn(new PublicVisibility()).when(entityAccess).getVisibility();
     }
 
     private Gene mockGene(String id, String status)
@@ -494,4 +873,44 @@ private Gene mockGene(String id, String status)
         when(result.getStatus()).thenReturn(status);
         return result;
     }
+
+    /**
+     * Makes the replacement core hold the given patients, returned in two pages, and resolves every patient document
+     * to its serialized reference.
+     */
+    private void mockIndexedDocuments(String... names) throws Exception
+    {
+        DocumentReferenceResolver<String> resolver =
+            this.mocker.getInstance(DocumentReferenceResolver.TYPE_STRING, "current");
+        EntityReferenceSerializer<String> referenceSerializer =
+            this.mocker.getInstance(EntityReferenceSerializer.TYPE_STRING);
+        for (String name : new String[] { "P0000001", "P0000002", "P0000003", "P0000004" }) {
+            DocumentReference reference = new DocumentReference("wiki", "patient", name);
+            when(resolver.resolve(name)).thenReturn(reference);
+            when(referenceSerializer.serialize(reference)).thenReturn("wiki:patient." + name);
+        }
+        SolrDocumentList firstPage = new SolrDocumentList();
+        SolrDocumentList lastPage = new SolrDocumentList();
+        for (int i = 0; i < names.length; ++i) {
+            SolrDocument document = new SolrDocument();
+            document.setField(SolrPatientIndexer.DOCUMENT_FIELD, "wiki:patient." + names[i]);
+            (i == 0 ? firstPage : lastPage).add(document);
+        }
+        final QueryResponse first = mock(QueryResponse.class);
+        doReturn(firstPage).when(first).getResults();
+        doReturn("next").when(first).getNextCursorMark();
+        final QueryResponse last = mock(QueryResponse.class);
+        doReturn(lastPage).when(last).getResults();
+        doReturn("next").when(last).getNextCursorMark();
+        doAnswer(new Answer<QueryResponse>()
+        {
+            @Override
+            public QueryResponse answer(InvocationOnMock invocation)
+            {
+                SolrParams params = (SolrParams) invocation.getArguments()[0];
+                return CursorMarkParams.CURSOR_MARK_START.equals(params.get(CursorMarkParams.CURSOR_MARK_PARAM))
+                    ? first : last;
+            }
+        }).when(this.replacement).query(any(SolrParams.class));
+    }
 }
@@ -0,0 +1,291 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.indexing.internal;
+
+import org.phenotips.data.indexing.PatientSuggestion;
+import org.phenotips.data.indexing.PatientSuggestionIndex;
+import org.phenotips.data.permissions.AccessLevel;
+import org.phenotips.data.permissions.EntityPermissionsManager;
+import org.phenotips.data.permissions.Visibility;
+import org.phenotips.security.authorization.AuthorizationService;
+
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+import org.xwiki.users.User;
+import org.xwiki.users.UserManager;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.inject.Provider;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.SolrParams;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.user.api.XWikiGroupService;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link SolrPatientSuggestionIndex} component.
+ *
+ * @version $Id$
+ */
+public class SolrPatientSuggestionIndexTest
+{
+    @Rule
+    public MockitoComponentMockingRule<PatientSuggestionIndex> mocker =
+        new MockitoComponentMockingRule<>(SolrPatientSuggestionIndex.class);
+
+    private final DocumentReference userProfile = new DocumentReference("xwiki", "XWiki", "jdoe");
+
+    private final DocumentReference group = new DocumentReference("xwiki", "XWiki", "Team");
+
+    private final EntityReference dataSpace = new EntityReference("data", EntityType.SPACE);
+
+    private SolrClient server;
+
+    private AuthorizationService access;
+
+    private UserManager users;
+
+    private SolrDocumentList results = new SolrDocumentList();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.server = mock(SolrClient.class);
+        doReturn(this.server).when(this.mocker.getInstance(SolrPatientCoreManager.class)).getSolrConnection();
+        QueryResponse response = mock(QueryResponse.class);
+        doReturn(this.results).when(response).getResults();
+        doReturn(response).when(this.server).query(any(SolrParams.class));
+
+        EntityReferenceResolver<EntityReference> currentResolver =
+            this.mocker.getInstance(EntityReferenceResolver.TYPE_REFERENCE, "current");
+        doReturn(this.dataSpace).when(currentResolver).resolve("data", EntityType.SPACE);
+        DocumentReferenceResolver<String> resolver =
+            this.mocker.getInstance(DocumentReferenceResolver.TYPE_STRING, "current");
+        doReturn(new DocumentReference("xwiki", "data", "P0000001")).when(resolver).resolve("xwiki:data.P0000001");
+
+        User user = mock(User.class);
+        doReturn(this.userProfile).when(user).getProfileDocument();
+        this.users = this.mocker.getInstance(UserManager.class);
+        doReturn(user).when(this.users).getCurrentUser();
+        this.access = this.mocker.getInstance(AuthorizationService.class);
+
+        Provider<XWikiContext> provider = this.mocker.getInstance(XWikiContext.TYPE_PROVIDER);
+        XWikiContext context = mock(XWikiContext.class);
+        XWiki xwiki = mock(XWiki.class);
+        XWikiGroupService groupService = mock(XWikiGroupService.class);
+        doReturn(context).when(provider).get();
+        doReturn(xwiki).when(context).getWiki();
+        doReturn(groupService).when(xwiki).getGroupService(context);
+        doReturn(Collections.singletonList(this.group)).when(groupService)
+            .getAllGroupsReferencesForMember(this.userProfile, 0, 0, context);
+        doReturn(Collections.emptyList()).when(groupService).getAllGroupsReferencesForMember(this.group, 0, 0, context);
+
+        EntityReferenceSerializer<String> serializer = this.mocker.getInstance(EntityReferenceSerializer.TYPE_STRING);
+        doReturn("xwiki:XWiki.jdoe").when(serializer).serialize(this.userProfile);
+        doReturn("xwiki:XWiki.Team").when(serializer).serialize(this.group);
+
+        EntityPermissionsManager permissions = this.mocker.getInstance(EntityPermissionsManager.class);
+        doReturn(Arrays.asList(level("view", Right.VIEW), level("edit", Right.EDIT))).when(permissions)
+            .listAllAccessLevels();
+        doReturn(Arrays.asList(visibility("private", Right.ILLEGAL), visibility("public", Right.VIEW)))
+            .when(permissions).listAllVisibilityOptions();
+    }
+
+    @Test
+    public void suggestionsAreBuiltFromStoredFields() throws Exception
+    {
+        SolrDocument document = new SolrDocument();
+        document.setField("document", "xwiki:data.P0000001");
+        document.setField("external_id", "EXT-1");
+        document.setField("first_name", "John");
+        document.setField("last_name", "Doe");
+        document.setField("metadata_family", "FAM0000001");
+        this.results.add(document);
+        setAdmin(true);
+
+        List<PatientSuggestion> suggestions =
+            this.mocker.getComponentUnderTest().suggest("Doe", true, Right.VIEW, "id", "asc", 10);
+
+        Assert.assertEquals(1, suggestions.size());
+        PatientSuggestion suggestion = suggestions.get(0);
+        Assert.assertEquals("P0000001", suggestion.getId());
+        Assert.assertEquals(new DocumentReference("xwiki", "data", "P0000001"), suggestion.getDocumentReference());
+        Assert.assertEquals("EXT-1", suggestion.getExternalId());
+        Assert.assertEquals("John", suggestion.getFirstName());
+        Assert.assertEquals("Doe", suggestion.getLastName());
+        Assert.assertEquals(Collections.singletonMap("family", "FAM0000001"), suggestion.getMetadata());
+    }
+
+    @Test
+    public void queryIsLimitedAndSorted() throws Exception
+    {
+        setAdmin(true);
+        this.mocker.getComponentUnderTest().suggest("John D", true, Right.VIEW, "eid", "desc", 7);
+
+        SolrQuery query = getQuery();
+        Assert.assertEquals("identifier_search:john\\ d OR name_search:(john AND d)", query.getQuery());
+        Assert.assertEquals(Integer.valueOf(7), query.getRows());
+        Assert.assertEquals("external_id desc,patient_id desc", query.getSortField());
+        Assert.assertEquals(Collections.singletonList("-patient_id:PatientTemplate"),
+            Arrays.asList(query.getFilterQueries()));
+    }
+
+    @Test
+    public void namesAreOnlyMatchedWhenRequested() throws Exception
+    {
+        setAdmin(true);
+        this.mocker.getComponentUnderTest().suggest("P00", false, Right.VIEW, "id", "asc", 7);
+
+        SolrQuery query = getQuery();
+        Assert.assertEquals("identifier_search:p00", query.getQuery());
+        Assert.assertEquals("patient_id asc", query.getSortField());
+    }
+
+    @Test
+    public void usersOnlyFindAccessiblePatients() throws Exception
+    {
+        setAdmin(false);
+        this.mocker.getComponentUnderTest().suggest("P00", false, Right.EDIT, "id", "asc", 7);
+
+        String filter = getQuery().getFilterQueries()[1];
+        Assert.assertTrue(filter.startsWith("(*:* -owner:[* TO *]) OR owner:("));
+        Assert.assertTrue(filter.contains("xwiki\\:XWiki.jdoe"));
+        Assert.assertTrue(filter.contains("xwiki\\:XWiki.Team"));
+        Assert.assertTrue(filter.contains("collaborator_edit:("));
+        Assert.assertFalse(filter.contains("collaborator_view"));
+        Assert.assertFalse(filter.contains("visibility:"));
+    }
+
+    @Test
+    public void viewRightIsGrantedByVisibility() throws Exception
+    {
+        setAdmin(false);
+        this.mocker.getComponentUnderTest().suggest("P00", false, Right.VIEW, "id", "asc", 7);
+
+        String filter = getQuery().getFilterQueries()[1];
+        Assert.assertTrue(filter.contains("collaborator_view:("));
+        Assert.assertTrue(filter.endsWith(" OR visibility:public"));
+        Assert.assertFalse(filter.contains("visibility:private"));
+    }
+
+    @Test
+    public void lockedPatientsAreOnlySuggestedForReadOnlyRights() throws Exception
+    {
+        setAdmin(true);
+        this.mocker.getComponentUnderTest().suggest("P00", false, Right.EDIT, "id", "asc", 7);
+        Assert.assertEquals(Arrays.asList("-patient_id:PatientTemplate", "-locked:true"),
+            Arrays.asList(getQuery().getFilterQueries()));
+
+        setAdmin(false);
+        this.mocker.getComponentUnderTest().suggest("P00", false, Right.VIEW, "id", "asc", 7);
+        ArgumentCaptor<SolrParams> query = ArgumentCaptor.forClass(SolrParams.class);
+        verify(this.server, times(2)).query(query.capture());
+        Assert.assertFalse(Arrays.asList(((SolrQuery) query.getValue()).getFilterQueries()).contains("-locked:true"));
+    }
+
+    @Test
+    public void guestsOnlyFindGuestOwnedPatients() throws Exception
+    {
+        doReturn(null).when(this.users).getCurrentUser();
+        setAdmin(false);
+        this.mocker.getComponentUnderTest().suggest("P00", false, Right.VIEW, "id", "asc", 7);
+
+        Assert.assertEquals("(*:* -owner:[* TO *])", getQuery().getFilterQueries()[1]);
+    }
+
+    @Test
+    public void searchFailuresReturnNoSuggestions() throws Exception
+    {
+        setAdmin(true);
+        doThrow(new SolrServerException("failed")).when(this.server).query(any(SolrParams.class));
+        Assert.assertTrue(
+            this.mocker.getComponentUnderTest().suggest("P00", false, Right.VIEW, "id", "asc", 7).isEmpty());
+
+        doThrow(new IOException("failed")).when(this.server).query(any(SolrParams.class));
+        Assert.assertTrue(
+            this.mocker.getComponentUnderTest().suggest("P00", false, Right.VIEW, "id", "asc", 7).isEmpty());
+    }
+
+    @Test
+    public void emptyInputReturnsNoSuggestions() throws Exception
+    {
+        Assert.assertTrue(this.mocker.getComponentUnderTest().suggest(" ", true, Right.VIEW, "id", "asc", 7).isEmpty());
+        verify(this.server, never()).query(any(SolrParams.class));
+    }
+
+    private void setAdmin(boolean admin)
+    {
+        doReturn(admin).when(this.access).hasAccess(any(User.class), eq(Right.ADMIN), eq(this.dataSpace));
+    }
+
+    private SolrQuery getQuery() throws Exception
+    {
+        ArgumentCaptor<SolrParams> query = ArgumentCaptor.forClass(SolrParams.class);
+        verify(this.server).query(query.capture());
+        return (SolrQuery) query.getValue();
+    }
+
+    private AccessLevel level(String name, Right right)
+    {
+        AccessLevel level = mock(AccessLevel.class);
+        when(level.getName()).thenReturn(name);
+        when(level.getGrantedRight()).thenReturn(right);
+        return level;
+    }
+
+    private Visibility visibility(String name, Right right)
+    {
+        Visibility visibility = mock(Visibility.class);
+        AccessLevel level = level(name, right);
+        when(visibility.getName()).thenReturn(name);
+        when(visibility.getDefaultAccessLevel()).thenReturn(level);
+        return visibility;
+    }
+}
@@ -62,7 +62,9 @@
      * @param number for large result set paging, how many patients to display in the returned page
      * @param orderField field used for ordering the patients, can be one of {@code id} (default) or {@code eid}
      * @param order the sorting order, can be one of {@code asc} (default) or {@code desc}
-     * @return a list of patient records
+     * @param continuation the continuation token returned with the previous page; when present, the page starts right
+     *            after the last patient of the previous page, and {@code start} is ignored
+     * @return a list of patient records, along with the continuation token for the next page, if there is one
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
@@ -71,5 +73,6 @@ Patients listPatients(
         @QueryParam("start") @DefaultValue("0") Integer start,
         @QueryParam("number") @DefaultValue("30") Integer number,
         @QueryParam("orderField") @DefaultValue("id") String orderField,
-        @QueryParam("order") @DefaultValue("asc") String order);
+        @QueryParam("order") @DefaultValue("asc") String order,
+        @QueryParam("continuation") String continuation);
 }
@@ -0,0 +1,326 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.rest.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.permissions.EntityPermissionsManager;
+import org.phenotips.data.permissions.Visibility;
+import org.phenotips.security.authorization.AuthorizationService;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.users.User;
+import org.xwiki.users.UserManager;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.function.Function;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.user.api.XWikiGroupService;
+
+/**
+ * Default {@link PatientListingEngine} implementation, using a HQL query. For users that aren't administrators, the
+ * query only returns the records that the user owns, collaborates on, can see because of their visibility, or that are
+ * owned by guests, mirroring the patient authorization modules. Records are sorted by the requested field and then by
+ * their document, and the continuation token holds these two values for the last returned record, so that the next
+ * page starts right after it. The final access decision still belongs to the converter, which must check the rights
+ * of each returned record.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Component
+@Singleton
+public class DefaultPatientListingEngine implements PatientListingEngine
+{
+    /** How many records are fetched at once when the records inaccessible to the user don't fill the page. */
+    private static final int MIN_CHUNK_SIZE = 50;
+
+    /** The maximum number of records fetched at once. */
+    private static final int MAX_CHUNK_SIZE = 1000;
+
+    private static final String EXTERNAL_ID_ORDER = "eid";
+
+    private static final String ID_ORDER = "id";
+
+    private static final String DESCENDING = "desc";
+
+    private static final String ASCENDING = "asc";
+
+    private static final String TOKEN_SEPARATOR = "\n";
+
+    private static final int TOKEN_PARTS = 4;
+
+    /** The number of values expected by the converter, see {@link PatientListingEngine#list}. */
+    private static final int SUMMARY_SIZE = 7;
+
+    private static final String DOCUMENT_SORT = "doc.name";
+
+    private static final String EXTERNAL_ID_SORT = "coalesce(extId.value, '')";
+
+    private static final String QUERY = "select doc.fullName, extId.value, doc.creator, doc.creationDate,"
+        + " doc.version, doc.author, doc.date, doc.name"
+        + " from XWikiDocument doc, BaseObject patient, StringProperty extId"
+        + " where patient.name = doc.fullName and patient.className = 'PhenoTips.PatientClass'"
+        + " and extId.id.id = patient.id and extId.id.name = 'external_id' and doc.name <> :template";
+
+    /** Checks that the record has an object of a given class, with a given property matching a condition. */
+    private static final String PROPERTY_EXISTS = "exists (select o.id from BaseObject o, StringProperty v"
+        + " where o.name = doc.fullName and o.className = '%s' and v.id.id = o.id and v.id.name = '%s' and %s)";
+
+    private static final String OWNER_CLASS = "PhenoTips.OwnerClass";
+
+    private static final String OWNER_PROPERTY = "owner";
+
+    private static final String PRINCIPALS = "principals";
+
+    private static final String PRINCIPALS_MATCH = "v.value in (:principals)";
+
+    @Inject
+    private QueryManager queries;
+
+    @Inject
+    private AuthorizationService access;
+
+    @Inject
+    private UserManager users;
+
+    @Inject
+    private EntityPermissionsManager permissions;
+
+    /** Fills in missing reference fields with those from the current context document to create a full reference. */
+    @Inject
+    @Named("current")
+    private EntityReferenceResolver<EntityReference> currentResolver;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private Logger logger;
+
+    @Override
+    public <T> Page<T> list(String orderField, String order, String continuation, int start, int number,
+        Function<Object[], T> converter) throws QueryException
+    {
+        boolean byExternalId = EXTERNAL_ID_ORDER.equals(orderField);
+        boolean descending = DESCENDING.equals(order);
+        String[] cursor = parseContinuation(continuation, byExternalId, descending);
+        List<T> items = new ArrayList<>();
+        if (number <= 0) {
+            return new Page<>(items, null);
+        }
+
+        Map<String, Object> parameters = new HashMap<>();
+        String accessFilter = getAccessFilter(parameters);
+        int toSkip = cursor == null ? Math.max(start, 0) : 0;
+        int chunkSize = Math.min(Math.max(number, MIN_CHUNK_SIZE), MAX_CHUNK_SIZE);
+        while (true) {
+            Query query = createQuery(byExternalId, descending, accessFilter, cursor);
+            for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
+                query.bindValue(parameter.getKey(), parameter.getValue());
+            }
+            query.bindValue("template", "PatientTemplate");
+            if (cursor != null) {
+                query.bindValue("lastDocument", cursor[0]);
+                query.bindValue("lastValue", cursor[1]);
+            }
+            query.setLimit(chunkSize);
+            List<Object[]> records = query.execute();
+            for (Object[] record : records) {
+                cursor = new String[] { String.valueOf(record[0]),
+                    StringUtils.defaultString((String) (byExternalId ? record[1] : record[SUMMARY_SIZE])) };
+                T item = converter.apply(Arrays.copyOf(record, SUMMARY_SIZE));
+                if (item == null) {
+                    continue;
+                }
+                if (toSkip > 0) {
+                    --toSkip;
+                    continue;
+                }
+                items.add(item);
+                if (items.size() >= number) {
+                    return new Page<>(items, formatContinuation(cursor, byExternalId, descending));
+                }
+            }
+            if (records.size() < chunkSize) {
+                return new Page<>(items, null);
+            }
+        }
+    }
+
+    private Query createQuery(boolean byExternalId, boolean descending, String accessFilter, String[] cursor)
+        throws QueryException
+    {
+        String sortValue = byExternalId ? EXTERNAL_ID_SORT : DOCUMENT_SORT;
+        String direction = descending ? " desc" : " asc";
+        StringBuilder statement = new StringBuilder(QUERY).append(accessFilter);
+        if (cursor != null) {
+            String comparison = descending ? " < " : " > ";
+            statement.append(" and (").append(sortValue).append(comparison).append(":lastValue or (")
+                .append(sortValue).append(" = :lastValue and doc.fullName").append(comparison)
+                .append(":lastDocument))");
+        }
+        statement.append(" order by ").append(sortValue).append(direction).append(", doc.fullName")
+            .append(direction);
+        return this.queries.createQuery(statement.toString(), Query.HQL);
+    }
+
+    /**
+     * Builds the query condition which restricts the listed records to those accessible to the current user.
+     *
+     * @param parameters collects the values to bind to the query
+     * @return a condition starting with {@code and}, or an empty string if the user can access all the records
+     */
+    private String getAccessFilter(Map<String, Object> parameters)
+    {
+        User user = this.users.getCurrentUser();
+        EntityReference dataSpace = this.currentResolver.resolve(Patient.DEFAULT_DATA_SPACE, EntityType.SPACE);
+        if (this.access.hasAccess(user, Right.ADMIN, dataSpace)) {
+            return "";
+        }
+
+        List<String> conditions = new ArrayList<>();
+        // Records without a real owner are accessible to everyone
+        conditions.add("not " + String.format(PROPERTY_EXISTS, OWNER_CLASS, OWNER_PROPERTY,
+            "v.value <> '' and v.value <> 'null'"));
+        if (user != null && user.getProfileDocument() != null) {
+            parameters.put(PRINCIPALS, getPrincipals(user.getProfileDocument()));
+            conditions.add(String.format(PROPERTY_EXISTS, OWNER_CLASS, OWNER_PROPERTY, PRINCIPALS_MATCH));
+            conditions.add(String.format(PROPERTY_EXISTS, "PhenoTips.CollaboratorClass", "collaborator",
+                PRINCIPALS_MATCH));
+            List<String> visibilities = getVisibleVisibilities();
+            if (!visibilities.isEmpty()) {
+                parameters.put("visibilities", visibilities);
+                conditions.add(String.format(PROPERTY_EXISTS, "PhenoTips.VisibilityClass", "visibility",
+                    "v.value in (:visibilities)"));
+            }
+        }
+        return " and (" + StringUtils.join(conditions, " or ") + ')';
+    }
+
+    /**
+     * Lists the user and all the groups it belongs to, directly or through other groups, serialized both with and
+     * without the wiki, since owners and collaborators can be stored in either form.
+     */
+    private List<String> getPrincipals(DocumentReference user)
+    {
+        Set<DocumentReference> processed = new HashSet<>();
+        Queue<DocumentReference> toProcess = new LinkedList<>();
+        toProcess.add(user);
+        XWikiContext context = this.xcontextProvider.get();
+        try {
+            XWikiGroupService groupService = context.getWiki().getGroupService(context);
+            while (!toProcess.isEmpty()) {
+                DocumentReference current = toProcess.poll();
+                if (processed.add(current)) {
+                    Collection<DocumentReference> groups =
+                        groupService.getAllGroupsReferencesForMember(current, 0, 0, context);
+                    toProcess.addAll(groups);
+                }
+            }
+        } catch (XWikiException ex) {
+            this.logger.warn("Failed to list the groups of [{}]: {}", user, ex.getMessage());
+            processed.add(user);
+        }
+        List<String> result = new ArrayList<>(processed.size() * 2);
+        for (DocumentReference principal : processed) {
+            result.add(this.serializer.serialize(principal));
+            result.add(this.localSerializer.serialize(principal));
+        }
+        return result;
+    }
+
+    /** Lists the names of the visibilities which allow any registered user to view a record. */
+    private List<String> getVisibleVisibilities()
+    {
+        List<String> result = new ArrayList<>();
+        for (Visibility visibility : this.permissions.listAllVisibilityOptions()) {
+            Right granted = visibility.getDefaultAccessLevel() == null ? null
+                : visibility.getDefaultAccessLevel().getGrantedRight();
+            if (granted != null && (granted.equals(Right.VIEW)
+                || (granted.getImpliedRights() != null && granted.getImpliedRights().contains(Right.VIEW)))) {
+                result.add(visibility.getName());
+            }
+        }
+        return result;
+    }
+
+    private String formatContinuation(String[] cursor, boolean byExternalId, boolean descending)
+    {
+        String token = StringUtils.join(new String[] { byExternalId ? EXTERNAL_ID_ORDER : ID_ORDER,
+            descending ? DESCENDING : ASCENDING, cursor[0], cursor[1] }, TOKEN_SEPARATOR);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a continuation token.
+     *
+     * @return the last listed document and its sort value, or {@code null} if no token was given
+     * @throws IllegalArgumentException if the token is malformed or was issued for a different order
+     */
+    private String[] parseContinuation(String continuation, boolean byExternalId, boolean descending)
+    {
+        if (StringUtils.isEmpty(continuation)) {
+            return null;
+        }
+        String[] parts =
+            new String(Base64.getUrlDecoder().decode(continuation), StandardCharsets.UTF_8).split(TOKEN_SEPARATOR,
+                TOKEN_PARTS);
+        if (parts.length != TOKEN_PARTS || !parts[0].equals(byExternalId ? EXTERNAL_ID_ORDER : ID_ORDER)
+            || !parts[1].equals(descending ? DESCENDING : ASCENDING)) {
+            throw new IllegalArgumentException("Invalid continuation token: " + continuation);
+        }
+        return new String[] { parts[2], parts[3] };
+    }
+}
@@ -31,15 +31,11 @@
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceResolver;
-import org.xwiki.query.Query;
-import org.xwiki.query.QueryManager;
 import org.xwiki.rest.XWikiResource;
 import org.xwiki.security.authorization.Right;
 import org.xwiki.users.User;
 import org.xwiki.users.UserManager;
 
-import java.util.List;
-
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
@@ -69,7 +65,7 @@ public class DefaultPatientsResourceImpl extends XWikiResource implements Patien
     private PatientRepository repository;
 
     @Inject
-    private QueryManager queries;
+    private PatientListingEngine listing;
 
     @Inject
     private AuthorizationService access;
@@ -187,41 +183,18 @@ private Response buildCreatedResponse(final Patient patient)
     }
 
     @Override
-    public Patients listPatients(Integer start, Integer number, String orderField, String order)
+    public Patients listPatients(Integer start, Integer number, String orderField, String order, String continuation)
     {
         Patients result = new Patients();
         try {
-            String safeOrderField = "doc.name";
-            if ("eid".equals(orderField)) {
-                safeOrderField = "p.external_id";
-            }
-            String safeOrder = " asc";
-            if ("desc".equals(order)) {
-                safeOrder = " desc";
-            }
-            Query query = this.queries.createQuery(
-                "select doc.fullName, p.external_id, doc.creator, doc.creationDate, doc.version, doc.author, doc.date"
-                    + " from Document doc, doc.object(PhenoTips.PatientClass) p where doc.name <> :t order by "
-                    + safeOrderField + safeOrder,
-                "xwql");
-            query.bindValue("t", "PatientTemplate");
-
-            List<Object[]> records = query.execute();
-            int skipped = 0;
-            for (Object[] record : records) {
-                PatientSummary summary = this.factory.createPatientSummary(record, this.uriInfo);
-                // Since raw queries can't take into account access rights, we must do our own paging with rights checks
-                if (summary != null) {
-                    if (++skipped > start) {
-                        result.getPatientSummaries().add(summary);
-                    }
-                    if (result.getPatientSummaries().size() >= number) {
-                        break;
-                    }
-                }
-            }
+            PatientListingEngine.Page<PatientSummary> page = this.listing.list(orderField, order, continuation,
+                start, number, record -> this.factory.createPatientSummary(record, this.uriInfo));
+            result.getPatientSummaries().addAll(page.getItems());
+            result.withContinuation(page.getContinuation());
             result.withLinks(this.autolinker.get().forResource(getClass(), this.uriInfo)
                 .withGrantedRight(getGrantedRight()).build());
+        } catch (IllegalArgumentException ex) {
+            throw new WebApplicationException(Status.BAD_REQUEST);
         } catch (Exception ex) {
             this.slf4Jlogger.error("Failed to list patients: {}", ex.getMessage(), ex);
             throw new WebApplicationException(Status.INTERNAL_SERVER_ERROR);
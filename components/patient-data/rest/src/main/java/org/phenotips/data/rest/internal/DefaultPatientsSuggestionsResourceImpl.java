@@ -18,24 +18,15 @@
 package org.phenotips.data.rest.internal;
 
 import org.phenotips.configuration.RecordConfigurationManager;
-import org.phenotips.data.Patient;
-import org.phenotips.data.PatientData;
-import org.phenotips.data.PatientRepository;
+import org.phenotips.data.indexing.PatientSuggestion;
+import org.phenotips.data.indexing.PatientSuggestionIndex;
 import org.phenotips.data.rest.PatientsSuggestionsResource;
-import org.phenotips.entities.PrimaryEntityMetadataManager;
-import org.phenotips.security.authorization.AuthorizationService;
 
 import org.xwiki.component.annotation.Component;
-import org.xwiki.query.Query;
-import org.xwiki.query.QueryException;
-import org.xwiki.query.QueryManager;
 import org.xwiki.rest.XWikiResource;
 import org.xwiki.security.authorization.Right;
-import org.xwiki.users.UserManager;
 import org.xwiki.xml.XMLUtils;
 
-import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -49,7 +40,6 @@
 import org.apache.commons.lang3.StringUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
-import org.slf4j.Logger;
 
 import com.xpn.xwiki.XWikiContext;
 
@@ -66,32 +56,12 @@ public class DefaultPatientsSuggestionsResourceImpl extends XWikiResource implem
 {
     private static final String FIRST_NAME = "first_name";
 
-    private static final String INPUT_PARAMETER = "input";
-
-    private static final String INPUT_FORMAT = "%%%s%%";
-
-    /** Logging helper object. */
-    @Inject
-    private Logger logger;
-
-    /** The query manager for patient retrieval. */
-    @Inject
-    private QueryManager qm;
-
-    @Inject
-    private AuthorizationService authorizationService;
-
-    @Inject
-    private UserManager userManager;
-
     @Inject
     private RecordConfigurationManager configuration;
 
+    /** Searches the patient index, so that patients don't have to be loaded. */
     @Inject
-    private PatientRepository patientRepository;
-
-    @Inject
-    private PrimaryEntityMetadataManager metadataManager;
+    private PatientSuggestionIndex index;
 
     @Inject
     private Provider<XWikiContext> provider;
@@ -104,12 +74,12 @@ public String suggestAsJSON(String input, int maxResults, String requiredPermiss
             throw new WebApplicationException(Response.Status.BAD_REQUEST);
         }
 
-        List<Patient> patients =
+        List<PatientSuggestion> patients =
             getMatchingPatients(input.toLowerCase(), orderField, order, maxResults, Right.toRight(requiredPermission));
 
         JSONArray results = new JSONArray();
 
-        for (Patient patient : patients) {
+        for (PatientSuggestion patient : patients) {
             results.put(getPatientJSON(patient));
         }
 
@@ -125,11 +95,11 @@ public String suggestAsXML(String input, int maxResults, String requiredPermissi
             throw new WebApplicationException(Response.Status.BAD_REQUEST);
         }
 
-        List<Patient> patients =
+        List<PatientSuggestion> patients =
             getMatchingPatients(input.toLowerCase(), orderField, order, maxResults, Right.toRight(requiredPermission));
         StringBuilder xmlResult = new StringBuilder("<results>");
 
-        for (Patient patient : patients) {
+        for (PatientSuggestion patient : patients) {
             appentPatientXML(patient, xmlResult);
         }
 
@@ -137,73 +107,15 @@ public String suggestAsXML(String input, int maxResults, String requiredPermissi
         return xmlResult.toString();
     }
 
-    private List<Patient> getMatchingPatients(String input, String orderField, String order, int maxResults,
-        Right requiredPermission)
+    private List<PatientSuggestion> getMatchingPatients(String input, String orderField, String order,
+        int maxResults, Right requiredPermission)
     {
-        List<String> queryResults = queryPatients(input.toLowerCase(), orderField, order);
-        List<Patient> results = new LinkedList<>();
-
-        int count = 0;
-        for (String queryResult : queryResults) {
-            Patient patient = this.patientRepository.get(queryResult);
-            if (patient == null) {
-                continue;
-            }
-
-            if (!this.authorizationService.hasAccess(this.userManager.getCurrentUser(), requiredPermission,
-                patient.getDocumentReference())) {
-                continue;
-            }
-
-            results.add(patient);
-            if (++count >= maxResults) {
-                break;
-            }
-        }
-        return results;
-    }
-
-    private List<String> queryPatients(String input, String orderField, String order)
-    {
-        List<String> queryResults = new LinkedList<>();
-
-        String safeOrderField = "doc.name";
-        if ("eid".equals(orderField)) {
-            safeOrderField = "patient.external_id";
-        }
-        String safeOrder = " asc";
-        if ("desc".equals(order)) {
-            safeOrder = " desc";
-        }
-
-        StringBuilder querySb = new StringBuilder();
-        querySb.append("select doc.name from Document doc, doc.object(PhenoTips.PatientClass) as patient");
-        querySb.append(" where doc.name <> :t and lower(doc.name) like :").append(INPUT_PARAMETER);
-        querySb.append(" or lower(patient.external_id) like :").append(INPUT_PARAMETER);
-
         boolean usePatientName = this.configuration.getConfiguration("patient").getEnabledFieldNames()
             .contains(FIRST_NAME);
-        if (usePatientName) {
-            querySb.append(" or lower(patient.first_name) like :").append(INPUT_PARAMETER);
-            querySb.append(" or lower(patient.last_name) like :").append(INPUT_PARAMETER);
-        }
-
-        querySb.append(" order by " + safeOrderField + safeOrder);
-        try {
-            Query query = this.qm.createQuery(querySb.toString(), Query.XWQL);
-            query.bindValue("t", "PatientTemplate");
-            String formattedInput = String.format(INPUT_FORMAT, input);
-            query.bindValue(INPUT_PARAMETER, formattedInput);
-
-            queryResults = query.execute();
-        } catch (QueryException e) {
-            this.logger.error("Error while performing patients query: [{}] ", e.getMessage());
-            return Collections.emptyList();
-        }
-        return queryResults;
+        return this.index.suggest(input, usePatientName, requiredPermission, orderField, order, maxResults);
     }
 
-    private JSONObject getPatientJSON(Patient patient)
+    private JSONObject getPatientJSON(PatientSuggestion patient)
     {
         JSONObject patientJSON = new JSONObject();
         patientJSON.put("id", patient.getId());
@@ -215,7 +127,7 @@ private JSONObject getPatientJSON(Patient patient)
         String description = getDescription(patient);
 
         // Add metadata
-        Map<String, Object> metadata = this.metadataManager.getMetadata(patient);
+        Map<String, Object> metadata = patient.getMetadata();
         metadata.forEach((key, value) -> patientJSON.put(key, value));
 
         // Add description
@@ -224,7 +136,7 @@ private JSONObject getPatientJSON(Patient patient)
         return patientJSON;
     }
 
-    private void appentPatientXML(Patient patient, StringBuilder xmlResult)
+    private void appentPatientXML(PatientSuggestion patient, StringBuilder xmlResult)
     {
         String url = XMLUtils.escapeAttributeValue(getURL(patient));
         String escapedReference = XMLUtils.escapeAttributeValue(patient.getDocumentReference().toString());
@@ -238,25 +150,21 @@ private void appentPatientXML(Patient patient, StringBuilder xmlResult)
         xmlResult.append("</rs>");
     }
 
-    private String getURL(Patient patient)
+    private String getURL(PatientSuggestion patient)
     {
         XWikiContext context = this.provider.get();
         return context.getWiki().getURL(patient.getDocumentReference(), "view", context);
     }
 
-    private String getDescription(Patient patient)
+    private String getDescription(PatientSuggestion patient)
     {
         // Add description
         StringBuilder description = new StringBuilder(patient.getId());
-        String patientName = "";
-        PatientData<String> patientNames = patient.getData("patientName");
-        if (patientNames != null) {
-            String firstName = StringUtils.defaultString(patientNames.get(FIRST_NAME));
-            String lastName = StringUtils.defaultString(patientNames.get("last_name"));
-            patientName = (firstName + " " + lastName).trim();
-            if (StringUtils.isNotEmpty(patientName)) {
-                description.append(", name: ").append(patientName);
-            }
+        String firstName = StringUtils.defaultString(patient.getFirstName());
+        String lastName = StringUtils.defaultString(patient.getLastName());
+        String patientName = (firstName + " " + lastName).trim();
+        if (StringUtils.isNotEmpty(patientName)) {
+            description.append(", name: ").append(patientName);
         }
         String patientExternalId = patient.getExternalId();
         if (StringUtils.isNotEmpty(patientExternalId)) {
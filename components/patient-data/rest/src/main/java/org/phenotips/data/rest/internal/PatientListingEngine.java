@@ -0,0 +1,104 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.rest.internal;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.query.QueryException;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Lists the patient records accessible to the current user one page at a time. Candidates are filtered by the access
+ * rules directly in the query, and pages are delimited by the sort key of the last returned record instead of an
+ * offset, so that the cost of each page depends on the size of the page, and not on its position in the whole list.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Role
+public interface PatientListingEngine
+{
+    /**
+     * Lists one page of patient records.
+     *
+     * @param orderField field used for ordering the patients, {@code eid} for the external identifier, anything else
+     *            for the record identifier
+     * @param order the sorting order, {@code desc} for descending, anything else for ascending
+     * @param continuation the continuation token returned with the previous page, or {@code null} to start with the
+     *            first record
+     * @param start how many accessible records to skip; only used when no continuation token is given, and costs as
+     *            much as listing the skipped records
+     * @param number the maximum number of records to return
+     * @param converter converts the raw values of a record into the returned item; the values are, in order: document
+     *            name, external identifier, creator, creation date, current version, last author, last modification
+     *            date; the converter must return {@code null} for records that the current user cannot access, which
+     *            are then skipped
+     * @param <T> the type of the returned items
+     * @return the requested page, never {@code null}
+     * @throws QueryException if querying the patients fails
+     * @throws IllegalArgumentException if the continuation token is malformed, or was issued for a different order
+     */
+    <T> Page<T> list(String orderField, String order, String continuation, int start, int number,
+        Function<Object[], T> converter) throws QueryException;
+
+    /**
+     * A page of listed patient records.
+     *
+     * @param <T> the type of the listed items
+     */
+    final class Page<T>
+    {
+        private final List<T> items;
+
+        private final String continuation;
+
+        /**
+         * Constructor.
+         *
+         * @param items the items on this page
+         * @param continuation the token for requesting the next page, or {@code null} if this is the last page
+         */
+        public Page(List<T> items, String continuation)
+        {
+            this.items = Collections.unmodifiableList(items);
+            this.continuation = continuation;
+        }
+
+        /**
+         * The items on this page.
+         *
+         * @return an unmodifiable list, may be empty
+         */
+        public List<T> getItems()
+        {
+            return this.items;
+        }
+
+        /**
+         * The token that must be sent for requesting the next page.
+         *
+         * @return an opaque token, or {@code null} if there are no more records
+         */
+        public String getContinuation()
+        {
+            return this.continuation;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.rest.internal;
+
+import org.phenotips.data.permissions.AccessLevel;
+import org.phenotips.data.permissions.EntityPermissionsManager;
+import org.phenotips.data.permissions.Visibility;
+import org.phenotips.security.authorization.AuthorizationService;
+
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+import org.xwiki.users.User;
+import org.xwiki.users.UserManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import javax.inject.Provider;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.user.api.XWikiGroupService;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link DefaultPatientListingEngine} component.
+ *
+ * @version $Id$
+ */
+public class DefaultPatientListingEngineTest
+{
+    @Rule
+    public MockitoComponentMockingRule<PatientListingEngine> mocker =
+        new MockitoComponentMockingRule<>(DefaultPatientListingEngine.class);
+
+    private final DocumentReference userProfile = new DocumentReference("xwiki", "XWiki", "jdoe");
+
+    private final DocumentReference group = new DocumentReference("xwiki", "XWiki", "Team");
+
+    private final EntityReference dataSpace = new EntityReference("data", EntityType.SPACE);
+
+    private final Function<Object[], String> converter = record -> (String) record[0];
+
+    private AuthorizationService access;
+
+    private UserManager users;
+
+    private User user;
+
+    private Query query;
+
+    private XWikiGroupService groupService;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.query = mock(Query.class);
+        QueryManager queries = this.mocker.getInstance(QueryManager.class);
+        doReturn(this.query).when(queries).createQuery(anyString(), eq(Query.HQL));
+        doReturn(this.query).when(this.query).bindValue(anyString(), any());
+        doReturn(this.query).when(this.query).setLimit(anyInt());
+        doReturn(Collections.emptyList()).when(this.query).execute();
+
+        EntityReferenceResolver<EntityReference> resolver =
+            this.mocker.getInstance(EntityReferenceResolver.TYPE_REFERENCE, "current");
+        doReturn(this.dataSpace).when(resolver).resolve("data", EntityType.SPACE);
+
+        this.user = mock(User.class);
+        doReturn(this.userProfile).when(this.user).getProfileDocument();
+        this.users = this.mocker.getInstance(UserManager.class);
+        doReturn(this.user).when(this.users).getCurrentUser();
+        this.access = this.mocker.getInstance(AuthorizationService.class);
+
+        Provider<XWikiContext> provider = this.mocker.getInstance(XWikiContext.TYPE_PROVIDER);
+        XWikiContext context = mock(XWikiContext.class);
+        XWiki xwiki = mock(XWiki.class);
+        this.groupService = mock(XWikiGroupService.class);
+        doReturn(context).when(provider).get();
+        doReturn(xwiki).when(context).getWiki();
+        doReturn(this.groupService).when(xwiki).getGroupService(context);
+        doReturn(Collections.singletonList(this.group)).when(this.groupService)
+            .getAllGroupsReferencesForMember(this.userProfile, 0, 0, context);
+        doReturn(Collections.emptyList()).when(this.groupService)
+            .getAllGroupsReferencesForMember(this.group, 0, 0, context);
+
+        EntityReferenceSerializer<String> serializer = this.mocker.getInstance(EntityReferenceSerializer.TYPE_STRING);
+        doReturn("xwiki:XWiki.jdoe").when(serializer).serialize(this.userProfile);
+        doReturn("xwiki:XWiki.Team").when(serializer).serialize(this.group);
+        EntityReferenceSerializer<String> localSerializer =
+            this.mocker.getInstance(EntityReferenceSerializer.TYPE_STRING, "local");
+        doReturn("XWiki.jdoe").when(localSerializer).serialize(this.userProfile);
+        doReturn("XWiki.Team").when(localSerializer).serialize(this.group);
+
+        EntityPermissionsManager permissions = this.mocker.getInstance(EntityPermissionsManager.class);
+        doReturn(Arrays.asList(visibility("private", Right.ILLEGAL), visibility("public", Right.VIEW)))
+            .when(permissions).listAllVisibilityOptions();
+    }
+
+    @Test
+    public void adminsAreNotFiltered() throws Exception
+    {
+        setAdmin(true);
+        this.mocker.getComponentUnderTest().list("id", "asc", null, 0, 30, this.converter);
+
+        String statement = getStatement();
+        Assert.assertFalse(statement.contains("exists"));
+        Assert.assertTrue(statement.endsWith(" order by doc.name asc, doc.fullName asc"));
+        verify(this.query).bindValue("template", "PatientTemplate");
+        verify(this.query, never()).bindValue(eq("principals"), any());
+    }
+
+    @Test
+    public void usersOnlySeeAccessibleRecords() throws Exception
+    {
+        setAdmin(false);
+        this.mocker.getComponentUnderTest().list("id", "asc", null, 0, 30, this.converter);
+
+        String statement = getStatement();
+        Assert.assertTrue(statement.contains("o.className = 'PhenoTips.OwnerClass'"));
+        Assert.assertTrue(statement.contains("o.className = 'PhenoTips.CollaboratorClass'"));
+        Assert.assertTrue(statement.contains("o.className = 'PhenoTips.VisibilityClass'"));
+        verify(this.query).bindValue("visibilities", Collections.singletonList("public"));
+        ArgumentCaptor<Object> principals = ArgumentCaptor.forClass(Object.class);
+        verify(this.query).bindValue(eq("principals"), principals.capture());
+        Assert.assertEquals(4, ((List<?>) principals.getValue()).size());
+        Assert.assertTrue(((List<?>) principals.getValue()).containsAll(
+            Arrays.asList("xwiki:XWiki.jdoe", "XWiki.jdoe", "xwiki:XWiki.Team", "XWiki.Team")));
+    }
+
+    @Test
+    public void guestsOnlySeeGuestOwnedRecords() throws Exception
+    {
+        doReturn(null).when(this.users).getCurrentUser();
+        setAdmin(false);
+        this.mocker.getComponentUnderTest().list("id", "asc", null, 0, 30, this.converter);
+
+        String statement = getStatement();
+        Assert.assertTrue(statement.contains("not exists"));
+        Assert.assertFalse(statement.contains("PhenoTips.CollaboratorClass"));
+        Assert.assertFalse(statement.contains("PhenoTips.VisibilityClass"));
+        verify(this.query, never()).bindValue(eq("principals"), any());
+    }
+
+    @Test
+    public void fullPagesReturnAContinuationToken() throws Exception
+    {
+        setAdmin(true);
+        doReturn(records(1, 5)).when(this.query).execute();
+
+        PatientListingEngine.Page<String> page =
+            this.mocker.getComponentUnderTest().list("id", "asc", null, 0, 2, this.converter);
+        Assert.assertEquals(Arrays.asList("data.P1", "data.P2"), page.getItems());
+        Assert.assertNotNull(page.getContinuation());
+
+        doReturn(records(3, 5)).when(this.query).execute();
+        page = this.mocker.getComponentUnderTest().list("id", "asc", page.getContinuation(), 0, 2, this.converter);
+        Assert.assertEquals(Arrays.asList("data.P3", "data.P4"), page.getItems());
+        Assert.assertTrue(getStatement().contains(
+            " and (doc.name > :lastValue or (doc.name = :lastValue and doc.fullName > :lastDocument))"));
+        verify(this.query).bindValue("lastDocument", "data.P2");
+        verify(this.query).bindValue("lastValue", "P2");
+    }
+
+    @Test
+    public void lastPageHasNoContinuationToken() throws Exception
+    {
+        setAdmin(true);
+        doReturn(records(1, 3)).when(this.query).execute();
+
+        PatientListingEngine.Page<String> page =
+            this.mocker.getComponentUnderTest().list("id", "asc", null, 0, 30, this.converter);
+        Assert.assertEquals(3, page.getItems().size());
+        Assert.assertNull(page.getContinuation());
+        verify(this.query).setLimit(50);
+    }
+
+    @Test
+    public void externalIdentifiersAreUsedAsTheSortKey() throws Exception
+    {
+        setAdmin(true);
+        doReturn(records(1, 5)).when(this.query).execute();
+
+        PatientListingEngine.Page<String> page =
+            this.mocker.getComponentUnderTest().list("eid", "desc", null, 0, 1, this.converter);
+        Assert.assertTrue(getStatement().endsWith(" order by coalesce(extId.value, '') desc, doc.fullName desc"));
+
+        this.mocker.getComponentUnderTest().list("eid", "desc", page.getContinuation(), 0, 1, this.converter);
+        Assert.assertTrue(getStatement().contains(" and (coalesce(extId.value, '') < :lastValue"));
+        verify(this.query).bindValue("lastValue", "E1");
+    }
+
+    @Test
+    public void inaccessibleRecordsAreSkippedAndMoreRecordsAreFetched() throws Exception
+    {
+        setAdmin(false);
+        when(this.query.<Object[]>execute()).thenReturn(records(1, 50), records(51, 10));
+        Function<Object[], String> evenOnly = record -> record[0].toString().matches(".*[02468]$")
+            ? (String) record[0] : null;
+
+        PatientListingEngine.Page<String> page =
+            this.mocker.getComponentUnderTest().list("id", "asc", null, 0, 30, evenOnly);
+        Assert.assertEquals(30, page.getItems().size());
+        Assert.assertEquals("data.P60", page.getItems().get(29));
+        verify(this.query).bindValue("lastDocument", "data.P50");
+    }
+
+    @Test
+    public void startSkipsAccessibleRecords() throws Exception
+    {
+        setAdmin(true);
+        doReturn(records(1, 30)).when(this.query).execute();
+
+        PatientListingEngine.Page<String> page =
+            this.mocker.getComponentUnderTest().list("id", "asc", null, 15, 15, this.converter);
+        Assert.assertEquals(15, page.getItems().size());
+        Assert.assertEquals("data.P16", page.getItems().get(0));
+
+        page = this.mocker.getComponentUnderTest().list("id", "asc", null, 31, 5, this.converter);
+        Assert.assertTrue(page.getItems().isEmpty());
+        Assert.assertNull(page.getContinuation());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void malformedContinuationTokensAreRejected() throws Exception
+    {
+        this.mocker.getComponentUnderTest().list("id", "asc", "not a token", 0, 30, this.converter);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void continuationTokensAreBoundToTheOrder() throws Exception
+    {
+        setAdmin(true);
+        doReturn(records(1, 5)).when(this.query).execute();
+        PatientListingEngine.Page<String> page =
+            this.mocker.getComponentUnderTest().list("id", "asc", null, 0, 1, this.converter);
+        this.mocker.getComponentUnderTest().list("id", "desc", page.getContinuation(), 0, 1, this.converter);
+    }
+
+    private void setAdmin(boolean admin)
+    {
+        doReturn(admin).when(this.access).hasAccess(any(User.class), eq(Right.ADMIN), eq(this.dataSpace));
+    }
+
+    private String getStatement() throws Exception
+    {
+        ArgumentCaptor<String> statement = ArgumentCaptor.forClass(String.class);
+        verify(this.mocker.getInstance(QueryManager.class), Mockito.atLeastOnce())
+            .createQuery(statement.capture(), eq(Query.HQL));
+        return statement.getValue();
+    }
+
+    private List<Object[]> records(int first, int count)
+    {
+        List<Object[]> result = new ArrayList<>();
+        for (int i = first; i < first + count; i++) {
+            result.add(new Object[] { "data.P" + i, "E" + i, null, null, "1.1", null, null, "P" + i });
+        }
+        return result;
+    }
+
+    private Visibility visibility(String name, Right right)
+    {
+        Visibility visibility = mock(Visibility.class);
+        AccessLevel level = mock(AccessLevel.class);
+        when(visibility.getName()).thenReturn(name);
+        when(visibility.getDefaultAccessLevel()).thenReturn(level);
+        when(level.getGrantedRight()).thenReturn(right);
+        return visibility;
+    }
+}
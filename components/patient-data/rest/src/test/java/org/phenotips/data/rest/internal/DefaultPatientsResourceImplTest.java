@@ -34,8 +34,6 @@
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
-import org.xwiki.query.QueryManager;
-import org.xwiki.query.internal.DefaultQuery;
 import org.xwiki.security.authorization.Right;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 import org.xwiki.users.User;
@@ -43,9 +41,8 @@
 
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.List;
+import java.util.function.Function;
 
 import javax.inject.Provider;
 import javax.ws.rs.WebApplicationException;
@@ -58,6 +55,7 @@
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.slf4j.Logger;
@@ -65,6 +63,7 @@
 import com.xpn.xwiki.XWikiContext;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
@@ -95,7 +94,7 @@
 
     private PatientRepository repository;
 
-    private QueryManager queries;
+    private PatientListingEngine listing;
 
     private AuthorizationService access;
 
@@ -125,7 +124,7 @@ public void setUp() throws ComponentLookupException, URISyntaxException
         this.access = this.mocker.getInstance(AuthorizationService.class);
         this.patientsResource = this.mocker.getComponentUnderTest();
         this.logger = this.mocker.getMockedLogger();
-        this.queries = this.mocker.getInstance(QueryManager.class);
+        this.listing = this.mocker.getInstance(PatientListingEngine.class);
         this.uri = new URI("http://uri");
         this.factory = this.mocker.getInstance(DomainObjectFactory.class);
 
@@ -229,149 +228,60 @@ public void addPatientsAsJSON()
     }
 
     @Test
-    public void listPatientsNullOrderField() throws QueryException
+    public void listPatientsDelegatesToTheListingEngine() throws Exception
     {
-        Query query = mock(DefaultQuery.class);
-        doReturn(query).when(this.queries).createQuery(anyString(), anyString());
-        doReturn(query).when(query).bindValue(anyString(), anyString());
-        doReturn(new ArrayList<Object[]>()).when(query).execute();
-        this.patientsResource.listPatients(0, 30, null, "asc");
-        verify(this.queries).createQuery(
-            "select doc.fullName, p.external_id, doc.creator, doc.creationDate, doc.version, doc.author, doc.date"
-                + " from Document doc, doc.object(PhenoTips.PatientClass) p where doc.name <> :t order by "
-                + "doc.name" + " asc",
-            "xwql");
-    }
+        PatientSummary summary = new PatientSummary();
+        doReturn(new PatientListingEngine.Page<>(Collections.singletonList(summary), "next")).when(this.listing)
+            .list(eq("eid"), eq("desc"), eq("token"), eq(5), eq(30), any(Function.class));
 
-    @Test
-    public void listPatientsNullOrder() throws QueryException
-    {
-        Query query = mock(DefaultQuery.class);
-        doReturn(query).when(this.queries).createQuery(anyString(), anyString());
-        doReturn(query).when(query).bindValue(anyString(), anyString());
-        doReturn(new ArrayList<Object[]>()).when(query).execute();
-        this.patientsResource.listPatients(0, 30, "id", null);
-        verify(this.queries).createQuery(
-            "select doc.fullName, p.external_id, doc.creator, doc.creationDate, doc.version, doc.author, doc.date"
-                + " from Document doc, doc.object(PhenoTips.PatientClass) p where doc.name <> :t order by "
-                + "doc.name" + " asc",
-            "xwql");
-    }
+        Patients result = this.patientsResource.listPatients(5, 30, "eid", "desc", "token");
 
-    @Test
-    public void listPatientsNonDefaultBehaviour() throws QueryException
-    {
-        Query query = mock(DefaultQuery.class);
-        doReturn(query).when(this.queries).createQuery(anyString(), anyString());
-        doReturn(query).when(query).bindValue(anyString(), anyString());
-        doReturn(new ArrayList<Object[]>()).when(query).execute();
-        this.patientsResource.listPatients(0, 30, "eid", "desc");
-        verify(this.queries).createQuery(
-            "select doc.fullName, p.external_id, doc.creator, doc.creationDate, doc.version, doc.author, doc.date"
-                + " from Document doc, doc.object(PhenoTips.PatientClass) p where doc.name <> :t order by "
-                + "p.external_id" + " desc",
-            "xwql");
+        Assert.assertEquals(Collections.singletonList(summary), result.getPatientSummaries());
+        Assert.assertEquals("next", result.getContinuation());
+        Assert.assertFalse(result.getLinks().isEmpty());
     }
 
     @Test
-    public void listPatientsNoUserAccess() throws QueryException
+    public void listPatientsConvertsRecordsWithTheFactory() throws Exception
     {
-        Object[] patientSummaryData = new Object[7];
-        List<Object[]> patientList = new ArrayList<>();
-        patientList.add(patientSummaryData);
-        Query query = mock(DefaultQuery.class);
-        doReturn(query).when(this.queries).createQuery(anyString(), anyString());
-        doReturn(query).when(query).bindValue(anyString(), anyString());
-        doReturn(patientList).when(query).execute();
-        doReturn(false).when(this.access).hasAccess(any(User.class), eq(Right.VIEW), any(EntityReference.class));
-        doReturn(null).when(this.factory).createPatientSummary(patientSummaryData, this.uriInfo);
-        Patients result = this.patientsResource.listPatients(0, 30, "id", "asc");
-        verify(this.queries).createQuery(
-            "select doc.fullName, p.external_id, doc.creator, doc.creationDate, doc.version, doc.author, doc.date"
-                + " from Document doc, doc.object(PhenoTips.PatientClass) p where doc.name <> :t order by "
-                + "doc.name" + " asc",
-            "xwql");
-        Assert.assertTrue(result.getPatientSummaries().isEmpty());
-    }
+        Object[] record = new Object[7];
+        PatientSummary summary = new PatientSummary();
+        doReturn(summary).when(this.factory).createPatientSummary(record, this.uriInfo);
+        doReturn(new PatientListingEngine.Page<>(Collections.emptyList(), null)).when(this.listing)
+            .list(anyString(), anyString(), anyString(), anyInt(), anyInt(), any(Function.class));
 
-    @Test
-    public void listPatientsUserHasAccess() throws QueryException
-    {
-        Object[] patientSummaryData = new Object[7];
-        List<Object[]> patientList = new ArrayList<>();
-        patientList.add(patientSummaryData);
-        Query query = mock(DefaultQuery.class);
-        doReturn(query).when(this.queries).createQuery(anyString(), anyString());
-        doReturn(query).when(query).bindValue(anyString(), anyString());
-        doReturn(patientList).when(query).execute();
-        doReturn(true).when(this.access).hasAccess(any(User.class), eq(Right.VIEW), any(EntityReference.class));
-        doReturn(new PatientSummary()).when(this.factory).createPatientSummary(any(Object[].class), eq(this.uriInfo));
-        Patients result = this.patientsResource.listPatients(0, 30, "id", "asc");
-        verify(this.queries).createQuery(
-            "select doc.fullName, p.external_id, doc.creator, doc.creationDate, doc.version, doc.author, doc.date"
-                + " from Document doc, doc.object(PhenoTips.PatientClass) p where doc.name <> :t order by "
-                + "doc.name" + " asc",
-            "xwql");
-        Assert.assertFalse(result.getPatientSummaries().isEmpty());
-    }
+        Patients result = this.patientsResource.listPatients(0, 30, "id", "asc", null);
 
-    @Test
-    public void listPatientsSpecificNumberOfRecords() throws QueryException
-    {
-        List<Object[]> patientList = new ArrayList<>();
-        for (int i = 0; i < 30; i++) {
-            Object[] patientSummaryData = new Object[7];
-            patientList.add(patientSummaryData);
-        }
-        Query query = mock(DefaultQuery.class);
-        doReturn(query).when(this.queries).createQuery(anyString(), anyString());
-        doReturn(query).when(query).bindValue(anyString(), anyString());
-        doReturn(patientList).when(query).execute();
-        doReturn(true).when(this.access).hasAccess(any(User.class), eq(Right.VIEW), any(EntityReference.class));
-        doReturn(new PatientSummary()).when(this.factory).createPatientSummary(any(Object[].class), eq(this.uriInfo));
-
-        Patients allPatients = this.patientsResource.listPatients(0, 30, "id", "asc");
-        Assert.assertEquals(30, allPatients.getPatientSummaries().size());
-
-        Patients selectedNumberOfPatients = this.patientsResource.listPatients(15, 15, "id", "asc");
-        Assert.assertEquals(15, selectedNumberOfPatients.getPatientSummaries().size());
-
-        Patients onePatient = this.patientsResource.listPatients(15, 1, "id", "asc");
-        Assert.assertEquals(1, onePatient.getPatientSummaries().size());
-
-        Patients incorrectLookup = this.patientsResource.listPatients(31, 5, "id", "asc");
-        Assert.assertEquals(0, incorrectLookup.getPatientSummaries().size());
+        ArgumentCaptor<Function> converter = ArgumentCaptor.forClass(Function.class);
+        verify(this.listing).list(eq("id"), eq("asc"), eq((String) null), eq(0), eq(30), converter.capture());
+        Assert.assertSame(summary, converter.getValue().apply(record));
+        Assert.assertTrue(result.getPatientSummaries().isEmpty());
+        Assert.assertNull(result.getContinuation());
     }
 
     @Test
-    public void listPatientsGetMoreRecordsThanAdded() throws QueryException
+    public void listPatientsWithInvalidContinuation() throws Exception
     {
-        List<Object[]> patientList = new ArrayList<>();
-        for (int i = 0; i < 15; i++) {
-            Object[] patientSummaryData = new Object[7];
-            patientList.add(patientSummaryData);
+        doThrow(new IllegalArgumentException()).when(this.listing)
+            .list(anyString(), anyString(), anyString(), anyInt(), anyInt(), any(Function.class));
+        try {
+            this.patientsResource.listPatients(0, 30, "id", "asc", "invalid");
+            Assert.fail("Invalid continuation tokens should be rejected");
+        } catch (WebApplicationException ex) {
+            Assert.assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), ex.getResponse().getStatus());
         }
-        Query query = mock(DefaultQuery.class);
-        doReturn(query).when(this.queries).createQuery(anyString(), anyString());
-        doReturn(query).when(query).bindValue(anyString(), anyString());
-        doReturn(patientList).when(query).execute();
-        doReturn(true).when(this.access).hasAccess(any(User.class), eq(Right.VIEW), any(EntityReference.class));
-        doReturn(new PatientSummary()).when(this.factory).createPatientSummary(any(Object[].class), eq(this.uriInfo));
-        Patients result = this.patientsResource.listPatients(0, 30, "id", "asc");
-        Assert.assertEquals(15, result.getPatientSummaries().size());
     }
 
     @Test
-    public void listPatientFailureHandling() throws QueryException
+    public void listPatientFailureHandling() throws Exception
     {
-        Query query = mock(DefaultQuery.class);
         WebApplicationException exception = null;
-        QueryException queryException = new QueryException("query.execute() failed", query, new Exception());
-        doReturn(query).when(this.queries).createQuery(anyString(), anyString());
-        doReturn(query).when(query).bindValue(anyString(), anyString());
-        doThrow(queryException).when(query).execute();
+        QueryException queryException =
+            new QueryException("query.execute() failed", mock(Query.class), new Exception());
+        doThrow(queryException).when(this.listing)
+            .list(anyString(), anyString(), anyString(), anyInt(), anyInt(), any(Function.class));
         try {
-            this.patientsResource.listPatients(0, 30, "id", "asc");
+            this.patientsResource.listPatients(0, 30, "id", "asc", null);
         } catch (WebApplicationException ex) {
             exception = ex;
         }
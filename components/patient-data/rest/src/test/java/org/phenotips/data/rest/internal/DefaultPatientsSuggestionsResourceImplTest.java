@@ -19,44 +19,34 @@
 
 import org.phenotips.configuration.RecordConfiguration;
 import org.phenotips.configuration.RecordConfigurationManager;
-import org.phenotips.data.DictionaryPatientData;
-import org.phenotips.data.Patient;
-import org.phenotips.data.PatientRepository;
+import org.phenotips.data.indexing.PatientSuggestion;
+import org.phenotips.data.indexing.PatientSuggestionIndex;
 import org.phenotips.data.rest.PatientsSuggestionsResource;
-import org.phenotips.security.authorization.AuthorizationService;
 
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.context.Execution;
 import org.xwiki.context.ExecutionContext;
 import org.xwiki.model.reference.DocumentReference;
-import org.xwiki.query.Query;
-import org.xwiki.query.QueryException;
-import org.xwiki.query.QueryManager;
 import org.xwiki.security.authorization.Right;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
-import org.xwiki.users.User;
-import org.xwiki.users.UserManager;
 
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Map;
 
 import javax.inject.Provider;
 import javax.ws.rs.WebApplicationException;
 
-import org.apache.commons.lang3.StringUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
-import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
-import org.slf4j.Logger;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
@@ -84,65 +74,15 @@
 
     private PatientsSuggestionsResource component;
 
-    private PatientRepository repository;
+    private PatientSuggestionIndex index;
 
-    private String readablePatient1Name = "readablePatient1";
+    private PatientSuggestion readablePatient1;
 
-    private DocumentReference readablePatient1Reference =
-        new DocumentReference("wiki", "data", this.readablePatient1Name);
+    private PatientSuggestion readablePatient2;
 
-    @Mock
-    private Patient readablePatient1;
-
-    private String readablePatient2Name = "readablePatient2";
-
-    private DocumentReference readablePatient2Reference =
-        new DocumentReference("wiki", "data", this.readablePatient2Name);
-
-    @Mock
-    private Patient readablePatient2;
-
-    private String writablePatient1Name = "writablePatient1";
-
-    private DocumentReference writablePatient1Reference =
-        new DocumentReference("wiki", "data", this.writablePatient1Name);
-
-    @Mock
-    private Patient writablePatient1;
-
-    private String writablePatient2Name = "writablePatient2";
-
-    private DocumentReference writablePatient2Reference =
-        new DocumentReference("wiki", "data", this.writablePatient2Name);
-
-    @Mock
-    private Patient writablePatient2;
-
-    private String inaccessiblePatient1Name = "inaccessiblePatient1";
-
-    private DocumentReference inaccessiblePatient1Reference =
-        new DocumentReference("wiki", "data", this.inaccessiblePatient1Name);
-
-    @Mock
-    private Patient inaccessiblePatient1;
-
-    private String inaccessiblePatient2Name = "inaccessiblePatient2";
+    private PatientSuggestion writablePatient1;
 
-    private DocumentReference inaccessiblePatient2Reference =
-        new DocumentReference("wiki", "data", this.inaccessiblePatient2Name);
-
-    @Mock
-    private Patient inaccessiblePatient2;
-
-    private AuthorizationService auth;
-
-    @Mock
-    private Logger logger;
-
-    private QueryManager queryManager;
-
-    @Mock
-    private Query query;
+    private PatientSuggestion writablePatient2;
 
     @Mock
     private RecordConfiguration configuration;
@@ -152,11 +92,8 @@
     @Mock
     private XWiki xwiki;
 
-    @Mock
-    private User user;
-
     @Before
-    public void setUp() throws ComponentLookupException, QueryException
+    public void setUp() throws ComponentLookupException
     {
         MockitoAnnotations.initMocks(this);
         Provider<XWikiContext> xcp = this.mocker.getInstance(XWikiContext.TYPE_PROVIDER);
@@ -171,39 +108,17 @@ public void setUp() throws ComponentLookupException, QueryException
         doReturn(this.xcontext).when(executionContext).getProperty("xwikicontext");
 
         this.component = this.mocker.getComponentUnderTest();
+        this.index = this.mocker.getInstance(PatientSuggestionIndex.class);
 
-        this.logger = this.mocker.getMockedLogger();
-
-        UserManager userManager = this.mocker.getInstance(UserManager.class);
-        when(userManager.getCurrentUser()).thenReturn(this.user);
-
-        this.repository = this.mocker.getInstance(PatientRepository.class);
-        this.auth = this.mocker.getInstance(AuthorizationService.class);
-        setupPatient(this.readablePatient1, this.readablePatient1Name, null, this.readablePatient1Reference, true,
-            false,
-            "John", "Doe");
-        setupPatient(this.readablePatient2, this.readablePatient2Name, "", this.readablePatient2Reference, true, false,
-            "Timmy", null);
-        setupPatient(this.writablePatient1, this.writablePatient1Name, "Beast", this.writablePatient1Reference, true,
-            true, null,
-            "McCoy");
-        setupPatient(this.writablePatient2, this.writablePatient2Name, null, this.writablePatient2Reference, true, true,
-            null,
-            null);
-        setupPatient(this.inaccessiblePatient1, this.inaccessiblePatient1Name, "X", this.inaccessiblePatient1Reference,
-            false, false, "Charles", "Xavier");
-        setupPatient(this.inaccessiblePatient2, this.inaccessiblePatient2Name, null, this.inaccessiblePatient2Reference,
-            false, false, null, null);
+        this.readablePatient1 = setupPatient("readablePatient1", null, "John", "Doe");
+        this.readablePatient2 = setupPatient("readablePatient2", "", "Timmy", null);
+        this.writablePatient1 = setupPatient("writablePatient1", "Beast", null, "McCoy");
+        this.writablePatient2 = setupPatient("writablePatient2", null, null, null);
 
         RecordConfigurationManager rcm = this.mocker.getInstance(RecordConfigurationManager.class);
         when(rcm.getConfiguration("patient")).thenReturn(this.configuration);
         when(this.configuration.getEnabledFieldNames())
             .thenReturn(Arrays.asList("first_name", "last_name", "date_of_birth", "phenotypes"));
-
-        this.queryManager = this.mocker.getInstance(QueryManager.class);
-        when(this.queryManager.createQuery(Matchers.anyString(), Matchers.anyString())).thenReturn(this.query);
-        when(this.query.execute()).thenReturn(Arrays.asList("readablePatient1", "inaccessiblePatient",
-            "writablePatient1", "readablePatient2", "writablePatient2"));
     }
 
     @Test(expected = WebApplicationException.class)
@@ -231,38 +146,27 @@ public void suggestAsXMLWithEmptyInputThrowsException()
     }
 
     @Test
-    public void suggestAsJSONWithViewAccessAndSortById() throws QueryException
+    public void suggestAsJSONWithViewAccessAndSortById()
     {
+        when(this.index.suggest("doe", true, Right.VIEW, ID, "asc", 2))
+            .thenReturn(Arrays.asList(this.readablePatient1, this.writablePatient1));
         JSONObject response = new JSONObject(this.component.suggestAsJSON("dOe", 2, "view", ID, "asc"));
         JSONArray suggestions = response.getJSONArray("matchedPatients");
-        Mockito.verify(this.queryManager).createQuery(
-            "select doc.name from Document doc, doc.object(PhenoTips.PatientClass) as patient"
-                + " where doc.name <> :t"
-                + " and lower(doc.name) like :input or lower(patient.external_id) like :input"
-                + " or lower(patient.first_name) like :input or lower(patient.last_name) like :input"
-                + " order by doc.name asc",
-            Query.XWQL);
-        Mockito.verify(this.query).bindValue("t", "PatientTemplate");
-        Mockito.verify(this.query).bindValue("input", "%doe%");
         Assert.assertEquals(2, suggestions.length());
         Assert.assertEquals("readablePatient1", suggestions.getJSONObject(0).getString(ID));
+        Assert.assertEquals("/view/readablePatient1", suggestions.getJSONObject(0).getString("url"));
+        Assert.assertEquals("readablePatient1, name: John Doe",
+            suggestions.getJSONObject(0).getString("textSummary"));
         Assert.assertEquals("writablePatient1", suggestions.getJSONObject(1).getString(ID));
     }
 
     @Test
     public void suggestAsXMLWithViewAccessAndSortById() throws Exception
     {
+        when(this.index.suggest("doe", true, Right.VIEW, ID, "asc", 2))
+            .thenReturn(Arrays.asList(this.readablePatient1, this.writablePatient1));
         Document response = parseXML(this.component.suggestAsXML("dOe", 2, "view", ID, "asc"));
         NodeList suggestions = response.getElementsByTagName("rs");
-        Mockito.verify(this.queryManager).createQuery(
-            "select doc.name from Document doc, doc.object(PhenoTips.PatientClass) as patient"
-                + " where doc.name <> :t"
-                + " and lower(doc.name) like :input or lower(patient.external_id) like :input"
-                + " or lower(patient.first_name) like :input or lower(patient.last_name) like :input"
-                + " order by doc.name asc",
-            Query.XWQL);
-        Mockito.verify(this.query).bindValue("t", "PatientTemplate");
-        Mockito.verify(this.query).bindValue("input", "%doe%");
         Assert.assertEquals(2, suggestions.getLength());
         Assert.assertEquals("/view/readablePatient1", ((Element) suggestions.item(0)).getAttribute(ID));
         Assert.assertEquals("wiki:data.readablePatient1", ((Element) suggestions.item(0)).getAttribute("info"));
@@ -274,19 +178,12 @@ public void suggestAsXMLWithViewAccessAndSortById() throws Exception
     }
 
     @Test
-    public void suggestAsJSONWithEditAccessAndSortByEid() throws QueryException
+    public void suggestAsJSONWithEditAccessAndSortByEid()
     {
+        when(this.index.suggest("doe", true, Right.EDIT, EID, "desc", 4))
+            .thenReturn(Arrays.asList(this.writablePatient1, this.writablePatient2));
         JSONObject response = new JSONObject(this.component.suggestAsJSON("dOe", 4, "edit", EID, "desc"));
         JSONArray suggestions = response.getJSONArray("matchedPatients");
-        Mockito.verify(this.queryManager).createQuery(
-            "select doc.name from Document doc, doc.object(PhenoTips.PatientClass) as patient"
-                + " where doc.name <> :t"
-                + " and lower(doc.name) like :input or lower(patient.external_id) like :input"
-                + " or lower(patient.first_name) like :input or lower(patient.last_name) like :input"
-                + " order by patient.external_id desc",
-            Query.XWQL);
-        Mockito.verify(this.query).bindValue("t", "PatientTemplate");
-        Mockito.verify(this.query).bindValue("input", "%doe%");
         Assert.assertEquals(2, suggestions.length());
         Assert.assertEquals("writablePatient1", suggestions.getJSONObject(0).getString(ID));
         Assert.assertEquals("Beast", suggestions.getJSONObject(0).getString("identifier"));
@@ -300,17 +197,10 @@ public void suggestAsJSONWithEditAccessAndSortByEid() throws QueryException
     @Test
     public void suggestAsXMLWithEditAccessAndSortByEid() throws Exception
     {
+        when(this.index.suggest("doe", true, Right.EDIT, EID, "desc", 4))
+            .thenReturn(Arrays.asList(this.writablePatient1, this.writablePatient2));
         Document response = parseXML(this.component.suggestAsXML("dOe", 4, "edit", EID, "desc"));
         NodeList suggestions = response.getElementsByTagName("rs");
-        Mockito.verify(this.queryManager).createQuery(
-            "select doc.name from Document doc, doc.object(PhenoTips.PatientClass) as patient"
-                + " where doc.name <> :t"
-                + " and lower(doc.name) like :input or lower(patient.external_id) like :input"
-                + " or lower(patient.first_name) like :input or lower(patient.last_name) like :input"
-                + " order by patient.external_id desc",
-            Query.XWQL);
-        Mockito.verify(this.query).bindValue("t", "PatientTemplate");
-        Mockito.verify(this.query).bindValue("input", "%doe%");
         Assert.assertEquals(2, suggestions.getLength());
         Assert.assertEquals("/view/writablePatient1", ((Element) suggestions.item(0)).getAttribute(ID));
         Assert.assertEquals("wiki:data.writablePatient1", ((Element) suggestions.item(0)).getAttribute("info"));
@@ -322,76 +212,54 @@ public void suggestAsXMLWithEditAccessAndSortByEid() throws Exception
     }
 
     @Test
-    public void suggestAsJSONWithNamesDisabled() throws QueryException
+    public void suggestAsJSONWithNamesDisabled()
     {
         when(this.configuration.getEnabledFieldNames()).thenReturn(Arrays.asList("phenotypes"));
+        when(this.index.suggest("doe", false, Right.VIEW, ID, "asc", 2))
+            .thenReturn(Arrays.asList(this.readablePatient1, this.writablePatient1));
         JSONObject response = new JSONObject(this.component.suggestAsJSON("dOe", 2, "view", ID, "asc"));
         JSONArray suggestions = response.getJSONArray("matchedPatients");
-        Mockito.verify(this.queryManager).createQuery(
-            "select doc.name from Document doc, doc.object(PhenoTips.PatientClass) as patient"
-                + " where doc.name <> :t"
-                + " and lower(doc.name) like :input or lower(patient.external_id) like :input"
-                + " order by doc.name asc",
-            Query.XWQL);
-        Mockito.verify(this.query).bindValue("t", "PatientTemplate");
-        Mockito.verify(this.query).bindValue("input", "%doe%");
+        Mockito.verify(this.index).suggest("doe", false, Right.VIEW, ID, "asc", 2);
         Assert.assertEquals(2, suggestions.length());
-        Assert.assertEquals("readablePatient1", suggestions.getJSONObject(0).getString(ID));
-        Assert.assertEquals("writablePatient1", suggestions.getJSONObject(1).getString(ID));
     }
 
     @Test
-    public void suggestAsJSONWithMorePatientsRequested() throws QueryException
+    public void suggestAsJSONIncludesIndexedMetadata()
     {
-        JSONObject response = new JSONObject(this.component.suggestAsJSON("dOe", 200, "view", ID, "asc"));
+        Map<String, Object> metadata = Collections.singletonMap("family", "FAM0000001");
+        when(this.readablePatient2.getMetadata()).thenReturn(metadata);
+        when(this.index.suggest("tim", true, Right.VIEW, ID, "asc", 200))
+            .thenReturn(Collections.singletonList(this.readablePatient2));
+        JSONObject response = new JSONObject(this.component.suggestAsJSON("Tim", 200, "view", ID, "asc"));
         JSONArray suggestions = response.getJSONArray("matchedPatients");
-        Mockito.verify(this.queryManager).createQuery(
-            "select doc.name from Document doc, doc.object(PhenoTips.PatientClass) as patient"
-                + " where doc.name <> :t"
-                + " and lower(doc.name) like :input or lower(patient.external_id) like :input"
-                + " or lower(patient.first_name) like :input or lower(patient.last_name) like :input"
-                + " order by doc.name asc",
-            Query.XWQL);
-        Mockito.verify(this.query).bindValue("t", "PatientTemplate");
-        Mockito.verify(this.query).bindValue("input", "%doe%");
-        Assert.assertEquals(4, suggestions.length());
-        Assert.assertEquals("readablePatient1", suggestions.getJSONObject(0).getString(ID));
-        Assert.assertEquals("writablePatient1", suggestions.getJSONObject(1).getString(ID));
-        Assert.assertEquals("readablePatient2", suggestions.getJSONObject(2).getString(ID));
-        Assert.assertEquals("writablePatient2", suggestions.getJSONObject(3).getString(ID));
+        Assert.assertEquals(1, suggestions.length());
+        Assert.assertEquals("FAM0000001", suggestions.getJSONObject(0).getString("family"));
+        Assert.assertEquals("readablePatient2, name: Timmy", suggestions.getJSONObject(0).getString("textSummary"));
     }
 
     @Test
-    public void suggestAsJSONReturnsEmptyListOnExceptions() throws QueryException
+    public void suggestAsJSONReturnsEmptyListWhenNothingMatches()
     {
-        when(this.query.execute()).thenThrow(new QueryException("", this.query, null));
+        when(this.index.suggest("doe", true, Right.VIEW, ID, "asc", 200))
+            .thenReturn(Collections.<PatientSuggestion>emptyList());
         JSONObject response = new JSONObject(this.component.suggestAsJSON("dOe", 200, "view", ID, "asc"));
         JSONArray suggestions = response.getJSONArray("matchedPatients");
         Assert.assertEquals(0, suggestions.length());
     }
 
-    @SuppressWarnings("ParameterNumber")
-    private void setupPatient(Patient patient, String patientId, String patientExternalId,
-        DocumentReference patientReference, boolean canView, boolean canEdit, String firstName, String lastName)
+    private PatientSuggestion setupPatient(String patientId, String patientExternalId, String firstName,
+        String lastName)
     {
-        when(this.repository.get(patientId)).thenReturn(patient);
+        DocumentReference patientReference = new DocumentReference("wiki", "data", patientId);
+        PatientSuggestion patient = mock(PatientSuggestion.class);
         when(patient.getExternalId()).thenReturn(patientExternalId);
         when(patient.getId()).thenReturn(patientId);
         when(patient.getDocumentReference()).thenReturn(patientReference);
-        when(this.auth.hasAccess(this.user, Right.VIEW, patientReference)).thenReturn(canView);
-        when(this.auth.hasAccess(this.user, Right.EDIT, patientReference)).thenReturn(canEdit);
+        when(patient.getFirstName()).thenReturn(firstName);
+        when(patient.getLastName()).thenReturn(lastName);
+        when(patient.getMetadata()).thenReturn(Collections.<String, Object>emptyMap());
         when(this.xwiki.getURL(patientReference, "view", this.xcontext)).thenReturn("/view/" + patientId);
-        Map<String, String> nameData = new HashMap<>();
-        if (StringUtils.isNotEmpty(firstName)) {
-            nameData.put("first_name", firstName);
-        }
-        if (StringUtils.isNotEmpty(lastName)) {
-            nameData.put("last_name", lastName);
-        }
-        if (!nameData.isEmpty()) {
-            when(patient.<String>getData("patientName"))
-                .thenReturn(new DictionaryPatientData<>("patientName", nameData));
-        }
+        return patient;
     }
 
     private Document parseXML(String input) throws Exception
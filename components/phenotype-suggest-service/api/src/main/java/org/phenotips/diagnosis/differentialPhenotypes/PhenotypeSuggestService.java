@@ -165,12 +165,6 @@ private SolrQuery prepareParams(Collection<String> phenotypes, Collection<String
      */
     public Set<String> getAllAncestorsAndSelfIDs(final String id)
     {
-        Set<String> parents = new HashSet<>();
-        VocabularyTerm crt = this.hpo.getTerm(id);
-        Set<VocabularyTerm> ancenstors = crt.getAncestorsAndSelf();
-        for (VocabularyTerm term : ancenstors) {
-            parents.add(term.getId());
-        }
-        return parents;
+        return new HashSet<>(this.hpo.getAncestorIdsAndSelf(id));
     }
 }
@@ -25,14 +25,19 @@
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.inject.Singleton;
 import javax.ws.rs.HttpMethod;
 
 /**
- * Default implementation of the {@link AllowedActionsResolver}.
+ * Default implementation of the {@link AllowedActionsResolver}. The HTTP methods of each REST interface and the rights
+ * they require are read once, and kept for the next calls.
  *
  * @version $Id$
  * @since 1.3M2
@@ -41,28 +46,58 @@
 @Singleton
 public class DefaultAllowedActionsResolver implements AllowedActionsResolver
 {
+    /** The actions declared by each REST interface. */
+    private final ConcurrentMap<Class<?>, List<Action>> actions = new ConcurrentHashMap<>();
+
     @Override
     public Set<String> resolveActions(Class<?> restInterface, Right grantedRight)
     {
-        Method[] methods = restInterface.getMethods();
         Set<String> result = new HashSet<>();
-        for (Method method : methods) {
-            for (Annotation annotation : method.getAnnotations()) {
-                HttpMethod httpMethod = annotation.annotationType().getAnnotation(HttpMethod.class);
-                if (httpMethod != null) {
-                    RequiredAccess rightAnnotation = method.getAnnotation(RequiredAccess.class);
-                    if (grantedRight != null && rightAnnotation != null) {
-                        Right right = Right.toRight(rightAnnotation.value());
-                        if (right == grantedRight || grantedRight.getImpliedRights() != null
-                            && grantedRight.getImpliedRights().contains(right)) {
-                            result.add(httpMethod.value());
-                        }
-                    } else {
-                        result.add(httpMethod.value());
+        for (Action action : getActions(restInterface)) {
+            if (grantedRight != null && action.requiredRight != null) {
+                Right right = Right.toRight(action.requiredRight);
+                if (right == grantedRight || grantedRight.getImpliedRights() != null
+                    && grantedRight.getImpliedRights().contains(right)) {
+                    result.add(action.httpMethod);
+                }
+            } else {
+                result.add(action.httpMethod);
+            }
+        }
+        return result;
+    }
+
+    private List<Action> getActions(Class<?> restInterface)
+    {
+        List<Action> result = this.actions.get(restInterface);
+        if (result == null) {
+            result = new ArrayList<>();
+            for (Method method : restInterface.getMethods()) {
+                for (Annotation annotation : method.getAnnotations()) {
+                    HttpMethod httpMethod = annotation.annotationType().getAnnotation(HttpMethod.class);
+                    if (httpMethod != null) {
+                        RequiredAccess rightAnnotation = method.getAnnotation(RequiredAccess.class);
+                        result.add(new Action(httpMethod.value(),
+                            rightAnnotation != null ? rightAnnotation.value() : null));
                     }
                 }
             }
+            this.actions.putIfAbsent(restInterface, result);
         }
         return result;
     }
+
+    /** An HTTP method of a REST interface, along with the name of the right it requires, if any. */
+    private static final class Action
+    {
+        private final String httpMethod;
+
+        private final String requiredRight;
+
+        Action(String httpMethod, String requiredRight)
+        {
+            this.httpMethod = httpMethod;
+            this.requiredRight = requiredRight;
+        }
+    }
 }
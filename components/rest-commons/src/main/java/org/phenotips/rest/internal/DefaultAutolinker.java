@@ -19,19 +19,14 @@
 
 import org.phenotips.rest.AllowedActionsResolver;
 import org.phenotips.rest.Autolinker;
-import org.phenotips.rest.ParentResource;
-import org.phenotips.rest.RelatedResources;
-import org.phenotips.rest.Relation;
 import org.phenotips.rest.model.Link;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.annotation.InstantiationStrategy;
 import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
-import org.xwiki.rest.XWikiRestComponent;
 import org.xwiki.security.authorization.Right;
 
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
@@ -41,13 +36,11 @@
 import java.util.Set;
 
 import javax.inject.Inject;
-import javax.inject.Provider;
-import javax.ws.rs.Path;
 import javax.ws.rs.core.UriInfo;
 
 /**
  * An improved factory class for automatically creating links between resources, depending on the permissions that the
- * current user has.
+ * current user has. The relations between resources and their URI templates are read from the {@link ResourceGraph}.
  *
  * @version $Id$
  * @since 1.3M2
@@ -60,7 +53,7 @@ public class DefaultAutolinker implements Autolinker
     private AllowedActionsResolver actionResolver;
 
     @Inject
-    private Provider<List<XWikiRestComponent>> resources;
+    private ResourceGraph graph;
 
     private UriInfo uriInfo;
 
@@ -77,7 +70,7 @@ public class DefaultAutolinker implements Autolinker
     @Override
     public DefaultAutolinker forResource(Class<?> baseResource, UriInfo uriInfo)
     {
-        this.baseResource = findResourceInterface(baseResource);
+        this.baseResource = this.graph.getResourceInterface(baseResource);
         this.uriInfo = uriInfo;
         for (Entry<String, List<String>> entry : this.uriInfo.getPathParameters().entrySet()) {
             if (!entry.getValue().isEmpty() && !this.extraParameters.containsKey(entry.getKey())) {
@@ -135,10 +128,16 @@ public Collection<Link> build()
         if (this.baseResource != null) {
             links.add(this.getActionableLinkToSelf());
         }
-        Set<Class<?>> endpoints = new LinkedHashSet<>(findChildResources());
-        endpoints.add(getParentResource());
-        endpoints.addAll(this.linkedActionableInterfaces);
-        endpoints.addAll(getRelatedResources());
+        Set<Class<?>> endpoints = new LinkedHashSet<>();
+        if (this.baseResource != null) {
+            ResourceGraph.Resource base = this.graph.getResource(this.baseResource);
+            endpoints.addAll(base.getChildren());
+            endpoints.add(base.getParent());
+            endpoints.addAll(this.linkedActionableInterfaces);
+            endpoints.addAll(base.getRelated());
+        } else {
+            endpoints.addAll(this.linkedActionableInterfaces);
+        }
         for (Class<?> endpoint : endpoints) {
             if (endpoint != null) {
                 Link link = this.getActionableLink(endpoint);
@@ -186,7 +185,11 @@ private Link getActionableLink(Class<?> endpoint)
 
     private String getPath(Class<?> restInterface)
     {
-        return this.uriInfo.getBaseUriBuilder().path(restInterface).buildFromMap(this.extraParameters).toString();
+        String template = this.graph.getResource(restInterface).getPathTemplate();
+        if (template == null) {
+            throw new IllegalArgumentException("Not a REST resource: " + restInterface.getName());
+        }
+        return this.uriInfo.getBaseUriBuilder().path(template).buildFromMap(this.extraParameters).toString();
     }
 
     private Set<String> getAllowedMethods(Class<?> restInterface)
@@ -202,77 +205,6 @@ private Link getActionableLinkToSelf()
             .withHref(this.uriInfo.getRequestUri().toString());
     }
 
-    private Class<?> getParentResource()
-    {
-        if (this.baseResource == null) {
-            return null;
-        }
-        ParentResource parent = this.baseResource.getAnnotation(ParentResource.class);
-        if (parent != null) {
-            return parent.value();
-        }
-        return null;
-    }
-
-    private Set<Class<?>> getRelatedResources()
-    {
-        if (this.baseResource == null) {
-            return Collections.emptySet();
-        }
-        Set<Class<?>> result = new LinkedHashSet<>();
-        RelatedResources related = this.baseResource.getAnnotation(RelatedResources.class);
-        if (related == null) {
-            return result;
-        }
-        for (Class<?> resource : related.value()) {
-            Class<?> clazz = findResourceInterface(resource);
-            if (clazz != null) {
-                result.add(findResourceInterface(resource));
-            }
-        }
-        return result;
-    }
-
-    private Set<Class<?>> findChildResources()
-    {
-        Set<Class<?>> result = new LinkedHashSet<>();
-        for (XWikiRestComponent resource : this.resources.get()) {
-            Class<?> clazz = resource.getClass();
-            while (clazz != null) {
-                for (Class<?> i : clazz.getInterfaces()) {
-                    ParentResource parentAnnotation = i.getAnnotation(ParentResource.class);
-                    if (parentAnnotation != null && parentAnnotation.value().equals(this.baseResource)) {
-                        result.add(findResourceInterface(resource));
-                    }
-                }
-                clazz = clazz.getSuperclass();
-            }
-        }
-        return result;
-    }
-
-    private Class<?> findResourceInterface(Object instance)
-    {
-        return findResourceInterface(instance.getClass());
-    }
-
-    private Class<?> findResourceInterface(Class<?> instance)
-    {
-        if (instance != null && instance.getAnnotation(Path.class) != null) {
-            return instance;
-        }
-        Class<?> clazz = instance;
-        while (clazz != null) {
-            for (Class<?> i : clazz.getInterfaces()) {
-                if (i.getAnnotation(Path.class) != null) {
-                    return i;
-                }
-            }
-            clazz = clazz.getSuperclass();
-        }
-        return null;
-    }
-
     /**
      * Get the relation type specified in the {@code @Relation} annotation on the target class or one of its implemented
      * interfaces.
@@ -282,11 +214,6 @@ private Class<?> findResourceInterface(Class<?> instance)
      */
     private String getRel(Class<?> resource)
     {
-        String relation = null;
-        Relation relationAnnotation = resource.getAnnotation(Relation.class);
-        if (relationAnnotation != null) {
-            relation = relationAnnotation.value();
-        }
-        return relation;
+        return this.graph.getResource(resource).getRelation();
     }
 }
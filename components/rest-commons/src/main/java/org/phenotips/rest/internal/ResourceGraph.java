@@ -0,0 +1,330 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.rest.internal;
+
+import org.phenotips.rest.ParentResource;
+import org.phenotips.rest.RelatedResources;
+import org.phenotips.rest.Relation;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.component.event.ComponentDescriptorRemovedEvent;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+import org.xwiki.rest.XWikiRestComponent;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import javax.ws.rs.Path;
+
+/**
+ * Holds the relations between the registered REST resources, as declared by their {@link ParentResource},
+ * {@link RelatedResources} and {@link Relation} annotations, along with their {@link Path URI templates}, so that
+ * links between resources can be built without going through all the REST components and their annotations every
+ * time. The graph is built the first time it is needed, and rebuilt after a REST component is registered or
+ * unregistered.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Component(roles = { ResourceGraph.class })
+@Singleton
+public class ResourceGraph implements Initializable
+{
+    @Inject
+    private Provider<List<XWikiRestComponent>> resources;
+
+    @Inject
+    private ObservationManager observationManager;
+
+    /** The current graph, {@code null} until it is needed. */
+    private volatile Graph graph;
+
+    /** Incremented whenever the graph is dropped, so that a graph built before that isn't kept. */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** @see #getBuildCount() */
+    private final AtomicLong builds = new AtomicLong();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.observationManager.addListener(new GraphInvalidator());
+    }
+
+    /**
+     * Finds the REST interface of a resource, the one annotated with {@link Path}.
+     *
+     * @param resource a REST interface, or a class implementing one
+     * @return the class itself if it is annotated with {@link Path}, otherwise the first annotated interface that it
+     *         implements, or {@code null} if there isn't one
+     */
+    public Class<?> getResourceInterface(Class<?> resource)
+    {
+        if (resource == null) {
+            return null;
+        }
+        return getGraph().getResource(resource).getResourceInterface();
+    }
+
+    /**
+     * Retrieves the relations of a resource.
+     *
+     * @param resource a REST interface, annotated with {@link Path}
+     * @return the resource node, never {@code null}
+     */
+    public Resource getResource(Class<?> resource)
+    {
+        return getGraph().getResource(resource);
+    }
+
+    /**
+     * How many times the graph was built, since the application started.
+     *
+     * @return a positive number
+     */
+    public long getBuildCount()
+    {
+        return this.builds.get();
+    }
+
+    private Graph getGraph()
+    {
+        Graph result = this.graph;
+        if (result == null) {
+            long buildGeneration = this.generation.get();
+            this.builds.incrementAndGet();
+            result = new Graph(this.resources.get());
+            synchronized (this) {
+                if (buildGeneration == this.generation.get()) {
+                    this.graph = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Class<?> findResourceInterface(Class<?> type)
+    {
+        if (type != null && type.getAnnotation(Path.class) != null) {
+            return type;
+        }
+        Class<?> clazz = type;
+        while (clazz != null) {
+            for (Class<?> i : clazz.getInterfaces()) {
+                if (i.getAnnotation(Path.class) != null) {
+                    return i;
+                }
+            }
+            clazz = clazz.getSuperclass();
+        }
+        return null;
+    }
+
+    /**
+     * A REST resource, with its URI template and its relations to other resources. Instances are immutable.
+     *
+     * @version $Id$
+     * @since 1.4
+     */
+    public static final class Resource
+    {
+        private final Class<?> resourceInterface;
+
+        private final String pathTemplate;
+
+        private final String relation;
+
+        private final Class<?> parent;
+
+        private final Set<Class<?>> children;
+
+        private final Set<Class<?>> related;
+
+        Resource(Class<?> type, Set<Class<?>> children)
+        {
+            this.resourceInterface = findResourceInterface(type);
+            Path path = type.getAnnotation(Path.class);
+            this.pathTemplate = path != null ? path.value() : null;
+            Relation relationAnnotation = type.getAnnotation(Relation.class);
+            this.relation = relationAnnotation != null ? relationAnnotation.value() : null;
+            ParentResource parentAnnotation = type.getAnnotation(ParentResource.class);
+            this.parent = parentAnnotation != null ? parentAnnotation.value() : null;
+            this.children = children;
+
+            Set<Class<?>> relatedResources = new LinkedHashSet<>();
+            RelatedResources relatedAnnotation = type.getAnnotation(RelatedResources.class);
+            if (relatedAnnotation != null) {
+                for (Class<?> resource : relatedAnnotation.value()) {
+                    Class<?> clazz = findResourceInterface(resource);
+                    if (clazz != null) {
+                        relatedResources.add(clazz);
+                    }
+                }
+            }
+            this.related = Collections.unmodifiableSet(relatedResources);
+        }
+
+        /**
+         * The REST interface of this resource, as returned by {@link ResourceGraph#getResourceInterface(Class)}.
+         *
+         * @return a class annotated with {@link Path}, or {@code null} if this resource doesn't have one
+         */
+        public Class<?> getResourceInterface()
+        {
+            return this.resourceInterface;
+        }
+
+        /**
+         * The URI template of this resource, relative to the REST base URI.
+         *
+         * @return the value of the {@link Path} annotation, or {@code null} if this class isn't annotated
+         */
+        public String getPathTemplate()
+        {
+            return this.pathTemplate;
+        }
+
+        /**
+         * The relation type of links pointing to this resource.
+         *
+         * @return the value of the {@link Relation} annotation, or {@code null} if not set
+         */
+        public String getRelation()
+        {
+            return this.relation;
+        }
+
+        /**
+         * The parent of this resource.
+         *
+         * @return the value of the {@link ParentResource} annotation, or {@code null} if not set
+         */
+        public Class<?> getParent()
+        {
+            return this.parent;
+        }
+
+        /**
+         * The REST interfaces of the registered resources which declare this resource as their parent.
+         *
+         * @return an unmodifiable set, in the order of the REST components, may be empty
+         */
+        public Set<Class<?>> getChildren()
+        {
+            return this.children;
+        }
+
+        /**
+         * The REST interfaces of the resources listed in the {@link RelatedResources} annotation.
+         *
+         * @return an unmodifiable set, may be empty
+         */
+        public Set<Class<?>> getRelated()
+        {
+            return this.related;
+        }
+    }
+
+    /** The resources known when the graph was built; nodes are created on demand, and then kept. */
+    private static final class Graph
+    {
+        /** For each parent resource, the REST interfaces of its registered children. */
+        private final Map<Class<?>, Set<Class<?>>> children = new HashMap<>();
+
+        private final ConcurrentMap<Class<?>, Resource> nodes = new ConcurrentHashMap<>();
+
+        Graph(List<XWikiRestComponent> components)
+        {
+            for (XWikiRestComponent component : components) {
+                Class<?> clazz = component.getClass();
+                Class<?> resourceInterface = findResourceInterface(clazz);
+                while (clazz != null) {
+                    for (Class<?> i : clazz.getInterfaces()) {
+                        ParentResource parentAnnotation = i.getAnnotation(ParentResource.class);
+                        if (parentAnnotation != null) {
+                            Set<Class<?>> siblings = this.children.get(parentAnnotation.value());
+                            if (siblings == null) {
+                                siblings = new LinkedHashSet<>();
+                                this.children.put(parentAnnotation.value(), siblings);
+                            }
+                            siblings.add(resourceInterface);
+                        }
+                    }
+                    clazz = clazz.getSuperclass();
+                }
+            }
+            for (Map.Entry<Class<?>, Set<Class<?>>> entry : this.children.entrySet()) {
+                entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+            }
+        }
+
+        Resource getResource(Class<?> type)
+        {
+            Resource result = this.nodes.get(type);
+            if (result == null) {
+                Set<Class<?>> typeChildren = this.children.get(type);
+                result = new Resource(type, typeChildren != null ? typeChildren : Collections.<Class<?>>emptySet());
+                Resource previous = this.nodes.putIfAbsent(type, result);
+                result = previous != null ? previous : result;
+            }
+            return result;
+        }
+    }
+
+    /** Drops the graph whenever a REST component is registered or unregistered. */
+    private final class GraphInvalidator implements EventListener
+    {
+        @Override
+        public String getName()
+        {
+            return "rest-resource-graph-invalidator";
+        }
+
+        @Override
+        public List<Event> getEvents()
+        {
+            return Arrays.<Event>asList(new ComponentDescriptorAddedEvent(XWikiRestComponent.class),
+                new ComponentDescriptorRemovedEvent(XWikiRestComponent.class));
+        }
+
+        @Override
+        public void onEvent(Event event, Object source, Object data)
+        {
+            synchronized (ResourceGraph.this) {
+                ResourceGraph.this.generation.incrementAndGet();
+                ResourceGraph.this.graph = null;
+            }
+        }
+    }
+}
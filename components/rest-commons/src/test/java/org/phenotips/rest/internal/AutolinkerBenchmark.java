@@ -0,0 +1,264 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.rest.internal;
+
+import org.phenotips.rest.ParentResource;
+import org.phenotips.rest.RelatedResources;
+import org.phenotips.rest.Relation;
+import org.phenotips.rest.RequiredAccess;
+import org.phenotips.rest.model.Link;
+
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.rest.XWikiRestComponent;
+import org.xwiki.security.authorization.Right;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Provider;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.UriInfo;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the links built by the {@link DefaultAutolinker} for one entity, as done when serializing each patient of a
+ * listing, with a precomputed {@link ResourceGraph}, and with a graph rebuilt for every entity, which costs as much as
+ * the reflection done on each call before the graph was introduced. A realistic number of REST components is
+ * registered. The URI builder is mocked, so template expansion isn't included in the measured times. Run with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.phenotips.rest.internal.AutolinkerBenchmark}.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AutolinkerBenchmark
+{
+    private static final int OTHER_COMPONENTS = 120;
+
+    private ResourceGraph graph;
+
+    private EventListener invalidator;
+
+    private UriInfo uriInfo;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        final List<XWikiRestComponent> components = new ArrayList<>();
+        components.add(new DefaultEntityResource());
+        components.add(new DefaultEntityMembersResource());
+        components.add(new DefaultEntityPermissionsResource());
+        for (int i = 0; i < OTHER_COMPONENTS; ++i) {
+            components.add(Mockito.mock(XWikiRestComponent.class,
+                Mockito.withSettings().extraInterfaces(OtherResource.class)));
+        }
+
+        this.graph = new ResourceGraph();
+        Provider<List<XWikiRestComponent>> provider = new Provider<List<XWikiRestComponent>>()
+        {
+            @Override
+            public List<XWikiRestComponent> get()
+            {
+                return components;
+            }
+        };
+        ReflectionUtils.setFieldValue(this.graph, "resources", provider);
+        ObservationManager observationManager = Mockito.mock(ObservationManager.class);
+        ReflectionUtils.setFieldValue(this.graph, "observationManager", observationManager);
+        this.graph.initialize();
+        ArgumentCaptor<EventListener> listener = ArgumentCaptor.forClass(EventListener.class);
+        Mockito.verify(observationManager).addListener(listener.capture());
+        this.invalidator = listener.getValue();
+
+        this.uriInfo = Mockito.mock(UriInfo.class);
+        @SuppressWarnings("unchecked")
+        MultivaluedMap<String, String> pathParameters = Mockito.mock(MultivaluedMap.class);
+        Mockito.when(pathParameters.entrySet()).thenReturn(Collections.<Map.Entry<String, List<String>>>emptySet());
+        Mockito.when(this.uriInfo.getPathParameters()).thenReturn(pathParameters);
+        UriBuilder builder = Mockito.mock(UriBuilder.class);
+        Mockito.when(builder.path(Matchers.anyString())).thenReturn(builder);
+        Mockito.when(builder.buildFromMap(Matchers.anyMapOf(String.class, Object.class)))
+            .thenReturn(URI.create("http://localhost/rest/entities/P0000001"));
+        Mockito.when(this.uriInfo.getBaseUriBuilder()).thenReturn(builder);
+        Mockito.when(this.uriInfo.getRequestUri()).thenReturn(URI.create("http://localhost/rest/entities/P0000001"));
+    }
+
+    @Benchmark
+    public Collection<Link> precomputedGraph()
+    {
+        return buildLinks(new DefaultAllowedActionsResolver());
+    }
+
+    @Benchmark
+    public Collection<Link> rebuiltGraph()
+    {
+        this.invalidator.onEvent(new ComponentDescriptorAddedEvent(XWikiRestComponent.class), null, null);
+        return buildLinks(new DefaultAllowedActionsResolver());
+    }
+
+    private Collection<Link> buildLinks(DefaultAllowedActionsResolver resolver)
+    {
+        DefaultAutolinker autolinker = new DefaultAutolinker();
+        ReflectionUtils.setFieldValue(autolinker, "graph", this.graph);
+        ReflectionUtils.setFieldValue(autolinker, "actionResolver", resolver);
+        return autolinker.forResource(DefaultEntityResource.class, this.uriInfo)
+            .withGrantedRight(Right.EDIT)
+            .withExtraParameters("entity-id", "P0000001")
+            .build();
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(AutolinkerBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    @Path("/entities")
+    @Relation("https://phenotips.org/rel/entities")
+    public interface EntitiesResource
+    {
+        @GET
+        void list();
+    }
+
+    @Path("/entities/{entity-id}")
+    @Relation("https://phenotips.org/rel/entity")
+    @ParentResource(EntitiesResource.class)
+    @RelatedResources(DefaultEntityPermissionsResource.class)
+    public interface EntityResource
+    {
+        @GET
+        void get();
+
+        @PUT
+        @RequiredAccess("edit")
+        void update();
+
+        @DELETE
+        @RequiredAccess("delete")
+        void delete();
+    }
+
+    @Path("/entities/{entity-id}/members")
+    @Relation("https://phenotips.org/rel/members")
+    @ParentResource(EntityResource.class)
+    public interface EntityMembersResource
+    {
+        @GET
+        void get();
+    }
+
+    @Path("/entities/{entity-id}/permissions")
+    @Relation("https://phenotips.org/rel/permissions")
+    @ParentResource(EntityResource.class)
+    public interface EntityPermissionsResource
+    {
+        @GET
+        void get();
+
+        @PUT
+        @RequiredAccess("admin")
+        void update();
+    }
+
+    @Path("/other/{other-id}")
+    public interface OtherResource
+    {
+        @GET
+        void get();
+    }
+
+    public static class DefaultEntityResource implements EntityResource, XWikiRestComponent
+    {
+        @Override
+        public void get()
+        {
+            // Not called
+        }
+
+        @Override
+        public void update()
+        {
+            // Not called
+        }
+
+        @Override
+        public void delete()
+        {
+            // Not called
+        }
+    }
+
+    public static class DefaultEntityMembersResource implements EntityMembersResource, XWikiRestComponent
+    {
+        @Override
+        public void get()
+        {
+            // Not called
+        }
+    }
+
+    public static class DefaultEntityPermissionsResource implements EntityPermissionsResource, XWikiRestComponent
+    {
+        @Override
+        public void get()
+        {
+            // Not called
+        }
+
+        @Override
+        public void update()
+        {
+            // Not called
+        }
+    }
+}
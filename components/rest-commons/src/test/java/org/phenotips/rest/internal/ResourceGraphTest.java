@@ -0,0 +1,159 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.rest.internal;
+
+import org.phenotips.rest.ParentResource;
+import org.phenotips.rest.RelatedResources;
+import org.phenotips.rest.Relation;
+
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.rest.XWikiRestComponent;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.inject.Provider;
+import javax.ws.rs.Path;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link ResourceGraph} component.
+ *
+ * @version $Id$
+ */
+public class ResourceGraphTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<ResourceGraph> mocker =
+        new MockitoComponentMockingRule<>(ResourceGraph.class);
+
+    private List<XWikiRestComponent> components = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.components.add(new DefaultFamilyResource());
+        this.components.add(new DefaultMembersResource());
+        Provider<List<XWikiRestComponent>> provider = this.mocker.getInstance(new DefaultParameterizedType(null,
+            Provider.class, new DefaultParameterizedType(null, List.class, XWikiRestComponent.class)));
+        when(provider.get()).thenReturn(this.components);
+    }
+
+    @Test
+    public void relationsAreReadFromAnnotations() throws Exception
+    {
+        ResourceGraph graph = this.mocker.getComponentUnderTest();
+
+        ResourceGraph.Resource family = graph.getResource(FamilyResource.class);
+        Assert.assertSame(FamilyResource.class, family.getResourceInterface());
+        Assert.assertEquals("/families/{family-id}", family.getPathTemplate());
+        Assert.assertEquals("family", family.getRelation());
+        Assert.assertNull(family.getParent());
+        Assert.assertEquals(Collections.singleton(MembersResource.class), family.getChildren());
+        Assert.assertEquals(Collections.singleton(PatientResource.class), family.getRelated());
+
+        ResourceGraph.Resource members = graph.getResource(MembersResource.class);
+        Assert.assertSame(FamilyResource.class, members.getParent());
+        Assert.assertTrue(members.getChildren().isEmpty());
+        Assert.assertNull(members.getRelation());
+    }
+
+    @Test
+    public void resourceInterfacesAreFoundForImplementations() throws Exception
+    {
+        ResourceGraph graph = this.mocker.getComponentUnderTest();
+
+        Assert.assertSame(MembersResource.class, graph.getResourceInterface(DefaultMembersResource.class));
+        Assert.assertSame(FamilyResource.class, graph.getResourceInterface(FamilyResource.class));
+        Assert.assertNull(graph.getResourceInterface(String.class));
+        Assert.assertNull(graph.getResourceInterface(null));
+        Assert.assertNull(graph.getResource(String.class).getPathTemplate());
+    }
+
+    @Test
+    public void graphIsReusedUntilRestComponentsChange() throws Exception
+    {
+        ResourceGraph graph = this.mocker.getComponentUnderTest();
+        Assert.assertTrue(graph.getResource(PatientResource.class).getChildren().isEmpty());
+        Assert.assertSame(graph.getResource(FamilyResource.class), graph.getResource(FamilyResource.class));
+        Assert.assertEquals(1, graph.getBuildCount());
+
+        this.components.add(new DefaultPatientVariantsResource());
+        ArgumentCaptor<EventListener> listener = ArgumentCaptor.forClass(EventListener.class);
+        verify(this.mocker.<ObservationManager>getInstance(ObservationManager.class)).addListener(listener.capture());
+        listener.getValue().onEvent(new ComponentDescriptorAddedEvent(XWikiRestComponent.class), null, null);
+
+        Assert.assertEquals(Arrays.asList(PatientVariantsResource.class),
+            new ArrayList<>(graph.getResource(PatientResource.class).getChildren()));
+        Assert.assertEquals(2, graph.getBuildCount());
+    }
+
+    @Path("/families/{family-id}")
+    @Relation("family")
+    @RelatedResources(DefaultPatientResource.class)
+    public interface FamilyResource
+    {
+    }
+
+    @Path("/families/{family-id}/members")
+    @ParentResource(FamilyResource.class)
+    public interface MembersResource
+    {
+    }
+
+    @Path("/patients/{patient-id}")
+    public interface PatientResource
+    {
+    }
+
+    @Path("/patients/{patient-id}/variants")
+    @ParentResource(PatientResource.class)
+    public interface PatientVariantsResource
+    {
+    }
+
+    public static class DefaultFamilyResource implements FamilyResource, XWikiRestComponent
+    {
+    }
+
+    public static class DefaultMembersResource implements MembersResource, XWikiRestComponent
+    {
+    }
+
+    public static class DefaultPatientResource implements PatientResource, XWikiRestComponent
+    {
+    }
+
+    public static class DefaultPatientVariantsResource implements PatientVariantsResource, XWikiRestComponent
+    {
+    }
+}
@@ -33,6 +33,8 @@
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Index;
+import org.hibernate.annotations.Table;
 import org.hibernate.annotations.Type;
 import org.json.JSONObject;
 
@@ -43,6 +45,8 @@
  * @since 1.4
  */
 @Entity
+@Table(appliesTo = "AuditEvent",
+    indexes = @Index(name = "auditEventTimeIdx", columnNames = { "time", "uuid" }))
 public class AuditEvent
 {
     /** Unique identifier, needed for persistence. */
@@ -98,6 +102,18 @@ public AuditEvent(final User user, final String ip,
         this.time = time;
     }
 
+    /**
+     * The unique identifier of this event, assigned when the event is stored.
+     *
+     * @return an identifier, or {@code null} if the event wasn't stored yet
+     * @since 1.4
+     */
+    @Nullable
+    public UUID getId()
+    {
+        return this.uuid;
+    }
+
     /**
      * The user that performed this action.
      *
@@ -24,6 +24,7 @@
 
 import java.util.Calendar;
 import java.util.List;
+import java.util.stream.Stream;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -114,6 +115,29 @@
     List<AuditEvent> getEvents(@Nullable AuditEvent eventTemplate, @Nullable Calendar fromTime,
         @Nullable Calendar toTime, int start, int maxResults);
 
+    /**
+     * Streams all the events matching a specific event template, most recent first, without loading all of them in
+     * memory. Unlike paging with {@link #getEvents(AuditEvent, Calendar, Calendar, int, int)}, the cost of reaching
+     * older events doesn't grow with their position, so this is meant for exporting large audit trails. The returned
+     * stream may hold storage resources, and must be closed, preferably in a try-with-resources block.
+     *
+     * @param eventTemplate the event template that can have non-{@code null} fields which are to be used as filters
+     *            when retrieving matching events. If all fields are null or the template itself is {@code null}, all
+     *            events match and should be returned.
+     * @param fromTime start of the interval for the time stamp filter. If {@code null}, matching events from the
+     *            beginning will be retrieved.
+     * @param toTime end of the interval for the time stamp filter. If {@code null}, matching events until the present
+     *            moment will be retrieved.
+     * @return a stream of audited events, may be empty
+     * @since 1.4
+     */
+    @Nonnull
+    default Stream<AuditEvent> streamEvents(@Nullable AuditEvent eventTemplate, @Nullable Calendar fromTime,
+        @Nullable Calendar toTime)
+    {
+        return getEvents(eventTemplate, fromTime, toTime, 0, 0).stream();
+    }
+
     /**
      * Counts all the events affecting a specific entity.
      *
@@ -0,0 +1,157 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.security.audit.internal;
+
+import org.phenotips.security.audit.AuditEvent;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Supplier;
+
+import org.hibernate.Criteria;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.StatelessSession;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Restrictions;
+
+/**
+ * Iterates over audit events, most recent first, reading them in pages from a stateless session, so that neither the
+ * iterator nor the session keep the events already returned. Instead of an offset, each page continues from the time
+ * and identifier of the last event returned by the previous page, so the database can seek to it using the index on
+ * the time and identifier columns (see {@link R74697AuditEventTimeIndexDataMigration}), no matter how far into the
+ * results the page is.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+final class AuditEventCursor implements Iterator<AuditEvent>, AutoCloseable
+{
+    private static final String TIME_FIELD_NAME = "time";
+
+    private static final String ID_FIELD_NAME = "uuid";
+
+    private final StatelessSession session;
+
+    /** Creates the criteria selecting the events to iterate over, without any ordering or limits. */
+    private final Supplier<Criteria> filter;
+
+    private final int pageSize;
+
+    /** The current page, {@code null} before the first page and between pages. */
+    private ScrollableResults page;
+
+    /** How many events were read from the current page so far. */
+    private int pageCount;
+
+    /** The event to be returned by {@link #next()}, if it was already read. */
+    private AuditEvent nextEvent;
+
+    /** The last event read, where the next page starts from. */
+    private AuditEvent lastEvent;
+
+    private boolean exhausted;
+
+    /**
+     * Constructor.
+     *
+     * @param session the session to read from, closed when this cursor is {@link #close() closed}
+     * @param filter creates, in the given session, the criteria selecting the events to iterate over
+     * @param pageSize how many events are read with each query
+     */
+    AuditEventCursor(StatelessSession session, Supplier<Criteria> filter, int pageSize)
+    {
+        this.session = session;
+        this.filter = filter;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if (this.nextEvent == null && !this.exhausted) {
+            advance();
+        }
+        return this.nextEvent != null;
+    }
+
+    @Override
+    public AuditEvent next()
+    {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        AuditEvent result = this.nextEvent;
+        this.nextEvent = null;
+        return result;
+    }
+
+    @Override
+    public void close()
+    {
+        this.exhausted = true;
+        closePage();
+        this.session.close();
+    }
+
+    private void advance()
+    {
+        while (true) {
+            if (this.page == null) {
+                this.page = openPage();
+                this.pageCount = 0;
+            }
+            if (this.page.next()) {
+                this.nextEvent = (AuditEvent) this.page.get(0);
+                this.lastEvent = this.nextEvent;
+                ++this.pageCount;
+                return;
+            }
+            closePage();
+            if (this.pageCount < this.pageSize) {
+                // A partial page means that there are no more events
+                this.exhausted = true;
+                return;
+            }
+        }
+    }
+
+    private ScrollableResults openPage()
+    {
+        Criteria c = this.filter.get();
+        if (this.lastEvent != null) {
+            c.add(Restrictions.or(Restrictions.lt(TIME_FIELD_NAME, this.lastEvent.getTime()),
+                Restrictions.and(Restrictions.eq(TIME_FIELD_NAME, this.lastEvent.getTime()),
+                    Restrictions.lt(ID_FIELD_NAME, this.lastEvent.getId()))));
+        }
+        c.addOrder(Order.desc(TIME_FIELD_NAME));
+        c.addOrder(Order.desc(ID_FIELD_NAME));
+        c.setMaxResults(this.pageSize);
+        c.setFetchSize(this.pageSize);
+        c.setReadOnly(true);
+        return c.scroll(ScrollMode.FORWARD_ONLY);
+    }
+
+    private void closePage()
+    {
+        if (this.page != null) {
+            this.page.close();
+            this.page = null;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.security.audit.internal;
+
+import org.phenotips.security.audit.AuditEvent;
+
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.users.UserManager;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Holds the audit events that didn't fit in the queue of the {@link HibernateAuditStore}, so that they can be stored
+ * later instead of being lost. Events are appended to a file, one JSON object per line, and the file survives
+ * restarts, so events spilled before a crash are stored at the next startup. {@link #drain() Draining} moves the file
+ * aside, as a {@code .processing} file which is only deleted once its events are {@link #commit() committed}; a
+ * {@code .processing} file left by a crash is drained again at the next startup, so spilled events are stored at least
+ * once. This class is thread safe.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+class AuditSpillFile
+{
+    private static final String USER = "user";
+
+    private static final String IP = "ip";
+
+    private static final String ACTION = "action";
+
+    private static final String EXTRA = "extra";
+
+    private static final String ENTITY = "entity";
+
+    private static final String TIME = "time";
+
+    private final File file;
+
+    /** Holds the drained events until they are committed. */
+    private final File processingFile;
+
+    private final UserManager users;
+
+    private final DocumentReferenceResolver<String> resolver;
+
+    /** The number of events currently in the file. */
+    private int size;
+
+    /** The number of drained events, not committed yet. */
+    private int processingSize;
+
+    /**
+     * Constructor.
+     *
+     * @param file the file where events are spilled; it, and its {@code .processing} counterpart, may already hold
+     *            events spilled before a restart
+     * @param users used for resolving the users of the spilled events
+     * @param resolver used for resolving the entities of the spilled events
+     * @throws IOException if the existing files cannot be read
+     */
+    AuditSpillFile(File file, UserManager users, DocumentReferenceResolver<String> resolver) throws IOException
+    {
+        this.file = file;
+        this.processingFile = new File(file.getPath() + ".processing");
+        this.users = users;
+        this.resolver = resolver;
+        if (file.exists()) {
+            this.size = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size();
+        }
+        if (this.processingFile.exists()) {
+            this.processingSize = Files.readAllLines(this.processingFile.toPath(), StandardCharsets.UTF_8).size();
+        }
+    }
+
+    /**
+     * Appends an event at the end of the file.
+     *
+     * @param event the event to spill
+     * @throws IOException if writing the file fails
+     */
+    synchronized void append(AuditEvent event) throws IOException
+    {
+        JSONObject json = new JSONObject();
+        json.put(USER, event.getUser() == null ? null : event.getUser().getId());
+        json.put(IP, event.getIp());
+        json.put(ACTION, event.getAction());
+        json.put(EXTRA, event.getExtraInformation());
+        json.put(ENTITY, event.getEntity() == null ? null : event.getEntity().toString());
+        json.put(TIME, event.getTime() == null ? null : event.getTime().getTimeInMillis());
+        this.file.getParentFile().mkdirs();
+        try (Writer out = Files.newBufferedWriter(this.file.toPath(), StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            out.write(json.toString());
+            out.write('\n');
+        }
+        ++this.size;
+    }
+
+    /**
+     * Returns all the spilled events, moving them aside until they are {@link #commit() committed}. If the events
+     * drained previously weren't committed, for example because of a crash, those are returned instead, and the events
+     * spilled since then are returned by the next call. Lines that can't be parsed, such as a line partially written
+     * during a crash, are skipped.
+     *
+     * @return the spilled events, in the order they were spilled; may be empty
+     * @throws IOException if moving or reading the file fails
+     */
+    synchronized List<AuditEvent> drain() throws IOException
+    {
+        if (!this.processingFile.exists()) {
+            if (this.size == 0) {
+                return new ArrayList<>(0);
+            }
+            Files.move(this.file.toPath(), this.processingFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            this.processingSize = this.size;
+            this.size = 0;
+        }
+        List<AuditEvent> result = new ArrayList<>(this.processingSize);
+        try (BufferedReader in = Files.newBufferedReader(this.processingFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                AuditEvent event = parse(line);
+                if (event != null) {
+                    result.add(event);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Deletes the events returned by the last {@link #drain()}, once they have been stored.
+     *
+     * @throws IOException if deleting the file fails, in which case the events will be drained again
+     */
+    synchronized void commit() throws IOException
+    {
+        Files.deleteIfExists(this.processingFile.toPath());
+        this.processingSize = 0;
+    }
+
+    /**
+     * The number of events waiting in the file, including the drained events which aren't committed yet.
+     *
+     * @return a positive number, or {@code 0}
+     */
+    synchronized int size()
+    {
+        return this.size + this.processingSize;
+    }
+
+    private AuditEvent parse(String line)
+    {
+        if (StringUtils.isBlank(line)) {
+            return null;
+        }
+        try {
+            JSONObject json = new JSONObject(line);
+            String user = json.optString(USER, null);
+            String entity = json.optString(ENTITY, null);
+            Calendar time = null;
+            if (json.has(TIME)) {
+                time = Calendar.getInstance(Locale.ROOT);
+                time.setTimeInMillis(json.getLong(TIME));
+            }
+            return new AuditEvent(user == null ? null : this.users.getUser(user, true), json.optString(IP, null),
+                json.optString(ACTION, null), json.optString(EXTRA, null),
+                entity == null ? null : this.resolver.resolve(entity), time);
+        } catch (JSONException ex) {
+            return null;
+        }
+    }
+}
@@ -21,20 +21,41 @@
 import org.phenotips.security.audit.AuditStore;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.environment.Environment;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.users.User;
+import org.xwiki.users.UserManager;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 
 import org.hibernate.Criteria;
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
+import org.hibernate.StatelessSession;
 import org.hibernate.Transaction;
 import org.hibernate.criterion.Example;
 import org.hibernate.criterion.Order;
@@ -46,14 +67,52 @@
 
 /**
  * Implementation of {@link AuditStore} using Hibernate for persistence.
+ * <p>
+ * Events aren't stored on the thread reporting them, usually a request thread, but placed in a bounded queue, and a
+ * writer thread stores them in batches, each batch in one transaction. When the queue is full, the
+ * {@code phenotips.audit.overflow} configuration property decides what happens: with {@code block}, the default, the
+ * reporting thread waits for room in the queue; with {@code spill}, the event is appended to a file in the permanent
+ * directory, and stored once the queue is empty again. Pending events are stored before the component is disposed.
+ * The size of the queue and of the batches can be configured with the {@code phenotips.audit.queue.size} and
+ * {@code phenotips.audit.batch.size} properties. The state of the queue is exposed through the public getters of this
+ * class.
+ * </p>
  *
  * @version $Id$
  * @since 1.4
  */
 @Component
 @Singleton
-public class HibernateAuditStore implements AuditStore
+public class HibernateAuditStore implements AuditStore, Initializable, Disposable
 {
+    /** The overflow policy which makes the reporting thread wait until there's room in the queue. */
+    public static final String OVERFLOW_BLOCK = "block";
+
+    /** The overflow policy which writes the events that don't fit in the queue to a file. */
+    public static final String OVERFLOW_SPILL = "spill";
+
+    private static final String QUEUE_SIZE_PROPERTY = "phenotips.audit.queue.size";
+
+    private static final String BATCH_SIZE_PROPERTY = "phenotips.audit.batch.size";
+
+    private static final String OVERFLOW_PROPERTY = "phenotips.audit.overflow";
+
+    private static final int DEFAULT_QUEUE_SIZE = 10000;
+
+    private static final int DEFAULT_BATCH_SIZE = 100;
+
+    /** How often the writer thread checks for spilled events and for shutdown requests, in milliseconds. */
+    private static final long POLL_INTERVAL = 500;
+
+    /** The longest wait between two attempts to store the spilled events, when the database rejects them. */
+    private static final long MAX_SPILL_RETRY_INTERVAL = 60000;
+
+    /** How long disposing the component waits for the writer thread to store the queued events, in milliseconds. */
+    private static final long SHUTDOWN_TIMEOUT = 30000;
+
+    /** How many events are read with each query while streaming events. */
+    private static final int STREAM_PAGE_SIZE = 1000;
+
     private static final String TIME_FIELD_NAME = "time";
 
     private static final List<String> ACTION_IGNORED = Arrays.asList("tex", "temp", "dot", "svg", "skin", "jsx", "ssx",
@@ -66,23 +125,316 @@ public class HibernateAuditStore implements AuditStore
     @Inject
     private Logger logger;
 
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /** Provides the permanent directory, where events are spilled. */
+    @Inject
+    private Environment environment;
+
+    /** Used for resolving the users of spilled events. */
+    @Inject
+    private UserManager users;
+
+    /** Used for resolving the entities of spilled events. */
+    @Inject
+    private DocumentReferenceResolver<String> resolver;
+
+    /** The events waiting to be stored. */
+    private BlockingQueue<QueuedEvent> queue;
+
+    /** The events which didn't fit in the queue, only used with the {@link #OVERFLOW_SPILL spill} policy. */
+    private AuditSpillFile spillFile;
+
+    private int batchSize;
+
+    private Thread writer;
+
+    private volatile boolean stopped;
+
+    /** How long to wait before retrying to store the spilled events, doubled after each failed attempt. */
+    private long spillRetryInterval = POLL_INTERVAL;
+
+    /** When the spilled events can be stored again, after a failed attempt. */
+    private long nextSpillAttempt;
+
+    private final AtomicLong storedEvents = new AtomicLong();
+
+    private final AtomicLong failedEvents = new AtomicLong();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        Integer queueSize = this.configuration.getProperty(QUEUE_SIZE_PROPERTY, Integer.class);
+        Integer configuredBatchSize = this.configuration.getProperty(BATCH_SIZE_PROPERTY, Integer.class);
+        this.queue = new ArrayBlockingQueue<>(queueSize != null && queueSize > 0 ? queueSize : DEFAULT_QUEUE_SIZE);
+        this.batchSize = configuredBatchSize != null && configuredBatchSize > 0 ? configuredBatchSize
+            : DEFAULT_BATCH_SIZE;
+        if (OVERFLOW_SPILL.equals(this.configuration.getProperty(OVERFLOW_PROPERTY, OVERFLOW_BLOCK))) {
+            try {
+                File file = new File(this.environment.getPermanentDirectory(), "audit/spilled-events.json");
+                this.spillFile = new AuditSpillFile(file, this.users, this.resolver);
+            } catch (IOException ex) {
+                throw new InitializationException("Failed to read the spilled audit events: " + ex.getMessage(), ex);
+            }
+        }
+
+        this.writer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                writeEvents();
+            }
+        }, "Audit event writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.stopped = true;
+        try {
+            this.writer.join(SHUTDOWN_TIMEOUT);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (this.writer.isAlive()) {
+            this.logger.warn("The audit event writer didn't stop in time, storing the remaining events directly");
+        }
+        // Anything left, including events reported after the writer stopped, is stored on this thread
+        storeQueuedEvents();
+    }
+
     @Override
     public void store(AuditEvent event)
     {
         if (ACTION_IGNORED.contains(event.getAction())) {
             return;
         }
-        Session session = this.sessionFactory.getSessionFactory().openSession();
+        if (this.stopped && !this.writer.isAlive()) {
+            // No writer anymore, store the event right away
+            storeEvents(Collections.singletonList(event));
+            return;
+        }
+        QueuedEvent queued = new QueuedEvent(event);
+        if (this.spillFile == null) {
+            try {
+                this.queue.put(queued);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                storeEvents(Collections.singletonList(event));
+            }
+        } else if (!this.queue.offer(queued)) {
+            try {
+                this.spillFile.append(event);
+            } catch (IOException ex) {
+                this.logger.warn("Failed to spill audit event [{}], storing it directly: {}", event, ex.getMessage());
+                storeEvents(Collections.singletonList(event));
+            }
+        }
+    }
+
+    /**
+     * The number of events waiting in the queue.
+     *
+     * @return a positive number, or {@code 0}
+     */
+    public int getQueueDepth()
+    {
+        return this.queue.size();
+    }
+
+    /**
+     * For how long the oldest queued event has been waiting to be stored.
+     *
+     * @return a duration in milliseconds, {@code 0} if the queue is empty
+     */
+    public long getLag()
+    {
+        QueuedEvent oldest = this.queue.peek();
+        return oldest == null ? 0 : System.currentTimeMillis() - oldest.queuedAt;
+    }
+
+    /**
+     * The number of events spilled to disk, and not stored yet.
+     *
+     * @return a positive number, or {@code 0}
+     */
+    public int getSpilledEvents()
+    {
+        return this.spillFile == null ? 0 : this.spillFile.size();
+    }
+
+    /**
+     * The number of events stored so far.
+     *
+     * @return a positive number, or {@code 0}
+     */
+    public long getStoredEvents()
+    {
+        return this.storedEvents.get();
+    }
+
+    /**
+     * The number of events which couldn't be stored.
+     *
+     * @return a positive number, or {@code 0}
+     */
+    public long getFailedEvents()
+    {
+        return this.failedEvents.get();
+    }
+
+    /** The main loop of the writer thread, storing queued events until the component is disposed. */
+    private void writeEvents()
+    {
+        storeSpilledEvents(true);
+        List<QueuedEvent> batch = new ArrayList<>(this.batchSize);
+        while (true) {
+            try {
+                QueuedEvent first = this.queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (this.stopped) {
+                        return;
+                    }
+                    // The queue is empty, there's room for the spilled events
+                    storeSpilledEvents(false);
+                    continue;
+                }
+                batch.add(first);
+                this.queue.drainTo(batch, this.batchSize - 1);
+                storeEvents(toEvents(batch));
+                batch.clear();
+            } catch (InterruptedException ex) {
+                return;
+            } catch (RuntimeException ex) {
+                // Don't let unexpected errors kill the writer
+                this.logger.error("Unexpected error while storing audit events: {}", ex.getMessage(), ex);
+                this.failedEvents.addAndGet(batch.size());
+                batch.clear();
+            }
+        }
+    }
+
+    /** Stores all the queued and spilled events on the current thread. */
+    private void storeQueuedEvents()
+    {
+        List<QueuedEvent> batch = new ArrayList<>(this.batchSize);
+        while (this.queue.drainTo(batch, this.batchSize) > 0) {
+            storeEvents(toEvents(batch));
+            batch.clear();
+        }
+        storeSpilledEvents(true);
+    }
+
+    /**
+     * Stores the spilled events. If a batch can't be stored at all, usually because the database is unavailable, the
+     * spilled events are kept, and the next attempt is delayed, longer after each failure; batches stored before the
+     * failure are stored again by the next attempt.
+     *
+     * @param force whether to ignore the delay after a failed attempt
+     */
+    private void storeSpilledEvents(boolean force)
+    {
+        if (this.spillFile == null || this.spillFile.size() == 0
+            || !force && System.currentTimeMillis() < this.nextSpillAttempt) {
+            return;
+        }
+        try {
+            List<AuditEvent> events = this.spillFile.drain();
+            for (int i = 0; i < events.size(); i += this.batchSize) {
+                List<AuditEvent> batch = events.subList(i, Math.min(i + this.batchSize, events.size()));
+                int stored = storeBatch(batch);
+                if (stored == 0) {
+                    this.logger.warn("Failed to store the spilled audit events, retrying in {} ms",
+                        this.spillRetryInterval);
+                    this.nextSpillAttempt = System.currentTimeMillis() + this.spillRetryInterval;
+                    this.spillRetryInterval = Math.min(this.spillRetryInterval * 2, MAX_SPILL_RETRY_INTERVAL);
+                    return;
+                }
+                this.failedEvents.addAndGet(batch.size() - stored);
+            }
+            // Only forget the spilled events once they're stored, a crash before this line stores them again
+            this.spillFile.commit();
+            this.spillRetryInterval = POLL_INTERVAL;
+        } catch (IOException ex) {
+            this.logger.error("Failed to process the spilled audit events: {}", ex.getMessage(), ex);
+        }
+    }
+
+    /** Stores several events, counting the ones which couldn't be stored as failed. */
+    private void storeEvents(List<AuditEvent> events)
+    {
+        this.failedEvents.addAndGet(events.size() - storeBatch(events));
+    }
+
+    /**
+     * Stores several events in one transaction. If the transaction fails, the events are stored one by one, so that one
+     * invalid event doesn't prevent the others from being stored.
+     *
+     * @return the number of events actually stored
+     */
+    private int storeBatch(List<AuditEvent> events)
+    {
+        Session session;
+        try {
+            session = this.sessionFactory.getSessionFactory().openSession();
+        } catch (HibernateException ex) {
+            this.logger.error("Failed to open a session for storing audit events: {}", ex.getMessage());
+            return 0;
+        }
+        Transaction t = null;
         try {
-            Transaction t = session.beginTransaction();
+            t = session.beginTransaction();
             t.begin();
-            session.save(event);
+            for (AuditEvent event : events) {
+                session.save(event);
+            }
             t.commit();
+            this.storedEvents.addAndGet(events.size());
+            return events.size();
         } catch (HibernateException ex) {
-            this.logger.error("Failed to save audit event [{}]: {}", event, ex.getMessage(), ex);
+            rollback(t);
+            if (events.size() > 1) {
+                this.logger.warn("Failed to save a batch of audit events, retrying one by one: {}", ex.getMessage());
+                session.close();
+                session = null;
+                int stored = 0;
+                for (AuditEvent event : events) {
+                    stored += storeBatch(Collections.singletonList(event));
+                }
+                return stored;
+            }
+            this.logger.error("Failed to save audit event [{}]: {}", events.get(0), ex.getMessage(), ex);
+            return 0;
         } finally {
-            session.close();
+            if (session != null) {
+                session.close();
+            }
+        }
+    }
+
+    private void rollback(Transaction t)
+    {
+        try {
+            if (t != null) {
+                t.rollback();
+            }
+        } catch (HibernateException ex) {
+            this.logger.debug("Failed to roll back audit events transaction: {}", ex.getMessage());
+        }
+    }
+
+    private List<AuditEvent> toEvents(List<QueuedEvent> batch)
+    {
+        List<AuditEvent> result = new ArrayList<>(batch.size());
+        for (QueuedEvent queued : batch) {
+            result.add(queued.event);
         }
+        return result;
     }
 
     @Override
@@ -151,6 +503,23 @@ public List<AuditEvent> getEvents(AuditEvent eventTemplate, Calendar fromTime, C
         return Collections.emptyList();
     }
 
+    @Override
+    public Stream<AuditEvent> streamEvents(final AuditEvent eventTemplate, final Calendar fromTime,
+        final Calendar toTime)
+    {
+        final StatelessSession session = this.sessionFactory.getSessionFactory().openStatelessSession();
+        final AuditEventCursor cursor = new AuditEventCursor(session, () -> {
+            Criteria c = session.createCriteria(AuditEvent.class);
+            if (eventTemplate != null) {
+                c.add(Example.create(eventTemplate));
+            }
+            setTimeInterval(c, fromTime, toTime);
+            return c;
+        }, STREAM_PAGE_SIZE);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor,
+            Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(cursor::close);
+    }
+
     @Override
     public long countEventsForEntity(DocumentReference entity)
     {
@@ -223,4 +592,17 @@ private void setTimeInterval(Criteria c, Calendar fromTime, Calendar toTime)
             c.add(Restrictions.le(TIME_FIELD_NAME, toTime));
         }
     }
+
+    /** An event waiting in the queue, along with the time it was queued at. */
+    private static final class QueuedEvent
+    {
+        private final AuditEvent event;
+
+        private final long queuedAt = System.currentTimeMillis();
+
+        QueuedEvent(AuditEvent event)
+        {
+            this.event = event;
+        }
+    }
 }
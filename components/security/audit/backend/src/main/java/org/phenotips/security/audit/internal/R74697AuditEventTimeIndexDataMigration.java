@@ -0,0 +1,80 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.security.audit.internal;
+
+import org.phenotips.security.audit.AuditEvent;
+
+import org.xwiki.component.annotation.Component;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import com.xpn.xwiki.store.migration.DataMigrationException;
+import com.xpn.xwiki.store.migration.XWikiDBVersion;
+import com.xpn.xwiki.store.migration.hibernate.AbstractHibernateDataMigration;
+
+/**
+ * Migration adding an index on the time and identifier of the stored {@link AuditEvent audit events}, used for sorting
+ * them and for seeking to the next page of results. New tables get the index from the entity mapping, while this
+ * migration adds it to the tables created before; it does nothing if the table or the index already exist.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Component
+@Named("R74697-audit-event-time-index")
+@Singleton
+public class R74697AuditEventTimeIndexDataMigration extends AbstractHibernateDataMigration
+{
+    private static final String TABLE = "AuditEvent";
+
+    private static final String INDEX = "auditEventTimeIdx";
+
+    @Override
+    public String getDescription()
+    {
+        return "Add an index on the time and identifier of audit events.";
+    }
+
+    @Override
+    public XWikiDBVersion getVersion()
+    {
+        return new XWikiDBVersion(74697);
+    }
+
+    @Override
+    public String getLiquibaseChangeLog() throws DataMigrationException
+    {
+        return "<changeSet id=\"R" + getVersion().getVersion() + "\" author=\"phenotips\">\n"
+            + "  <preConditions onFail=\"MARK_RAN\">\n"
+            + "    <tableExists tableName=\"" + TABLE + "\"/>\n"
+            + "    <not><indexExists tableName=\"" + TABLE + "\" indexName=\"" + INDEX + "\"/></not>\n"
+            + "  </preConditions>\n"
+            + "  <createIndex tableName=\"" + TABLE + "\" indexName=\"" + INDEX + "\">\n"
+            + "    <column name=\"time\"/>\n"
+            + "    <column name=\"uuid\"/>\n"
+            + "  </createIndex>\n"
+            + "</changeSet>\n";
+    }
+
+    @Override
+    public void hibernateMigrate() throws DataMigrationException
+    {
+        // Everything is done by the Liquibase change log
+    }
+}
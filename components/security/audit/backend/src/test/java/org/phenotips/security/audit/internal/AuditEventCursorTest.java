@@ -0,0 +1,122 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.security.audit.internal;
+
+import org.phenotips.security.audit.AuditEvent;
+
+import java.util.Calendar;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+import org.hibernate.Criteria;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.StatelessSession;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.LogicalExpression;
+import org.hibernate.criterion.Order;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link AuditEventCursor} class.
+ *
+ * @version $Id$
+ */
+public class AuditEventCursorTest
+{
+    @Mock
+    private StatelessSession session;
+
+    @Mock
+    private Criteria criteria;
+
+    @Mock
+    private ScrollableResults firstPage;
+
+    @Mock
+    private ScrollableResults secondPage;
+
+    private AuditEvent[] events = new AuditEvent[3];
+
+    private AuditEventCursor cursor;
+
+    @Before
+    public void setup()
+    {
+        MockitoAnnotations.initMocks(this);
+        for (int i = 0; i < this.events.length; ++i) {
+            this.events[i] = Mockito.mock(AuditEvent.class);
+            when(this.events[i].getTime()).thenReturn(Calendar.getInstance());
+            when(this.events[i].getId()).thenReturn(UUID.randomUUID());
+        }
+        when(this.criteria.scroll(ScrollMode.FORWARD_ONLY)).thenReturn(this.firstPage, this.secondPage);
+        when(this.firstPage.next()).thenReturn(true, true, false);
+        when(this.firstPage.get(0)).thenReturn(this.events[0], this.events[1]);
+        when(this.secondPage.next()).thenReturn(true, false);
+        when(this.secondPage.get(0)).thenReturn(this.events[2]);
+        this.cursor = new AuditEventCursor(this.session, () -> this.criteria, 2);
+    }
+
+    @Test
+    public void eventsAreReadInPagesContinuingFromTheLastEvent()
+    {
+        for (AuditEvent event : this.events) {
+            Assert.assertTrue(this.cursor.hasNext());
+            Assert.assertSame(event, this.cursor.next());
+        }
+        Assert.assertFalse(this.cursor.hasNext());
+
+        // Only the second page continues from the last event of the first page, there's no third query
+        ArgumentCaptor<Criterion> criterion = ArgumentCaptor.forClass(Criterion.class);
+        Mockito.verify(this.criteria).add(criterion.capture());
+        Assert.assertTrue(criterion.getValue() instanceof LogicalExpression);
+        Mockito.verify(this.criteria, Mockito.times(2)).scroll(ScrollMode.FORWARD_ONLY);
+        Mockito.verify(this.criteria, Mockito.times(4)).addOrder(Mockito.any(Order.class));
+        Mockito.verify(this.criteria, Mockito.times(2)).setMaxResults(2);
+        Mockito.verify(this.firstPage).close();
+        Mockito.verify(this.secondPage).close();
+        Mockito.verify(this.events[1], Mockito.atLeastOnce()).getId();
+        Mockito.verify(this.events[0], Mockito.never()).getId();
+    }
+
+    @Test
+    public void closingReleasesTheSession()
+    {
+        Assert.assertSame(this.events[0], this.cursor.next());
+        this.cursor.close();
+        Mockito.verify(this.firstPage).close();
+        Mockito.verify(this.session).close();
+        Assert.assertFalse(this.cursor.hasNext());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void nextFailsAfterTheLastEvent()
+    {
+        for (int i = 0; i <= this.events.length; ++i) {
+            this.cursor.next();
+        }
+    }
+}
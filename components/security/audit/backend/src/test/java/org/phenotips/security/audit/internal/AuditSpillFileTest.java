@@ -0,0 +1,133 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.security.audit.internal;
+
+import org.phenotips.security.audit.AuditEvent;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.users.UserManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link AuditSpillFile} helper.
+ *
+ * @version $Id$
+ */
+public class AuditSpillFileTest
+{
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    private UserManager users;
+
+    @Mock
+    private DocumentReferenceResolver<String> resolver;
+
+    private File file;
+
+    private File processingFile;
+
+    @Before
+    public void setup() throws IOException
+    {
+        MockitoAnnotations.initMocks(this);
+        when(this.resolver.resolve("wiki:Space.Page")).thenReturn(new DocumentReference("wiki", "Space", "Page"));
+        this.file = new File(this.folder.newFolder(), "audit/spilled-events.json");
+        this.processingFile = new File(this.file.getPath() + ".processing");
+    }
+
+    @Test
+    public void drainedEventsAreKeptUntilCommitted() throws IOException
+    {
+        AuditSpillFile spill = new AuditSpillFile(this.file, this.users, this.resolver);
+        spill.append(event("view"));
+        spill.append(event("edit"));
+        Assert.assertEquals(2, spill.size());
+
+        List<AuditEvent> events = spill.drain();
+        Assert.assertEquals(2, events.size());
+        Assert.assertEquals("view", events.get(0).getAction());
+        Assert.assertEquals("edit", events.get(1).getAction());
+        Assert.assertEquals("wiki:Space.Page", events.get(0).getEntity().toString());
+        Assert.assertFalse(this.file.exists());
+        Assert.assertTrue(this.processingFile.exists());
+        Assert.assertEquals(2, spill.size());
+
+        spill.commit();
+        Assert.assertFalse(this.processingFile.exists());
+        Assert.assertEquals(0, spill.size());
+        Assert.assertTrue(spill.drain().isEmpty());
+    }
+
+    @Test
+    public void eventsSpilledWhileProcessingAreDrainedNext() throws IOException
+    {
+        AuditSpillFile spill = new AuditSpillFile(this.file, this.users, this.resolver);
+        spill.append(event("view"));
+        Assert.assertEquals(1, spill.drain().size());
+        spill.append(event("edit"));
+        Assert.assertEquals(2, spill.size());
+
+        spill.commit();
+        List<AuditEvent> events = spill.drain();
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals("edit", events.get(0).getAction());
+    }
+
+    @Test
+    public void uncommittedEventsAreDrainedAgainAfterRestart() throws IOException
+    {
+        AuditSpillFile spill = new AuditSpillFile(this.file, this.users, this.resolver);
+        spill.append(event("view"));
+        spill.drain();
+        // Crash before the events were stored, and another event spilled before shutting down
+        spill.append(event("edit"));
+
+        AuditSpillFile restarted = new AuditSpillFile(this.file, this.users, this.resolver);
+        Assert.assertEquals(2, restarted.size());
+        List<AuditEvent> events = restarted.drain();
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals("view", events.get(0).getAction());
+        restarted.commit();
+        events = restarted.drain();
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals("edit", events.get(0).getAction());
+    }
+
+    private AuditEvent event(String action)
+    {
+        return new AuditEvent(null, "127.0.0.1", action, null, new DocumentReference("wiki", "Space", "Page"),
+            Calendar.getInstance());
+    }
+}
@@ -20,19 +20,32 @@
 import org.phenotips.security.audit.AuditEvent;
 import org.phenotips.security.audit.AuditStore;
 
+import org.xwiki.component.manager.ComponentLifecycleException;
 import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.environment.Environment;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.security.authorization.Right;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 import org.xwiki.users.User;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.hibernate.Criteria;
 import org.hibernate.HibernateException;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
 import org.hibernate.Transaction;
 import org.hibernate.classic.Session;
 import org.hibernate.criterion.BetweenExpression;
@@ -45,11 +58,14 @@
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import com.xpn.xwiki.store.hibernate.HibernateSessionFactory;
 
@@ -66,6 +82,9 @@
     public final MockitoComponentMockingRule<AuditStore> mocker =
         new MockitoComponentMockingRule<>(HibernateAuditStore.class);
 
+    @Rule
+    public final TemporaryFolder permanentDirectory = new TemporaryFolder();
+
     @Mock
     private User user;
 
@@ -74,6 +93,8 @@
 
     private DocumentReference doc = new DocumentReference("wiki", "Space", "Page");
 
+    private File permanentFolder;
+
     private HibernateSessionFactory hsf;
 
     @Mock
@@ -94,9 +115,15 @@
     private AuditEvent event;
 
     @Before
-    public void setup() throws ComponentLookupException
+    public void setup() throws ComponentLookupException, IOException
     {
         MockitoAnnotations.initMocks(this);
+        ConfigurationSource configuration = this.mocker.getInstance(ConfigurationSource.class, "xwikiproperties");
+        when(configuration.getProperty("phenotips.audit.queue.size", Integer.class)).thenReturn(2);
+        when(configuration.getProperty("phenotips.audit.overflow", "block")).thenReturn("spill");
+        Environment environment = this.mocker.getInstance(Environment.class);
+        this.permanentFolder = this.permanentDirectory.newFolder();
+        when(environment.getPermanentDirectory()).thenReturn(this.permanentFolder);
         this.hsf = this.mocker.getInstance(HibernateSessionFactory.class);
         when(this.hsf.getSessionFactory()).thenReturn(this.sf);
         when(this.sf.openSession()).thenReturn(this.session);
@@ -110,8 +137,8 @@ public void setup() throws ComponentLookupException
     public void storeSavesEventInSession()
     {
         this.store.store(this.event);
+        Mockito.verify(this.session, Mockito.timeout(5000)).close();
         Mockito.verify(this.session).save(this.event);
-        Mockito.verify(this.session).close();
         Mockito.verify(this.transaction).commit();
     }
 
@@ -130,7 +157,7 @@ public void storeCatchesHibernateException()
     {
         when(this.session.save(this.event)).thenThrow(new HibernateException("failed"));
         this.store.store(this.event);
-        Mockito.verify(this.session).close();
+        Mockito.verify(this.session, Mockito.timeout(5000)).close();
     }
 
     @Test
@@ -142,7 +169,101 @@ public void sessionIsClosedOnException()
         } catch (NullPointerException ex) {
             // We're testing this exception, it's expected here
         }
-        Mockito.verify(this.session).close();
+        Mockito.verify(this.session, Mockito.timeout(5000)).close();
+    }
+
+    @Test
+    public void disposeStoresPendingEvents() throws ComponentLifecycleException
+    {
+        for (int i = 0; i < 5; ++i) {
+            this.store.store(this.event);
+        }
+        getStore().dispose();
+        Mockito.verify(this.session, Mockito.times(5)).save(Matchers.any(AuditEvent.class));
+        Assert.assertEquals(5, getStore().getStoredEvents());
+        Assert.assertEquals(0, getStore().getQueueDepth());
+        Assert.assertEquals(0, getStore().getSpilledEvents());
+        Assert.assertEquals(0, getStore().getLag());
+    }
+
+    @Test
+    public void failedBatchesAreRetriedOneByOne() throws ComponentLifecycleException
+    {
+        AuditEvent failing = Mockito.mock(AuditEvent.class);
+        when(this.session.save(failing)).thenThrow(new HibernateException("failed"));
+        this.store.store(this.event);
+        this.store.store(failing);
+        getStore().dispose();
+        Assert.assertEquals(1, getStore().getStoredEvents());
+        Assert.assertEquals(1, getStore().getFailedEvents());
+    }
+
+    @Test
+    public void overflowingEventsAreSpilledAndStoredLater() throws Exception
+    {
+        final CountDownLatch writerStarted = new CountDownLatch(1);
+        final CountDownLatch writerBlocked = new CountDownLatch(1);
+        when(this.sf.openSession()).thenAnswer(new Answer<Session>()
+        {
+            @Override
+            public Session answer(InvocationOnMock invocation) throws Throwable
+            {
+                writerStarted.countDown();
+                writerBlocked.await();
+                return HibernateAuditStoreTest.this.session;
+            }
+        });
+        this.store.store(this.event);
+        writerStarted.await();
+        // The writer is now blocked while storing the first event, the queue holds 2 events, the rest is spilled
+        for (int i = 0; i < 4; ++i) {
+            this.store.store(this.event);
+        }
+        Assert.assertEquals(2, getStore().getQueueDepth());
+        Assert.assertEquals(2, getStore().getSpilledEvents());
+        Assert.assertTrue(getStore().getLag() >= 0);
+
+        writerBlocked.countDown();
+        getStore().dispose();
+        Mockito.verify(this.session, Mockito.times(5)).save(Matchers.any(AuditEvent.class));
+        Assert.assertEquals(5, getStore().getStoredEvents());
+        Assert.assertEquals(0, getStore().getSpilledEvents());
+    }
+
+    @Test
+    public void spilledEventsAreKeptWhenTheyCannotBeStored() throws Exception
+    {
+        final CountDownLatch writerStarted = new CountDownLatch(1);
+        final CountDownLatch writerBlocked = new CountDownLatch(1);
+        final AtomicInteger sessions = new AtomicInteger();
+        when(this.sf.openSession()).thenAnswer(new Answer<Session>()
+        {
+            @Override
+            public Session answer(InvocationOnMock invocation) throws Throwable
+            {
+                if (sessions.getAndIncrement() > 0) {
+                    throw new HibernateException("database unavailable");
+                }
+                writerStarted.countDown();
+                writerBlocked.await();
+                return HibernateAuditStoreTest.this.session;
+            }
+        });
+        this.store.store(this.event);
+        writerStarted.await();
+        for (int i = 0; i < 4; ++i) {
+            this.store.store(this.event);
+        }
+        Assert.assertEquals(2, getStore().getSpilledEvents());
+
+        writerBlocked.countDown();
+        getStore().dispose();
+        Assert.assertEquals(1, getStore().getStoredEvents());
+        Assert.assertEquals(2, getStore().getFailedEvents());
+        Assert.assertEquals(2, getStore().getSpilledEvents());
+        File spilled = new File(this.permanentFolder, "audit/spilled-events.json.processing");
+        Assert.assertTrue(spilled.exists());
+        Assert.assertEquals(2, Files.readAllLines(spilled.toPath()).size());
     }
 
     @Test
@@ -417,4 +538,34 @@ public void countEventsCatchesHibernateException()
         when(this.criteria.list()).thenThrow(new HibernateException(""));
         Assert.assertEquals(-1, this.store.countEvents(null, null, null));
     }
+
+    @Test
+    public void streamEventsReadsMatchingEventsAndClosesTheSession()
+    {
+        StatelessSession statelessSession = Mockito.mock(StatelessSession.class);
+        ScrollableResults results = Mockito.mock(ScrollableResults.class);
+        when(this.sf.openStatelessSession()).thenReturn(statelessSession);
+        when(statelessSession.createCriteria(AuditEvent.class)).thenReturn(this.criteria);
+        when(this.criteria.scroll(ScrollMode.FORWARD_ONLY)).thenReturn(results);
+        when(results.next()).thenReturn(true, false);
+        when(results.get(0)).thenReturn(this.event);
+
+        AuditEvent eventTemplate = new AuditEvent(this.user, null, "action", null, null, null);
+        Calendar from = Calendar.getInstance();
+        List<AuditEvent> found;
+        try (Stream<AuditEvent> stream = this.store.streamEvents(eventTemplate, from, null)) {
+            found = stream.collect(Collectors.toList());
+        }
+        Assert.assertEquals(Collections.singletonList(this.event), found);
+        ArgumentCaptor<Criterion> criterion = ArgumentCaptor.forClass(Criterion.class);
+        Mockito.verify(this.criteria, Mockito.times(2)).add(criterion.capture());
+        Assert.assertTrue(criterion.getAllValues().get(0) instanceof Example);
+        Assert.assertEquals("time>=" + from.toString(), criterion.getAllValues().get(1).toString());
+        Mockito.verify(statelessSession).close();
+    }
+
+    private HibernateAuditStore getStore()
+    {
+        return (HibernateAuditStore) this.store;
+    }
 }
@@ -0,0 +1,69 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.security.audit.internal;
+
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.xpn.xwiki.store.migration.XWikiDBVersion;
+import com.xpn.xwiki.store.migration.hibernate.HibernateDataMigration;
+
+/**
+ * Tests for the {@link R74697AuditEventTimeIndexDataMigration}.
+ *
+ * @version $Id$
+ */
+public class R74697AuditEventTimeIndexDataMigrationTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<HibernateDataMigration> mocker =
+        new MockitoComponentMockingRule<>(R74697AuditEventTimeIndexDataMigration.class);
+
+    @Test
+    public void changeLogCreatesTheMissingIndex() throws Exception
+    {
+        String changeLog = this.mocker.getComponentUnderTest().getLiquibaseChangeLog();
+        Assert.assertTrue(changeLog.contains("<changeSet id=\"R74697\""));
+        Assert.assertTrue(changeLog.contains("<tableExists tableName=\"AuditEvent\"/>"));
+        Assert.assertTrue(
+            changeLog.contains("<not><indexExists tableName=\"AuditEvent\" indexName=\"auditEventTimeIdx\"/></not>"));
+        Assert.assertTrue(changeLog.contains("<createIndex tableName=\"AuditEvent\" indexName=\"auditEventTimeIdx\">\n"
+            + "    <column name=\"time\"/>\n    <column name=\"uuid\"/>\n  </createIndex>"));
+    }
+
+    @Test
+    public void migrateDoesNothingElse() throws Exception
+    {
+        this.mocker.getComponentUnderTest().migrate();
+    }
+
+    @Test
+    public void getVersion() throws Exception
+    {
+        Assert.assertEquals(0, new XWikiDBVersion(74697).compareTo(this.mocker.getComponentUnderTest().getVersion()));
+    }
+
+    @Test
+    public void getDescription() throws Exception
+    {
+        Assert.assertNotNull(this.mocker.getComponentUnderTest().getDescription());
+    }
+}
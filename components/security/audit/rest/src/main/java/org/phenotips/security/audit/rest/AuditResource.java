@@ -66,4 +66,33 @@ Response listEvents(
         @QueryParam("entityId") @DefaultValue("") String entityId,
         @QueryParam("fromTime") @DefaultValue("") String fromTime,
         @QueryParam("toTime") @DefaultValue("") String toTime);
+
+    /**
+     * Exports all the audit events matching the filter parameters, most recent first. Events are written to the
+     * response as they are read from the store, so exports of any size use a constant amount of memory.
+     *
+     * @param format the export format, either {@code ndjson} for one JSON object per line, or {@code csv}
+     * @param action the event type, for example {@code view}, {@code edit}, {@code export}, empty (meaning all)
+     * @param userId the user whose events to retrieve, if empty events for all users returned
+     * @param ip the ip where the request came from, if empty events for all ips returned
+     * @param entityId a reference to the target entity
+     * @param fromTime start of the interval for the time stamp filter. If parameter fromTime is {@code null}, matching
+     *            events from the beginning will be retrieved.
+     * @param toTime end of the interval for the time stamp filter. If parameter toTime is {@code null}, matching events
+     *            until the present moment will be retrieved.
+     * @return the exported events, as an attachment
+     * @since 1.4
+     */
+    @GET
+    @Path("/export")
+    @SuppressWarnings("checkstyle:ParameterNumber")
+    @RequiredAccess("admin")
+    Response exportEvents(
+        @QueryParam("format") @DefaultValue("ndjson") String format,
+        @QueryParam("action") @DefaultValue("") String action,
+        @QueryParam("user") @DefaultValue("") String userId,
+        @QueryParam("ip") @DefaultValue("") String ip,
+        @QueryParam("entityId") @DefaultValue("") String entityId,
+        @QueryParam("fromTime") @DefaultValue("") String fromTime,
+        @QueryParam("toTime") @DefaultValue("") String toTime);
 }
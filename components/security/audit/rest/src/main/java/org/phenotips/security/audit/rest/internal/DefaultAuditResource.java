@@ -32,11 +32,18 @@
 import org.xwiki.users.User;
 import org.xwiki.users.UserManager;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.stream.Stream;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -44,6 +51,7 @@
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.commons.lang3.StringUtils;
 import org.json.JSONArray;
@@ -62,6 +70,19 @@ public class DefaultAuditResource extends XWikiResource implements AuditResource
 {
     private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("MM/dd/yyyy", Locale.ENGLISH);
 
+    private static final String NDJSON_FORMAT = "ndjson";
+
+    private static final String CSV_FORMAT = "csv";
+
+    /** The fields of the exported events, in the order of the CSV columns. */
+    private static final String[] CSV_COLUMNS = { "time", "user", "ip", "action", "entity", "extra" };
+
+    private static final char CSV_SEPARATOR = ',';
+
+    private static final char CSV_QUOTE = '"';
+
+    private static final String NEWLINE = "\n";
+
     @Inject
     private AuditStore auditStore;
 
@@ -85,9 +106,7 @@ public class DefaultAuditResource extends XWikiResource implements AuditResource
     public Response listEvents(int start, int number, String action, String userId, String ip, String entityId,
         String fromTime, String toTime)
     {
-        if (!this.auth.hasAccess(this.users.getCurrentUser(), Right.ADMIN,
-            this.resolver.resolve(Constants.XWIKI_SPACE_REFERENCE))) {
-            this.slf4Jlogger.debug("Activity logs access denied to user [{}]", this.users.getCurrentUser());
+        if (!hasAccess()) {
             return Response.status(Status.FORBIDDEN).build();
         }
 
@@ -104,6 +123,78 @@ public Response listEvents(int start, int number, String action, String userId,
         return Response.ok(response, MediaType.APPLICATION_JSON_TYPE).build();
     }
 
+    @Override
+    @SuppressWarnings("checkstyle:ParameterNumber")
+    public Response exportEvents(final String format, String action, String userId, String ip, String entityId,
+        String fromTime, String toTime)
+    {
+        if (!hasAccess()) {
+            return Response.status(Status.FORBIDDEN).build();
+        }
+        final boolean csv = CSV_FORMAT.equals(format);
+        if (!csv && !NDJSON_FORMAT.equals(format)) {
+            return Response.status(Status.BAD_REQUEST).build();
+        }
+
+        final AuditEvent eventTemplate = setTemplate(action, userId, ip, entityId);
+        final Calendar from = parseDate(fromTime);
+        final Calendar to = parseDate(toTime);
+        StreamingOutput output = out -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            try (Stream<AuditEvent> events = this.auditStore.streamEvents(eventTemplate, from, to)) {
+                if (csv) {
+                    writeCsvLine(writer, CSV_COLUMNS);
+                }
+                Iterator<AuditEvent> iterator = events.iterator();
+                while (iterator.hasNext()) {
+                    JSONObject event = iterator.next().toJSON();
+                    if (csv) {
+                        String[] values = new String[CSV_COLUMNS.length];
+                        for (int i = 0; i < CSV_COLUMNS.length; ++i) {
+                            values[i] = event.optString(CSV_COLUMNS[i]);
+                        }
+                        writeCsvLine(writer, values);
+                    } else {
+                        writer.write(event.toString());
+                        writer.write(NEWLINE);
+                    }
+                }
+            }
+            writer.flush();
+        };
+
+        return Response.ok(output, csv ? "text/csv" : "application/x-ndjson")
+            .header("Content-Disposition", "attachment; filename=audit." + format).build();
+    }
+
+    private boolean hasAccess()
+    {
+        if (!this.auth.hasAccess(this.users.getCurrentUser(), Right.ADMIN,
+            this.resolver.resolve(Constants.XWIKI_SPACE_REFERENCE))) {
+            this.slf4Jlogger.debug("Activity logs access denied to user [{}]", this.users.getCurrentUser());
+            return false;
+        }
+        return true;
+    }
+
+    private void writeCsvLine(Writer writer, String[] values) throws IOException
+    {
+        for (int i = 0; i < values.length; ++i) {
+            if (i > 0) {
+                writer.write(CSV_SEPARATOR);
+            }
+            String value = values[i];
+            if (StringUtils.containsAny(value, CSV_SEPARATOR, CSV_QUOTE, '\r', '\n')) {
+                writer.write(CSV_QUOTE);
+                writer.write(StringUtils.replace(value, "\"", "\"\""));
+                writer.write(CSV_QUOTE);
+            } else {
+                writer.write(value);
+            }
+        }
+        writer.write(NEWLINE);
+    }
+
     private AuditEvent setTemplate(String action, String userId, String ip, String entityId)
     {
         DocumentReference entity = StringUtils.isNotBlank(entityId) ? this.resolverd.resolve(entityId) : null;
@@ -118,25 +209,21 @@ private AuditEvent setTemplate(String action, String userId, String ip, String e
 
     private List<AuditEvent> getResults(AuditEvent eventTemplate, String fromTime, String toTime, int start, int number)
     {
-        Calendar from = null;
-        try {
-            Date d = DATE_FORMAT.parse(fromTime);
-            from = Calendar.getInstance();
-            from.setTime(d);
-        } catch (Exception e) {
-            // Nothing to do for bad input, leave it as null
-        }
+        List<AuditEvent> results =
+            this.auditStore.getEvents(eventTemplate, parseDate(fromTime), parseDate(toTime), start, number);
+        return results;
+    }
 
-        Calendar to = null;
+    private Calendar parseDate(String date)
+    {
+        Calendar result = null;
         try {
-            Date d = DATE_FORMAT.parse(toTime);
-            to = Calendar.getInstance();
-            to.setTime(d);
+            Date d = DATE_FORMAT.parse(date);
+            result = Calendar.getInstance();
+            result.setTime(d);
         } catch (Exception e) {
             // Nothing to do for bad input, leave it as null
         }
-
-        List<AuditEvent> results = this.auditStore.getEvents(eventTemplate, from, to, start, number);
-        return results;
+        return result;
     }
 }
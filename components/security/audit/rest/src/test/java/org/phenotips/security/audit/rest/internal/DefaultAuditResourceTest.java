@@ -35,12 +35,21 @@
 import org.xwiki.users.User;
 import org.xwiki.users.UserManager;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -173,4 +182,83 @@ public void listEventsAcceptsBlankFilters()
         JSONArray data = (JSONArray) response.get("data");
         Assert.assertSame(this.events.get(0).toJSON(), data.opt(0));
     }
+
+    @Test
+    public void exportEventsRejectsRequestForUserWithoutAdminAccess()
+    {
+        when(this.auth.hasAccess(this.user, Right.ADMIN, this.xwikiPreferences)).thenReturn(false);
+        Response response = this.resource.exportEvents("csv", "get", "user", "ip", "", "", "");
+        Mockito.verifyZeroInteractions(this.store);
+        Assert.assertEquals(Status.FORBIDDEN.getStatusCode(), response.getStatus());
+    }
+
+    @Test
+    public void exportEventsRejectsUnknownFormats()
+    {
+        when(this.auth.hasAccess(this.user, Right.ADMIN, this.xwikiPreferences)).thenReturn(true);
+        Response response = this.resource.exportEvents("xls", "", "", "", "", "", "");
+        Mockito.verifyZeroInteractions(this.store);
+        Assert.assertEquals(Status.BAD_REQUEST.getStatusCode(), response.getStatus());
+    }
+
+    @Test
+    public void exportEventsWritesOneJsonObjectPerLine() throws IOException
+    {
+        AuditEvent template = new AuditEvent(this.user, null, "action", null, null, null);
+        AuditEvent first = new AuditEvent(this.user, "ip1", "action", null, this.doc, time(2011));
+        AuditEvent second = new AuditEvent(this.user, "ip2", "action", "pdf", this.doc, time(2010));
+        AtomicBoolean closed = new AtomicBoolean();
+        when(this.store.streamEvents(template, null, null))
+            .thenReturn(Stream.of(first, second).onClose(() -> closed.set(true)));
+        when(this.auth.hasAccess(this.user, Right.ADMIN, this.xwikiPreferences)).thenReturn(true);
+
+        Response response = this.resource.exportEvents("ndjson", "action", "user", "", "", "", "");
+        Assert.assertEquals(Status.OK.getStatusCode(), response.getStatus());
+        Assert.assertTrue(hasType(response, "application/x-ndjson"));
+        String[] lines = write(response).split("\n");
+        Assert.assertEquals(2, lines.length);
+        Assert.assertTrue(first.toJSON().similar(new JSONObject(lines[0])));
+        Assert.assertTrue(second.toJSON().similar(new JSONObject(lines[1])));
+        Assert.assertTrue(closed.get());
+    }
+
+    @Test
+    public void exportEventsWritesEscapedCsv() throws IOException
+    {
+        AuditEvent template = new AuditEvent(null, null, null, null, null, null);
+        AuditEvent event = new AuditEvent(this.user, "ip", "get", "a \"quoted\", value", this.doc, time(2010));
+        when(this.store.streamEvents(template, null, null)).thenReturn(Stream.of(event));
+        when(this.auth.hasAccess(this.user, Right.ADMIN, this.xwikiPreferences)).thenReturn(true);
+
+        Response response = this.resource.exportEvents("csv", "", "", "", "", "", "");
+        Assert.assertTrue(hasType(response, "text/csv"));
+        Assert.assertEquals("time,user,ip,action,entity,extra\n"
+            + "2010-01-01T00:00:00Z,wiki:XWiki.user,ip,get,wiki:Space.Page,\"a \"\"quoted\"\", value\"\n",
+            write(response));
+    }
+
+    private Calendar time(int year)
+    {
+        Calendar result = Calendar.getInstance(TimeZone.getTimeZone("UTC"), Locale.ROOT);
+        result.clear();
+        result.set(year, 0, 1, 0, 0, 0);
+        return result;
+    }
+
+    private boolean hasType(Response response, String type)
+    {
+        for (List<Object> values : response.getMetadata().values()) {
+            if (values.contains(MediaType.valueOf(type))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String write(Response response) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
 }
@@ -20,13 +20,27 @@
 import org.phenotips.security.authorization.AuthorizationModule;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.component.event.ComponentDescriptorRemovedEvent;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.ModelContext;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -34,32 +48,123 @@
 import javax.inject.Singleton;
 
 /**
- * Provides an ordered list of authorization modules.
+ * Provides an ordered list of authorization modules. The sorted list is computed once for each wiki, and reused until
+ * an authorization module is registered or unregistered.
  *
  * @version $Id$
  * @since 1.2RC1
  */
 @Component
 @Singleton
-public class AuthorizationModuleListProvider implements Provider<List<AuthorizationModule>>
+public class AuthorizationModuleListProvider implements Provider<List<AuthorizationModule>>, Initializable
 {
+    /** The key used for the module list when there is no current wiki. */
+    private static final String NO_WIKI = "";
+
     @Inject
     @Named("wiki")
     private ComponentManager componentManager;
 
+    @Inject
+    private ModelContext modelContext;
+
+    @Inject
+    private ObservationManager observationManager;
+
+    /** The sorted, unmodifiable module lists, for each wiki. */
+    private final Map<String, List<AuthorizationModule>> cache = new ConcurrentHashMap<>();
+
+    /** Incremented whenever the cache is cleared, so that lists looked up before that aren't cached. */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** @see #getLookupCount() */
+    private final AtomicLong lookups = new AtomicLong();
+
+    /** @see #getCacheHitCount() */
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.observationManager.addListener(new CacheInvalidator());
+    }
+
     @Override
     public List<AuthorizationModule> get()
     {
+        String wiki = getCurrentWiki();
+        List<AuthorizationModule> services = this.cache.get(wiki);
+        if (services != null) {
+            this.cacheHits.incrementAndGet();
+            return services;
+        }
+        long lookupGeneration = this.generation.get();
         try {
-            List<AuthorizationModule> services = new LinkedList<>();
+            this.lookups.incrementAndGet();
+            services = new ArrayList<>();
             services.addAll(this.componentManager.<AuthorizationModule>getInstanceList(AuthorizationModule.class));
             Collections.sort(services, AuthorizationModuleComparator.INSTANCE);
+            services = Collections.unmodifiableList(services);
+            if (lookupGeneration == this.generation.get()) {
+                this.cache.put(wiki, services);
+            }
             return services;
         } catch (ComponentLookupException ex) {
             throw new RuntimeException("Failed to look up authorization modules", ex);
         }
     }
 
+    /**
+     * How many times the authorization modules were looked up and sorted, since the application started.
+     *
+     * @return a positive number
+     */
+    public long getLookupCount()
+    {
+        return this.lookups.get();
+    }
+
+    /**
+     * How many times the cached list of modules was returned, since the application started.
+     *
+     * @return a positive number
+     */
+    public long getCacheHitCount()
+    {
+        return this.cacheHits.get();
+    }
+
+    private String getCurrentWiki()
+    {
+        EntityReference current = this.modelContext.getCurrentEntityReference();
+        EntityReference wiki = current != null ? current.extractReference(EntityType.WIKI) : null;
+        return wiki != null ? wiki.getName() : NO_WIKI;
+    }
+
+    /** Drops the cached module lists whenever an authorization module is registered or unregistered. */
+    private final class CacheInvalidator implements EventListener
+    {
+        @Override
+        public String getName()
+        {
+            return "authorization-module-list-invalidator";
+        }
+
+        @Override
+        public List<Event> getEvents()
+        {
+            return Arrays.<Event>asList(new ComponentDescriptorAddedEvent(AuthorizationModule.class),
+                new ComponentDescriptorRemovedEvent(AuthorizationModule.class));
+        }
+
+        @Override
+        public void onEvent(Event event, Object source, Object data)
+        {
+            AuthorizationModuleListProvider.this.generation.incrementAndGet();
+            AuthorizationModuleListProvider.this.cache.clear();
+        }
+    }
+
     /**
      * Sorts the available authorization modules in descending order of their priority, then alphabetically if two or
      * more modules have the same priority.
@@ -20,12 +20,28 @@
 import org.phenotips.security.authorization.AuthorizationModule;
 import org.phenotips.security.authorization.AuthorizationService;
 
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
 import org.xwiki.security.authorization.Right;
 import org.xwiki.users.User;
 
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
@@ -36,14 +52,23 @@
 /**
  * The default authorization service implementation, which queries all the individual {@link AuthorizationModule}s, in
  * descending order of priority, until one responds with a non-null decision.
+ * <p>
+ * Decisions are remembered in the current execution context, i.e. for the duration of the current request, so that
+ * checking the same right several times while rendering a page or answering a REST call only queries the modules once.
+ * Remembered decisions are forgotten as soon as a document is created, updated or deleted, since that may change the
+ * rights.
+ * </p>
  *
  * @version $Id$
  * @since 1.0M13
  */
 @Component
 @Singleton
-public class DefaultAuthorizationService implements AuthorizationService
+public class DefaultAuthorizationService implements AuthorizationService, Initializable
 {
+    /** The name of the execution context property holding the decisions taken during the current request. */
+    private static final String DECISIONS_KEY = "phenotips.authorization.decisions";
+
     /** Logging helper object. */
     @Inject
     private Logger logger;
@@ -52,11 +77,72 @@ public class DefaultAuthorizationService implements AuthorizationService
     @Inject
     private Provider<List<AuthorizationModule>> modules;
 
+    /** Provides access to the current request, where decisions are remembered. */
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private ObservationManager observationManager;
+
+    /** @see #getModuleInvocationCount() */
+    private final AtomicLong moduleInvocations = new AtomicLong();
+
+    /** @see #getDecisionCacheHitCount() */
+    private final AtomicLong decisionCacheHits = new AtomicLong();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.observationManager.addListener(new DecisionCacheInvalidator());
+    }
+
     @Override
     public boolean hasAccess(User user, Right access, EntityReference entity)
+    {
+        Map<DecisionKey, Boolean> decisions = getDecisions();
+        DecisionKey key = null;
+        if (decisions != null) {
+            key = new DecisionKey(user, access, entity);
+            Boolean decision = decisions.get(key);
+            if (decision != null) {
+                this.decisionCacheHits.incrementAndGet();
+                return decision;
+            }
+        }
+
+        boolean decision = askModules(user, access, entity);
+        if (decisions != null) {
+            decisions.put(key, decision);
+        }
+        return decision;
+    }
+
+    /**
+     * How many times an authorization module was asked for a decision, since the application started.
+     *
+     * @return a positive number
+     */
+    public long getModuleInvocationCount()
+    {
+        return this.moduleInvocations.get();
+    }
+
+    /**
+     * How many times a decision was answered from the decisions remembered in the current request, since the
+     * application started.
+     *
+     * @return a positive number
+     */
+    public long getDecisionCacheHitCount()
+    {
+        return this.decisionCacheHits.get();
+    }
+
+    private boolean askModules(User user, Right access, EntityReference entity)
     {
         for (AuthorizationModule service : this.modules.get()) {
             try {
+                this.moduleInvocations.incrementAndGet();
                 Boolean decision = service.hasAccess(user, access, entity);
                 if (decision != null) {
                     return decision;
@@ -70,4 +156,84 @@ public boolean hasAccess(User user, Right access, EntityReference entity)
 
         return false;
     }
+
+    /**
+     * The decisions taken during the current request, created on first use.
+     *
+     * @return a modifiable map, or {@code null} if there is no execution context
+     */
+    @SuppressWarnings("unchecked")
+    private Map<DecisionKey, Boolean> getDecisions()
+    {
+        ExecutionContext context = this.execution.getContext();
+        if (context == null) {
+            return null;
+        }
+        Map<DecisionKey, Boolean> decisions = (Map<DecisionKey, Boolean>) context.getProperty(DECISIONS_KEY);
+        if (decisions == null) {
+            decisions = new HashMap<>();
+            context.setProperty(DECISIONS_KEY, decisions);
+        }
+        return decisions;
+    }
+
+    /** Identifies a decision: who requested which right on which entity. */
+    private static final class DecisionKey
+    {
+        private final DocumentReference user;
+
+        private final Right access;
+
+        private final EntityReference entity;
+
+        DecisionKey(User user, Right access, EntityReference entity)
+        {
+            this.user = user != null ? user.getProfileDocument() : null;
+            this.access = access;
+            this.entity = entity;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof DecisionKey)) {
+                return false;
+            }
+            DecisionKey other = (DecisionKey) obj;
+            return Objects.equals(this.user, other.user) && Objects.equals(this.access, other.access)
+                && Objects.equals(this.entity, other.entity);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(this.user, this.access, this.entity);
+        }
+    }
+
+    /** Forgets the decisions taken during the current request when a document changes. */
+    private final class DecisionCacheInvalidator implements EventListener
+    {
+        @Override
+        public String getName()
+        {
+            return "authorization-decision-invalidator";
+        }
+
+        @Override
+        public List<Event> getEvents()
+        {
+            return Arrays.<Event>asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent(),
+                new DocumentDeletedEvent());
+        }
+
+        @Override
+        public void onEvent(Event event, Object source, Object data)
+        {
+            ExecutionContext context = DefaultAuthorizationService.this.execution.getContext();
+            if (context != null) {
+                context.removeProperty(DECISIONS_KEY);
+            }
+        }
+    }
 }
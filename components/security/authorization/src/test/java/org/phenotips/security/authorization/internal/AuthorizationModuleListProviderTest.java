@@ -19,9 +19,14 @@
 
 import org.phenotips.security.authorization.AuthorizationModule;
 
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.model.ModelContext;
 import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
 import org.xwiki.security.authorization.Right;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 import org.xwiki.users.User;
@@ -36,12 +41,15 @@
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import static org.hamcrest.Matchers.is;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -115,6 +123,48 @@ public void modulesWithSamePriorityGetSortedByName() throws Exception
         Assert.assertThat(actualList, is(expectedList));
     }
 
+    @Test
+    public void sortedListIsReusedUntilModulesChange() throws Exception
+    {
+        this.moduleList.add(this.lowPriorityModule);
+        this.moduleList.add(this.highPriorityModule);
+        AuthorizationModuleListProvider provider =
+            (AuthorizationModuleListProvider) this.mocker.getComponentUnderTest();
+
+        List<AuthorizationModule> first = provider.get();
+        Assert.assertSame(first, provider.get());
+        Assert.assertEquals(1, provider.getLookupCount());
+        Assert.assertEquals(1, provider.getCacheHitCount());
+        verify(this.componentManager, times(1)).getInstanceList(AuthorizationModule.class);
+
+        this.moduleList.add(this.mediumPriorityModule);
+        ArgumentCaptor<EventListener> listener = ArgumentCaptor.forClass(EventListener.class);
+        verify(this.mocker.<ObservationManager>getInstance(ObservationManager.class)).addListener(listener.capture());
+        listener.getValue().onEvent(new ComponentDescriptorAddedEvent(AuthorizationModule.class), null, null);
+
+        Assert.assertThat(provider.get(),
+            is(Arrays.asList(this.highPriorityModule, this.mediumPriorityModule, this.lowPriorityModule)));
+        Assert.assertEquals(2, provider.getLookupCount());
+    }
+
+    @Test
+    public void listsAreCachedForEachWiki() throws Exception
+    {
+        this.moduleList.add(this.lowPriorityModule);
+        ModelContext modelContext = this.mocker.getInstance(ModelContext.class);
+        AuthorizationModuleListProvider provider =
+            (AuthorizationModuleListProvider) this.mocker.getComponentUnderTest();
+
+        when(modelContext.getCurrentEntityReference()).thenReturn(new WikiReference("first"));
+        provider.get();
+        when(modelContext.getCurrentEntityReference()).thenReturn(new WikiReference("second"));
+        provider.get();
+        provider.get();
+
+        Assert.assertEquals(2, provider.getLookupCount());
+        Assert.assertEquals(1, provider.getCacheHitCount());
+    }
+
     @Test(expected = RuntimeException.class)
     public void componentLookupExceptionIsCaughtAndRuntimeExceptionIsThrown() throws ComponentLookupException
     {
@@ -20,9 +20,14 @@
 import org.phenotips.security.authorization.AuthorizationModule;
 import org.phenotips.security.authorization.AuthorizationService;
 
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
 import org.xwiki.security.authorization.Right;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 import org.xwiki.users.User;
@@ -38,6 +43,7 @@
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -45,6 +51,8 @@
 
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -180,6 +188,51 @@ public void exceptionsInModulesAreIgnored() throws Exception
         Assert.assertTrue(this.mocker.getComponentUnderTest().hasAccess(this.user, this.access, this.document));
     }
 
+    @Test
+    public void decisionsAreRememberedDuringTheRequest() throws Exception
+    {
+        this.moduleList = Arrays.asList(this.moduleOne, this.moduleTwo);
+        doReturn(this.moduleList).when(this.modules).get();
+        when(this.moduleTwo.hasAccess(this.user, this.access, this.document)).thenReturn(true);
+        ExecutionContext context = new ExecutionContext();
+        when(this.mocker.<Execution>getInstance(Execution.class).getContext()).thenReturn(context);
+        DefaultAuthorizationService service = (DefaultAuthorizationService) this.mocker.getComponentUnderTest();
+
+        Assert.assertTrue(service.hasAccess(this.user, this.access, this.document));
+        Assert.assertTrue(service.hasAccess(this.user, this.access, this.document));
+        Assert.assertFalse(service.hasAccess(this.user, Right.DELETE, this.document));
+
+        verify(this.moduleOne, times(1)).hasAccess(this.user, this.access, this.document);
+        verify(this.moduleTwo, times(1)).hasAccess(this.user, this.access, this.document);
+        Assert.assertEquals(3, service.getModuleInvocationCount());
+        Assert.assertEquals(1, service.getDecisionCacheHitCount());
+
+        // A new request starts with no remembered decisions
+        when(this.mocker.<Execution>getInstance(Execution.class).getContext()).thenReturn(new ExecutionContext());
+        Assert.assertTrue(service.hasAccess(this.user, this.access, this.document));
+        verify(this.moduleTwo, times(2)).hasAccess(this.user, this.access, this.document);
+    }
+
+    @Test
+    public void rememberedDecisionsAreForgottenWhenDocumentsChange() throws Exception
+    {
+        this.moduleList = Collections.singletonList(this.moduleOne);
+        doReturn(this.moduleList).when(this.modules).get();
+        when(this.moduleOne.hasAccess(this.user, this.access, this.document)).thenReturn(false);
+        when(this.mocker.<Execution>getInstance(Execution.class).getContext()).thenReturn(new ExecutionContext());
+        AuthorizationService service = this.mocker.getComponentUnderTest();
+
+        Assert.assertFalse(service.hasAccess(this.user, this.access, this.document));
+        when(this.moduleOne.hasAccess(this.user, this.access, this.document)).thenReturn(true);
+        Assert.assertFalse(service.hasAccess(this.user, this.access, this.document));
+
+        ArgumentCaptor<EventListener> listener = ArgumentCaptor.forClass(EventListener.class);
+        verify(this.mocker.<ObservationManager>getInstance(ObservationManager.class)).addListener(listener.capture());
+        listener.getValue().onEvent(new DocumentUpdatedEvent(), null, null);
+
+        Assert.assertTrue(service.hasAccess(this.user, this.access, this.document));
+    }
+
     private void resetMocks()
     {
         Mockito.reset(this.moduleOne, this.moduleTwo, this.moduleThree);
@@ -21,6 +21,7 @@
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.stability.Unstable;
 
+import java.util.Collection;
 import java.util.Iterator;
 
 /**
@@ -64,6 +65,24 @@
      */
     boolean discardEntity(T entity);
 
+    /**
+     * Permanently deletes several entities from this store. Stores that support it should delete all of them in one
+     * operation, which is faster than {@link #discardEntity(Object) deleting them one by one}.
+     *
+     * @param entities the entities to delete
+     * @return {@code true} if all the entities were successfully deleted, {@code false} in case of failure
+     * @since 1.4
+     */
+    default boolean discardEntities(Collection<T> entities)
+    {
+        boolean result = true;
+        for (T entity : entities) {
+            // Don't change the order, or the operation will be short-circuited before the call
+            result = discardEntity(entity) && result;
+        }
+        return result;
+    }
+
     /**
      * Permanently deletes all the entities (of the managed type) from this store.
      *
@@ -28,17 +28,40 @@
 
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.util.AbstractXWikiRunnable;
+
 /**
  * Implementation for the {@link DataTypeMigrator} role, which tries to use all available {@link DataReader}s that
  * {@link DataReader#hasData() have data} and {@link DataWriter#storeEntity(Object) write} the retrieved data to the
  * currently enabled {@link DataWriter storage engine}.
+ * <p>
+ * Data is migrated in chunks: the entities of a chunk are read one after another, and written in parallel by a pool of
+ * threads, then the successfully written entities are {@link DataReader#discardEntities discarded} from the old store
+ * at once. Since migrated entities are removed from the old store after each chunk, an interrupted migration resumes
+ * where it stopped. The number of threads and the size of the chunks can be configured with the
+ * {@code phenotips.storage.migration.threads} and {@code phenotips.storage.migration.chunkSize} properties. Progress is
+ * logged after each chunk, and exposed through the public getters of this class.
+ * </p>
  *
  * @param <T> the type of data managed by this migrator, one of the classes from the data model
  * @version $Id$
@@ -49,15 +72,40 @@
     /** The current default storage engine assumed by XWiki if no specific store is enabled. */
     private static final String DEFAULT_STORE = "hibernate";
 
+    private static final String THREADS_PROPERTY = "phenotips.storage.migration.threads";
+
+    private static final String CHUNK_SIZE_PROPERTY = "phenotips.storage.migration.chunkSize";
+
+    private static final int DEFAULT_THREADS = 4;
+
+    private static final int DEFAULT_CHUNK_SIZE = 50;
+
+    /** Logging helper object. */
+    @Inject
+    private Logger logger;
+
     /** Provides access tot the configuration file where the storage engines are configured. */
     @Inject
     @Named("legacy")
     private ConfigurationSource config;
 
+    /** Provides the settings of the migration engine. */
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource properties;
+
     /** Needed for accessing the available data readers and writers. */
     @Inject
     private Provider<ComponentManager> cm;
 
+    /** Copied into the writer threads. */
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    private final AtomicLong migratedEntities = new AtomicLong();
+
+    private final AtomicLong failedEntities = new AtomicLong();
+
     @Override
     public boolean migrate()
     {
@@ -79,19 +127,124 @@ public boolean migrate()
                 continue;
             }
 
+            // Don't change the order, or the operation will be short-circuited before the call
+            allDataMigrated = migrate(reader, writer) && allDataMigrated;
+        }
+        return allDataMigrated;
+    }
+
+    /**
+     * The number of entities migrated so far.
+     *
+     * @return a positive number, or {@code 0}
+     * @since 1.4
+     */
+    public long getMigratedEntities()
+    {
+        return this.migratedEntities.get();
+    }
+
+    /**
+     * The number of entities which couldn't be migrated so far; they are left in the old store.
+     *
+     * @return a positive number, or {@code 0}
+     * @since 1.4
+     */
+    public long getFailedEntities()
+    {
+        return this.failedEntities.get();
+    }
+
+    private boolean migrate(DataReader<T> reader, DataWriter<T> writer)
+    {
+        Integer threads = this.properties.getProperty(THREADS_PROPERTY, Integer.class);
+        Integer configuredChunkSize = this.properties.getProperty(CHUNK_SIZE_PROPERTY, Integer.class);
+        int chunkSize = configuredChunkSize != null && configuredChunkSize > 0 ? configuredChunkSize
+            : DEFAULT_CHUNK_SIZE;
+        ExecutorService executor = Executors.newFixedThreadPool(threads != null && threads > 0 ? threads
+            : DEFAULT_THREADS, new MigrationThreadFactory(getDataType()));
+        boolean allDataMigrated = true;
+        try {
             Iterator<T> data = reader.getData();
+            List<Future<Boolean>> results = new ArrayList<>(chunkSize);
+            List<T> chunk = new ArrayList<>(chunkSize);
             while (data.hasNext()) {
                 T item = data.next();
-                if (writer.storeEntity(item)) {
-                    reader.discardEntity(item);
-                } else {
+                if (item == null) {
+                    // The entity failed to be read, it stays in the old store
+                    this.failedEntities.incrementAndGet();
                     allDataMigrated = false;
+                    continue;
                 }
+                chunk.add(item);
+                results.add(submit(executor, writer, item));
+                if (chunk.size() >= chunkSize) {
+                    // Don't change the order, or the operation will be short-circuited before the call
+                    allDataMigrated = finishChunk(reader, chunk, results) && allDataMigrated;
+                    chunk.clear();
+                    results.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                allDataMigrated = finishChunk(reader, chunk, results) && allDataMigrated;
             }
+        } finally {
+            executor.shutdownNow();
         }
         return allDataMigrated;
     }
 
+    private Future<Boolean> submit(ExecutorService executor, final DataWriter<T> writer, final T item)
+    {
+        final FutureTask<Boolean> task = new FutureTask<>(() -> writer.storeEntity(item));
+        final XWikiContext context = this.contextProvider.get();
+        if (context == null) {
+            executor.execute(task);
+        } else {
+            executor.execute(new AbstractXWikiRunnable(XWikiContext.EXECUTIONCONTEXT_KEY, context.clone())
+            {
+                @Override
+                protected void runInternal()
+                {
+                    task.run();
+                }
+            });
+        }
+        return task;
+    }
+
+    /**
+     * Waits for all the entities of a chunk to be written, then discards the written entities from the old store.
+     *
+     * @return {@code true} if all the entities were migrated, {@code false} otherwise
+     */
+    private boolean finishChunk(DataReader<T> reader, List<T> chunk, List<Future<Boolean>> results)
+    {
+        List<T> stored = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); ++i) {
+            try {
+                if (Boolean.TRUE.equals(results.get(i).get())) {
+                    stored.add(chunk.get(i));
+                }
+            } catch (ExecutionException ex) {
+                this.logger.error("Failed to migrate {}: {}", getDataType(), ex.getCause().getMessage(),
+                    ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        boolean result = stored.size() == chunk.size();
+        if (!stored.isEmpty() && !reader.discardEntities(stored)) {
+            result = false;
+        }
+        this.migratedEntities.addAndGet(stored.size());
+        this.failedEntities.addAndGet(chunk.size() - stored.size());
+        this.logger.info("Migrated [{}] {} so far, [{}] failed", this.migratedEntities.get(), getDataType(),
+            this.failedEntities.get());
+        return result;
+    }
+
     private DataWriter<T> getCurrentWriter()
     {
         String hint = this.config.getProperty(getStoreConfigurationKey(), DEFAULT_STORE);
@@ -130,4 +283,26 @@ private Type getImplementationType()
      * @return a key valid in {@code xwiki.cfg}, such as {@code xwiki.store.attachment.hint}
      */
     protected abstract String getStoreConfigurationKey();
+
+    /** Creates the daemon threads used for writing entities in parallel. */
+    private static final class MigrationThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger threadCounter = new AtomicInteger();
+
+        private final String dataType;
+
+        MigrationThreadFactory(String dataType)
+        {
+            this.dataType = dataType;
+        }
+
+        @Override
+        public Thread newThread(Runnable worker)
+        {
+            Thread thread =
+                new Thread(worker, "Migration of " + this.dataType + " " + this.threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
@@ -26,10 +26,15 @@
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.inject.Provider;
 import javax.inject.Singleton;
 
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.util.AbstractXWikiRunnable;
+
 /**
- * Automatically performs data migration when PhenoTips starts.
+ * Automatically performs data migration when PhenoTips starts. Since migrating a large amount of data can take a long
+ * time, the migration runs in a background thread instead of blocking the startup.
  *
  * @version $Id$
  * @since 1.0RC1
@@ -42,6 +47,10 @@ public class AutomaticDataMigrationEventListener extends AbstractEventListener
     @Inject
     private DataMigrationManager migrationManager;
 
+    /** Copied into the migration thread. */
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
     /** Default constructor, sets up the listener name and the list of events to subscribe to. */
     public AutomaticDataMigrationEventListener()
     {
@@ -51,6 +60,21 @@ public AutomaticDataMigrationEventListener()
     @Override
     public void onEvent(Event event, Object source, Object data)
     {
-        this.migrationManager.migrate();
+        XWikiContext context = this.contextProvider.get();
+        Runnable worker = () -> this.migrationManager.migrate();
+        Runnable wrapped = worker;
+        if (context != null) {
+            wrapped = new AbstractXWikiRunnable(XWikiContext.EXECUTIONCONTEXT_KEY, context.clone())
+            {
+                @Override
+                protected void runInternal()
+                {
+                    worker.run();
+                }
+            };
+        }
+        Thread migration = new Thread(wrapped, "Automatic data migration");
+        migration.setDaemon(true);
+        migration.start();
     }
 }
@@ -0,0 +1,197 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.storage.migrators.internal;
+
+import org.phenotips.storage.migrators.DataReader;
+import org.phenotips.storage.migrators.DataTypeMigrator;
+import org.phenotips.storage.migrators.DataWriter;
+import org.phenotips.storage.migrators.Type;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link AbstractDataTypeMigrator} base class.
+ *
+ * @version $Id$
+ */
+public class AbstractDataTypeMigratorTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<DataTypeMigrator<String>> mocker =
+        new MockitoComponentMockingRule<DataTypeMigrator<String>>(StringsMigrator.class);
+
+    private DataReader<String> reader;
+
+    private DataWriter<String> writer;
+
+    /** The entities still present in the old store. */
+    private List<String> oldStore;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() throws ComponentLookupException
+    {
+        ConfigurationSource config = this.mocker.getInstance(ConfigurationSource.class, "legacy");
+        when(config.getProperty("xwiki.store.strings.hint", "hibernate")).thenReturn("file");
+        ConfigurationSource properties = this.mocker.getInstance(ConfigurationSource.class, "xwikiproperties");
+        when(properties.getProperty("phenotips.storage.migration.threads", Integer.class)).thenReturn(2);
+        when(properties.getProperty("phenotips.storage.migration.chunkSize", Integer.class)).thenReturn(3);
+
+        this.oldStore = new ArrayList<>(Arrays.asList("a", "b", "c", "d", "e", "f", "g"));
+        this.reader = mock(DataReader.class);
+        when(this.reader.getType()).thenReturn(new Type("strings", "hibernate"));
+        when(this.reader.hasData()).thenAnswer(invocation -> !this.oldStore.isEmpty());
+        when(this.reader.getData()).thenAnswer(invocation -> new ArrayList<>(this.oldStore).iterator());
+        when(this.reader.discardEntities(anyCollectionOf(String.class))).thenAnswer(this::discard);
+        this.mocker.registerComponent(new DefaultParameterizedType(null, DataReader.class, String.class),
+            "strings/hibernate", this.reader);
+
+        this.writer = mock(DataWriter.class);
+        when(this.writer.getType()).thenReturn(new Type("strings", "file"));
+        when(this.writer.storeEntity(anyString())).thenReturn(true);
+        this.mocker.registerComponent(new DefaultParameterizedType(null, DataWriter.class, String.class),
+            "strings/file", this.writer);
+    }
+
+    @Test
+    public void migratedEntitiesAreDiscardedOneChunkAtATime() throws ComponentLookupException
+    {
+        StringsMigrator migrator = (StringsMigrator) this.mocker.getComponentUnderTest();
+        Assert.assertTrue(migrator.migrate());
+
+        verify(this.reader).discardEntities(Arrays.asList("a", "b", "c"));
+        verify(this.reader).discardEntities(Arrays.asList("d", "e", "f"));
+        verify(this.reader).discardEntities(Arrays.asList("g"));
+        verify(this.reader, never()).discardEntity(anyString());
+        Assert.assertTrue(this.oldStore.isEmpty());
+        Assert.assertEquals(7, migrator.getMigratedEntities());
+        Assert.assertEquals(0, migrator.getFailedEntities());
+    }
+
+    @Test
+    public void failedEntitiesAreNotDiscarded() throws ComponentLookupException
+    {
+        when(this.writer.storeEntity("b")).thenReturn(false);
+        when(this.writer.storeEntity("e")).thenThrow(new IllegalStateException("Broken"));
+
+        StringsMigrator migrator = (StringsMigrator) this.mocker.getComponentUnderTest();
+        Assert.assertFalse(migrator.migrate());
+
+        verify(this.reader).discardEntities(Arrays.asList("a", "c"));
+        verify(this.reader).discardEntities(Arrays.asList("d", "f"));
+        verify(this.reader).discardEntities(Arrays.asList("g"));
+        Assert.assertEquals(Arrays.asList("b", "e"), this.oldStore);
+        Assert.assertEquals(5, migrator.getMigratedEntities());
+        Assert.assertEquals(2, migrator.getFailedEntities());
+    }
+
+    @Test
+    public void unreadableEntitiesAreCountedAsFailed() throws ComponentLookupException
+    {
+        when(this.reader.getData()).thenReturn(Arrays.asList("a", null, "c").iterator());
+
+        StringsMigrator migrator = (StringsMigrator) this.mocker.getComponentUnderTest();
+        Assert.assertFalse(migrator.migrate());
+
+        verify(this.reader).discardEntities(Arrays.asList("a", "c"));
+        Assert.assertEquals(2, migrator.getMigratedEntities());
+        Assert.assertEquals(1, migrator.getFailedEntities());
+    }
+
+    @Test
+    public void partialMigrationIsResumed() throws ComponentLookupException
+    {
+        when(this.writer.storeEntity("e")).thenReturn(false, true);
+
+        StringsMigrator migrator = (StringsMigrator) this.mocker.getComponentUnderTest();
+        Assert.assertFalse(migrator.migrate());
+        Assert.assertEquals(Arrays.asList("e"), this.oldStore);
+
+        Assert.assertTrue(migrator.migrate());
+        Assert.assertTrue(this.oldStore.isEmpty());
+        // Already migrated entities aren't migrated again
+        verify(this.writer, times(1)).storeEntity("a");
+        verify(this.writer, times(2)).storeEntity("e");
+        verify(this.reader).discardEntities(Arrays.asList("e"));
+        Assert.assertEquals(7, migrator.getMigratedEntities());
+    }
+
+    @Test
+    public void dataIsKeptWhenNoWriterIsAvailable() throws ComponentLookupException
+    {
+        ConfigurationSource config = this.mocker.getInstance(ConfigurationSource.class, "legacy");
+        when(config.getProperty("xwiki.store.strings.hint", "hibernate")).thenReturn("unknown");
+
+        Assert.assertTrue(this.mocker.getComponentUnderTest().migrate());
+
+        verify(this.reader, never()).getData();
+        Assert.assertEquals(7, this.oldStore.size());
+    }
+
+    private boolean discard(InvocationOnMock invocation)
+    {
+        Collection<?> entities = (Collection<?>) invocation.getArguments()[0];
+        this.oldStore.removeAll(entities);
+        return true;
+    }
+
+    /** A simple migrator for string entities. */
+    @Component(roles = { DataTypeMigrator.class })
+    @Named("strings")
+    @Singleton
+    public static class StringsMigrator extends AbstractDataTypeMigrator<String>
+    {
+        @Override
+        protected String getStoreConfigurationKey()
+        {
+            return "xwiki.store.strings.hint";
+        }
+
+        @Override
+        public String getDataType()
+        {
+            return "strings";
+        }
+    }
+}
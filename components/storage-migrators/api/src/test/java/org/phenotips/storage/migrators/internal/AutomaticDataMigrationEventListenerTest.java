@@ -0,0 +1,74 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.storage.migrators.internal;
+
+import org.phenotips.storage.migrators.DataMigrationManager;
+
+import org.xwiki.bridge.event.ApplicationReadyEvent;
+import org.xwiki.observation.EventListener;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link AutomaticDataMigrationEventListener}.
+ *
+ * @version $Id$
+ */
+public class AutomaticDataMigrationEventListenerTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<EventListener> mocker =
+        new MockitoComponentMockingRule<EventListener>(AutomaticDataMigrationEventListener.class);
+
+    @Test(timeout = 20000)
+    public void migrationDoesNotBlockStartup() throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        DataMigrationManager manager = this.mocker.getInstance(DataMigrationManager.class);
+        when(manager.migrate()).thenAnswer(invocation -> {
+            started.countDown();
+            finish.await();
+            return true;
+        });
+
+        // Returns while the migration is still running, otherwise this would wait forever
+        this.mocker.getComponentUnderTest().onEvent(new ApplicationReadyEvent(), null, null);
+
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+        finish.countDown();
+        verify(manager, timeout(10000)).migrate();
+    }
+
+    @Test
+    public void listensToApplicationReadyEvent() throws Exception
+    {
+        Assert.assertEquals(1, this.mocker.getComponentUnderTest().getEvents().size());
+        Assert.assertTrue(this.mocker.getComponentUnderTest().getEvents().get(0) instanceof ApplicationReadyEvent);
+    }
+}
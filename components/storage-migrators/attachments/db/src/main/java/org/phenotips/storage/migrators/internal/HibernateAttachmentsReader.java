@@ -25,9 +25,11 @@
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -48,7 +50,9 @@
 
 /**
  * {@link DataReader} that can read {@link XWikiAttachment attachment} contents and history from a Hibernate-managed
- * database (the default storage engine of XWiki).
+ * database (the default storage engine of XWiki). Attachments are listed in pages ordered by their identifier, each
+ * page starting after the last attachment of the previous one, so that large databases don't have to be listed at
+ * once, and deleting the already migrated attachments doesn't shift the next pages.
  *
  * @version $Id$
  * @since 1.0RC1
@@ -61,9 +65,17 @@ public class HibernateAttachmentsReader implements DataReader<XWikiAttachment>
     private static final Type TYPE = new Type("attachments", "hibernate");
 
     private static final String DATA_RETRIEVE_QUERY =
-        "select d.fullName, a.filename from XWikiDocument d, XWikiAttachment a, XWikiAttachmentContent c"
+        "select d.fullName, a.filename, a.id from XWikiDocument d, XWikiAttachment a, XWikiAttachmentContent c"
             + " where a.docId = d.id and c.id = a.id";
 
+    private static final String ORDER = " order by a.id";
+
+    /** Continues listing attachments after a known attachment identifier. */
+    private static final String NEXT_PAGE_QUERY = DATA_RETRIEVE_QUERY + " and a.id > ?" + ORDER;
+
+    /** How many attachments are listed with each query. */
+    private static final int PAGE_SIZE = 500;
+
     @Inject
     private Logger logger;
 
@@ -106,26 +118,13 @@ public boolean hasData()
     @Override
     public Iterator<EntityReference> listData()
     {
-        try {
-            List<Object[]> data = this.docStore.search(DATA_RETRIEVE_QUERY, 0, 0, this.context.get());
-            return new ReferenceIterator(data);
-        } catch (XWikiException ex) {
-            this.logger.warn("Failed to list the database attachments: {}", ex.getMessage());
-            return Collections.emptyIterator();
-        }
+        return new ReferenceIterator();
     }
 
     @Override
     public Iterator<XWikiAttachment> getData()
     {
-        try {
-            List<Object[]> data = this.docStore.search(DATA_RETRIEVE_QUERY, 0, 0, this.context.get());
-            this.logger.debug("Found [{}] attachments in the database", data.size());
-            return new AttachmentIterator(data);
-        } catch (XWikiException ex) {
-            this.logger.warn("Failed to get the list of database attachments: {}", ex.getMessage());
-            return Collections.emptyIterator();
-        }
+        return new AttachmentIterator();
     }
 
     @Override
@@ -149,6 +148,29 @@ public boolean discardEntity(XWikiAttachment entity)
         return true;
     }
 
+    @Override
+    public boolean discardEntities(Collection<XWikiAttachment> entities)
+    {
+        boolean transaction = false;
+        try {
+            transaction = ((XWikiHibernateBaseStore) this.store).beginTransaction(this.context.get());
+            Session session = ((XWikiHibernateBaseStore) this.store).getSession(this.context.get());
+            for (XWikiAttachment entity : entities) {
+                session.delete(entity.getAttachment_content());
+                session.delete(entity.getAttachment_archive());
+            }
+            this.logger.debug("Deleted [{}] attachments from the database", entities.size());
+        } catch (XWikiException ex) {
+            this.logger.warn("Failed to cleanup attachments from the database: {}", ex.getMessage());
+            return false;
+        } finally {
+            if (transaction) {
+                ((XWikiHibernateBaseStore) this.store).endTransaction(this.context.get(), transaction);
+            }
+        }
+        return true;
+    }
+
     @Override
     public boolean discardAllData()
     {
@@ -169,27 +191,39 @@ public boolean discardAllData()
         return true;
     }
 
-    private class ReferenceIterator implements Iterator<EntityReference>
+    /**
+     * Iterates over the database attachments, listing them in pages.
+     *
+     * @param <E> the type of the returned items
+     */
+    private abstract class PagedIterator<E> implements Iterator<E>
     {
-        private Iterator<Object[]> data;
+        private Iterator<Object[]> page = Collections.emptyIterator();
 
-        ReferenceIterator(List<Object[]> data)
-        {
-            this.data = data.iterator();
-        }
+        /** The identifier of the last listed attachment, {@code null} before the first page. */
+        private Long lastId;
+
+        /** Whether the last page was already listed. */
+        private boolean lastPage;
 
         @Override
         public boolean hasNext()
         {
-            return this.data.hasNext();
+            if (!this.page.hasNext() && !this.lastPage) {
+                this.page = nextPage().iterator();
+            }
+            return this.page.hasNext();
         }
 
         @Override
-        public EntityReference next()
+        public E next()
         {
-            Object[] item = this.data.next();
-            return new AttachmentReference(String.valueOf(item[1]),
-                HibernateAttachmentsReader.this.resolver.resolve(String.valueOf(item[0])));
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Object[] item = this.page.next();
+            this.lastId = (Long) item[2];
+            return convert(String.valueOf(item[0]), String.valueOf(item[1]));
         }
 
         @Override
@@ -197,31 +231,54 @@ public void remove()
         {
             throw new UnsupportedOperationException();
         }
-    }
 
-    private class AttachmentIterator implements Iterator<XWikiAttachment>
-    {
-        private Iterator<Object[]> data;
+        /**
+         * Converts a listed attachment into the returned item.
+         *
+         * @param document the full name of the document holding the attachment
+         * @param filename the name of the attachment
+         * @return the item to return
+         */
+        protected abstract E convert(String document, String filename);
 
-        AttachmentIterator(List<Object[]> data)
+        private List<Object[]> nextPage()
         {
-            this.data = data.iterator();
+            try {
+                List<Object[]> result = this.lastId == null
+                    ? HibernateAttachmentsReader.this.docStore.search(DATA_RETRIEVE_QUERY + ORDER, PAGE_SIZE, 0,
+                        HibernateAttachmentsReader.this.context.get())
+                    : HibernateAttachmentsReader.this.docStore.search(NEXT_PAGE_QUERY, PAGE_SIZE, 0,
+                        Collections.singletonList(this.lastId), HibernateAttachmentsReader.this.context.get());
+                this.lastPage = result.size() < PAGE_SIZE;
+                HibernateAttachmentsReader.this.logger.debug("Listed [{}] more attachments in the database",
+                    result.size());
+                return result;
+            } catch (XWikiException ex) {
+                HibernateAttachmentsReader.this.logger.warn("Failed to list the database attachments: {}",
+                    ex.getMessage());
+                this.lastPage = true;
+                return Collections.emptyList();
+            }
         }
+    }
 
+    private class ReferenceIterator extends PagedIterator<EntityReference>
+    {
         @Override
-        public boolean hasNext()
+        protected EntityReference convert(String document, String filename)
         {
-            return this.data.hasNext();
+            return new AttachmentReference(filename, HibernateAttachmentsReader.this.resolver.resolve(document));
         }
+    }
 
+    private class AttachmentIterator extends PagedIterator<XWikiAttachment>
+    {
         @Override
-        public XWikiAttachment next()
+        protected XWikiAttachment convert(String document, String filename)
         {
-            Object[] item = this.data.next();
             try {
-                XWikiDocument doc =
-                    new XWikiDocument(HibernateAttachmentsReader.this.resolver.resolve(String.valueOf(item[0])));
-                XWikiAttachment att = new XWikiAttachment(doc, String.valueOf(item[1]));
+                XWikiDocument doc = new XWikiDocument(HibernateAttachmentsReader.this.resolver.resolve(document));
+                XWikiAttachment att = new XWikiAttachment(doc, filename);
                 HibernateAttachmentsReader.this.store.loadAttachmentContent(att,
                     HibernateAttachmentsReader.this.context.get(), true);
                 HibernateAttachmentsReader.this.archiveStore.loadArchive(att,
@@ -234,11 +291,5 @@ public XWikiAttachment next()
             }
             return null;
         }
-
-        @Override
-        public void remove()
-        {
-            throw new UnsupportedOperationException();
-        }
     }
 }
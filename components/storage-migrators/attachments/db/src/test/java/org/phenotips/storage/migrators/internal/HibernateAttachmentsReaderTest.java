@@ -0,0 +1,181 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.storage.migrators.internal;
+
+import org.phenotips.storage.migrators.DataReader;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.inject.Provider;
+
+import org.hibernate.Session;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiAttachmentArchive;
+import com.xpn.xwiki.doc.XWikiAttachmentContent;
+import com.xpn.xwiki.store.XWikiAttachmentStoreInterface;
+import com.xpn.xwiki.store.XWikiHibernateAttachmentStore;
+import com.xpn.xwiki.store.XWikiStoreInterface;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.endsWith;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link HibernateAttachmentsReader} component.
+ *
+ * @version $Id$
+ */
+public class HibernateAttachmentsReaderTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<DataReader<XWikiAttachment>> mocker =
+        new MockitoComponentMockingRule<DataReader<XWikiAttachment>>(HibernateAttachmentsReader.class);
+
+    private XWikiContext context;
+
+    private XWikiStoreInterface docStore;
+
+    private XWikiHibernateAttachmentStore store;
+
+    private Session session;
+
+    @Before
+    public void setup() throws Exception
+    {
+        this.context = mock(XWikiContext.class);
+        Provider<XWikiContext> contextProvider = this.mocker.getInstance(XWikiContext.TYPE_PROVIDER);
+        when(contextProvider.get()).thenReturn(this.context);
+
+        this.docStore = this.mocker.getInstance(XWikiStoreInterface.class, "hibernate");
+
+        // The reader needs a store that is both an attachment store and a Hibernate store
+        this.store = mock(XWikiHibernateAttachmentStore.class);
+        this.mocker.registerComponent(XWikiAttachmentStoreInterface.class, "hibernate", this.store);
+        this.session = mock(Session.class);
+        when(this.store.beginTransaction(this.context)).thenReturn(true);
+        when(this.store.getSession(this.context)).thenReturn(this.session);
+
+        DocumentReferenceResolver<String> resolver =
+            this.mocker.getInstance(DocumentReferenceResolver.TYPE_STRING, "current");
+        when(resolver.resolve(anyString())).thenAnswer(
+            invocation -> new DocumentReference("wiki", "Space", (String) invocation.getArguments()[0]));
+    }
+
+    @Test
+    public void attachmentsAreListedInPages() throws Exception
+    {
+        List<Object[]> firstPage = new ArrayList<>();
+        for (long i = 1; i <= 500; ++i) {
+            firstPage.add(new Object[] { "Page" + i, "file.txt", i });
+        }
+        List<Object[]> secondPage = Collections.singletonList(new Object[] { "Last", "file.txt", 501L });
+        when(this.docStore.<Object[]>search(endsWith(" order by a.id"), eq(500), eq(0), any(XWikiContext.class)))
+            .thenReturn(firstPage);
+        when(this.docStore.<Object[]>search(contains("a.id > ?"), eq(500), eq(0),
+            eq(Collections.singletonList(500L)), any(XWikiContext.class))).thenReturn(secondPage);
+
+        Iterator<EntityReference> data = this.mocker.getComponentUnderTest().listData();
+        int count = 0;
+        EntityReference last = null;
+        while (data.hasNext()) {
+            last = data.next();
+            ++count;
+        }
+
+        Assert.assertEquals(501, count);
+        Assert.assertEquals("file.txt", last.getName());
+        Assert.assertEquals("Last", last.getParent().getName());
+        // The second page is shorter than the page size, so there's no third query
+        verify(this.docStore, times(1)).search(anyString(), eq(500), eq(0), anyListOf(Object.class),
+            any(XWikiContext.class));
+    }
+
+    @Test
+    public void listingStopsWhenTheDatabaseFails() throws Exception
+    {
+        when(this.docStore.search(anyString(), eq(500), eq(0), any(XWikiContext.class)))
+            .thenThrow(new XWikiException());
+
+        Assert.assertFalse(this.mocker.getComponentUnderTest().listData().hasNext());
+    }
+
+    @Test
+    public void entitiesAreDiscardedInOneTransaction() throws Exception
+    {
+        XWikiAttachment first = mockAttachment();
+        XWikiAttachmentContent firstContent = first.getAttachment_content();
+        XWikiAttachmentArchive firstArchive = first.getAttachment_archive();
+        XWikiAttachment second = mockAttachment();
+        XWikiAttachmentContent secondContent = second.getAttachment_content();
+        XWikiAttachmentArchive secondArchive = second.getAttachment_archive();
+
+        Assert.assertTrue(this.mocker.getComponentUnderTest().discardEntities(Arrays.asList(first, second)));
+
+        verify(this.store, times(1)).beginTransaction(this.context);
+        verify(this.session).delete(firstContent);
+        verify(this.session).delete(firstArchive);
+        verify(this.session).delete(secondContent);
+        verify(this.session).delete(secondArchive);
+        verify(this.store, times(1)).endTransaction(this.context, true);
+    }
+
+    @Test
+    public void discardEntitiesFailsWhenTheTransactionCantStart() throws Exception
+    {
+        when(this.store.beginTransaction(this.context)).thenThrow(new XWikiException());
+
+        Assert.assertFalse(
+            this.mocker.getComponentUnderTest().discardEntities(Collections.singletonList(mockAttachment())));
+
+        verify(this.session, never()).delete(any());
+    }
+
+    private XWikiAttachment mockAttachment()
+    {
+        XWikiAttachment attachment = mock(XWikiAttachment.class);
+        XWikiAttachmentContent content = mock(XWikiAttachmentContent.class);
+        XWikiAttachmentArchive archive = mock(XWikiAttachmentArchive.class);
+        when(attachment.getAttachment_content()).thenReturn(content);
+        when(attachment.getAttachment_archive()).thenReturn(archive);
+        return attachment;
+    }
+}
@@ -22,21 +22,30 @@
 
 import org.xwiki.component.annotation.Component;
 
+import java.util.HashSet;
+import java.util.Set;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.slf4j.Logger;
+import org.suigeneris.jrcs.rcs.Version;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiAttachmentArchive;
+import com.xpn.xwiki.store.AttachmentVersioningStore;
 import com.xpn.xwiki.store.XWikiAttachmentStoreInterface;
 
 /**
  * {@link DataWriter} that can write {@link XWikiAttachment attachments} (content and archive) into the filesystem
- * storage engine.
+ * storage engine. An attachment which already exists on the filesystem is only considered migrated if its filesystem
+ * history already contains all the versions from the database, as left by an interrupted migration; otherwise it was
+ * uploaded again since the filesystem store was enabled, and the database copy is kept, since discarding it would lose
+ * its content and history.
  *
  * @version $Id$
  * @since 1.0RC1
@@ -55,6 +64,10 @@ public class FilesystemAttachmentsWriter implements DataWriter<XWikiAttachment>
     @Named("file")
     private XWikiAttachmentStoreInterface store;
 
+    @Inject
+    @Named("file")
+    private AttachmentVersioningStore archiveStore;
+
     @Inject
     private Provider<XWikiContext> context;
 
@@ -74,12 +87,19 @@ public boolean storeEntity(XWikiAttachment entity)
             new XWikiAttachment(entity.getDoc(), entity.getFilename());
         try {
             this.store.loadAttachmentContent(existing, this.context.get(), false);
-            // If loading succeeded, then the attachment already exists on the filesystem;
-            // keep using the existing attachment version and discard the database one
-            this.logger.debug("Skipped importing already existing attachment [{}]", entity.getReference());
-            return true;
         } catch (XWikiException e) {
             // No such attachment on the filesystem, continue storing it
+            existing = null;
+        }
+        if (existing != null) {
+            if (containsHistory(existing, entity)) {
+                // Already imported by a previous, interrupted migration, the database copy can be discarded
+                this.logger.debug("Skipped importing already existing attachment [{}]", entity.getReference());
+                return true;
+            }
+            this.logger.warn("Attachment [{}] exists in both the database and the filesystem store with different"
+                + " histories, keeping the database copy", entity.getReference());
+            return false;
         }
         try {
             this.store.saveAttachmentContent(entity, false, this.context.get(), false);
@@ -91,4 +111,35 @@ public boolean storeEntity(XWikiAttachment entity)
             return false;
         }
     }
+
+    /**
+     * Checks if the filesystem history of an attachment already contains all the versions of the database attachment.
+     *
+     * @param existing the attachment found on the filesystem
+     * @param entity the attachment read from the database, with its history loaded
+     * @return {@code true} if all the database versions are already on the filesystem, {@code false} otherwise
+     */
+    private boolean containsHistory(XWikiAttachment existing, XWikiAttachment entity)
+    {
+        Set<String> migratedVersions;
+        try {
+            migratedVersions = getVersions(this.archiveStore.loadArchive(existing, this.context.get(), false));
+        } catch (XWikiException ex) {
+            return false;
+        }
+        Set<String> versions = getVersions(entity.getAttachment_archive());
+        // Without a history to compare, the two copies can't be proven identical
+        return !versions.isEmpty() && migratedVersions.containsAll(versions);
+    }
+
+    private Set<String> getVersions(XWikiAttachmentArchive archive)
+    {
+        Set<String> result = new HashSet<>();
+        if (archive != null && archive.getVersions() != null) {
+            for (Version version : archive.getVersions()) {
+                result.add(version.toString());
+            }
+        }
+        return result;
+    }
 }
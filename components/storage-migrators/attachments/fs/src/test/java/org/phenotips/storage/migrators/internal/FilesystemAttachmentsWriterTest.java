@@ -0,0 +1,147 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.storage.migrators.internal;
+
+import org.phenotips.storage.migrators.DataWriter;
+
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import javax.inject.Provider;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.suigeneris.jrcs.rcs.Version;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiAttachmentArchive;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.store.AttachmentVersioningStore;
+import com.xpn.xwiki.store.XWikiAttachmentStoreInterface;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link FilesystemAttachmentsWriter} component.
+ *
+ * @version $Id$
+ */
+public class FilesystemAttachmentsWriterTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<DataWriter<XWikiAttachment>> mocker =
+        new MockitoComponentMockingRule<DataWriter<XWikiAttachment>>(FilesystemAttachmentsWriter.class);
+
+    private XWikiContext context;
+
+    private XWikiAttachmentStoreInterface store;
+
+    private AttachmentVersioningStore archiveStore;
+
+    private XWikiAttachment entity;
+
+    @Before
+    public void setup() throws Exception
+    {
+        this.context = mock(XWikiContext.class);
+        Provider<XWikiContext> contextProvider = this.mocker.getInstance(XWikiContext.TYPE_PROVIDER);
+        when(contextProvider.get()).thenReturn(this.context);
+        this.store = this.mocker.getInstance(XWikiAttachmentStoreInterface.class, "file");
+        this.archiveStore = this.mocker.getInstance(AttachmentVersioningStore.class, "file");
+
+        this.entity = mock(XWikiAttachment.class);
+        when(this.entity.getDoc()).thenReturn(mock(XWikiDocument.class));
+        when(this.entity.getFilename()).thenReturn("file.txt");
+        XWikiAttachmentArchive history = archive("1.1", "1.2");
+        when(this.entity.getAttachment_archive()).thenReturn(history);
+    }
+
+    @Test
+    public void newAttachmentsAreStored() throws Exception
+    {
+        doThrow(new XWikiException()).when(this.store).loadAttachmentContent(any(XWikiAttachment.class),
+            eq(this.context), anyBoolean());
+
+        Assert.assertTrue(this.mocker.getComponentUnderTest().storeEntity(this.entity));
+
+        verify(this.store).saveAttachmentContent(this.entity, false, this.context, false);
+    }
+
+    @Test
+    public void previouslyMigratedAttachmentsCanBeDiscarded() throws Exception
+    {
+        XWikiAttachmentArchive history = archive("1.1", "1.2");
+        when(this.archiveStore.loadArchive(any(XWikiAttachment.class), eq(this.context), anyBoolean()))
+            .thenReturn(history);
+
+        Assert.assertTrue(this.mocker.getComponentUnderTest().storeEntity(this.entity));
+
+        verify(this.store, never()).saveAttachmentContent(any(XWikiAttachment.class), anyBoolean(),
+            any(XWikiContext.class), anyBoolean());
+    }
+
+    @Test
+    public void reuploadedAttachmentsKeepTheDatabaseCopy() throws Exception
+    {
+        // Uploaded again after the filesystem store was enabled, the database history is not in the new store
+        XWikiAttachmentArchive history = archive("1.1");
+        when(this.archiveStore.loadArchive(any(XWikiAttachment.class), eq(this.context), anyBoolean()))
+            .thenReturn(history);
+
+        Assert.assertFalse(this.mocker.getComponentUnderTest().storeEntity(this.entity));
+
+        verify(this.store, never()).saveAttachmentContent(any(XWikiAttachment.class), anyBoolean(),
+            any(XWikiContext.class), anyBoolean());
+    }
+
+    @Test
+    public void unreadableHistoryKeepsTheDatabaseCopy() throws Exception
+    {
+        when(this.archiveStore.loadArchive(any(XWikiAttachment.class), eq(this.context), anyBoolean()))
+            .thenThrow(new XWikiException());
+
+        Assert.assertFalse(this.mocker.getComponentUnderTest().storeEntity(this.entity));
+    }
+
+    @Test
+    public void nullEntitiesAreIgnored() throws Exception
+    {
+        Assert.assertTrue(this.mocker.getComponentUnderTest().storeEntity(null));
+    }
+
+    private XWikiAttachmentArchive archive(String... versions) throws Exception
+    {
+        Version[] result = new Version[versions.length];
+        for (int i = 0; i < versions.length; ++i) {
+            result[i] = new Version(versions[i]);
+        }
+        XWikiAttachmentArchive archive = mock(XWikiAttachmentArchive.class);
+        when(archive.getVersions()).thenReturn(result);
+        return archive;
+    }
+}
@@ -195,20 +195,37 @@ public boolean supportsRecordType(String recordType)
         return "patient".equals(recordType);
     }
 
+    @Override
+    public String getCacheKey(String recordType)
+    {
+        return StringUtils.defaultString(getBoundConfigurationReference());
+    }
+
     /**
-     * If the current document is a patient record, and it has a valid specific study binding specified, then return
-     * that configuration.
+     * If the current document is a patient record with a study binding, return the serialized reference of the bound
+     * study.
      *
-     * @return a form configuration, if one is bound to the current document, or {@code null} otherwise
+     * @return a serialized document reference, or {@code null} if there's no current document or it has no binding
      */
-    private StudyConfiguration getBoundConfiguration()
+    private String getBoundConfigurationReference()
     {
         if (this.dab.getCurrentDocumentReference() == null) {
             // Non-interactive requests, use the default configuration
             return null;
         }
-        String boundConfig = (String) this.dab.getProperty(this.dab.getCurrentDocumentReference(),
+        return (String) this.dab.getProperty(this.dab.getCurrentDocumentReference(),
             this.resolver.resolve(STUDY_BINDING_CLASS_REFERENCE), STUDY_REFERENCE_PROPERTY_LABEL);
+    }
+
+    /**
+     * If the current document is a patient record, and it has a valid specific study binding specified, then return
+     * that configuration.
+     *
+     * @return a form configuration, if one is bound to the current document, or {@code null} otherwise
+     */
+    private StudyConfiguration getBoundConfiguration()
+    {
+        String boundConfig = getBoundConfigurationReference();
         if (StringUtils.isNotBlank(boundConfig)) {
             try {
                 XWikiContext context = this.xcontextProvider.get();
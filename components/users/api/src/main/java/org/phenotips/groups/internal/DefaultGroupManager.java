@@ -27,18 +27,12 @@
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
-import org.xwiki.model.reference.EntityReferenceSerializer;
-import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
-import org.xwiki.query.QueryManager;
 import org.xwiki.stability.Unstable;
 import org.xwiki.users.User;
 
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashSet;
-import java.util.List;
 import java.util.Set;
 
 import javax.inject.Inject;
@@ -48,11 +42,9 @@
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 
-import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.api.Document;
 import com.xpn.xwiki.doc.XWikiDocument;
-import com.xpn.xwiki.user.api.XWikiGroupService;
 
 /**
  * Default implementation for {@link GroupManager}, using XDocuments as the place where groups are defined.
@@ -68,17 +60,10 @@ public class DefaultGroupManager implements GroupManager
     /** The space where groups are stored. */
     private static final EntityReference GROUP_SPACE = new EntityReference("Groups", EntityType.SPACE);
 
-    private static final EntityReference USER_CLASS = new EntityReference("XWikiUsers", EntityType.DOCUMENT,
-        new EntityReference(XWiki.SYSTEM_SPACE, EntityType.SPACE));
-
     /** Logging helper. */
     @Inject
     private Logger logger;
 
-    /** Used for searching for groups. */
-    @Inject
-    private QueryManager qm;
-
     @Inject
     private Execution execution;
 
@@ -87,16 +72,12 @@ public class DefaultGroupManager implements GroupManager
     @Named("current")
     private DocumentReferenceResolver<String> resolver;
 
-    @Inject
-    @Named("userOrGroup")
-    private DocumentReferenceResolver<String> userOrGroupResolver;
-
     @Inject
     private DocumentAccessBridge bridge;
 
+    /** Holds the transitive group memberships. */
     @Inject
-    @Named("compactwiki")
-    private EntityReferenceSerializer<String> compactSerializer;
+    private GroupMembershipCache membershipCache;
 
     @Override
     public Set<Group> getGroupsForUser(User user)
@@ -105,43 +86,10 @@ public Set<Group> getGroupsForUser(User user)
             return Collections.emptySet();
         }
 
-        DocumentReference profile = user.getProfileDocument();
-
         Set<Group> result = new LinkedHashSet<>();
         try {
-            Query q =
-                this.qm.createQuery("from doc.object(XWiki.XWikiGroups) grp where grp.member in (:u, :su)", Query.XWQL);
-            q.bindValue("u", profile.toString());
-            q.bindValue("su", this.compactSerializer.serialize(profile));
-            List<Object> groups = q.execute();
-            List<Object> nestedGroups = new ArrayList<>(groups);
-            while (!nestedGroups.isEmpty()) {
-                StringBuilder qs = new StringBuilder("from doc.object(XWiki.XWikiGroups) grp where grp.member in (");
-                for (int i = 0; i < nestedGroups.size(); ++i) {
-                    if (i > 0) {
-                        qs.append(',');
-                    }
-                    qs.append('?').append(i * 2 + 1).append(",?").append(i * 2 + 2);
-                }
-                qs.append(')');
-                q = this.qm.createQuery(qs.toString(), Query.XWQL);
-                for (int i = 0; i < nestedGroups.size(); ++i) {
-                    String formalGroupName =
-                        this.resolver.resolve(String.valueOf(nestedGroups.get(i)), GROUP_SPACE).toString();
-                    String shortGroupName = this.compactSerializer
-                        .serialize(this.resolver.resolve(String.valueOf(nestedGroups.get(i)), GROUP_SPACE));
-                    q.bindValue(i * 2 + 1, formalGroupName);
-                    q.bindValue(i * 2 + 2, shortGroupName);
-                }
-                nestedGroups = q.execute();
-                nestedGroups.removeAll(groups);
-                groups.addAll(nestedGroups);
-            }
-            q = this.qm.createQuery(
-                "from doc.object(XWiki.XWikiGroups) grp, doc.object(PhenoTips.PhenoTipsGroupClass) phgrp", Query.XWQL);
-            groups.retainAll(q.execute());
-            for (Object groupName : groups) {
-                result.add(getGroup(String.valueOf(groupName)));
+            for (DocumentReference group : this.membershipCache.getGroupsForMember(user.getProfileDocument())) {
+                result.add(new DefaultGroup(group));
             }
         } catch (QueryException ex) {
             this.logger.warn("Failed to search for user's groups: {}", ex.getMessage());
@@ -180,28 +128,13 @@ public Set<Document> getAllMembersForGroup(String name)
 
         try {
             XWikiContext context = getXWikiContext();
-            XWikiGroupService groupService = context.getWiki().getGroupService(context);
-
-            List<String> nestedGroups = new ArrayList<>();
-            nestedGroups.add(name);
-
-            while (!nestedGroups.isEmpty()) {
-                String groupName = nestedGroups.get(0);
-                nestedGroups.remove(0);
-                Collection<String> members = groupService.getAllMembersNamesForGroup(groupName, 0, 0, context);
-                for (String memberName : members) {
-                    EntityReference userOrGroup = this.userOrGroupResolver.resolve(memberName);
-                    XWikiDocument doc = (XWikiDocument) this.bridge.getDocument((DocumentReference) userOrGroup);
-                    if (doc.getXObject(Group.CLASS_REFERENCE) != null || doc.getXObject(USER_CLASS) != null) {
-                        if (doc.getXObject(Group.CLASS_REFERENCE) != null) {
-                            nestedGroups.add(memberName);
-                        }
-                        result.add(doc.newDocument(context));
-                    }
-                }
+            for (DocumentReference member : this.membershipCache.getMembersForGroup(
+                this.resolver.resolve(name, GROUP_SPACE))) {
+                XWikiDocument doc = (XWikiDocument) this.bridge.getDocument(member);
+                result.add(doc.newDocument(context));
             }
         } catch (Exception e) {
-            //
+            this.logger.warn("Failed to list the members of group [{}]: {}", name, e.getMessage());
         }
 
         return Collections.unmodifiableSet(result);
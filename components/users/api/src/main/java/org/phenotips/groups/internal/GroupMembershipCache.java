@@ -0,0 +1,384 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.groups.internal;
+
+import org.phenotips.Constants;
+import org.phenotips.groups.Group;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Keeps the group memberships of each wiki in memory, so that the groups of a user and the members of a group can be
+ * found without walking documents or querying the database level by level. The membership graph of a wiki is loaded
+ * with three queries the first time it is needed, then kept up to date incrementally by {@link #update(XWikiDocument)}
+ * whenever a group or user document changes, including on other cluster members. A graph loaded while a document
+ * changed is used only by the request that loaded it, and is not kept, since the change may be missing from it.
+ * Transitive closures are computed from the graph on demand, and cached until the next membership change.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Component(roles = { GroupMembershipCache.class })
+@Singleton
+public class GroupMembershipCache
+{
+    /** The class of the objects listing the members of a group. */
+    public static final EntityReference XWIKI_GROUPS_CLASS =
+        new EntityReference("XWikiGroups", EntityType.DOCUMENT, Constants.XWIKI_SPACE_REFERENCE);
+
+    /** The class of the objects defining a user. */
+    public static final EntityReference XWIKI_USERS_CLASS =
+        new EntityReference("XWikiUsers", EntityType.DOCUMENT, Constants.XWIKI_SPACE_REFERENCE);
+
+    private static final String MEMBER = "member";
+
+    private static final String GROUP_SPACE = "Groups";
+
+    @Inject
+    private QueryManager qm;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> resolver;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    /** The loaded membership graphs, keyed by wiki name. */
+    private final ConcurrentMap<String, MembershipGraph> graphs = new ConcurrentHashMap<>();
+
+    /** Counts the updates of each wiki, so that graphs loaded during an update can be discarded. */
+    private final ConcurrentMap<String, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    /**
+     * Lists the PhenoTips groups that a user or group belongs to, directly or through nested groups, in the current
+     * wiki.
+     *
+     * @param member the profile of a user, or the document of a group
+     * @return the references of the PhenoTips groups, closest groups first; may be empty
+     * @throws QueryException if loading the membership graph fails
+     */
+    public List<DocumentReference> getGroupsForMember(DocumentReference member) throws QueryException
+    {
+        return getGraph().getGroups(member);
+    }
+
+    /**
+     * Lists the users and PhenoTips groups that are members of a group, directly or through nested PhenoTips groups,
+     * in the current wiki.
+     *
+     * @param group the document of a group
+     * @return the references of the member profiles and groups, direct members first; may be empty
+     * @throws QueryException if loading the membership graph fails
+     */
+    public List<DocumentReference> getMembersForGroup(DocumentReference group) throws QueryException
+    {
+        return getGraph().getMembers(group);
+    }
+
+    /**
+     * Updates the memberships defined in a document. Nothing is done if the membership graph of the document's wiki
+     * wasn't loaded yet, since it will be loaded from the database when needed; a graph being loaded while this is
+     * called is discarded once loaded.
+     *
+     * @param document the changed document, without any objects if it was deleted
+     */
+    public void update(XWikiDocument document)
+    {
+        String wiki = document.getDocumentReference().getWikiReference().getName();
+        // Must happen before looking for the graph, so that a graph being loaded right now is discarded
+        getGeneration(wiki).incrementAndGet();
+        MembershipGraph graph = this.graphs.get(wiki);
+        if (graph == null) {
+            return;
+        }
+        List<DocumentReference> members = null;
+        List<BaseObject> memberObjects = document.getXObjects(XWIKI_GROUPS_CLASS);
+        if (memberObjects != null && !memberObjects.isEmpty()) {
+            members = new ArrayList<>();
+            for (BaseObject memberObject : memberObjects) {
+                if (memberObject != null) {
+                    addMember(members, memberObject.getStringValue(MEMBER), wiki);
+                }
+            }
+        }
+        graph.setDocument(document.getDocumentReference(), members,
+            document.getXObject(Group.CLASS_REFERENCE) != null, document.getXObject(XWIKI_USERS_CLASS) != null);
+    }
+
+    private MembershipGraph getGraph() throws QueryException
+    {
+        String wiki = this.xcontextProvider.get().getWikiId();
+        MembershipGraph graph = this.graphs.get(wiki);
+        if (graph == null) {
+            AtomicLong generation = getGeneration(wiki);
+            long loadedGeneration = generation.get();
+            graph = loadGraph(wiki);
+            MembershipGraph existing = this.graphs.putIfAbsent(wiki, graph);
+            if (existing != null) {
+                graph = existing;
+            } else if (generation.get() != loadedGeneration) {
+                // A document changed while loading, and the change may be missing from the loaded graph; checking after
+                // installing the graph ensures that later updates either see the graph, or cause it to be discarded
+                this.graphs.remove(wiki, graph);
+            }
+        }
+        return graph;
+    }
+
+    private AtomicLong getGeneration(String wiki)
+    {
+        return this.generations.computeIfAbsent(wiki, key -> new AtomicLong());
+    }
+
+    private MembershipGraph loadGraph(String wiki) throws QueryException
+    {
+        MembershipGraph graph = new MembershipGraph();
+
+        Map<DocumentReference, List<DocumentReference>> groups = new LinkedHashMap<>();
+        List<Object[]> memberships =
+            this.qm.createQuery("select doc.fullName, grp.member from Document doc, doc.object(XWiki.XWikiGroups) grp",
+                Query.XWQL).setWiki(wiki).execute();
+        for (Object[] membership : memberships) {
+            DocumentReference group = resolve(String.valueOf(membership[0]), wiki);
+            List<DocumentReference> members = groups.get(group);
+            if (members == null) {
+                members = new ArrayList<>();
+                groups.put(group, members);
+            }
+            addMember(members, (String) membership[1], wiki);
+        }
+
+        Set<DocumentReference> phenotipsGroups = resolveAll(this.qm.createQuery(
+            "select doc.fullName from Document doc, doc.object(PhenoTips.PhenoTipsGroupClass) grp", Query.XWQL)
+            .setWiki(wiki).<String>execute(), wiki);
+        Set<DocumentReference> users = resolveAll(this.qm.createQuery(
+            "select doc.fullName from Document doc, doc.object(XWiki.XWikiUsers) usr", Query.XWQL)
+            .setWiki(wiki).<String>execute(), wiki);
+
+        for (Map.Entry<DocumentReference, List<DocumentReference>> group : groups.entrySet()) {
+            graph.setDocument(group.getKey(), group.getValue(), phenotipsGroups.contains(group.getKey()), false);
+        }
+        for (DocumentReference group : phenotipsGroups) {
+            if (!groups.containsKey(group)) {
+                graph.setDocument(group, null, true, false);
+            }
+        }
+        for (DocumentReference user : users) {
+            graph.setDocument(user, groups.get(user), phenotipsGroups.contains(user), true);
+        }
+        return graph;
+    }
+
+    private void addMember(Collection<DocumentReference> members, String member, String wiki)
+    {
+        if (StringUtils.isNotBlank(member)) {
+            members.add(resolve(member, wiki));
+        }
+    }
+
+    private Set<DocumentReference> resolveAll(List<String> names, String wiki)
+    {
+        Set<DocumentReference> result = new HashSet<>();
+        for (String name : names) {
+            result.add(resolve(name, wiki));
+        }
+        return result;
+    }
+
+    private DocumentReference resolve(String name, String wiki)
+    {
+        return this.resolver.resolve(name, new EntityReference(GROUP_SPACE, EntityType.SPACE, new WikiReference(wiki)));
+    }
+
+    /**
+     * The direct memberships of a wiki, in both directions, along with the transitive closures computed since the last
+     * change. This class is thread safe.
+     */
+    private static final class MembershipGraph
+    {
+        /** Member, user or group, to the groups it directly belongs to. */
+        private final Map<DocumentReference, Set<DocumentReference>> groupsOfMember = new HashMap<>();
+
+        /** Group to its direct members; contains all the documents with group member objects. */
+        private final Map<DocumentReference, Set<DocumentReference>> membersOfGroup = new HashMap<>();
+
+        private final Set<DocumentReference> phenotipsGroups = new HashSet<>();
+
+        private final Set<DocumentReference> users = new HashSet<>();
+
+        private final Map<DocumentReference, List<DocumentReference>> groupsClosure = new HashMap<>();
+
+        private final Map<DocumentReference, List<DocumentReference>> membersClosure = new HashMap<>();
+
+        /**
+         * Replaces what a document defines.
+         *
+         * @param document the document
+         * @param members the members listed in the document, or {@code null} if it isn't a group
+         * @param phenotipsGroup whether the document defines a PhenoTips group
+         * @param user whether the document defines a user
+         */
+        synchronized void setDocument(DocumentReference document, Collection<DocumentReference> members,
+            boolean phenotipsGroup, boolean user)
+        {
+            Set<DocumentReference> updated = members != null ? new LinkedHashSet<>(members) : null;
+            if (Objects.equals(updated, this.membersOfGroup.get(document))
+                && phenotipsGroup == this.phenotipsGroups.contains(document) && user == this.users.contains(document)) {
+                // Nothing changed, keep the computed closures
+                return;
+            }
+            Set<DocumentReference> previous = this.membersOfGroup.remove(document);
+            if (previous != null) {
+                for (DocumentReference member : previous) {
+                    Set<DocumentReference> groups = this.groupsOfMember.get(member);
+                    groups.remove(document);
+                    if (groups.isEmpty()) {
+                        this.groupsOfMember.remove(member);
+                    }
+                }
+            }
+            if (updated != null) {
+                this.membersOfGroup.put(document, updated);
+                for (DocumentReference member : updated) {
+                    Set<DocumentReference> groups = this.groupsOfMember.get(member);
+                    if (groups == null) {
+                        groups = new LinkedHashSet<>();
+                        this.groupsOfMember.put(member, groups);
+                    }
+                    groups.add(document);
+                }
+            }
+            setFlag(this.phenotipsGroups, document, phenotipsGroup);
+            setFlag(this.users, document, user);
+            this.groupsClosure.clear();
+            this.membersClosure.clear();
+        }
+
+        /**
+         * The PhenoTips groups that a user or group belongs to, directly or through any nested group.
+         */
+        synchronized List<DocumentReference> getGroups(DocumentReference member)
+        {
+            List<DocumentReference> result = this.groupsClosure.get(member);
+            if (result == null) {
+                result = new ArrayList<>();
+                for (DocumentReference group : walk(member, this.groupsOfMember, null)) {
+                    if (this.phenotipsGroups.contains(group) && this.membersOfGroup.containsKey(group)) {
+                        result.add(group);
+                    }
+                }
+                result = Collections.unmodifiableList(result);
+                this.groupsClosure.put(member, result);
+            }
+            return result;
+        }
+
+        /**
+         * The users and PhenoTips groups that belong to a group, directly or through nested PhenoTips groups.
+         */
+        synchronized List<DocumentReference> getMembers(DocumentReference group)
+        {
+            List<DocumentReference> result = this.membersClosure.get(group);
+            if (result == null) {
+                result = new ArrayList<>();
+                for (DocumentReference member : walk(group, this.membersOfGroup, this.phenotipsGroups)) {
+                    if (this.users.contains(member) || this.phenotipsGroups.contains(member)) {
+                        result.add(member);
+                    }
+                }
+                result = Collections.unmodifiableList(result);
+                this.membersClosure.put(group, result);
+            }
+            return result;
+        }
+
+        /**
+         * Breadth-first walk of the graph, safe against membership cycles.
+         *
+         * @param start where to start from, not included in the result
+         * @param edges the edges to follow
+         * @param through if not {@code null}, only these nodes are walked through
+         * @return the reached nodes, in the order in which they were reached
+         */
+        private Set<DocumentReference> walk(DocumentReference start,
+            Map<DocumentReference, Set<DocumentReference>> edges, Set<DocumentReference> through)
+        {
+            Set<DocumentReference> reached = new LinkedHashSet<>();
+            Deque<DocumentReference> toVisit = new ArrayDeque<>();
+            toVisit.add(start);
+            while (!toVisit.isEmpty()) {
+                Set<DocumentReference> next = edges.get(toVisit.poll());
+                if (next == null) {
+                    continue;
+                }
+                for (DocumentReference node : next) {
+                    if (!node.equals(start) && reached.add(node) && (through == null || through.contains(node))) {
+                        toVisit.add(node);
+                    }
+                }
+            }
+            return reached;
+        }
+
+        private void setFlag(Set<DocumentReference> flagged, DocumentReference document, boolean flag)
+        {
+            if (flag) {
+                flagged.add(document);
+            } else {
+                flagged.remove(document);
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.groups.internal.listeners;
+
+import org.phenotips.groups.Group;
+import org.phenotips.groups.internal.GroupMembershipCache;
+
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Keeps the {@link GroupMembershipCache} up to date when a group or a user is created, modified or deleted. Remote
+ * document events are handled the same as local ones, so that the caches of all the cluster members stay in sync.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Component
+@Named("phenotips-group-membership-cache")
+@Singleton
+public class GroupMembershipCacheUpdater implements EventListener
+{
+    @Inject
+    private GroupMembershipCache cache;
+
+    @Override
+    public String getName()
+    {
+        return "phenotips-group-membership-cache";
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event>asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent(), new DocumentDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        XWikiDocument doc = (XWikiDocument) source;
+        if (definesMemberships(doc) || definesMemberships(doc.getOriginalDocument())) {
+            this.cache.update(doc);
+        }
+    }
+
+    private boolean definesMemberships(XWikiDocument doc)
+    {
+        return doc != null && (doc.getXObject(GroupMembershipCache.XWIKI_GROUPS_CLASS) != null
+            || doc.getXObject(Group.CLASS_REFERENCE) != null
+            || doc.getXObject(GroupMembershipCache.XWIKI_USERS_CLASS) != null);
+    }
+}
@@ -20,29 +20,32 @@
 import org.phenotips.groups.Group;
 import org.phenotips.groups.GroupManager;
 
+import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
-import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
-import org.xwiki.query.QueryManager;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 import org.xwiki.users.User;
 
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Set;
 
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
 
-import static org.mockito.Matchers.any;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.api.Document;
+import com.xpn.xwiki.doc.XWikiDocument;
+
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -67,55 +70,11 @@ public void getGroupsForUser() throws ComponentLookupException, QueryException
         User u = mock(User.class);
         DocumentReference userProfile = new DocumentReference("xwiki", "XWiki", "Admin");
         when(u.getProfileDocument()).thenReturn(userProfile);
-        EntityReferenceSerializer<String> serializer =
-            this.mocker.getInstance(EntityReferenceSerializer.TYPE_STRING, "compactwiki");
-        when(serializer.serialize(userProfile)).thenReturn("XWiki.Admin");
-
-        QueryManager qm = this.mocker.getInstance(QueryManager.class);
-        Query q = mock(Query.class);
-        when(q.bindValue("u", "xwiki:XWiki.Admin")).thenReturn(q);
-        when(q.bindValue("su", "XWiki.Admin")).thenReturn(q);
-        when(qm.createQuery("from doc.object(XWiki.XWikiGroups) grp where grp.member in (:u, :su)", Query.XWQL))
-            .thenReturn(q);
-        List<Object> groupNames = new LinkedList<>();
-        groupNames.add("Groups.Group A");
-        groupNames.add("Group B Administrators");
-        when(q.<Object>execute()).thenReturn(groupNames);
 
-        DocumentReferenceResolver<String> resolver =
-            this.mocker.getInstance(DocumentReferenceResolver.TYPE_STRING, "current");
         DocumentReference a = new DocumentReference("xwiki", "Groups", "Group A");
-        when(resolver.resolve(eq("Groups.Group A"), eq(GROUP_SPACE))).thenReturn(a);
-        DocumentReference ba = new DocumentReference("xwiki", "Groups", "Group B Administrators");
-        when(resolver.resolve(eq("Group B Administrators"), eq(GROUP_SPACE))).thenReturn(ba);
-
-        q = mock(Query.class);
-        when(q.bindValue(1, "xwiki:Groups.Group A")).thenReturn(q);
-        when(q.bindValue(2, "Groups.Group A")).thenReturn(q);
-        when(q.bindValue(3, "xwiki:Groups.Group B Administrators")).thenReturn(q);
-        when(q.bindValue(4, "Groups.Group B Administrators")).thenReturn(q);
-        when(qm.createQuery("from doc.object(XWiki.XWikiGroups) grp where grp.member in (?1,?2,?3,?4)", Query.XWQL))
-            .thenReturn(q);
-        groupNames = new LinkedList<>();
-        groupNames.add("Groups.Group B");
-        when(q.<Object>execute()).thenReturn(groupNames);
-
-        q = mock(Query.class);
         DocumentReference b = new DocumentReference("xwiki", "Groups", "Group B");
-        when(resolver.resolve(eq("Groups.Group B"), eq(GROUP_SPACE))).thenReturn(b);
-        when(q.bindValue(1, "xwiki:Groups.Group B")).thenReturn(q);
-        when(q.bindValue(2, "Groups.Group B")).thenReturn(q);
-        when(qm.createQuery("from doc.object(XWiki.XWikiGroups) grp where grp.member in (?1,?2)", Query.XWQL))
-            .thenReturn(q);
-        when(q.<Object>execute()).thenReturn(Collections.emptyList());
-
-        q = mock(Query.class);
-        when(qm.createQuery("from doc.object(XWiki.XWikiGroups) grp, doc.object(PhenoTips.PhenoTipsGroupClass) phgrp",
-            Query.XWQL)).thenReturn(q);
-        groupNames = new LinkedList<>();
-        groupNames.add("Groups.Group A");
-        groupNames.add("Groups.Group B");
-        when(q.<Object>execute()).thenReturn(groupNames);
+        GroupMembershipCache cache = this.mocker.getInstance(GroupMembershipCache.class);
+        when(cache.getGroupsForMember(userProfile)).thenReturn(Arrays.asList(a, b));
 
         Set<Group> result = this.mocker.getComponentUnderTest().getGroupsForUser(u);
         Assert.assertEquals(2, result.size());
@@ -141,11 +100,8 @@ public void getGroupsForUserWithException() throws ComponentLookupException, Que
         DocumentReference userProfile = new DocumentReference("xwiki", "XWiki", "Admin");
         when(u.getProfileDocument()).thenReturn(userProfile);
 
-        QueryManager qm = this.mocker.getInstance(QueryManager.class);
-        Query q = mock(Query.class);
-        when(q.bindValue(any(String.class), any(String.class))).thenReturn(q);
-        when(qm.createQuery(any(String.class), any(String.class))).thenReturn(q);
-        when(q.<String>execute()).thenThrow(new QueryException("Failed", q, null));
+        GroupMembershipCache cache = this.mocker.getInstance(GroupMembershipCache.class);
+        when(cache.getGroupsForMember(userProfile)).thenThrow(new QueryException("Failed", mock(Query.class), null));
 
         Assert.assertTrue(this.mocker.getComponentUnderTest().getGroupsForUser(u).isEmpty());
     }
@@ -184,4 +140,38 @@ public void getGroupWithMissingName() throws ComponentLookupException
         Assert.assertNull(this.mocker.getComponentUnderTest().getGroup((String) null));
         Assert.assertNull(this.mocker.getComponentUnderTest().getGroup(""));
     }
+
+    /** Basic tests for {@link DefaultGroupManager#getAllMembersForGroup(String)}. */
+    @Test
+    public void getAllMembersForGroup() throws Exception
+    {
+        DocumentReference a = new DocumentReference("xwiki", "Groups", "Group A");
+        DocumentReferenceResolver<String> resolver =
+            this.mocker.getInstance(DocumentReferenceResolver.TYPE_STRING, "current");
+        when(resolver.resolve(eq("Group A"), eq(GROUP_SPACE))).thenReturn(a);
+
+        DocumentReference user = new DocumentReference("xwiki", "XWiki", "jdoe");
+        DocumentReference b = new DocumentReference("xwiki", "Groups", "Group B");
+        GroupMembershipCache cache = this.mocker.getInstance(GroupMembershipCache.class);
+        when(cache.getMembersForGroup(a)).thenReturn(Arrays.asList(user, b));
+
+        Execution execution = this.mocker.getInstance(Execution.class);
+        ExecutionContext econtext = mock(ExecutionContext.class);
+        XWikiContext context = mock(XWikiContext.class);
+        when(execution.getContext()).thenReturn(econtext);
+        when(econtext.getProperty("xwikicontext")).thenReturn(context);
+
+        DocumentAccessBridge bridge = this.mocker.getInstance(DocumentAccessBridge.class);
+        XWikiDocument userDoc = mock(XWikiDocument.class);
+        Document userDocument = mock(Document.class);
+        when(bridge.getDocument(user)).thenReturn(userDoc);
+        when(userDoc.newDocument(context)).thenReturn(userDocument);
+        XWikiDocument groupDoc = mock(XWikiDocument.class);
+        Document groupDocument = mock(Document.class);
+        when(bridge.getDocument(b)).thenReturn(groupDoc);
+        when(groupDoc.newDocument(context)).thenReturn(groupDocument);
+
+        Set<Document> result = this.mocker.getComponentUnderTest().getAllMembersForGroup("Group A");
+        Assert.assertEquals(Arrays.asList(userDocument, groupDocument), new ArrayList<>(result));
+    }
 }
@@ -0,0 +1,270 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.groups.internal;
+
+import org.phenotips.groups.Group;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.inject.Provider;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link GroupMembershipCache} component.
+ *
+ * @version $Id$
+ */
+public class GroupMembershipCacheTest
+{
+    private static final String GROUPS_QUERY =
+        "select doc.fullName, grp.member from Document doc, doc.object(XWiki.XWikiGroups) grp";
+
+    private static final String PHENOTIPS_GROUPS_QUERY =
+        "select doc.fullName from Document doc, doc.object(PhenoTips.PhenoTipsGroupClass) grp";
+
+    private static final String USERS_QUERY =
+        "select doc.fullName from Document doc, doc.object(XWiki.XWikiUsers) usr";
+
+    private static final String WIKI = "xwiki";
+
+    private static final DocumentReference GROUP_A = new DocumentReference(WIKI, "Groups", "A");
+
+    private static final DocumentReference GROUP_B = new DocumentReference(WIKI, "Groups", "B");
+
+    private static final DocumentReference GROUP_C = new DocumentReference(WIKI, "Groups", "C");
+
+    private static final DocumentReference GROUP_D = new DocumentReference(WIKI, "Groups", "D");
+
+    private static final DocumentReference ALICE = new DocumentReference(WIKI, "XWiki", "alice");
+
+    private static final DocumentReference BOB = new DocumentReference(WIKI, "XWiki", "bob");
+
+    private static final DocumentReference CAROL = new DocumentReference(WIKI, "XWiki", "carol");
+
+    @Rule
+    public final MockitoComponentMockingRule<GroupMembershipCache> mocker =
+        new MockitoComponentMockingRule<>(GroupMembershipCache.class);
+
+    private GroupMembershipCache cache;
+
+    private QueryManager qm;
+
+    @Before
+    public void setUp() throws ComponentLookupException, QueryException
+    {
+        this.cache = this.mocker.getComponentUnderTest();
+
+        Provider<XWikiContext> xcontextProvider = this.mocker.getInstance(XWikiContext.TYPE_PROVIDER);
+        XWikiContext context = mock(XWikiContext.class);
+        when(xcontextProvider.get()).thenReturn(context);
+        when(context.getWikiId()).thenReturn(WIKI);
+
+        DocumentReferenceResolver<String> resolver =
+            this.mocker.getInstance(DocumentReferenceResolver.TYPE_STRING, "current");
+        when(resolver.resolve(anyString(), any(EntityReference.class))).thenAnswer(new Answer<DocumentReference>()
+        {
+            @Override
+            public DocumentReference answer(InvocationOnMock invocation)
+            {
+                String name = (String) invocation.getArguments()[0];
+                EntityReference defaults = (EntityReference) invocation.getArguments()[1];
+                String wiki = defaults.extractReference(EntityType.WIKI).getName();
+                String fullName = name;
+                if (name.contains(":")) {
+                    wiki = StringUtils.substringBefore(name, ":");
+                    fullName = StringUtils.substringAfter(name, ":");
+                }
+                return new DocumentReference(wiki, StringUtils.substringBefore(fullName, "."),
+                    StringUtils.substringAfter(fullName, "."));
+            }
+        });
+
+        // A contains alice and B, B contains bob, C and A, C contains carol, D contains C;
+        // all but C are PhenoTips groups
+        this.qm = this.mocker.getInstance(QueryManager.class);
+        mockQuery(GROUPS_QUERY, getMemberships());
+        mockQuery(PHENOTIPS_GROUPS_QUERY, Arrays.<Object>asList("Groups.A", "Groups.B", "Groups.D"));
+        mockQuery(USERS_QUERY, Arrays.<Object>asList("XWiki.alice", "XWiki.bob", "XWiki.carol"));
+    }
+
+    @Test
+    public void groupsIncludeNestedPhenoTipsGroupsOnly() throws QueryException
+    {
+        Assert.assertEquals(Arrays.asList(GROUP_B, GROUP_D, GROUP_A), this.cache.getGroupsForMember(CAROL));
+        Assert.assertEquals(Arrays.asList(GROUP_B, GROUP_A), this.cache.getGroupsForMember(BOB));
+        Assert.assertEquals(Arrays.asList(GROUP_A, GROUP_B), this.cache.getGroupsForMember(ALICE));
+        Assert.assertEquals(Collections.singletonList(GROUP_A), this.cache.getGroupsForMember(GROUP_B));
+        Assert.assertTrue(
+            this.cache.getGroupsForMember(new DocumentReference(WIKI, "XWiki", "dave")).isEmpty());
+    }
+
+    @Test
+    public void membersAreCollectedThroughNestedPhenoTipsGroups() throws QueryException
+    {
+        Assert.assertEquals(Arrays.asList(ALICE, GROUP_B, BOB), this.cache.getMembersForGroup(GROUP_A));
+        Assert.assertEquals(Arrays.asList(BOB, GROUP_A, ALICE), this.cache.getMembersForGroup(GROUP_B));
+        Assert.assertTrue(this.cache.getMembersForGroup(GROUP_D).isEmpty());
+    }
+
+    @Test
+    public void graphIsLoadedOnlyOnce() throws QueryException
+    {
+        this.cache.getGroupsForMember(CAROL);
+        this.cache.getGroupsForMember(CAROL);
+        this.cache.getMembersForGroup(GROUP_A);
+        verify(this.qm, times(1)).createQuery(GROUPS_QUERY, Query.XWQL);
+        verify(this.qm, times(1)).createQuery(PHENOTIPS_GROUPS_QUERY, Query.XWQL);
+        verify(this.qm, times(1)).createQuery(USERS_QUERY, Query.XWQL);
+    }
+
+    @Test
+    public void updatesAreAppliedToTheLoadedGraph() throws QueryException
+    {
+        Assert.assertEquals(Arrays.asList(ALICE, GROUP_B, BOB), this.cache.getMembersForGroup(GROUP_A));
+
+        // C becomes a PhenoTips group, and D no longer contains C
+        this.cache.update(mockDocument(GROUP_C, true, "XWiki.carol"));
+        this.cache.update(mockDocument(GROUP_D, true));
+
+        Assert.assertEquals(Arrays.asList(ALICE, GROUP_B, BOB, GROUP_C, CAROL),
+            this.cache.getMembersForGroup(GROUP_A));
+        Assert.assertEquals(Arrays.asList(GROUP_C, GROUP_B, GROUP_A), this.cache.getGroupsForMember(CAROL));
+
+        // B is deleted
+        this.cache.update(mockDocument(GROUP_B, false));
+        Assert.assertEquals(Collections.singletonList(ALICE), this.cache.getMembersForGroup(GROUP_A));
+        Assert.assertTrue(this.cache.getGroupsForMember(BOB).isEmpty());
+        verify(this.qm, times(1)).createQuery(GROUPS_QUERY, Query.XWQL);
+    }
+
+    @Test
+    public void updatesAreIgnoredBeforeTheGraphIsLoaded() throws QueryException
+    {
+        this.cache.update(mockDocument(GROUP_C, true, "XWiki.carol"));
+        verify(this.qm, never()).createQuery(anyString(), anyString());
+    }
+
+    @Test
+    public void graphsLoadedDuringAnUpdateAreNotKept() throws QueryException
+    {
+        final XWikiDocument changed = mockDocument(GROUP_C, true, "XWiki.carol");
+        Query query = mock(Query.class);
+        when(query.setWiki(WIKI)).thenReturn(query);
+        when(query.execute()).thenAnswer(new Answer<List<Object>>()
+        {
+            private boolean first = true;
+
+            @Override
+            public List<Object> answer(InvocationOnMock invocation)
+            {
+                if (this.first) {
+                    // The group changes after the memberships were read, but before the graph is installed
+                    this.first = false;
+                    GroupMembershipCacheTest.this.cache.update(changed);
+                }
+                return getMemberships();
+            }
+        });
+        doReturn(query).when(this.qm).createQuery(GROUPS_QUERY, Query.XWQL);
+
+        this.cache.getMembersForGroup(GROUP_A);
+        this.cache.getMembersForGroup(GROUP_A);
+        this.cache.getMembersForGroup(GROUP_A);
+        // Loaded again after the first, possibly outdated, graph was discarded, then kept
+        verify(this.qm, times(2)).createQuery(GROUPS_QUERY, Query.XWQL);
+    }
+
+    @Test(expected = QueryException.class)
+    public void queryFailuresArePropagated() throws QueryException
+    {
+        Query query = mock(Query.class);
+        when(query.setWiki(WIKI)).thenReturn(query);
+        when(query.execute()).thenThrow(new QueryException("Failed", query, null));
+        when(this.qm.createQuery(GROUPS_QUERY, Query.XWQL)).thenReturn(query);
+        this.cache.getGroupsForMember(CAROL);
+    }
+
+    private List<Object> getMemberships()
+    {
+        return Arrays.<Object>asList(
+            new Object[] { "Groups.A", "XWiki.alice" }, new Object[] { "Groups.A", "Groups.B" },
+            new Object[] { "Groups.B", "xwiki:XWiki.bob" }, new Object[] { "Groups.B", "Groups.C" },
+            new Object[] { "Groups.B", "Groups.A" }, new Object[] { "Groups.C", "XWiki.carol" },
+            new Object[] { "Groups.D", "Groups.C" }, new Object[] { "Groups.D", "" });
+    }
+
+    private void mockQuery(String statement, List<Object> results) throws QueryException
+    {
+        Query query = mock(Query.class);
+        when(query.setWiki(WIKI)).thenReturn(query);
+        when(query.execute()).thenReturn(results);
+        when(this.qm.createQuery(statement, Query.XWQL)).thenReturn(query);
+    }
+
+    private XWikiDocument mockDocument(DocumentReference reference, boolean phenotipsGroup, String... members)
+    {
+        XWikiDocument doc = mock(XWikiDocument.class);
+        when(doc.getDocumentReference()).thenReturn(reference);
+        if (members.length > 0) {
+            List<BaseObject> objects = new ArrayList<>();
+            for (String member : members) {
+                BaseObject object = mock(BaseObject.class);
+                when(object.getStringValue("member")).thenReturn(member);
+                objects.add(object);
+            }
+            when(doc.getXObjects(GroupMembershipCache.XWIKI_GROUPS_CLASS)).thenReturn(objects);
+        }
+        if (phenotipsGroup) {
+            when(doc.getXObject(Group.CLASS_REFERENCE)).thenReturn(mock(BaseObject.class));
+        }
+        return doc;
+    }
+}
@@ -25,7 +25,9 @@
 
 /**
  * Allows acquiring and releasing locks on specific documents. Acquiring locks is a blocking operation, the method will
- * hang until the document is released.
+ * hang until the document is released. Locks can be exclusive, for operations that modify the document, or shared, for
+ * operations that only read it: several shared locks can be held on the same document at the same time, but not along
+ * with an exclusive lock.
  *
  * @version $Id$
  * @since 1.3.7
@@ -36,16 +38,39 @@
 public interface DocumentLockManager
 {
     /**
-     * Lock a document. This method will block until the lock is successfully obtained.
+     * Lock a document exclusively. This method will block until the lock is successfully obtained.
      *
      * @param document the document to lock
      */
     void lock(@Nonnull DocumentReference document);
 
     /**
-     * Unlock a document.
+     * Unlock a document locked with {@link #lock(DocumentReference)}.
      *
      * @param document the document to unlock
      */
     void unlock(@Nonnull DocumentReference document);
+
+    /**
+     * Lock a document in shared mode. This method will block while the document is locked exclusively, but not while
+     * it is only locked in shared mode. Implementations that don't support shared locks lock the document exclusively.
+     *
+     * @param document the document to lock
+     * @since 1.4
+     */
+    default void lockShared(@Nonnull DocumentReference document)
+    {
+        lock(document);
+    }
+
+    /**
+     * Unlock a document locked with {@link #lockShared(DocumentReference)}.
+     *
+     * @param document the document to unlock
+     * @since 1.4
+     */
+    default void unlockShared(@Nonnull DocumentReference document)
+    {
+        unlock(document);
+    }
 }
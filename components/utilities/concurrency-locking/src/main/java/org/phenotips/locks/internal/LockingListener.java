@@ -23,12 +23,18 @@
 import org.xwiki.bridge.event.ActionExecutingEvent;
 import org.xwiki.bridge.event.ActionExecutionEvent;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.observation.AbstractEventListener;
 import org.xwiki.observation.event.Event;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -37,17 +43,22 @@
 import com.xpn.xwiki.doc.XWikiDocument;
 
 /**
- * An event listener that only allows one action request to proceed at a time for the same document. When an action
- * starts executing, a lock is aquired for the affected document, and when the action terminates, the lock is released.
- * If a lock is already held by an action execution, the subsequent actions will block while waiting for the lock to be
- * released. The purpose of this mechanism is to prevent concurrent document updates, which may cause inconsistent data,
- * hibernate stale state exceptions, unique key conflicts, or other storage errors. This isn't the best way to prevent
- * such errors, but properly fixing the concurrency problems of XWiki requires much deeper and broader fixes throughout
- * the old core and any custom code updating documents.
+ * An event listener that only allows one modifying action request to proceed at a time for the same document. When an
+ * action starts executing, a lock is aquired for the affected document, and when the action terminates, the lock is
+ * released. If a lock is already held by an action execution, the subsequent actions will block while waiting for the
+ * lock to be released, except that read-only actions take shared locks, and don't block each other. The purpose of
+ * this mechanism is to prevent concurrent document updates, which may cause inconsistent data, hibernate stale state
+ * exceptions, unique key conflicts, or other storage errors. This isn't the best way to prevent such errors, but
+ * properly fixing the concurrency problems of XWiki requires much deeper and broader fixes throughout the old core and
+ * any custom code updating documents.
  * <p>
  * Implementation note: the {@code get} and {@code view} methods should theoretically not be locked, since they don't
  * normally modify data, but at the moment there are still legacy scripts that are accessed in view mode but do modify
- * their or other documents' data, such as {@code OpenPatientRecord}, so these actions must also be locked.
+ * their or other documents' data, such as {@code OpenPatientRecord}, so these actions take a shared lock: they wait for
+ * the modifying actions in progress, and modifying actions wait for them, but concurrent viewers don't wait for each
+ * other. The documents known to modify data when viewed still take an exclusive lock; they are listed, as local
+ * references, in the {@code phenotips.locks.exclusiveViewDocuments} property of {@code xwiki.properties}, which
+ * defaults to {@code PhenoTips.OpenPatientRecord}.
  * </p>
  *
  * @version $Id$
@@ -57,20 +68,49 @@
 @Component
 @Named("concurrency-locking")
 @Singleton
-public class LockingListener extends AbstractEventListener
+public class LockingListener extends AbstractEventListener implements Initializable
 {
     private static final List<String> SUPPORTED_EVENTS = Collections.unmodifiableList(
         Arrays.asList("get", "view", "save", "saveandcontinue", "preview", "objectadd", "objectremove", "rollback"));
 
+    /** The supported actions which only need a shared lock. */
+    private static final List<String> SHARED_EVENTS = Collections.unmodifiableList(Arrays.asList("get", "view"));
+
+    /** The configuration property listing the documents which modify data in view mode. */
+    private static final String EXCLUSIVE_VIEW_DOCUMENTS_PROPERTY = "phenotips.locks.exclusiveViewDocuments";
+
+    private static final List<String> DEFAULT_EXCLUSIVE_VIEW_DOCUMENTS =
+        Collections.singletonList("PhenoTips.OpenPatientRecord");
+
     @Inject
     private DocumentLockManager lockManager;
 
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> serializer;
+
+    /** The local references of the documents which always take an exclusive lock, even for read-only actions. */
+    private Set<String> exclusiveViewDocuments;
+
     /** Basic constructor. */
     public LockingListener()
     {
         super("concurrency-locking", new ActionExecutingEvent(), new ActionExecutedEvent());
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public void initialize()
+    {
+        List<String> configured = this.configuration.getProperty(EXCLUSIVE_VIEW_DOCUMENTS_PROPERTY, List.class);
+        this.exclusiveViewDocuments =
+            new HashSet<>(configured != null ? configured : DEFAULT_EXCLUSIVE_VIEW_DOCUMENTS);
+    }
+
     @Override
     public void onEvent(Event event, Object source, Object data)
     {
@@ -81,10 +121,21 @@ public void onEvent(Event event, Object source, Object data)
         if (!SUPPORTED_EVENTS.contains(name)) {
             return;
         }
+        DocumentReference document = ((XWikiDocument) source).getDocumentReference();
+        boolean shared = SHARED_EVENTS.contains(name)
+            && !this.exclusiveViewDocuments.contains(this.serializer.serialize(document));
         if (event instanceof ActionExecutingEvent) {
-            this.lockManager.lock(((XWikiDocument) source).getDocumentReference());
+            if (shared) {
+                this.lockManager.lockShared(document);
+            } else {
+                this.lockManager.lock(document);
+            }
         } else if (event instanceof ActionExecutedEvent) {
-            this.lockManager.unlock(((XWikiDocument) source).getDocumentReference());
+            if (shared) {
+                this.lockManager.unlockShared(document);
+            } else {
+                this.lockManager.unlock(document);
+            }
         }
     }
 }
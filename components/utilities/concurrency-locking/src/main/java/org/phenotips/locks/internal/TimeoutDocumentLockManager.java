@@ -22,9 +22,13 @@
 import org.xwiki.component.annotation.Component;
 import org.xwiki.model.reference.DocumentReference;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.StampedLock;
 
 import javax.annotation.Nonnull;
@@ -36,6 +40,12 @@
 /**
  * Implementation for the {@link DocumentLockManager} role which will accept a lock request even if the lock couldn't be
  * obtained when a timeout interval (10 seconds) has ellapsed.
+ * <p>
+ * Each locked document has a {@link StampedLock}, which is only kept while at least one thread holds or waits for it,
+ * so that the number of entries doesn't grow with the number of documents ever locked. A lock must be released by the
+ * thread that acquired it; unlocking a document not locked by the current thread does nothing. Waiting times and
+ * contention are recorded, and exposed through the public getters of this class.
+ * </p>
  *
  * @version $Id$
  * @since 1.3.7
@@ -45,38 +55,187 @@
 @Singleton
 public class TimeoutDocumentLockManager implements DocumentLockManager
 {
+    private static final long TIMEOUT = 10;
+
+    /** Stamp recorded for a lock request that timed out or was interrupted, and doesn't hold the lock. */
+    private static final long NOT_ACQUIRED = 0L;
+
     @Inject
     private Logger logger;
 
-    private final ConcurrentHashMap<DocumentReference, Lock> locks = new ConcurrentHashMap<>();
+    /** The locks currently held or waited for. */
+    private final ConcurrentHashMap<DocumentReference, LockEntry> locks = new ConcurrentHashMap<>();
+
+    /** The stamps of the locks requested by the current thread, and not released yet, most recent last. */
+    private final ThreadLocal<Map<DocumentReference, Deque<Long>>> held = ThreadLocal.withInitial(HashMap::new);
+
+    private final AtomicLong acquisitions = new AtomicLong();
+
+    private final AtomicLong contentions = new AtomicLong();
+
+    private final AtomicLong timeouts = new AtomicLong();
+
+    private final AtomicLong totalWaitTime = new AtomicLong();
+
+    private final AtomicLong maxWaitTime = new AtomicLong();
 
     @Override
     public void lock(@Nonnull final DocumentReference document)
     {
-        try {
-            final Lock lock = this.locks.computeIfAbsent(document, k -> new StampedLock().asWriteLock());
-            final boolean cleanLock = lock.tryLock(10, TimeUnit.SECONDS);
-            if (!cleanLock) {
-                this.logger.debug("Timed out while waiting for lock on [{}], proceeding anyway", document);
-            }
-        } catch (InterruptedException ex) {
-            // We don't expect any interruptions
-            this.logger.error("Unexpected interruption while waiting for lock: {}", ex.getMessage(), ex);
-        }
+        acquire(document, true);
     }
 
     @Override
     public void unlock(@Nonnull final DocumentReference document)
     {
-        Lock lock = this.locks.get(document);
-        if (lock == null) {
+        release(document);
+    }
+
+    @Override
+    public void lockShared(@Nonnull final DocumentReference document)
+    {
+        acquire(document, false);
+    }
+
+    @Override
+    public void unlockShared(@Nonnull final DocumentReference document)
+    {
+        release(document);
+    }
+
+    /**
+     * The number of lock requests so far.
+     *
+     * @return a positive number, or {@code 0}
+     */
+    public long getAcquisitions()
+    {
+        return this.acquisitions.get();
+    }
+
+    /**
+     * The number of lock requests that had to wait for another thread to release the document.
+     *
+     * @return a positive number, or {@code 0}
+     */
+    public long getContentions()
+    {
+        return this.contentions.get();
+    }
+
+    /**
+     * The number of lock requests that proceeded without the lock, after waiting for the whole timeout interval.
+     *
+     * @return a positive number, or {@code 0}
+     */
+    public long getTimeouts()
+    {
+        return this.timeouts.get();
+    }
+
+    /**
+     * The total time spent waiting for locks.
+     *
+     * @return a duration in milliseconds
+     */
+    public long getTotalWaitTime()
+    {
+        return this.totalWaitTime.get();
+    }
+
+    /**
+     * The longest time spent waiting for a lock.
+     *
+     * @return a duration in milliseconds
+     */
+    public long getMaxWaitTime()
+    {
+        return this.maxWaitTime.get();
+    }
+
+    /**
+     * The number of documents currently locked or waited for.
+     *
+     * @return a positive number, or {@code 0}
+     */
+    public int getLockedDocuments()
+    {
+        return this.locks.size();
+    }
+
+    private void acquire(final DocumentReference document, final boolean exclusive)
+    {
+        // Registering as a user of the entry prevents it from being evicted while this thread needs it
+        final LockEntry entry = this.locks.compute(document, (k, existing) -> {
+            LockEntry result = existing != null ? existing : new LockEntry();
+            ++result.users;
+            return result;
+        });
+        this.acquisitions.incrementAndGet();
+
+        long stamp = exclusive ? entry.lock.tryWriteLock() : entry.lock.tryReadLock();
+        if (stamp == NOT_ACQUIRED) {
+            this.contentions.incrementAndGet();
+            final long start = System.currentTimeMillis();
+            try {
+                stamp = exclusive ? entry.lock.tryWriteLock(TIMEOUT, TimeUnit.SECONDS)
+                    : entry.lock.tryReadLock(TIMEOUT, TimeUnit.SECONDS);
+                if (stamp == NOT_ACQUIRED) {
+                    this.timeouts.incrementAndGet();
+                    this.logger.debug("Timed out while waiting for lock on [{}], proceeding anyway", document);
+                }
+            } catch (InterruptedException ex) {
+                // We don't expect any interruptions
+                this.logger.error("Unexpected interruption while waiting for lock: {}", ex.getMessage(), ex);
+            }
+            recordWait(System.currentTimeMillis() - start);
+        }
+
+        Map<DocumentReference, Deque<Long>> stamps = this.held.get();
+        Deque<Long> documentStamps = stamps.get(document);
+        if (documentStamps == null) {
+            documentStamps = new ArrayDeque<>();
+            stamps.put(document, documentStamps);
+        }
+        documentStamps.addLast(stamp);
+    }
+
+    private void release(final DocumentReference document)
+    {
+        Map<DocumentReference, Deque<Long>> stamps = this.held.get();
+        Deque<Long> documentStamps = stamps.get(document);
+        if (documentStamps == null) {
             return;
         }
-        try {
-            lock.unlock();
-        } catch (IllegalMonitorStateException ex) {
-            // Unlocking may fail if a lock timeout resulted in an unclean lock, and then two requests try to unlock
-            this.logger.debug("Lock was unexpectedly unlocked already: {}", ex.getMessage(), ex);
+        long stamp = documentStamps.removeLast();
+        if (documentStamps.isEmpty()) {
+            stamps.remove(document);
+        }
+
+        LockEntry entry = this.locks.get(document);
+        if (stamp != NOT_ACQUIRED) {
+            // Releases the lock in the mode it was acquired in
+            entry.lock.unlock(stamp);
+        }
+        // Evict the entry once nobody holds or waits for it anymore
+        this.locks.computeIfPresent(document, (k, existing) -> --existing.users == 0 ? null : existing);
+    }
+
+    private void recordWait(long duration)
+    {
+        this.totalWaitTime.addAndGet(duration);
+        long max = this.maxWaitTime.get();
+        while (duration > max && !this.maxWaitTime.compareAndSet(max, duration)) {
+            max = this.maxWaitTime.get();
         }
     }
+
+    /** The lock of a document, along with the number of threads holding or waiting for it. */
+    private static final class LockEntry
+    {
+        private final StampedLock lock = new StampedLock();
+
+        /** Guarded by the map, only updated while computing the entry. */
+        private int users;
+    }
 }
@@ -22,12 +22,16 @@
 import org.xwiki.bridge.event.ActionExecutedEvent;
 import org.xwiki.bridge.event.ActionExecutingEvent;
 import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.observation.EventListener;
 import org.xwiki.observation.event.ApplicationStartedEvent;
 import org.xwiki.observation.event.Event;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.Assert;
@@ -57,9 +61,14 @@
 
     private DocumentReference docRef = new DocumentReference("xwiki", "data", "P0000001");
 
+    private DocumentReference openRecordRef = new DocumentReference("xwiki", "PhenoTips", "OpenPatientRecord");
+
     @Mock
     private XWikiDocument doc;
 
+    @Mock
+    private XWikiDocument openRecord;
+
     @Before
     public void setup() throws ComponentLookupException
     {
@@ -68,6 +77,11 @@ public void setup() throws ComponentLookupException
         this.listener = this.mocker.getComponentUnderTest();
 
         Mockito.when(this.doc.getDocumentReference()).thenReturn(this.docRef);
+        Mockito.when(this.openRecord.getDocumentReference()).thenReturn(this.openRecordRef);
+        EntityReferenceSerializer<String> serializer =
+            this.mocker.getInstance(EntityReferenceSerializer.TYPE_STRING, "local");
+        Mockito.when(serializer.serialize(this.docRef)).thenReturn("data.P0000001");
+        Mockito.when(serializer.serialize(this.openRecordRef)).thenReturn("PhenoTips.OpenPatientRecord");
     }
 
     @Test
@@ -125,4 +139,48 @@ public void unlocksOnActionExecutedEvent()
         this.listener.onEvent(new ActionExecutedEvent("save"), this.doc, null);
         Mockito.verify(this.lockManager).unlock(this.docRef);
     }
+
+    @Test
+    public void readOnlyActionsUseSharedLocks()
+    {
+        this.listener.onEvent(new ActionExecutingEvent("view"), this.doc, null);
+        this.listener.onEvent(new ActionExecutedEvent("view"), this.doc, null);
+        this.listener.onEvent(new ActionExecutingEvent("get"), this.doc, null);
+        this.listener.onEvent(new ActionExecutedEvent("get"), this.doc, null);
+        Mockito.verify(this.lockManager, Mockito.times(2)).lockShared(this.docRef);
+        Mockito.verify(this.lockManager, Mockito.times(2)).unlockShared(this.docRef);
+        Mockito.verify(this.lockManager, Mockito.never()).lock(this.docRef);
+        Mockito.verify(this.lockManager, Mockito.never()).unlock(this.docRef);
+    }
+
+    @Test
+    public void documentsModifyingDataInViewModeUseExclusiveLocks()
+    {
+        this.listener.onEvent(new ActionExecutingEvent("view"), this.openRecord, null);
+        this.listener.onEvent(new ActionExecutedEvent("view"), this.openRecord, null);
+        this.listener.onEvent(new ActionExecutingEvent("get"), this.openRecord, null);
+        this.listener.onEvent(new ActionExecutedEvent("get"), this.openRecord, null);
+        Mockito.verify(this.lockManager, Mockito.times(2)).lock(this.openRecordRef);
+        Mockito.verify(this.lockManager, Mockito.times(2)).unlock(this.openRecordRef);
+        Mockito.verify(this.lockManager, Mockito.never()).lockShared(this.openRecordRef);
+        Mockito.verify(this.lockManager, Mockito.never()).unlockShared(this.openRecordRef);
+    }
+
+    @Test
+    public void documentsModifyingDataInViewModeAreConfigurable() throws Exception
+    {
+        ConfigurationSource configuration = this.mocker.getInstance(ConfigurationSource.class, "xwikiproperties");
+        Mockito.when(configuration.getProperty("phenotips.locks.exclusiveViewDocuments", List.class))
+            .thenReturn(Arrays.asList("data.P0000001"));
+        ((Initializable) this.listener).initialize();
+
+        this.listener.onEvent(new ActionExecutingEvent("view"), this.doc, null);
+        this.listener.onEvent(new ActionExecutedEvent("view"), this.doc, null);
+        this.listener.onEvent(new ActionExecutingEvent("view"), this.openRecord, null);
+        this.listener.onEvent(new ActionExecutedEvent("view"), this.openRecord, null);
+        Mockito.verify(this.lockManager).lock(this.docRef);
+        Mockito.verify(this.lockManager).unlock(this.docRef);
+        Mockito.verify(this.lockManager).lockShared(this.openRecordRef);
+        Mockito.verify(this.lockManager).unlockShared(this.openRecordRef);
+    }
 }
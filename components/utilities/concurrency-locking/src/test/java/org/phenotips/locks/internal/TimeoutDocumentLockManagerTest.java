@@ -159,4 +159,96 @@ public void unlockingBeforeLockingDoesntThrowException() throws ComponentLookupE
     {
         this.lockManager.unlock(this.docRef);
     }
+
+    @Test
+    public void sharedLocksDontBlockEachOther() throws InterruptedException
+    {
+        long start = System.currentTimeMillis();
+        this.lockManager.lockShared(this.docRef);
+        Thread other = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                TimeoutDocumentLockManagerTest.this.lockManager.lockShared(TimeoutDocumentLockManagerTest.this.docRef);
+                TimeoutDocumentLockManagerTest.this.lockManager
+                    .unlockShared(TimeoutDocumentLockManagerTest.this.docRef);
+            }
+        });
+        other.start();
+        other.join();
+        this.lockManager.lockShared(this.docRef);
+        this.lockManager.unlockShared(this.docRef);
+        this.lockManager.unlockShared(this.docRef);
+        long time = System.currentTimeMillis() - start;
+        Assert.assertTrue(time < 5 * 1000);
+        Assert.assertEquals(0, getStatistics().getContentions());
+    }
+
+    @Test
+    public void exclusiveLocksWaitForSharedLocks() throws InterruptedException
+    {
+        long start = System.currentTimeMillis();
+        Thread other = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    TimeoutDocumentLockManagerTest.this.lockManager
+                        .lockShared(TimeoutDocumentLockManagerTest.this.docRef);
+                    Thread.sleep(1000);
+                    TimeoutDocumentLockManagerTest.this.lockManager
+                        .unlockShared(TimeoutDocumentLockManagerTest.this.docRef);
+                } catch (InterruptedException e) {
+                    // Tests, we don't care
+                }
+            }
+        });
+        other.start();
+        Thread.sleep(200);
+        this.lockManager.lock(this.docRef);
+        long time = System.currentTimeMillis() - start;
+        this.lockManager.unlock(this.docRef);
+        other.join();
+        Assert.assertTrue(time >= 900);
+        Assert.assertTrue(time < 5 * 1000);
+        Assert.assertEquals(1, getStatistics().getContentions());
+        Assert.assertEquals(0, getStatistics().getTimeouts());
+        Assert.assertTrue(getStatistics().getMaxWaitTime() >= 500);
+    }
+
+    @Test
+    public void releasedLocksAreEvicted()
+    {
+        DocumentReference other = new DocumentReference("xwiki", "data", "P0000002");
+        this.lockManager.lock(this.docRef);
+        this.lockManager.lockShared(other);
+        Assert.assertEquals(2, getStatistics().getLockedDocuments());
+        this.lockManager.unlock(this.docRef);
+        Assert.assertEquals(1, getStatistics().getLockedDocuments());
+        this.lockManager.unlockShared(other);
+        Assert.assertEquals(0, getStatistics().getLockedDocuments());
+        Assert.assertEquals(2, getStatistics().getAcquisitions());
+    }
+
+    @Test
+    public void timeoutsAreCounted()
+    {
+        this.lockManager.lock(this.docRef);
+        this.lockManager.lock(this.docRef);
+        Assert.assertEquals(1, getStatistics().getTimeouts());
+        this.lockManager.unlock(this.docRef);
+        this.lockManager.unlock(this.docRef);
+        Assert.assertEquals(0, getStatistics().getLockedDocuments());
+        // The lock is free again
+        long start = System.currentTimeMillis();
+        this.lockManager.lock(this.docRef);
+        Assert.assertTrue(System.currentTimeMillis() - start < 5 * 1000);
+    }
+
+    private TimeoutDocumentLockManager getStatistics()
+    {
+        return (TimeoutDocumentLockManager) this.lockManager;
+    }
 }
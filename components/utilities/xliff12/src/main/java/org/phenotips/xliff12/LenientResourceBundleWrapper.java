@@ -20,16 +20,17 @@
 import java.lang.ref.SoftReference;
 import java.util.Collections;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A wrapper around XLIFF-based {@link ResourceBundle}s, which, instead of throwing {@link MissingResourceException}
  * whenever attempting to retrieve a translation, simply returns {@code null}. Also handles the proper loading of the
- * resource bundles.
+ * resource bundles. This class is thread safe, since vocabulary extensions use it while terms are extended in
+ * parallel.
  *
  * @version $Id$
  * @since 1.3
@@ -53,7 +54,7 @@ protected Object handleGetObject(String key)
     };
 
     /** Cache of already loaded translations. */
-    private Map<String, SoftReference<? extends ResourceBundle>> translations = new HashMap<>();
+    private final Map<String, SoftReference<? extends ResourceBundle>> translations = new ConcurrentHashMap<>();
 
     /**
      * Gets the translation for a key, in a specific language, from a translatable resource bundle.
@@ -87,15 +88,19 @@ public boolean isTranslationAvailable(String baseName, Locale locale)
 
     private ResourceBundle getTranslation(String baseName, Locale locale)
     {
-        if (!this.translations.containsKey(baseName + '_' + locale.toString())) {
+        String cacheKey = baseName + '_' + locale;
+        SoftReference<? extends ResourceBundle> cached = this.translations.get(cacheKey);
+        ResourceBundle result = cached == null ? null : cached.get();
+        if (result == null) {
+            // Not loaded yet, or reclaimed by the garbage collector; concurrent threads may both load the bundle,
+            // which is harmless
             try {
-                ResourceBundle result =
-                    ResourceBundle.getBundle(baseName, locale, XLIFFResourceBundleControl.INSTANCE);
-                this.translations.put(baseName + '_' + locale, new SoftReference<>(result));
+                result = ResourceBundle.getBundle(baseName, locale, XLIFFResourceBundleControl.INSTANCE);
             } catch (MissingResourceException ex) {
-                this.translations.put(baseName + '_' + locale, new SoftReference<>(NONEXISTENT_BUNDLE));
+                result = NONEXISTENT_BUNDLE;
             }
+            this.translations.put(cacheKey, new SoftReference<>(result));
         }
-        return this.translations.get(baseName + '_' + locale).get();
+        return result;
     }
 }
@@ -0,0 +1,86 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.translation;
+
+import org.phenotips.xliff12.LenientResourceBundleWrapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link LenientResourceBundleWrapper}.
+ *
+ * @version $Id$
+ */
+public class LenientResourceBundleWrapperTest
+{
+    private final LenientResourceBundleWrapper wrapper = new LenientResourceBundleWrapper();
+
+    @Test
+    public void missingTranslationsReturnNull()
+    {
+        assertEquals("The Dummy 1", this.wrapper.getTranslation("test", "DUM_0001", Locale.ENGLISH));
+        assertNull(this.wrapper.getTranslation("test", "DUM_0010", Locale.ENGLISH));
+        assertNull(this.wrapper.getTranslation("missing", "DUM_0001", Locale.ENGLISH));
+    }
+
+    @Test
+    public void isTranslationAvailable()
+    {
+        assertTrue(this.wrapper.isTranslationAvailable("test", Locale.US));
+        assertFalse(this.wrapper.isTranslationAvailable("missing", Locale.US));
+    }
+
+    @Test
+    public void translationsCanBeRequestedConcurrently() throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 200; ++i) {
+                final Locale locale = i % 2 == 0 ? Locale.ENGLISH : Locale.US;
+                results.add(executor.submit(new Callable<String>()
+                {
+                    @Override
+                    public String call()
+                    {
+                        return LenientResourceBundleWrapperTest.this.wrapper.getTranslation("test", "DUM_0004",
+                            locale);
+                    }
+                }));
+            }
+            for (Future<String> result : results) {
+                assertEquals("The Dummy 4", result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
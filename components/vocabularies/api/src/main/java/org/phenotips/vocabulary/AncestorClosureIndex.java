@@ -0,0 +1,507 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary;
+
+import org.xwiki.stability.Unstable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A compact, immutable index holding the ancestor closure of every term in a structured vocabulary. Term identifiers
+ * are coded as integers, in the lexicographic order of the identifiers, and the closure of each term is stored as a
+ * sorted slice of a single shared {@code int} array, so that looking up the ancestors of a term requires no access to
+ * the underlying storage engine, and no {@link VocabularyTerm} instances. The direct parent relations are also kept,
+ * in the same compact form, and are exposed as a {@link TermGraph} for computing distances between terms.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Unstable
+public final class AncestorClosureIndex
+{
+    /** Marks the start of a serialized index, used to detect invalid or incompatible files. */
+    private static final int MAGIC = 0x50544143;
+
+    /** The version of the serialization format. */
+    private static final int FORMAT_VERSION = 2;
+
+    /** An index with no terms. */
+    private static final AncestorClosureIndex EMPTY =
+        new AncestorClosureIndex(new String[0], new int[] { 0 }, new int[0], new int[] { 0 }, new int[0],
+            new String[0], new int[0]);
+
+    /** The known term identifiers, sorted; the position of an identifier in this array is its integer code. */
+    private final String[] ids;
+
+    /** The start of the closure of term {@code i} in {@link #closures}, with {@code offsets[i + 1]} as its end. */
+    private final int[] offsets;
+
+    /** The concatenated closures of all the terms, each one sorted and including the term itself. */
+    private final int[] closures;
+
+    /** The start of the direct parents of term {@code i} in {@link #parents}, with the next offset as its end. */
+    private final int[] parentOffsets;
+
+    /** The concatenated direct parents of all the terms. */
+    private final int[] parents;
+
+    /** Alternative identifiers, sorted. */
+    private final String[] aliases;
+
+    /** The code of the term referenced by the alias with the same position in {@link #aliases}. */
+    private final int[] aliasTargets;
+
+    /** The graph view over this index, created when first needed. */
+    private volatile TermGraph graph;
+
+    private AncestorClosureIndex(String[] ids, int[] offsets, int[] closures, int[] parentOffsets, int[] parents,
+        String[] aliases, int[] aliasTargets)
+    {
+        this.ids = ids;
+        this.offsets = offsets;
+        this.closures = closures;
+        this.parentOffsets = parentOffsets;
+        this.parents = parents;
+        this.aliases = aliases;
+        this.aliasTargets = aliasTargets;
+    }
+
+    /**
+     * Get an index that doesn't contain any terms.
+     *
+     * @return an empty index
+     */
+    public static AncestorClosureIndex empty()
+    {
+        return EMPTY;
+    }
+
+    /**
+     * The number of terms in this index, not counting aliases.
+     *
+     * @return a positive number, or {@code 0} if this index is empty
+     */
+    public int size()
+    {
+        return this.ids.length;
+    }
+
+    /**
+     * Checks if a term, identified either by its main identifier or by an alternative identifier, is known.
+     *
+     * @param id the identifier to check
+     * @return {@code true} if the term is present in the index, {@code false} otherwise
+     */
+    public boolean contains(String id)
+    {
+        return getCode(id) >= 0;
+    }
+
+    /**
+     * Get the identifiers of the ancestors of a term, including the term itself.
+     *
+     * @param id the identifier of the term, either its main identifier or an alternative one
+     * @return an unmodifiable set of the ancestor identifiers, sorted, including the main identifier of the term; an
+     *         empty set if the term is not known
+     */
+    public Set<String> getAncestorIdsAndSelf(String id)
+    {
+        int code = getCode(id);
+        if (code < 0) {
+            return Collections.emptySet();
+        }
+        return new ClosureView(this.offsets[code], this.offsets[code + 1]);
+    }
+
+    /**
+     * Get the integer code assigned to a term.
+     *
+     * @param id the identifier of the term, either its main identifier or an alternative one
+     * @return a positive code, or a negative number if the term is not known
+     */
+    public int getCode(String id)
+    {
+        if (id == null) {
+            return -1;
+        }
+        int code = Arrays.binarySearch(this.ids, id);
+        if (code < 0) {
+            int alias = Arrays.binarySearch(this.aliases, id);
+            code = alias >= 0 ? this.aliasTargets[alias] : -1;
+        }
+        return code;
+    }
+
+    /**
+     * Get the identifier of a term given its integer code.
+     *
+     * @param code a valid term code, as returned by {@link #getCode(String)}
+     * @return the main identifier of the term
+     */
+    public String getId(int code)
+    {
+        return this.ids[code];
+    }
+
+    /**
+     * The position in the shared closures array where the closure of a term starts.
+     *
+     * @param code a valid term code
+     * @return the start of the closure, inclusive
+     */
+    int getClosureStart(int code)
+    {
+        return this.offsets[code];
+    }
+
+    /**
+     * The position in the shared closures array where the closure of a term ends.
+     *
+     * @param code a valid term code
+     * @return the end of the closure, exclusive
+     */
+    int getClosureEnd(int code)
+    {
+        return this.offsets[code + 1];
+    }
+
+    /**
+     * Get an item from the shared closures array.
+     *
+     * @param position a position between the {@link #getClosureStart(int) start} and the {@link #getClosureEnd(int)
+     *            end} of a term's closure
+     * @return the code of an ancestor
+     */
+    int getClosureItem(int position)
+    {
+        return this.closures[position];
+    }
+
+    /**
+     * Get the graph of direct parent relations between the terms in this index, which uses the same term codes.
+     *
+     * @return the term graph, never {@code null}
+     */
+    public TermGraph getGraph()
+    {
+        TermGraph result = this.graph;
+        if (result == null) {
+            result = new TermGraph(this, this.parentOffsets, this.parents);
+            this.graph = result;
+        }
+        return result;
+    }
+
+    /**
+     * Write this index in a compact binary format, which can be read back using {@link #read(InputStream)}.
+     *
+     * @param out the stream to write to; it is not closed by this method
+     * @throws IOException if writing to the stream fails
+     */
+    public void write(OutputStream out) throws IOException
+    {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(FORMAT_VERSION);
+        data.writeInt(this.ids.length);
+        for (String id : this.ids) {
+            data.writeUTF(id);
+        }
+        for (int offset : this.offsets) {
+            data.writeInt(offset);
+        }
+        for (int ancestor : this.closures) {
+            data.writeInt(ancestor);
+        }
+        for (int offset : this.parentOffsets) {
+            data.writeInt(offset);
+        }
+        for (int parent : this.parents) {
+            data.writeInt(parent);
+        }
+        data.writeInt(this.aliases.length);
+        for (int i = 0; i < this.aliases.length; ++i) {
+            data.writeUTF(this.aliases[i]);
+            data.writeInt(this.aliasTargets[i]);
+        }
+        data.flush();
+    }
+
+    /**
+     * Read an index previously written with {@link #write(OutputStream)}.
+     *
+     * @param in the stream to read from; it is not closed by this method
+     * @return the index read from the stream
+     * @throws IOException if reading from the stream fails, or if the stream doesn't contain a valid index
+     */
+    public static AncestorClosureIndex read(InputStream in) throws IOException
+    {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC || data.readInt() != FORMAT_VERSION) {
+            throw new IOException("Not a valid ancestor index");
+        }
+        String[] ids = new String[data.readInt()];
+        for (int i = 0; i < ids.length; ++i) {
+            ids[i] = data.readUTF();
+        }
+        int[] offsets = readInts(data, ids.length + 1);
+        int[] closures = readInts(data, offsets[ids.length]);
+        int[] parentOffsets = readInts(data, ids.length + 1);
+        int[] parents = readInts(data, parentOffsets[ids.length]);
+        String[] aliases = new String[data.readInt()];
+        int[] aliasTargets = new int[aliases.length];
+        for (int i = 0; i < aliases.length; ++i) {
+            aliases[i] = data.readUTF();
+            aliasTargets[i] = data.readInt();
+        }
+        return new AncestorClosureIndex(ids, offsets, closures, parentOffsets, parents, aliases, aliasTargets);
+    }
+
+    private static int[] readInts(DataInputStream data, int count) throws IOException
+    {
+        int[] result = new int[count];
+        for (int i = 0; i < count; ++i) {
+            result[i] = data.readInt();
+        }
+        return result;
+    }
+
+    /**
+     * Read-only view over the closure of one term, as a slice of the shared closures array.
+     */
+    private final class ClosureView extends AbstractSet<String>
+    {
+        private final int start;
+
+        private final int end;
+
+        ClosureView(int start, int end)
+        {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int size()
+        {
+            return this.end - this.start;
+        }
+
+        @Override
+        public boolean contains(Object o)
+        {
+            if (!(o instanceof String)) {
+                return false;
+            }
+            int code = Arrays.binarySearch(AncestorClosureIndex.this.ids, o);
+            return code >= 0
+                && Arrays.binarySearch(AncestorClosureIndex.this.closures, this.start, this.end, code) >= 0;
+        }
+
+        @Override
+        public Iterator<String> iterator()
+        {
+            return new Iterator<String>()
+            {
+                private int position = ClosureView.this.start;
+
+                @Override
+                public boolean hasNext()
+                {
+                    return this.position < ClosureView.this.end;
+                }
+
+                @Override
+                public String next()
+                {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return AncestorClosureIndex.this.ids[AncestorClosureIndex.this.closures[this.position++]];
+                }
+            };
+        }
+    }
+
+    /**
+     * Collects the parent relations of a vocabulary, and computes the ancestor closures once all the terms are known.
+     * Parent identifiers may be followed by a space and a comment, as in {@code HP:0000118 ! Phenotypic abnormality},
+     * and parents which aren't themselves added as terms are ignored. Not thread safe.
+     */
+    public static final class Builder
+    {
+        private final Map<String, Set<String>> parents = new HashMap<>();
+
+        private final Map<String, String> aliases = new HashMap<>();
+
+        /**
+         * Register a term and its direct parents.
+         *
+         * @param id the identifier of the term
+         * @param parentIds the identifiers of the direct parents of the term, may be {@code null}
+         * @return this builder, for chaining calls
+         */
+        public Builder addTerm(String id, Collection<?> parentIds)
+        {
+            if (StringUtils.isBlank(id)) {
+                return this;
+            }
+            Set<String> termParents = this.parents.get(id);
+            if (termParents == null) {
+                termParents = new LinkedHashSet<>();
+                this.parents.put(id, termParents);
+            }
+            if (parentIds != null) {
+                for (Object parentId : parentIds) {
+                    termParents.add(StringUtils.substringBefore(String.valueOf(parentId), " "));
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Register an alternative identifier for a term.
+         *
+         * @param alias the alternative identifier
+         * @param id the main identifier of the term
+         * @return this builder, for chaining calls
+         */
+        public Builder addAlias(String alias, String id)
+        {
+            if (StringUtils.isNoneBlank(alias, id)) {
+                this.aliases.put(alias, id);
+            }
+            return this;
+        }
+
+        /**
+         * Compute the ancestor closures of all the registered terms. Each closure is computed only once, reusing the
+         * already computed closures of the parents. Cycles, which shouldn't exist in a valid ontology, are broken
+         * arbitrarily.
+         *
+         * @return the computed index
+         */
+        public AncestorClosureIndex build()
+        {
+            String[] ids = this.parents.keySet().toArray(new String[this.parents.size()]);
+            Arrays.sort(ids);
+
+            int[][] parentCodes = new int[ids.length][];
+            for (int i = 0; i < ids.length; ++i) {
+                Set<String> termParents = this.parents.get(ids[i]);
+                int[] codes = new int[termParents.size()];
+                int count = 0;
+                for (String parent : termParents) {
+                    int code = Arrays.binarySearch(ids, parent);
+                    if (code >= 0 && code != i) {
+                        codes[count++] = code;
+                    }
+                }
+                parentCodes[i] = Arrays.copyOf(codes, count);
+            }
+
+            int[][] termClosures = new int[ids.length][];
+            boolean[] inProgress = new boolean[ids.length];
+            for (int i = 0; i < ids.length; ++i) {
+                computeClosure(i, parentCodes, termClosures, inProgress);
+            }
+
+            int[] offsets = new int[ids.length + 1];
+            int[] closures = flatten(termClosures, offsets);
+            int[] parentOffsets = new int[ids.length + 1];
+            int[] flatParents = flatten(parentCodes, parentOffsets);
+
+            String[] aliasIds = new String[this.aliases.size()];
+            int[] aliasTargets = new int[aliasIds.length];
+            int aliasCount = 0;
+            String[] sortedAliases = this.aliases.keySet().toArray(new String[aliasIds.length]);
+            Arrays.sort(sortedAliases);
+            for (String alias : sortedAliases) {
+                int target = Arrays.binarySearch(ids, this.aliases.get(alias));
+                if (target >= 0 && Arrays.binarySearch(ids, alias) < 0) {
+                    aliasIds[aliasCount] = alias;
+                    aliasTargets[aliasCount++] = target;
+                }
+            }
+
+            return new AncestorClosureIndex(ids, offsets, closures, parentOffsets, flatParents,
+                Arrays.copyOf(aliasIds, aliasCount), Arrays.copyOf(aliasTargets, aliasCount));
+        }
+
+        private int[] flatten(int[][] values, int[] offsets)
+        {
+            for (int i = 0; i < values.length; ++i) {
+                offsets[i + 1] = offsets[i] + values[i].length;
+            }
+            int[] result = new int[offsets[values.length]];
+            for (int i = 0; i < values.length; ++i) {
+                System.arraycopy(values[i], 0, result, offsets[i], values[i].length);
+            }
+            return result;
+        }
+
+        private int[] computeClosure(int term, int[][] parentCodes, int[][] termClosures, boolean[] inProgress)
+        {
+            if (termClosures[term] != null) {
+                return termClosures[term];
+            }
+            inProgress[term] = true;
+            int[][] parentClosures = new int[parentCodes[term].length][];
+            int total = 1;
+            for (int i = 0; i < parentClosures.length; ++i) {
+                int parent = parentCodes[term][i];
+                parentClosures[i] = inProgress[parent] ? new int[0]
+                    : computeClosure(parent, parentCodes, termClosures, inProgress);
+                total += parentClosures[i].length;
+            }
+            int[] merged = new int[total];
+            merged[0] = term;
+            int position = 1;
+            for (int[] parentClosure : parentClosures) {
+                System.arraycopy(parentClosure, 0, merged, position, parentClosure.length);
+                position += parentClosure.length;
+            }
+            Arrays.sort(merged);
+            int unique = 0;
+            for (int i = 0; i < merged.length; ++i) {
+                if (unique == 0 || merged[i] != merged[unique - 1]) {
+                    merged[unique++] = merged[i];
+                }
+            }
+            inProgress[term] = false;
+            termClosures[term] = Arrays.copyOf(merged, unique);
+            return termClosures[term];
+        }
+    }
+}
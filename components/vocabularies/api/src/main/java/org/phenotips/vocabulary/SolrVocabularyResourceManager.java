@@ -88,4 +88,26 @@
      * @since 1.4
      */
     void discardReplacementCore(Vocabulary vocabulary);
+
+    /**
+     * Get the ancestor closure index built for a vocabulary during its last reindexing.
+     *
+     * @param vocabulary the target vocabulary
+     * @return the ancestor index, or an {@link AncestorClosureIndex#empty() empty index} if no index was built for
+     *         this vocabulary
+     * @since 1.4
+     */
+    AncestorClosureIndex getAncestorIndex(Vocabulary vocabulary);
+
+    /**
+     * Store the ancestor closure index built during reindexing next to the temporary core, so that it replaces the
+     * {@link #getAncestorIndex(Vocabulary) current index} together with the core data when
+     * {@link #replaceCore(Vocabulary)} is called.
+     *
+     * @param vocabulary the target vocabulary
+     * @param index the newly built ancestor index
+     * @throws InitializationException if storing the index fails
+     * @since 1.4
+     */
+    void setReplacementAncestorIndex(Vocabulary vocabulary, AncestorClosureIndex index) throws InitializationException;
 }
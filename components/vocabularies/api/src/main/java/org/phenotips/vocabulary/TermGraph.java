@@ -0,0 +1,340 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary;
+
+import org.xwiki.stability.Unstable;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * In-memory view of the DAG formed by the terms of a structured vocabulary, using the integer term codes of an
+ * {@link AncestorClosureIndex}. Parent and child relations are stored in compressed sparse row form: all the edges in
+ * one shared array, and an offsets array marking where the edges of each term start. Distances follow the same
+ * definition as {@link VocabularyTerm#getDistanceTo(VocabularyTerm)}: the minimum number of edges that connect two
+ * terms going up through a common ancestor. Instances are immutable and thread safe.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Unstable
+public final class TermGraph
+{
+    private final AncestorClosureIndex index;
+
+    private final int[] parentOffsets;
+
+    private final int[] parents;
+
+    private final int[] childOffsets;
+
+    private final int[] children;
+
+    /**
+     * Constructor, computing the child relations from the parent relations.
+     *
+     * @param index the index which assigns the term codes, and holds the ancestor closures
+     * @param parentOffsets where the parents of each term start in {@code parents}, with one extra trailing offset
+     * @param parents the concatenated direct parents of all the terms
+     */
+    TermGraph(AncestorClosureIndex index, int[] parentOffsets, int[] parents)
+    {
+        this.index = index;
+        this.parentOffsets = parentOffsets;
+        this.parents = parents;
+
+        int size = parentOffsets.length - 1;
+        this.childOffsets = new int[size + 1];
+        for (int parent : parents) {
+            ++this.childOffsets[parent + 1];
+        }
+        for (int i = 0; i < size; ++i) {
+            this.childOffsets[i + 1] += this.childOffsets[i];
+        }
+        this.children = new int[parents.length];
+        int[] fill = new int[size];
+        for (int term = 0; term < size; ++term) {
+            for (int i = parentOffsets[term]; i < parentOffsets[term + 1]; ++i) {
+                int parent = parents[i];
+                this.children[this.childOffsets[parent] + fill[parent]++] = term;
+            }
+        }
+    }
+
+    /**
+     * The number of terms in this graph.
+     *
+     * @return a positive number, or {@code 0} if the graph is empty
+     */
+    public int size()
+    {
+        return this.parentOffsets.length - 1;
+    }
+
+    /**
+     * Checks if a term is part of this graph.
+     *
+     * @param id the identifier of the term, either its main identifier or an alternative one
+     * @return {@code true} if the term is known
+     */
+    public boolean contains(String id)
+    {
+        return this.index.contains(id);
+    }
+
+    /**
+     * Get the direct parents of a term.
+     *
+     * @param id the identifier of the term, either its main identifier or an alternative one
+     * @return an unmodifiable list of parent identifiers, empty if the term is a root or is not known
+     */
+    public List<String> getParentIds(String id)
+    {
+        int code = this.index.getCode(id);
+        if (code < 0) {
+            return Collections.emptyList();
+        }
+        return new CodeList(this.parents, this.parentOffsets[code], this.parentOffsets[code + 1]);
+    }
+
+    /**
+     * Get the direct children of a term.
+     *
+     * @param id the identifier of the term, either its main identifier or an alternative one
+     * @return an unmodifiable list of child identifiers, empty if the term is a leaf or is not known
+     */
+    public List<String> getChildIds(String id)
+    {
+        int code = this.index.getCode(id);
+        if (code < 0) {
+            return Collections.emptyList();
+        }
+        return new CodeList(this.children, this.childOffsets[code], this.childOffsets[code + 1]);
+    }
+
+    /**
+     * Find the distance between two terms. The parameters are interchangeable.
+     *
+     * @param fromId the identifier of the term that is considered the start point
+     * @param toId the identifier of the term that is considered the end point
+     * @return the minimum number of edges that connect the two terms through a common ancestor, or {@code -1} if the
+     *         terms are not connected, or if at least one of the terms is not known
+     */
+    public long getDistance(String fromId, String toId)
+    {
+        int from = this.index.getCode(fromId);
+        int to = this.index.getCode(toId);
+        if (from < 0 || to < 0) {
+            return -1;
+        }
+        return closestCommonAncestor(from, getAncestorDistances(from), to, getAncestorDistances(to))[1];
+    }
+
+    /**
+     * Find the lowest common ancestor of two terms, i.e. the common ancestor through which the shortest path between
+     * the two terms passes. The parameters are interchangeable.
+     *
+     * @param firstId the identifier of the first term
+     * @param secondId the identifier of the second term
+     * @return the identifier of the lowest common ancestor, which may be one of the two terms if one is an ancestor of
+     *         the other, or {@code null} if the terms don't have a common ancestor, or if at least one of the terms is
+     *         not known; if several ancestors are at the same distance, any one of them may be returned
+     */
+    public String getLowestCommonAncestor(String firstId, String secondId)
+    {
+        int first = this.index.getCode(firstId);
+        int second = this.index.getCode(secondId);
+        if (first < 0 || second < 0) {
+            return null;
+        }
+        long[] result = closestCommonAncestor(first, getAncestorDistances(first), second,
+            getAncestorDistances(second));
+        return result[0] >= 0 ? this.index.getId((int) result[0]) : null;
+    }
+
+    /**
+     * Compute the distances between all the pairs of terms from two collections. The ancestors of each distinct term
+     * are explored only once, which makes this much faster than computing each distance separately.
+     *
+     * @param from the identifiers of the terms that are considered start points
+     * @param to the identifiers of the terms that are considered end points
+     * @return a matrix with {@code from.size()} rows and {@code to.size()} columns, in the iteration order of the two
+     *         collections, holding the {@link #getDistance(String, String) distance} between each pair of terms
+     */
+    public long[][] getDistances(Collection<String> from, Collection<String> to)
+    {
+        int[] toCodes = new int[to.size()];
+        int[][] toDistances = new int[to.size()][];
+        int column = 0;
+        for (String id : to) {
+            toCodes[column] = this.index.getCode(id);
+            toDistances[column] = toCodes[column] >= 0 ? getAncestorDistances(toCodes[column]) : null;
+            ++column;
+        }
+
+        long[][] result = new long[from.size()][to.size()];
+        int row = 0;
+        for (String id : from) {
+            int fromCode = this.index.getCode(id);
+            int[] fromDistances = fromCode >= 0 ? getAncestorDistances(fromCode) : null;
+            for (column = 0; column < toCodes.length; ++column) {
+                result[row][column] = (fromDistances == null || toDistances[column] == null) ? -1
+                    : closestCommonAncestor(fromCode, fromDistances, toCodes[column], toDistances[column])[1];
+            }
+            ++row;
+        }
+        return result;
+    }
+
+    /**
+     * Breadth-first exploration of the ancestors of a term, going only through parent edges. The result is aligned
+     * with the closure of the term in the index: the distance to the ancestor stored at position {@code start + i} in
+     * the closures array is stored at position {@code i} in the result.
+     *
+     * @param code the code of the term whose ancestors are explored
+     * @return the distances to each ancestor, aligned with the term's closure
+     */
+    private int[] getAncestorDistances(int code)
+    {
+        int start = this.index.getClosureStart(code);
+        int size = this.index.getClosureEnd(code) - start;
+        int[] distances = new int[size];
+        int[] queue = new int[size];
+        for (int i = 0; i < size; ++i) {
+            distances[i] = -1;
+        }
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = code;
+        distances[positionInClosure(code, code)] = 0;
+        while (head < tail) {
+            int current = queue[head++];
+            int currentDistance = distances[positionInClosure(code, current)];
+            for (int i = this.parentOffsets[current]; i < this.parentOffsets[current + 1]; ++i) {
+                int parent = this.parents[i];
+                int position = positionInClosure(code, parent);
+                if (position >= 0 && distances[position] < 0) {
+                    distances[position] = currentDistance + 1;
+                    queue[tail++] = parent;
+                }
+            }
+        }
+        return distances;
+    }
+
+    /**
+     * Finds the position of an ancestor in a term's closure, relative to the start of the closure.
+     *
+     * @param code the term whose closure is searched
+     * @param ancestor the ancestor to look for
+     * @return the relative position, or {@code -1} if the ancestor isn't part of the closure
+     */
+    private int positionInClosure(int code, int ancestor)
+    {
+        int low = this.index.getClosureStart(code);
+        int high = this.index.getClosureEnd(code) - 1;
+        int start = low;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int value = this.index.getClosureItem(middle);
+            if (value < ancestor) {
+                low = middle + 1;
+            } else if (value > ancestor) {
+                high = middle - 1;
+            } else {
+                return middle - start;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Merges the sorted closures of two terms, looking for the common ancestor with the minimum summed distance.
+     *
+     * @param first the code of the first term
+     * @param firstDistances the {@link #getAncestorDistances(int) ancestor distances} of the first term
+     * @param second the code of the second term
+     * @param secondDistances the {@link #getAncestorDistances(int) ancestor distances} of the second term
+     * @return a pair holding the code of the closest common ancestor and the distance through it, or {@code -1} for
+     *         both if there is no common ancestor
+     */
+    private long[] closestCommonAncestor(int first, int[] firstDistances, int second, int[] secondDistances)
+    {
+        long[] result = { -1, -1 };
+        int firstStart = this.index.getClosureStart(first);
+        int secondStart = this.index.getClosureStart(second);
+        int i = 0;
+        int j = 0;
+        while (i < firstDistances.length && j < secondDistances.length) {
+            int firstAncestor = this.index.getClosureItem(firstStart + i);
+            int secondAncestor = this.index.getClosureItem(secondStart + j);
+            if (firstAncestor < secondAncestor) {
+                ++i;
+            } else if (firstAncestor > secondAncestor) {
+                ++j;
+            } else {
+                if (firstDistances[i] >= 0 && secondDistances[j] >= 0) {
+                    long distance = (long) firstDistances[i] + secondDistances[j];
+                    if (result[1] < 0 || distance < result[1]) {
+                        result[0] = firstAncestor;
+                        result[1] = distance;
+                    }
+                }
+                ++i;
+                ++j;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Read-only list of term identifiers, backed by a slice of an edges array.
+     */
+    private final class CodeList extends AbstractList<String>
+    {
+        private final int[] codes;
+
+        private final int start;
+
+        private final int end;
+
+        CodeList(int[] codes, int start, int end)
+        {
+            this.codes = codes;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public String get(int position)
+        {
+            if (position < 0 || position >= size()) {
+                throw new IndexOutOfBoundsException();
+            }
+            return TermGraph.this.index.getId(this.codes[this.start + position]);
+        }
+
+        @Override
+        public int size()
+        {
+            return this.end - this.start;
+        }
+    }
+}
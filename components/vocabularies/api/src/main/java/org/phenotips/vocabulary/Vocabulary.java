@@ -54,6 +54,25 @@
      */
     Set<VocabularyTerm> getTerms(Collection<String> ids);
 
+    /**
+     * Get the identifiers of the ancestors of a term, including the term itself, without loading the ancestor terms.
+     * Structured vocabularies should answer this from an in-memory index, without querying the underlying storage.
+     *
+     * @param id the term identifier, in the format {@code <vocabulary prefix>:<term id>}, for example
+     *            {@code HP:0002066}
+     * @return the identifiers of the term and all its ancestors, or an empty set if the term doesn't exist in this
+     *         vocabulary
+     * @since 1.4
+     */
+    default Set<String> getAncestorIdsAndSelf(String id)
+    {
+        VocabularyTerm term = getTerm(id);
+        if (term == null) {
+            return Collections.emptySet();
+        }
+        return term.getAncestorIdsAndSelf();
+    }
+
     /**
      * Generic search method, which looks for terms that match the specified term properties.
      *
@@ -160,6 +179,32 @@ default List<VocabularyTerm> search(String input, String category, int maxResult
      */
     long getDistance(VocabularyTerm fromTerm, VocabularyTerm toTerm);
 
+    /**
+     * Find the distances between all the pairs of terms from two collections, identified by their
+     * {@link VocabularyTerm#getId() term identifiers}. Structured ontologies should compute this in bulk, exploring
+     * the ancestors of each term only once, which is much faster than computing each distance separately.
+     *
+     * @param fromTermIds the identifiers of the terms that are considered start points
+     * @param toTermIds the identifiers of the terms that are considered end points
+     * @return a matrix with one row for each term in {@code fromTermIds} and one column for each term in
+     *         {@code toTermIds}, in the iteration order of the collections, holding the
+     *         {@link #getDistance(String, String) distance} between each pair of terms
+     * @since 1.4
+     */
+    default long[][] getDistances(Collection<String> fromTermIds, Collection<String> toTermIds)
+    {
+        long[][] result = new long[fromTermIds.size()][toTermIds.size()];
+        int row = 0;
+        for (String fromTermId : fromTermIds) {
+            int column = 0;
+            for (String toTermId : toTermIds) {
+                result[row][column++] = getDistance(fromTermId, toTermId);
+            }
+            ++row;
+        }
+        return result;
+    }
+
     /**
      * The identifier of the vocabulary, used internally to differentiate between different vocabularies and different
      * implementations of the same vocabulary.
@@ -28,7 +28,8 @@
  * is {@link org.phenotips.vocabulary.Vocabulary#reindex(String) reindexed}, first {@link #indexingStarted} is called,
  * so that the extension can prepare its needed resources, if any. Then, for each term parsed from its source the
  * {@link #extendTerm} method is called, and new fields can be added to it. Once all the terms have been indexed,
- * {@link #indexingEnded} is called, and any resources can be freed.
+ * {@link #indexingEnded} is called, and any resources can be freed. Since 1.4, {@link #extendTerm} may be called
+ * concurrently from several threads, so implementations must be thread safe.
  *
  * @version $Id$
  * @since 1.3M1
@@ -58,7 +59,9 @@
     /**
      * Called for each term during vocabulary reindexing, this method modifies the parsed terms by changing, adding or
      * removing fields. This method is called only for {@link #isVocabularySupported(Vocabulary) supported vocabularies}
-     * .
+     * . Since 1.4, vocabularies may extend several terms in parallel, so this method may be called concurrently from
+     * several threads, for different terms; any state shared between calls, such as caches, must be thread safe, and
+     * the resources prepared in {@link #indexingStarted} should only be read.
      *
      * @param term the parsed term which can be altered
      * @param vocabulary the the vocabulary being indexed
@@ -75,7 +78,9 @@
 
     /**
      * Called for each query on the vocabulary, this method modifies the query terms by changing, adding or removing
-     * fields.
+     * fields. Since 1.4, vocabularies may instead call it only once on a query template holding just the static search
+     * parameters, without the user input, and reuse the extended template for all the queries of the same type in the
+     * same locale; thus, the changes should only depend on the static parameters and on the current locale.
      *
      * @param query the query to process
      * @param vocabulary the the vocabulary being queried
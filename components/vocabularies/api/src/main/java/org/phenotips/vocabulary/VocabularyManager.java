@@ -20,7 +20,9 @@
 import org.xwiki.component.annotation.Role;
 import org.xwiki.stability.Unstable;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -44,6 +46,26 @@
      */
     VocabularyTerm resolveTerm(String termId);
 
+    /**
+     * Retrieve the identifiers of a term's ancestors, including the term itself, from its owner vocabulary, without
+     * loading the ancestor terms. For this to work properly, the term identifier must contain a known vocabulary
+     * prefix.
+     *
+     * @param termId the term identifier, in the format {@code <vocabulary prefix>:<term id>}, for example
+     *            {@code HP:0002066}
+     * @return the identifiers of the term and all its ancestors, or an empty set if the term doesn't exist in the
+     *         vocabulary, or no matching vocabulary is available
+     * @since 1.4
+     */
+    default Set<String> getAncestorIdsAndSelf(String termId)
+    {
+        VocabularyTerm term = resolveTerm(termId);
+        if (term == null) {
+            return Collections.emptySet();
+        }
+        return term.getAncestorIdsAndSelf();
+    }
+
     /**
      * Retrieve a vocabulary given its identifier.
      *
@@ -108,4 +130,17 @@
      * @since 1.4
      */
     boolean hasCategory(String category);
+
+    /**
+     * Returns the statistics of the searches performed so far in each vocabulary.
+     *
+     * @return a map where the key is the vocabulary identifier, and the value holds the statistics of the searches
+     *         performed in that vocabulary; may be empty if no search was performed yet, or if the implementation
+     *         doesn't collect statistics
+     * @since 1.4
+     */
+    default Map<String, VocabularySearchStatistics> getSearchStatistics()
+    {
+        return Collections.emptyMap();
+    }
 }
@@ -0,0 +1,66 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * Statistics about the searches performed in one vocabulary through the {@link VocabularyManager}. Latencies are
+ * measured for all the searches, including the ones that finished after the search timeout.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@Unstable
+public interface VocabularySearchStatistics
+{
+    /**
+     * The number of searches performed in the vocabulary, including the ones that timed out.
+     *
+     * @return a positive number, or {@code 0}
+     */
+    long getSearches();
+
+    /**
+     * The average duration of a search.
+     *
+     * @return a duration in milliseconds, {@code 0} if no searches were performed
+     */
+    long getAverageTime();
+
+    /**
+     * The duration of the slowest search.
+     *
+     * @return a duration in milliseconds, {@code 0} if no searches were performed
+     */
+    long getMaxTime();
+
+    /**
+     * The number of searches whose results were left out because the vocabulary didn't answer in time.
+     *
+     * @return a positive number, or {@code 0}
+     */
+    long getTimeouts();
+
+    /**
+     * The number of searches whose results were left out because the vocabulary failed.
+     *
+     * @return a positive number, or {@code 0}
+     */
+    long getFailures();
+}
@@ -20,6 +20,7 @@
 import org.xwiki.stability.Unstable;
 
 import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 import org.json.JSONObject;
@@ -98,6 +99,22 @@
      */
     Set<VocabularyTerm> getAncestorsAndSelf();
 
+    /**
+     * Returns the identifiers of the ancestors (both direct and indirect ancestors) of this term <em>and</em> the
+     * identifier of the term itself, without loading the ancestor terms.
+     *
+     * @return a set of term identifiers, containing at least the identifier of this term
+     * @since 1.4
+     */
+    default Set<String> getAncestorIdsAndSelf()
+    {
+        Set<String> result = new LinkedHashSet<>();
+        for (VocabularyTerm term : getAncestorsAndSelf()) {
+            result.add(term.getId());
+        }
+        return result;
+    }
+
     /**
      * Find the distance to another term in the same vocabulary, if the owner vocabulary is a structured ontology that
      * supports computing such a distance.
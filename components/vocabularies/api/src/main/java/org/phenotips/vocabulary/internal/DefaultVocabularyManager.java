@@ -19,43 +19,88 @@
 
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyManager;
+import org.phenotips.vocabulary.VocabularySearchStatistics;
 import org.phenotips.vocabulary.VocabularyTerm;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
 
+import java.time.Clock;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.util.AbstractXWikiRunnable;
+
 /**
  * Default implementation of the {@link VocabularyManager} component, which uses all the {@link Vocabulary vocabularies}
  * registered in the component manager.
+ * <p>
+ * When a category is implemented by several vocabularies, they are searched in parallel on a shared pool of worker
+ * threads, each running with a copy of the caller's XWiki context. Vocabularies which don't answer before the
+ * configured timeout are left out of the results, and the best results of the others are merged using a heap bounded
+ * by the number of requested results. The latency of each vocabulary is recorded and available through
+ * {@link #getSearchStatistics()}.
+ * </p>
  *
  * @version $Id$
  * @since 1.2M4 (under different names since 1.0M8)
  */
 @Component
 @Singleton
-public class DefaultVocabularyManager implements VocabularyManager
+public class DefaultVocabularyManager implements VocabularyManager, Initializable, Disposable
 {
     private static final String SCORE_LABEL = "score";
 
+    /** The configuration property holding the number of threads used for searching vocabularies in parallel. */
+    private static final String THREADS_PROPERTY = "phenotips.vocabularies.search.threads";
+
+    /** The configuration property holding how long a search waits for the vocabularies, in milliseconds. */
+    private static final String TIMEOUT_PROPERTY = "phenotips.vocabularies.search.timeout";
+
+    private static final int DEFAULT_THREADS = 4;
+
+    private static final long DEFAULT_TIMEOUT = 2000;
+
     /** The currently available vocabularies. */
     @Inject
     private Provider<Map<String, Vocabulary>> vocabularies;
@@ -64,6 +109,48 @@ public class DefaultVocabularyManager implements VocabularyManager
     @Inject
     private Logger logger;
 
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /** Used for copying the caller's context into the worker threads. */
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    /** Search statistics for each vocabulary, keyed by the vocabulary identifier. */
+    private final ConcurrentMap<String, SearchStatistics> statistics = new ConcurrentHashMap<>();
+
+    /** Runs the searches in the vocabularies of a category, in parallel. */
+    private ExecutorService executor;
+
+    /** How long a search waits for the vocabularies to answer, in milliseconds. */
+    private long timeout;
+
+    /** Used for computing the search deadline and measuring latencies. */
+    private Clock clock = Clock.systemUTC();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        Integer threads = this.configuration.getProperty(THREADS_PROPERTY, Integer.class);
+        Long configuredTimeout = this.configuration.getProperty(TIMEOUT_PROPERTY, Long.class);
+        this.timeout = configuredTimeout != null && configuredTimeout > 0 ? configuredTimeout : DEFAULT_TIMEOUT;
+        this.executor = Executors.newFixedThreadPool(threads != null && threads > 0 ? threads : DEFAULT_THREADS,
+            new SearchThreadFactory());
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.executor.shutdownNow();
+    }
+
+    @Override
+    public Map<String, VocabularySearchStatistics> getSearchStatistics()
+    {
+        return Collections.unmodifiableMap(new LinkedHashMap<String, VocabularySearchStatistics>(this.statistics));
+    }
+
     /**
      * Constructs a map of vocabularies, where each vocabulary is also listed under each of its aliases.
      *
@@ -130,6 +217,16 @@ public VocabularyTerm resolveTerm(String termId)
         return null;
     }
 
+    @Override
+    public Set<String> getAncestorIdsAndSelf(String termId)
+    {
+        Vocabulary vocabulary = getVocabularyForTerm(termId);
+        if (vocabulary != null) {
+            return vocabulary.getAncestorIdsAndSelf(termId);
+        }
+        return Collections.emptySet();
+    }
+
     @Override
     public Vocabulary getVocabulary(String vocabularyId)
     {
@@ -190,7 +287,8 @@ public boolean hasCategory(final String category)
 
     /**
      * Performs a search for {@code input query string} using the provided set of {@code categorizedVocabularies}, and
-     * returns the specified {@code maxResults number of results}, sorted by score (in descending order).
+     * returns the specified {@code maxResults number of results}, sorted by score (in descending order). Vocabularies
+     * that don't answer in time, or that fail, are left out of the results.
      *
      * @param input the input query string
      * @param maxResults the maximum number of results to return
@@ -201,33 +299,194 @@ public boolean hasCategory(final String category)
     private List<VocabularyTerm> search(@Nonnull final String input, final int maxResults,
         @Nonnull final String category, @Nonnull final Set<Vocabulary> categorizedVocabularies)
     {
-        final List<VocabularyTerm> results = new ArrayList<>();
-        for (final Vocabulary vocabulary : categorizedVocabularies) {
-            results.addAll(vocabulary.search(input, category, maxResults, null, null));
+        if (maxResults <= 0) {
+            return Collections.emptyList();
         }
+        if (categorizedVocabularies.size() == 1) {
+            // Nothing to wait for in parallel, search on the calling thread
+            Vocabulary vocabulary = categorizedVocabularies.iterator().next();
+            return mergeTopResults(Collections.singletonList(search(vocabulary, input, category, maxResults)),
+                maxResults);
+        }
+
+        // Search the vocabularies in a fixed order, which is also used for ranking terms with the same score
+        final List<Vocabulary> orderedVocabularies = new ArrayList<>(categorizedVocabularies);
+        Collections.sort(orderedVocabularies, new Comparator<Vocabulary>()
+        {
+            @Override
+            public int compare(final Vocabulary o1, final Vocabulary o2)
+            {
+                return ObjectUtils.compare(o1.getIdentifier(), o2.getIdentifier());
+            }
+        });
+        final Map<Vocabulary, Future<List<VocabularyTerm>>> searches = new LinkedHashMap<>();
+        for (final Vocabulary vocabulary : orderedVocabularies) {
+            searches.put(vocabulary, submit(new Callable<List<VocabularyTerm>>()
+            {
+                @Override
+                public List<VocabularyTerm> call()
+                {
+                    return search(vocabulary, input, category, maxResults);
+                }
+            }));
+        }
+
+        final long deadline = this.clock.millis() + this.timeout;
+        final List<List<VocabularyTerm>> results = new ArrayList<>(searches.size());
+        for (Map.Entry<Vocabulary, Future<List<VocabularyTerm>>> search : searches.entrySet()) {
+            results.add(collect(search.getKey(), search.getValue(), deadline));
+        }
+        return mergeTopResults(results, maxResults);
+    }
 
-        sortTermsByScore(results);
+    /**
+     * Searches one vocabulary, recording how long the search took.
+     *
+     * @param vocabulary the vocabulary to search
+     * @param input the input query string
+     * @param category the vocabulary category
+     * @param maxResults the maximum number of results to return
+     * @return the results returned by the vocabulary, may be empty
+     */
+    private List<VocabularyTerm> search(@Nonnull final Vocabulary vocabulary, @Nonnull final String input,
+        @Nonnull final String category, final int maxResults)
+    {
+        final SearchStatistics stats = getStatistics(vocabulary);
+        final long start = this.clock.millis();
+        try {
+            List<VocabularyTerm> result = vocabulary.search(input, category, maxResults, null, null);
+            return result != null ? result : Collections.<VocabularyTerm>emptyList();
+        } finally {
+            stats.recordSearch(this.clock.millis() - start);
+        }
+    }
 
-        final int resultsSize = results.size();
-        final int rows = maxResults <= resultsSize ? maxResults : resultsSize;
-        return results.subList(0, rows);
+    /**
+     * Waits until the deadline for the results of a vocabulary searched in parallel. Searches that are still running
+     * at the deadline are not interrupted, since interrupting a thread reading a Solr index closes the index files,
+     * but their results are ignored.
+     *
+     * @param vocabulary the searched vocabulary
+     * @param search the running search
+     * @param deadline until when to wait, as a timestamp in milliseconds
+     * @return the results of the search, or an empty list if the search failed or didn't finish in time
+     */
+    private List<VocabularyTerm> collect(@Nonnull final Vocabulary vocabulary,
+        @Nonnull final Future<List<VocabularyTerm>> search, final long deadline)
+    {
+        try {
+            return search.get(Math.max(0, deadline - this.clock.millis()), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            search.cancel(false);
+            getStatistics(vocabulary).recordTimeout();
+            this.logger.warn("Vocabulary [{}] didn't answer in {}ms, returning partial search results",
+                vocabulary.getIdentifier(), this.timeout);
+        } catch (ExecutionException ex) {
+            getStatistics(vocabulary).recordFailure();
+            this.logger.warn("Failed to search vocabulary [{}]: {}", vocabulary.getIdentifier(),
+                ex.getCause() != null ? ex.getCause().getMessage() : ex.getMessage());
+        } catch (InterruptedException ex) {
+            search.cancel(false);
+            Thread.currentThread().interrupt();
+        }
+        return Collections.emptyList();
     }
 
     /**
-     * Sorts the provided list of {@code results} by score, in descending order.
+     * Runs a search on the worker threads, in a copy of the caller's XWiki context.
      *
-     * @param results a list of {@link VocabularyTerm vocabulary terms} that will be sorted by score, in place
+     * @param search the search to run
+     * @return the future results of the search
      */
-    private void sortTermsByScore(@Nonnull final List<VocabularyTerm> results)
+    private Future<List<VocabularyTerm>> submit(@Nonnull final Callable<List<VocabularyTerm>> search)
     {
-        Collections.sort(results, new Comparator<VocabularyTerm>()
+        final FutureTask<List<VocabularyTerm>> task = new FutureTask<>(search);
+        final XWikiContext context = this.contextProvider.get();
+        if (context == null) {
+            this.executor.execute(task);
+        } else {
+            this.executor.execute(new AbstractXWikiRunnable(XWikiContext.EXECUTIONCONTEXT_KEY, context.clone())
+            {
+                @Override
+                protected void runInternal()
+                {
+                    task.run();
+                }
+            });
+        }
+        return task;
+    }
+
+    /**
+     * Merges the results of several vocabularies, keeping only the {@code maxResults} terms with the highest score.
+     * Instead of sorting all the results, the best terms seen so far are kept in a heap with the lowest ranking term
+     * on top, so that each new term only needs to be compared to it. Terms with the same score are ranked by the
+     * order of their vocabularies, then by their identifier, so that the same search always returns the same list.
+     *
+     * @param results the results returned by each vocabulary, in the order of the searched vocabularies
+     * @param maxResults the maximum number of results to return, must be positive
+     * @return the best {@code maxResults} terms, sorted by score in descending order
+     */
+    private List<VocabularyTerm> mergeTopResults(@Nonnull final List<List<VocabularyTerm>> results,
+        final int maxResults)
+    {
+        final PriorityQueue<RankedTerm> best = new PriorityQueue<>(maxResults, new Comparator<RankedTerm>()
         {
             @Override
-            public int compare(final VocabularyTerm o1, final VocabularyTerm o2)
+            public int compare(final RankedTerm o1, final RankedTerm o2)
             {
-                return compareScores(o1, o2);
+                return compareRanks(o2, o1);
             }
         });
+        for (int vocabularyIndex = 0; vocabularyIndex < results.size(); ++vocabularyIndex) {
+            for (final VocabularyTerm term : results.get(vocabularyIndex)) {
+                final RankedTerm candidate = new RankedTerm(term, vocabularyIndex);
+                if (best.size() < maxResults) {
+                    best.add(candidate);
+                } else if (compareRanks(candidate, best.peek()) < 0) {
+                    best.poll();
+                    best.add(candidate);
+                }
+            }
+        }
+
+        final VocabularyTerm[] sorted = new VocabularyTerm[best.size()];
+        for (int i = sorted.length - 1; i >= 0; --i) {
+            sorted[i] = best.poll().term;
+        }
+        return new ArrayList<>(Arrays.asList(sorted));
+    }
+
+    /**
+     * Compares the ranks of two search results: first by score, then by the order of their vocabularies, then by
+     * their identifiers.
+     *
+     * @param o1 the {@link RankedTerm} that is being compared
+     * @param o2 the {@link RankedTerm} that {@code o1} is being compared to
+     * @return {@code 0} if {@code o1} and {@code o2} are equivalent, a value less than {@code 0} if {@code o1} should
+     *         be ahead of {@code o2}, a value greater than {@code 0} if {@code o2} should be ahead of {@code o1}
+     */
+    private int compareRanks(@Nonnull final RankedTerm o1, @Nonnull final RankedTerm o2)
+    {
+        int result = compareScores(o1.term, o2.term);
+        if (result == 0) {
+            result = Integer.compare(o1.vocabularyIndex, o2.vocabularyIndex);
+        }
+        if (result == 0) {
+            result = ObjectUtils.compare(o1.term.getId(), o2.term.getId());
+        }
+        return result;
+    }
+
+    private SearchStatistics getStatistics(@Nonnull final Vocabulary vocabulary)
+    {
+        final String identifier = vocabulary.getIdentifier();
+        SearchStatistics stats = this.statistics.get(identifier);
+        if (stats == null) {
+            this.statistics.putIfAbsent(identifier, new SearchStatistics());
+            stats = this.statistics.get(identifier);
+        }
+        return stats;
     }
 
     /**
@@ -262,4 +521,97 @@ private Vocabulary getVocabularyForTerm(String termId)
         }
         return null;
     }
+
+    /** Search statistics for one vocabulary. This class is thread safe. */
+    private static final class SearchStatistics implements VocabularySearchStatistics
+    {
+        private final AtomicLong searches = new AtomicLong();
+
+        private final AtomicLong totalTime = new AtomicLong();
+
+        private final AtomicLong maxTime = new AtomicLong();
+
+        private final AtomicLong timeouts = new AtomicLong();
+
+        private final AtomicLong failures = new AtomicLong();
+
+        @Override
+        public long getSearches()
+        {
+            return this.searches.get();
+        }
+
+        @Override
+        public long getAverageTime()
+        {
+            long count = this.searches.get();
+            return count > 0 ? this.totalTime.get() / count : 0;
+        }
+
+        @Override
+        public long getMaxTime()
+        {
+            return this.maxTime.get();
+        }
+
+        @Override
+        public long getTimeouts()
+        {
+            return this.timeouts.get();
+        }
+
+        @Override
+        public long getFailures()
+        {
+            return this.failures.get();
+        }
+
+        void recordSearch(long duration)
+        {
+            this.searches.incrementAndGet();
+            this.totalTime.addAndGet(duration);
+            long max = this.maxTime.get();
+            while (duration > max && !this.maxTime.compareAndSet(max, duration)) {
+                max = this.maxTime.get();
+            }
+        }
+
+        void recordTimeout()
+        {
+            this.timeouts.incrementAndGet();
+        }
+
+        void recordFailure()
+        {
+            this.failures.incrementAndGet();
+        }
+    }
+
+    /** A search result, along with the position of its vocabulary in the searched vocabularies. */
+    private static final class RankedTerm
+    {
+        private final VocabularyTerm term;
+
+        private final int vocabularyIndex;
+
+        RankedTerm(final VocabularyTerm term, final int vocabularyIndex)
+        {
+            this.term = term;
+            this.vocabularyIndex = vocabularyIndex;
+        }
+    }
+
+    /** Creates the daemon threads used for searching vocabularies in parallel. */
+    private static final class SearchThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger threadCounter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable worker)
+        {
+            Thread thread = new Thread(worker, "Vocabulary search " + this.threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
@@ -25,8 +25,6 @@
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Iterator;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.solr.client.solrj.SolrQuery;
@@ -54,7 +52,9 @@ public abstract class AbstractCSVSolrVocabulary extends AbstractSolrVocabulary
      * The number of documents to be added and committed to Solr at a time.
      *
      * @return a positive integer, or a negative number to disable batching and pushing all terms in one go
+     * @deprecated since 1.4 terms are sent to Solr through a bounded pipeline and committed once, this is ignored
      */
+    @Deprecated
     protected abstract int getSolrDocsPerBatch();
 
     protected abstract Collection<SolrInputDocument> load(URL url);
@@ -79,23 +79,11 @@ protected int index(String sourceUrl)
         if (data == null) {
             return 2;
         }
-        try {
-            Collection<SolrInputDocument> termBatch = new HashSet<>();
-            Iterator<SolrInputDocument> dataIterator = data.iterator();
-            int batchCounter = 0;
-            while (dataIterator.hasNext()) {
-                /* Resetting when the batch fills */
-                if (batchCounter == getSolrDocsPerBatch()) {
-                    commitTerms(termBatch);
-                    termBatch = new HashSet<>();
-                    batchCounter = 0;
-                }
-                SolrInputDocument item = dataIterator.next();
-                extendTerm(new SolrVocabularyInputTerm(item, this));
-                termBatch.add(item);
-                batchCounter++;
+        try (VocabularyIndexingPipeline pipeline = startIndexing(null)) {
+            for (SolrInputDocument item : data) {
+                pipeline.submit(item);
             }
-            commitTerms(termBatch);
+            pipeline.finish();
             return 0;
         } catch (SolrServerException ex) {
             this.logger.warn("Failed to index vocabulary: {}", ex.getMessage());
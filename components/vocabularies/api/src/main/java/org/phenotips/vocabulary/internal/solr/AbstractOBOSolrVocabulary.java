@@ -19,6 +19,7 @@
 
 import org.phenotips.obo2solr.SolrUpdateGenerator;
 import org.phenotips.obo2solr.TermData;
+import org.phenotips.vocabulary.AncestorClosureIndex;
 import org.phenotips.vocabulary.VocabularyTerm;
 
 import java.io.IOException;
@@ -26,7 +27,6 @@
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -63,7 +63,9 @@ public abstract class AbstractOBOSolrVocabulary extends AbstractSolrVocabulary
      * The number of documents to be added and committed to Solr at a time.
      *
      * @return a positive integer, or a negative number to disable batching and pushing all terms in one go
+     * @deprecated since 1.4 terms are sent to Solr through a bounded pipeline and committed once, this is ignored
      */
+    @Deprecated
     protected abstract int getSolrDocsPerBatch();
 
     @Override
@@ -105,7 +107,6 @@ protected Map<String, TermData> load(final String sourceUrl)
      *         specified URL is invalid
      */
     @Override
-    @SuppressWarnings({ "checkstyle:CyclomaticComplexity" })
     protected int index(String sourceUrl)
     {
         String url = StringUtils.defaultIfBlank(sourceUrl, getDefaultSourceLocation());
@@ -114,24 +115,14 @@ protected int index(String sourceUrl)
         if (data == null || data.isEmpty()) {
             return 2;
         }
-        try {
+        AncestorClosureIndex.Builder ancestors = new AncestorClosureIndex.Builder();
+        try (VocabularyIndexingPipeline pipeline = startIndexing(doc -> addToAncestorIndex(doc, ancestors))) {
             Set<String> singleValuedFields = getSingleValuedFields();
-
-            Collection<SolrInputDocument> termBatch = new HashSet<>();
-            Iterator<Map.Entry<String, TermData>> dataIterator = data.entrySet().iterator();
-            int batchCounter = 0;
-            while (dataIterator.hasNext()) {
-                /* Resetting when the batch fills */
-                if (batchCounter == getSolrDocsPerBatch()) {
-                    commitTerms(termBatch);
-                    termBatch = new HashSet<>();
-                    batchCounter = 0;
-                }
+            for (TermData term : data.values()) {
                 Set<String> addedFields = new HashSet<>();
-                Map.Entry<String, TermData> item = dataIterator.next();
                 SolrInputDocument doc = new SolrInputDocument();
 
-                for (Map.Entry<String, Collection<String>> property : item.getValue().entrySet()) {
+                for (Map.Entry<String, Collection<String>> property : term.entrySet()) {
                     String name = property.getKey();
                     for (String value : property.getValue()) {
                         // check if property is single value type and has been already added
@@ -142,11 +133,10 @@ protected int index(String sourceUrl)
                         addedFields.add(name);
                     }
                 }
-                extendTerm(new SolrVocabularyInputTerm(doc, this));
-                termBatch.add(doc);
-                batchCounter++;
+                pipeline.submit(doc);
             }
-            commitTerms(termBatch);
+            pipeline.finish();
+            commitAncestorIndex(ancestors);
             return 0;
         } catch (SolrServerException ex) {
             this.logger.warn("Failed to index vocabulary: {}", ex.getMessage());
@@ -159,6 +149,24 @@ protected int index(String sourceUrl)
         return 1;
     }
 
+    /**
+     * Registers the parents and the alternative identifiers of a term in the ancestor index.
+     *
+     * @param doc the Solr document of the term
+     * @param ancestors the ancestor index being built
+     */
+    private void addToAncestorIndex(SolrInputDocument doc, AncestorClosureIndex.Builder ancestors)
+    {
+        String id = (String) doc.getFieldValue(ID_FIELD_NAME);
+        ancestors.addTerm(id, doc.getFieldValues(PARENTS_FIELD_NAME));
+        Collection<Object> altIds = doc.getFieldValues(ALTERNATIVE_ID_FIELD_NAME);
+        if (altIds != null) {
+            for (Object altId : altIds) {
+                ancestors.addAlias(String.valueOf(altId), id);
+            }
+        }
+    }
+
     /**
      * Delete all the data in the Solr index.
      *
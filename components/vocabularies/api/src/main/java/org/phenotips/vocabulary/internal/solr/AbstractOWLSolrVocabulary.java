@@ -17,17 +17,25 @@
  */
 package org.phenotips.vocabulary.internal.solr;
 
+import org.phenotips.vocabulary.AncestorClosureIndex;
 import org.phenotips.vocabulary.VocabularyTerm;
 
+import org.xwiki.configuration.ConfigurationSource;
+
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
 
+import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.jena.ontology.OntClass;
 import org.apache.jena.ontology.OntModel;
@@ -64,6 +72,16 @@ public abstract class AbstractOWLSolrVocabulary extends AbstractSolrVocabulary
 
     private static final String HEADER_INFO_LABEL = "HEADER_INFO";
 
+    /**
+     * The configuration property, with the vocabulary identifier as a parameter, enabling the streaming ingestion of
+     * the ontology instead of loading it into an inference model.
+     */
+    private static final String STREAMING_PROPERTY = "phenotips.vocabularies.%s.streamingIngestion";
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
     @Override
     public VocabularyTerm getTerm(@Nullable final String id)
     {
@@ -117,7 +135,10 @@ protected int clear()
 
     /**
      * Given a {@code sourceUrl source URL} for the vocabulary, return {@code 0} iff the vocabulary is indexed
-     * successfully, {@code 1} otherwise.
+     * successfully, {@code 1} otherwise. By default the ontology is loaded into an inference model; if the
+     * {@code phenotips.vocabularies.<identifier>.streamingIngestion} configuration property is {@code true}, the
+     * ontology is streamed into a compact {@link OWLClassGraph class graph} instead, which needs much less memory and
+     * time.
      *
      * @param sourceUrl the source URL for the vocabulary, as string
      * @return {@code 0} iff the vocabulary is indexed successfully, {@code 1} otherwise
@@ -126,36 +147,16 @@ protected int clear()
     protected int index(@Nullable final String sourceUrl)
     {
         final String url = StringUtils.defaultIfBlank(sourceUrl, getDefaultSourceLocation());
-        // Fetch the ontology. If this is over the network, it may take a while.
-        final OntModel ontModel = ModelFactory.createOntologyModel(OntModelSpec.OWL_DL_MEM_TRANS_INF);
-        ontModel.read(url);
-        // Get the root classes of the ontology that we can start the parsing with.
-        final Collection<OntClass> roots = getRootClasses(ontModel);
-        // Reusing doc for speed (see http://wiki.apache.org/lucene-java/ImproveIndexingSpeed).
-        final SolrInputDocument doc = new SolrInputDocument();
-        try {
-            Collection<SolrInputDocument> termBatch = new HashSet<>();
-            // Set the ontology model version.
-            setVersion(doc, ontModel);
-            // Create and add solr documents for each of the roots.
-            for (final OntClass root : roots) {
-                // Don't want to add Solr documents for general root categories, so start adding children.
-                // Get all the subclasses of ontClass, and add a Solr document for each of them.
-                final ExtendedIterator<OntClass> subClasses = root.listSubClasses();
-                int batchCounter = 0;
-                while (subClasses.hasNext()) {
-                    if (batchCounter == getSolrDocsPerBatch()) {
-                        commitTerms(termBatch);
-                        termBatch = new HashSet<>();
-                        batchCounter = 0;
-                    }
-                    final OntClass subClass = subClasses.next();
-                    addDoc(doc, subClass, root, termBatch);
-                    batchCounter++;
-                }
-                subClasses.close();
+        final AncestorClosureIndex.Builder ancestors = new AncestorClosureIndex.Builder();
+        try (VocabularyIndexingPipeline pipeline = startIndexing(doc -> ancestors
+            .addTerm((String) doc.getFieldValue(ID_FIELD_NAME), doc.getFieldValues(PARENTS_FIELD_NAME)))) {
+            if (isStreamingIngestionEnabled()) {
+                indexClassGraph(url, pipeline);
+            } else {
+                indexOntModel(url, pipeline);
             }
-            commitTerms(termBatch);
+            pipeline.finish();
+            commitAncestorIndex(ancestors);
             return 0;
         } catch (SolrServerException ex) {
             this.logger.warn("Failed to index ontology: {}", ex.getMessage());
@@ -167,22 +168,112 @@ protected int index(@Nullable final String sourceUrl)
         return 1;
     }
 
+    private boolean isStreamingIngestionEnabled()
+    {
+        return this.configuration.getProperty(String.format(STREAMING_PROPERTY, getIdentifier()), Boolean.FALSE);
+    }
+
     /**
-     * Create a document for the ontology class, and add it to the index.
+     * Loads the ontology into an inference model, and submits a document for each subclass of the root classes.
+     *
+     * @param url the source URL of the ontology
+     * @param pipeline the pipeline sending the documents to Solr
+     * @throws IOException if failed to communicate with Solr server while indexing ontology
+     * @throws SolrServerException if failed to index ontology
+     */
+    private void indexOntModel(@Nonnull final String url, @Nonnull final VocabularyIndexingPipeline pipeline)
+        throws IOException, SolrServerException
+    {
+        // Fetch the ontology. If this is over the network, it may take a while.
+        final OntModel ontModel = ModelFactory.createOntologyModel(OntModelSpec.OWL_DL_MEM_TRANS_INF);
+        ontModel.read(url);
+        // Get the root classes of the ontology that we can start the parsing with.
+        final Collection<OntClass> roots = getRootClasses(ontModel);
+        // Set the ontology model version.
+        setVersion(new SolrInputDocument(), ontModel);
+        // Create and add solr documents for each of the roots.
+        for (final OntClass root : roots) {
+            // Don't want to add Solr documents for general root categories, so start adding children.
+            // Get all the subclasses of ontClass, and add a Solr document for each of them.
+            final ExtendedIterator<OntClass> subClasses = root.listSubClasses();
+            while (subClasses.hasNext()) {
+                pipeline.submit(createDoc(subClasses.next(), root));
+            }
+            subClasses.close();
+        }
+    }
+
+    /**
+     * Streams the ontology into a compact class graph, and submits a document for each named subclass of the root
+     * classes. This produces the same documents as {@link #indexOntModel}, without building an inference model.
+     *
+     * @param url the source URL of the ontology
+     * @param pipeline the pipeline sending the documents to Solr
+     * @throws IOException if fetching or parsing the ontology fails, or if failed to communicate with Solr server
+     * @throws SolrServerException if failed to index ontology
+     */
+    private void indexClassGraph(@Nonnull final String url, @Nonnull final VocabularyIndexingPipeline pipeline)
+        throws IOException, SolrServerException
+    {
+        final URLConnection connection = new URL(url).openConnection();
+        connection.setRequestProperty("Accept", "application/rdf+xml, */*;q=0.5");
+        final OWLClassGraph graph;
+        try (InputStream in = connection.getInputStream()) {
+            graph = OWLClassGraph.read(in, url);
+        }
+        final int[] roots = getRootClasses(graph);
+        setVersion(new SolrInputDocument(), graph);
+        for (final int root : roots) {
+            for (int node = 0; node < graph.size(); ++node) {
+                if (!graph.isAnonymous(node) && graph.hasAncestor(node, root)) {
+                    pipeline.submit(createDoc(graph, node, root));
+                }
+            }
+        }
+    }
+
+    /**
+     * Create a document for the ontology class. The vocabulary extensions are run later, by the indexing pipeline.
      *
-     * @param doc the reusable Solr input document
      * @param ontClass the ontology class that should be parsed
      * @param root the top root category for ontClass
-     * @param termBatch the batch of newly-processed documents to commit later
+     * @return the parsed document
      */
-    private void addDoc(@Nonnull final SolrInputDocument doc, @Nonnull final OntClass ontClass,
-        @Nonnull final OntClass root, Collection<SolrInputDocument> termBatch)
+    private SolrInputDocument createDoc(@Nonnull final OntClass ontClass, @Nonnull final OntClass root)
     {
+        final SolrInputDocument doc = new SolrInputDocument();
         parseSolrDocumentFromOntClass(doc, ontClass, root);
         parseSolrDocumentFromOntParentClasses(doc, ontClass);
-        extendTerm(new SolrVocabularyInputTerm(doc, this));
-        termBatch.add(doc.deepCopy());
-        doc.clear();
+        return doc;
+    }
+
+    /**
+     * Create a document for a class of a streamed class graph, with the same fields that
+     * {@link #createDoc(OntClass, OntClass)} would produce for it.
+     *
+     * @param graph the streamed class graph
+     * @param ontClass the node of the class that should be parsed
+     * @param root the node of the top root category for ontClass
+     * @return the parsed document
+     */
+    private SolrInputDocument createDoc(@Nonnull final OWLClassGraph graph, final int ontClass, final int root)
+    {
+        final SolrInputDocument doc = new SolrInputDocument();
+        doc.addField(ID_FIELD_NAME, getFormattedOntClassId(graph.getLocalName(ontClass)));
+        doc.addField(TERM_GROUP_LABEL, graph.getLabel(root));
+        graph.forEachLiteral(ontClass, (relation, value) -> writeLiteralProperty(doc, relation, value));
+        // All the named parents are of interest, but only the direct anonymous parents hold class properties
+        for (final int parent : graph.getAncestors(ontClass)) {
+            if (!graph.isAnonymous(parent)) {
+                extractClassData(doc, graph, ontClass, parent);
+            }
+        }
+        for (final int parent : graph.getDirectSuperClasses(ontClass)) {
+            if (graph.isAnonymous(parent)) {
+                extractClassData(doc, graph, ontClass, parent);
+            }
+        }
+        return doc;
     }
 
     @Override
@@ -225,10 +316,39 @@ private void setVersion(@Nonnull final SolrInputDocument doc, @Nonnull final Ont
                 this.logger.warn("Found this ontology instead: [{}]", ontology.getURI());
             }
         }
-        if (ontology == null) {
-            return;
+        if (ontology != null) {
+            writeVersion(doc, ontology.getVersionInfo());
         }
-        final String version = ontology.getVersionInfo();
+    }
+
+    /**
+     * Sets the ontology version data from a streamed class graph.
+     *
+     * @param doc the Solr input document
+     * @param graph the streamed class graph
+     * @throws IOException if failed to communicate with Solr server while indexing ontology
+     * @throws SolrServerException if failed to index ontology
+     */
+    private void setVersion(@Nonnull final SolrInputDocument doc, @Nonnull final OWLClassGraph graph)
+        throws IOException, SolrServerException
+    {
+        final int[] ontologies = graph.getOntologies();
+        int ontology = graph.getNode(getBaseOntologyUri());
+        if (!ArrayUtils.contains(ontologies, ontology)) {
+            this.logger.warn("Expected ontology not found: [{}]", getBaseOntologyUri());
+            ontology = ontologies.length > 0 ? ontologies[0] : OWLClassGraph.NONE;
+            if (ontology != OWLClassGraph.NONE) {
+                this.logger.warn("Found this ontology instead: [{}]", graph.getURI(ontology));
+            }
+        }
+        if (ontology != OWLClassGraph.NONE) {
+            writeVersion(doc, graph.getVersionInfo(ontology));
+        }
+    }
+
+    private void writeVersion(@Nonnull final SolrInputDocument doc, @Nullable final String version)
+        throws IOException, SolrServerException
+    {
         if (StringUtils.isNotBlank(version)) {
             doc.addField(ID_FIELD_NAME, HEADER_INFO_LABEL);
             doc.addField(VERSION_FIELD_NAME, version);
@@ -314,6 +434,19 @@ private void extractProperties(@Nonnull final SolrInputDocument doc, @Nonnull fi
     abstract void extractClassData(@Nonnull SolrInputDocument doc,
         @Nonnull OntClass ontClass, @Nonnull OntClass parent);
 
+    /**
+     * Extracts relevant data from the parent class of ontClass in a streamed class graph, and writes it to the Solr
+     * input document associated with ontClass, just like {@link #extractClassData(SolrInputDocument, OntClass,
+     * OntClass)}.
+     *
+     * @param doc the Solr input document
+     * @param graph the streamed class graph
+     * @param ontClass the node of the ontology class of interest
+     * @param parent the node of a parent of ontClass
+     */
+    abstract void extractClassData(@Nonnull SolrInputDocument doc, @Nonnull OWLClassGraph graph, int ontClass,
+        int parent);
+
     /**
      * Get a numerical id string from a localName. Assuming the localName is in the form "Orphanet_XXX". If localName is
      * an empty string or is null, will return null.
@@ -333,6 +466,17 @@ abstract void extractClassData(@Nonnull SolrInputDocument doc,
     abstract void writeProperty(@Nonnull SolrInputDocument doc, @Nonnull String relation,
         @Nonnull RDFNode object);
 
+    /**
+     * Adds a literal property value to the Solr input document, if it is an item of interest. Used for streamed class
+     * graphs, where only literal properties are kept.
+     *
+     * @param doc the Solr input document
+     * @param relation property name
+     * @param value the lexical form of the literal
+     */
+    abstract void writeLiteralProperty(@Nonnull SolrInputDocument doc, @Nonnull String relation,
+        @Nonnull String value);
+
     /**
      * Get a collection of root classes from the provided ontology model.
      *
@@ -341,11 +485,21 @@ abstract void writeProperty(@Nonnull SolrInputDocument doc, @Nonnull String rela
      */
     abstract Collection<OntClass> getRootClasses(@Nonnull OntModel ontModel);
 
+    /**
+     * Get the root classes from the provided streamed class graph.
+     *
+     * @param graph the streamed class graph
+     * @return the nodes of the root classes
+     */
+    abstract int[] getRootClasses(@Nonnull OWLClassGraph graph);
+
     /**
      * The number of documents to be added and committed to Solr at a time.
      *
      * @return the number of documents as an integer
+     * @deprecated since 1.4 terms are sent to Solr through a bounded pipeline and committed once, this is ignored
      */
+    @Deprecated
     abstract int getSolrDocsPerBatch();
 
     /**
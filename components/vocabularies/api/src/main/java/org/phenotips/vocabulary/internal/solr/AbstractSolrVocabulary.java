@@ -17,24 +17,40 @@
  */
 package org.phenotips.vocabulary.internal.solr;
 
+import org.phenotips.vocabulary.AncestorClosureIndex;
 import org.phenotips.vocabulary.SolrVocabularyResourceManager;
+import org.phenotips.vocabulary.TermGraph;
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyExtension;
 import org.phenotips.vocabulary.VocabularyInputTerm;
 import org.phenotips.vocabulary.VocabularySourceRelocationService;
 import org.phenotips.vocabulary.VocabularyTerm;
 
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.cache.Cache;
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.component.event.ComponentDescriptorRemovedEvent;
+import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
+import org.xwiki.localization.LocalizationContext;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
@@ -49,6 +65,8 @@
 import org.apache.solr.common.SolrInputDocument;
 import org.slf4j.Logger;
 
+import com.xpn.xwiki.doc.XWikiDocument;
+
 /**
  * Provides access to the Solr server, with the main purpose of providing access to an indexed vocabulary. There are two
  * ways of accessing items in the vocabulary: getting a single term by its identifier, or searching for terms matching a
@@ -57,17 +75,23 @@
  * @version $Id$
  * @since 1.2M4 (under different names since 1.0M8)
  */
-public abstract class AbstractSolrVocabulary implements Vocabulary
+public abstract class AbstractSolrVocabulary implements Vocabulary, Initializable
 {
     /** The name of the ID field. */
     protected static final String ID_FIELD_NAME = "id";
 
+    /** The name of the field holding the direct parents of a term. */
+    protected static final String PARENTS_FIELD_NAME = "is_a";
+
     /**
      * Object used to mark in the cache that a term doesn't exist, since null means that the cache doesn't contain the
      * requested entry.
      */
     private static final VocabularyTerm EMPTY_MARKER = new SolrVocabularyTerm(null, null);
 
+    /** The document holding the locale configuration of a wiki. */
+    private static final String PREFERENCES = "XWiki.XWikiPreferences";
+
     /** Logging helper object. */
     @Inject
     protected Logger logger;
@@ -83,12 +107,27 @@ public abstract class AbstractSolrVocabulary implements Vocabulary
     @Inject
     protected VocabularySourceRelocationService relocationService;
 
+    @Inject
+    private LocalizationContext localizationContext;
+
+    @Inject
+    private ObservationManager observationManager;
+
+    /** The supported extensions and the extended query templates, reused until extensions or locales change. */
+    private final VocabularyQueryTemplates queryTemplates = new VocabularyQueryTemplates();
+
     // Dilemma:
     // In an ideal world there should be a getter methods for server and cache instances.
     // However the point of splitting up the server was to lessen the number of imports
 
     protected abstract int index(String sourceUrl);
 
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.observationManager.addListener(new QueryTemplatesInvalidator());
+    }
+
     @Override
     public VocabularyTerm getTerm(String id)
     {
@@ -146,6 +185,24 @@ public Set<VocabularyTerm> getTerms(Collection<String> ids)
         return result;
     }
 
+    @Override
+    public Set<String> getAncestorIdsAndSelf(String id)
+    {
+        if (StringUtils.isBlank(id)) {
+            return Collections.emptySet();
+        }
+        AncestorClosureIndex index = this.externalServicesAccess.getAncestorIndex(this);
+        if (index != null && index.contains(id)) {
+            return index.getAncestorIdsAndSelf(id);
+        }
+        // The index hasn't been built yet, fall back to the ancestors stored in the term itself
+        VocabularyTerm term = getTerm(id);
+        if (term == null) {
+            return Collections.emptySet();
+        }
+        return term.getAncestorIdsAndSelf();
+    }
+
     @Override
     public List<VocabularyTerm> search(Map<String, ?> fieldValues)
     {
@@ -182,17 +239,13 @@ public int reindex(String sourceUrl)
         try {
             this.externalServicesAccess.createReplacementCore(this);
             try {
-                for (VocabularyExtension ext : this.extensions.get()) {
-                    if (ext.isVocabularySupported(this)) {
-                        ext.indexingStarted(this);
-                    }
+                for (VocabularyExtension ext : getSupportedExtensions()) {
+                    ext.indexingStarted(this);
                 }
                 retval = this.index(sourceUrl);
             } finally {
-                for (VocabularyExtension ext : this.extensions.get()) {
-                    if (ext.isVocabularySupported(this)) {
-                        ext.indexingEnded(this);
-                    }
+                for (VocabularyExtension ext : getSupportedExtensions()) {
+                    ext.indexingEnded(this);
                 }
             }
             if (retval == 0) {
@@ -217,6 +270,10 @@ public String getVersion()
     @Override
     public long getDistance(String fromTermId, String toTermId)
     {
+        TermGraph graph = getTermGraph();
+        if (graph != null && graph.contains(fromTermId) && graph.contains(toTermId)) {
+            return graph.getDistance(fromTermId, toTermId);
+        }
         return getDistance(getTerm(fromTermId), getTerm(toTermId));
     }
 
@@ -226,9 +283,36 @@ public long getDistance(VocabularyTerm fromTerm, VocabularyTerm toTerm)
         if (fromTerm == null || toTerm == null) {
             return -1;
         }
+        TermGraph graph = getTermGraph();
+        if (graph != null && graph.contains(fromTerm.getId()) && graph.contains(toTerm.getId())) {
+            return graph.getDistance(fromTerm.getId(), toTerm.getId());
+        }
         return fromTerm.getDistanceTo(toTerm);
     }
 
+    @Override
+    public long[][] getDistances(Collection<String> fromTermIds, Collection<String> toTermIds)
+    {
+        TermGraph graph = getTermGraph();
+        if (graph == null || graph.size() == 0) {
+            return Vocabulary.super.getDistances(fromTermIds, toTermIds);
+        }
+        long[][] result = graph.getDistances(fromTermIds, toTermIds);
+        // Terms missing from the graph, if any, are handled one by one by the slower, term-based implementation
+        int row = 0;
+        for (String fromTermId : fromTermIds) {
+            int column = 0;
+            for (String toTermId : toTermIds) {
+                if (!graph.contains(fromTermId) || !graph.contains(toTermId)) {
+                    result[row][column] = getDistance(getTerm(fromTermId), getTerm(toTermId));
+                }
+                ++column;
+            }
+            ++row;
+        }
+        return result;
+    }
+
     @Override
     public List<VocabularyTerm> search(String input)
     {
@@ -250,36 +334,76 @@ public String getSourceLocation()
     @Override
     public List<VocabularyExtension> getExtensions()
     {
-        List<VocabularyExtension> result = new LinkedList<>();
-        for (VocabularyExtension extension : this.extensions.get()) {
-            if (extension.isVocabularySupported(this)) {
-                result.add(extension);
+        return new LinkedList<>(getSupportedExtensions());
+    }
+
+    /**
+     * The extensions supported by this vocabulary. The list is computed once, and reused until an extension is
+     * registered or unregistered.
+     *
+     * @return an unmodifiable list, possibly empty
+     * @since 1.4
+     */
+    protected List<VocabularyExtension> getSupportedExtensions()
+    {
+        return this.queryTemplates.getSupportedExtensions(() -> {
+            List<VocabularyExtension> result = new LinkedList<>();
+            for (VocabularyExtension extension : this.extensions.get()) {
+                if (extension.isVocabularySupported(this)) {
+                    result.add(extension);
+                }
             }
-        }
-        return result;
+            return Collections.unmodifiableList(result);
+        });
+    }
+
+    /**
+     * Returns the template for a type of query, holding the static search parameters already
+     * {@link VocabularyExtension#extendQuery extended} for the current locale. The template is built once for each
+     * locale, and reused until an extension is registered or unregistered, or the locale configuration changes. The
+     * caller binds the dynamic parameters, such as the user input, the number of rows and the filter, and runs the
+     * query with {@link #searchExtended(SolrQuery)}.
+     *
+     * @param queryType identifies the static parameters of the query, for example a category or a search mode
+     * @param staticParameters sets the static parameters on an empty query; it must only depend on the query type
+     * @return a new query, which can be freely modified
+     * @since 1.4
+     */
+    protected SolrQuery getQueryTemplate(String queryType, Function<SolrQuery, SolrQuery> staticParameters)
+    {
+        return this.queryTemplates.getTemplate(this.localizationContext.getCurrentLocale(), queryType, type -> {
+            SolrQuery template = staticParameters.apply(new SolrQuery());
+            extendQuery(template);
+            return template;
+        });
     }
 
     /**
      * Perform a search, falling back on the suggested spellchecked query if the original query fails to return any
-     * results.
+     * results. The query is first {@link VocabularyExtension#extendQuery extended} by the supported extensions.
      *
      * @param query the Solr query to use, should contain at least a value for the "q" parameter
      * @return the list of matching documents, empty if there are no matching terms
      */
     protected SolrDocumentList search(SolrQuery query)
+    {
+        extendQuery(query);
+        return searchExtended(query);
+    }
+
+    /**
+     * Perform a search with a query already {@link VocabularyExtension#extendQuery extended}, such as a bound
+     * {@link #getQueryTemplate query template}, falling back on the suggested spellchecked query if the original query
+     * fails to return any results.
+     *
+     * @param query the Solr query to use, should contain at least a value for the "q" parameter
+     * @return the list of matching documents, empty if there are no matching terms
+     * @since 1.4
+     */
+    protected SolrDocumentList searchExtended(SolrQuery query)
     {
         try {
             query.setIncludeScore(true);
-            this.logger.debug("Extending query [{}] for vocabulary [{}]", query, this.getIdentifier());
-            for (VocabularyExtension extension : this.extensions.get()) {
-                if (extension.isVocabularySupported(this)) {
-                    try {
-                        extension.extendQuery(query, this);
-                    } catch (Exception e) {
-                        this.logger.error("Failed to extend query with vocabulary: {}", extension.toString());
-                    }
-                }
-            }
             this.logger.debug("Searching [{}] with query [{}]", this.getIdentifier(), query);
             QueryResponse response = this.externalServicesAccess.getSolrConnection(this).query(query);
             SolrDocumentList results = response.getResults();
@@ -301,6 +425,19 @@ protected SolrDocumentList search(SolrQuery query)
         return new SolrDocumentList();
     }
 
+    private void extendQuery(SolrQuery query)
+    {
+        query.setIncludeScore(true);
+        this.logger.debug("Extending query [{}] for vocabulary [{}]", query, this.getIdentifier());
+        for (VocabularyExtension extension : getSupportedExtensions()) {
+            try {
+                extension.extendQuery(query, this);
+            } catch (Exception e) {
+                this.logger.error("Failed to extend query with vocabulary: {}", extension.toString());
+            }
+        }
+    }
+
     /**
      * Get the number of entries that match a specific Lucene query.
      *
@@ -366,10 +503,8 @@ protected String generateLuceneQuery(Map<String, ?> fieldValues)
      */
     protected void extendTerm(VocabularyInputTerm term)
     {
-        for (VocabularyExtension extension : this.extensions.get()) {
-            if (extension.isVocabularySupported(this)) {
-                extension.extendTerm(term, this);
-            }
+        for (VocabularyExtension extension : getSupportedExtensions()) {
+            extension.extendTerm(term, this);
         }
     }
 
@@ -383,6 +518,60 @@ protected void commitTerms(Collection<SolrInputDocument> batch)
         this.externalServicesAccess.getReplacementSolrConnection(this).commit();
     }
 
+    /**
+     * The number of threads running the {@link #extendTerm vocabulary extensions} while reindexing. The extensions
+     * must then be {@link org.phenotips.vocabulary.VocabularyExtension#extendTerm thread safe}; override and return
+     * {@code 0} if the extensions of this vocabulary must run on the thread parsing the vocabulary.
+     *
+     * @return a positive number, or {@code 0} to run the extensions on the parsing thread
+     * @since 1.4
+     */
+    protected int getIndexingThreads()
+    {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    }
+
+    /**
+     * Starts a pipeline sending the parsed terms to the replacement core, after running the vocabulary extensions on
+     * them. The caller must {@link VocabularyIndexingPipeline#finish() finish} and then
+     * {@link VocabularyIndexingPipeline#close() close} the pipeline.
+     *
+     * @param listener called for each term once extended, right before it is sent to Solr; may be {@code null}
+     * @return a running pipeline
+     * @since 1.4
+     */
+    VocabularyIndexingPipeline startIndexing(Consumer<SolrInputDocument> listener)
+    {
+        return new VocabularyIndexingPipeline(this, this.externalServicesAccess.getReplacementSolrConnection(this),
+            getIndexingThreads(), listener);
+    }
+
+    /**
+     * Get the in-memory graph of this vocabulary, built during the last reindexing.
+     *
+     * @return the term graph, or {@code null} if no index is available
+     */
+    protected TermGraph getTermGraph()
+    {
+        AncestorClosureIndex index = this.externalServicesAccess.getAncestorIndex(this);
+        return index != null ? index.getGraph() : null;
+    }
+
+    /**
+     * Stores the ancestor index built while indexing, so that it becomes active together with the replacement core.
+     * Failing to store the index doesn't fail the indexing, since ancestor lookups can fall back on the terms.
+     *
+     * @param ancestors the builder holding the parent relations collected while indexing
+     */
+    protected void commitAncestorIndex(AncestorClosureIndex.Builder ancestors)
+    {
+        try {
+            this.externalServicesAccess.setReplacementAncestorIndex(this, ancestors.build());
+        } catch (InitializationException ex) {
+            this.logger.warn("Failed to store the ancestor index for [{}]: {}", getIdentifier(), ex.getMessage());
+        }
+    }
+
     private VocabularyTerm cacheTerm(String id, SolrDocument doc)
     {
         Cache<VocabularyTerm> cache = this.externalServicesAccess.getTermCache(this);
@@ -393,4 +582,34 @@ private VocabularyTerm cacheTerm(String id, SolrDocument doc)
         }
         return term;
     }
+
+    /**
+     * Drops the supported extensions and the query templates whenever a vocabulary extension is registered or
+     * unregistered, or the wiki preferences holding the locale configuration change.
+     */
+    private final class QueryTemplatesInvalidator implements EventListener
+    {
+        @Override
+        public String getName()
+        {
+            return "vocabulary-query-templates-" + getIdentifier();
+        }
+
+        @Override
+        public List<Event> getEvents()
+        {
+            return Arrays.<Event>asList(new ComponentDescriptorAddedEvent(VocabularyExtension.class),
+                new ComponentDescriptorRemovedEvent(VocabularyExtension.class), new DocumentCreatedEvent(),
+                new DocumentUpdatedEvent(), new DocumentDeletedEvent());
+        }
+
+        @Override
+        public void onEvent(Event event, Object source, Object data)
+        {
+            if (!(source instanceof XWikiDocument)
+                || PREFERENCES.equals(((XWikiDocument) source).getFullName())) {
+                AbstractSolrVocabulary.this.queryTemplates.invalidate();
+            }
+        }
+    }
 }
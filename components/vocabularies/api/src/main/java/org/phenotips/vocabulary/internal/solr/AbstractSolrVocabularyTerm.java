@@ -234,6 +234,23 @@ public Set<VocabularyTerm> getAncestorsAndSelf()
         return this.ancestorsAndSelf != null ? this.ancestorsAndSelf : Collections.<VocabularyTerm>emptySet();
     }
 
+    @Override
+    public Set<String> getAncestorIdsAndSelf()
+    {
+        if (isNull()) {
+            return Collections.emptySet();
+        }
+        Set<String> result = new LinkedHashSet<>();
+        result.add(getId());
+        Collection<Object> ancestorIds = getValues(ANCESTORS_KEY);
+        if (ancestorIds != null) {
+            for (Object ancestorId : ancestorIds) {
+                result.add(StringUtils.substringBefore(String.valueOf(ancestorId), " "));
+            }
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
     @Override
     public Object get(String key)
     {
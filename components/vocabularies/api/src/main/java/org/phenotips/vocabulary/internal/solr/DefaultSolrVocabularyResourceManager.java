@@ -17,6 +17,7 @@
  */
 package org.phenotips.vocabulary.internal.solr;
 
+import org.phenotips.vocabulary.AncestorClosureIndex;
 import org.phenotips.vocabulary.SolrCoreContainerHandler;
 import org.phenotips.vocabulary.SolrVocabularyResourceManager;
 import org.phenotips.vocabulary.Vocabulary;
@@ -31,9 +32,12 @@
 import org.xwiki.environment.Environment;
 import org.xwiki.extension.distribution.internal.DistributionManager;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
@@ -41,6 +45,7 @@
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -50,6 +55,7 @@
 import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
 import org.apache.solr.core.CoreContainer;
 import org.apache.solr.core.SolrCore;
+import org.slf4j.Logger;
 
 /**
  * Default implementation for the {@link SolrVocabularyResourceManager} component.
@@ -65,6 +71,9 @@ public class DefaultSolrVocabularyResourceManager implements SolrVocabularyResou
 
     private static final String TEMP = "_temp";
 
+    /** The name of the file holding the ancestor closure index, stored in the data directory of each core. */
+    private static final String ANCESTOR_INDEX_FILE = "/data/ancestors.idx";
+
     /** List of config Solr files. */
     private static final List<String> CONFIG_FILES = Arrays.asList("/conf/schema.xml", "/conf/solrconfig.xml",
         "/conf/solrcore.properties", "/conf/protwords.txt", "/conf/stopwords.txt", "/conf/synonyms.txt",
@@ -76,6 +85,13 @@ public class DefaultSolrVocabularyResourceManager implements SolrVocabularyResou
     /** @see #getTermCache() */
     private Map<String, Cache<VocabularyTerm>> caches = new HashMap<>();
 
+    /** @see #getAncestorIndex(Vocabulary) */
+    private Map<String, AncestorClosureIndex> ancestorIndexes = new ConcurrentHashMap<>();
+
+    /** Logging helper object. */
+    @Inject
+    private Logger logger;
+
     /** Provides access to the Solr cores. */
     @Inject
     private SolrCoreContainerHandler coreContainer;
@@ -130,6 +146,7 @@ private void initialize(Vocabulary vocabulary) throws InitializationException
 
             SolrClient core = new EmbeddedSolrServer(container, coreIdentifier);
             this.cores.put(coreIdentifier, core);
+            this.ancestorIndexes.remove(coreIdentifier);
             Cache<VocabularyTerm> cache = this.cacheFactory.createNewLocalCache(new CacheConfiguration());
             this.caches.put(coreIdentifier, cache);
         } catch (final CacheException ex) {
@@ -217,6 +234,8 @@ public void replaceCore(Vocabulary vocabulary) throws InitializationException
                 solrCore.close();
             }
             container.unload(vocabulary.getIdentifier(), true, false, false);
+            // An ancestor index left from a previous indexing is obsolete, even if the new indexing didn't produce one
+            Files.deleteIfExists(new File(absPath, SOLR + vocabulary.getIdentifier() + ANCESTOR_INDEX_FILE).toPath());
             FileUtils.copyDirectory(indexTemp, indexOrigin);
             initialize(vocabulary);
         } catch (IOException ex) {
@@ -245,4 +264,42 @@ public void discardReplacementCore(Vocabulary vocabulary)
             this.caches.remove(replacementCoreId);
         }
     }
+
+    @Override
+    public AncestorClosureIndex getAncestorIndex(Vocabulary vocabulary)
+    {
+        final String coreIdentifier = vocabulary.getIdentifier();
+        AncestorClosureIndex result = this.ancestorIndexes.get(coreIdentifier);
+        if (result == null) {
+            result = AncestorClosureIndex.empty();
+            File indexFile = new File(this.environment.getPermanentDirectory().getAbsolutePath(),
+                SOLR + coreIdentifier + ANCESTOR_INDEX_FILE);
+            if (indexFile.isFile()) {
+                try (InputStream in = new BufferedInputStream(Files.newInputStream(indexFile.toPath()))) {
+                    result = AncestorClosureIndex.read(in);
+                } catch (IOException ex) {
+                    this.logger.warn("Failed to load the ancestor index for [{}]: {}", coreIdentifier,
+                        ex.getMessage());
+                }
+            }
+            this.ancestorIndexes.put(coreIdentifier, result);
+        }
+        return result;
+    }
+
+    @Override
+    public void setReplacementAncestorIndex(Vocabulary vocabulary, AncestorClosureIndex index)
+        throws InitializationException
+    {
+        final File indexFile = new File(this.environment.getPermanentDirectory().getAbsolutePath(),
+            SOLR + vocabulary.getIdentifier() + TEMP + ANCESTOR_INDEX_FILE);
+        try {
+            Files.createDirectories(indexFile.getParentFile().toPath());
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(indexFile.toPath()))) {
+                index.write(out);
+            }
+        } catch (IOException ex) {
+            throw new InitializationException("Failed to store the ancestor index: " + ex.getMessage(), ex);
+        }
+    }
 }
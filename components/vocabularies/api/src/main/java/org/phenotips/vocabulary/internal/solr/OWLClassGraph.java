@@ -0,0 +1,611 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.internal.solr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.rdfxml.xmlinput.ALiteral;
+import org.apache.jena.rdfxml.xmlinput.ARP;
+import org.apache.jena.rdfxml.xmlinput.AResource;
+import org.apache.jena.rdfxml.xmlinput.StatementHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * The parts of an OWL ontology needed for indexing its classes, collected from a stream of RDF/XML triples without
+ * building an ontology model: the asserted {@code rdfs:subClassOf} edges, the literal properties of named resources,
+ * and the restrictions and intersections used as anonymous super classes. Resources are interned as {@code int} nodes,
+ * and the ancestors of each node are computed once, on this compact graph, instead of being inferred by a reasoner.
+ * <p>
+ * Only the subclass relation is closed transitively, which is what the {@code OWL_DL_MEM_TRANS_INF} model used to
+ * provide. Cycles in the subclass relation are broken arbitrarily, so classes on a cycle may miss some ancestors.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+final class OWLClassGraph
+{
+    /** Returned instead of a node when the requested resource doesn't exist. */
+    static final int NONE = -1;
+
+    private static final String RDF = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+
+    private static final String RDFS = "http://www.w3.org/2000/01/rdf-schema#";
+
+    private static final String OWL = "http://www.w3.org/2002/07/owl#";
+
+    private static final String TYPE = RDF + "type";
+
+    private static final String FIRST = RDF + "first";
+
+    private static final String REST = RDF + "rest";
+
+    private static final String SUB_CLASS_OF = RDFS + "subClassOf";
+
+    private static final String LABEL = RDFS + "label";
+
+    private static final String RESTRICTION = OWL + "Restriction";
+
+    private static final String ONTOLOGY = OWL + "Ontology";
+
+    private static final String ON_PROPERTY = OWL + "onProperty";
+
+    private static final String SOME_VALUES_FROM = OWL + "someValuesFrom";
+
+    private static final String HAS_VALUE = OWL + "hasValue";
+
+    private static final String INTERSECTION_OF = OWL + "intersectionOf";
+
+    private static final String VERSION_INFO = OWL + "versionInfo";
+
+    private static final String BLANK_NODE_PREFIX = "_:";
+
+    private static final int[] NO_NODES = new int[0];
+
+    private static final byte UNVISITED = 0;
+
+    private static final byte VISITING = 1;
+
+    private static final byte DONE = 2;
+
+    /** Maps URIs, and blank node identifiers prefixed with {@code _:}, to their node. */
+    private final Map<String, Integer> ids = new HashMap<>();
+
+    private final List<Node> nodes = new ArrayList<>();
+
+    /** The local names of the predicates seen so far, there are only a few distinct ones. */
+    private final Map<String, String> localNames = new HashMap<>();
+
+    private final List<Integer> ontologies = new ArrayList<>();
+
+    /** The asserted super classes of each node, without duplicates. */
+    private int[][] superClasses;
+
+    /** The sorted transitive super classes of each node, without the node itself. */
+    private int[][] ancestors;
+
+    /** The super classes of each node which are not also ancestors of another super class of that node. */
+    private int[][] directSuperClasses;
+
+    private OWLClassGraph()
+    {
+        // Only built by read
+    }
+
+    /**
+     * Streams an RDF/XML ontology, keeping only the data needed for indexing its classes.
+     *
+     * @param in the RDF/XML serialization of the ontology, not closed by this method
+     * @param base the base URI used for resolving relative URIs
+     * @return the collected graph, with the ancestor closures already computed
+     * @throws IOException if reading or parsing the ontology fails
+     */
+    static OWLClassGraph read(InputStream in, String base) throws IOException
+    {
+        OWLClassGraph graph = new OWLClassGraph();
+        ARP parser = new ARP();
+        parser.getHandlers().setStatementHandler(graph.new Collector());
+        parser.getHandlers().setErrorHandler(new FailingErrorHandler());
+        try {
+            parser.load(in, base);
+        } catch (SAXException ex) {
+            throw new IOException("Invalid RDF/XML ontology: " + ex.getMessage(), ex);
+        }
+        graph.computeClosures();
+        return graph;
+    }
+
+    /**
+     * The number of nodes in the graph; nodes are numbered from {@code 0} to {@code size() - 1}, in the order in which
+     * they were first seen in the source.
+     *
+     * @return the number of named and anonymous resources
+     */
+    int size()
+    {
+        return this.nodes.size();
+    }
+
+    /**
+     * Looks up the node of a named resource.
+     *
+     * @param uri the URI of the resource
+     * @return the node, or {@link #NONE} if the resource wasn't mentioned in the ontology
+     */
+    int getNode(String uri)
+    {
+        Integer node = this.ids.get(uri);
+        return node == null ? NONE : node;
+    }
+
+    /**
+     * @param node a node of this graph
+     * @return the URI of the node, or {@code null} for anonymous nodes
+     */
+    String getURI(int node)
+    {
+        return this.nodes.get(node).uri;
+    }
+
+    /**
+     * @param node a node of this graph
+     * @return {@code true} if the node is a blank node
+     */
+    boolean isAnonymous(int node)
+    {
+        return this.nodes.get(node).uri == null;
+    }
+
+    /**
+     * @param node a node of this graph
+     * @return the local name of the node, split from its URI the same way Jena does, or {@code null} for anonymous
+     *         nodes
+     */
+    String getLocalName(int node)
+    {
+        String uri = this.nodes.get(node).uri;
+        return uri == null ? null : NodeFactory.createURI(uri).getLocalName();
+    }
+
+    /**
+     * @param node a node of this graph
+     * @return the first {@code rdfs:label} of the node, in any language, or {@code null} if it has no label
+     */
+    String getLabel(int node)
+    {
+        return this.nodes.get(node).label;
+    }
+
+    /**
+     * Lists the literal properties of a named node, in the order they appear in the source.
+     *
+     * @param node a node of this graph
+     * @param consumer called with the local name of the predicate and the lexical form of the literal
+     */
+    void forEachLiteral(int node, BiConsumer<String, String> consumer)
+    {
+        List<String> literals = this.nodes.get(node).literals;
+        if (literals != null) {
+            for (int i = 0; i < literals.size(); i += 2) {
+                consumer.accept(literals.get(i), literals.get(i + 1));
+            }
+        }
+    }
+
+    /**
+     * @param node a node of this graph
+     * @return the asserted super classes of the node, in the order they appear in the source
+     */
+    int[] getSuperClasses(int node)
+    {
+        return this.superClasses[node];
+    }
+
+    /**
+     * @param node a node of this graph
+     * @return the super classes of the node that aren't inherited through another super class, in the order they
+     *         appear in the source
+     */
+    int[] getDirectSuperClasses(int node)
+    {
+        return this.directSuperClasses[node];
+    }
+
+    /**
+     * @param node a node of this graph
+     * @return all the super classes of the node, direct or inherited, sorted by node number
+     */
+    int[] getAncestors(int node)
+    {
+        return this.ancestors[node];
+    }
+
+    /**
+     * @param node a node of this graph
+     * @param ancestor another node of this graph
+     * @return {@code true} if {@code ancestor} is a direct or inherited super class of {@code node}
+     */
+    boolean hasAncestor(int node, int ancestor)
+    {
+        return Arrays.binarySearch(this.ancestors[node], ancestor) >= 0;
+    }
+
+    /**
+     * @param node a node of this graph
+     * @param parent another node of this graph
+     * @return {@code true} if {@code parent} is a direct super class of {@code node}
+     */
+    boolean hasDirectSuperClass(int node, int parent)
+    {
+        for (int candidate : this.directSuperClasses[node]) {
+            if (candidate == parent) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param node a node of this graph
+     * @return {@code true} if the node is declared as an {@code owl:Restriction}, or has an {@code owl:onProperty}
+     */
+    boolean isRestriction(int node)
+    {
+        return this.nodes.get(node).restriction || this.nodes.get(node).onProperty != NONE;
+    }
+
+    /**
+     * @param node a restriction node
+     * @return the {@code owl:onProperty} of the restriction, or {@link #NONE}
+     */
+    int getOnProperty(int node)
+    {
+        return this.nodes.get(node).onProperty;
+    }
+
+    /**
+     * @param node a restriction node
+     * @return the {@code owl:someValuesFrom} class of the restriction, or {@link #NONE} if this isn't a
+     *         {@code someValuesFrom} restriction
+     */
+    int getSomeValuesFrom(int node)
+    {
+        return this.nodes.get(node).someValuesFrom;
+    }
+
+    /**
+     * @param node a restriction node
+     * @return the lexical form of the literal {@code owl:hasValue} of the restriction, or {@code null} if this isn't a
+     *         {@code hasValue} restriction
+     */
+    String getHasValue(int node)
+    {
+        return this.nodes.get(node).hasValue;
+    }
+
+    /**
+     * @param node a node of this graph
+     * @return {@code true} if the node is an {@code owl:intersectionOf} class
+     */
+    boolean isIntersection(int node)
+    {
+        return this.nodes.get(node).intersectionOf != NONE;
+    }
+
+    /**
+     * @param node an intersection node
+     * @return the operands of the intersection, in list order
+     */
+    int[] getIntersectionOperands(int node)
+    {
+        List<Integer> operands = new ArrayList<>();
+        int cell = this.nodes.get(node).intersectionOf;
+        // The size check stops malformed, circular lists
+        while (cell != NONE && operands.size() < this.nodes.size()) {
+            Node item = this.nodes.get(cell);
+            if (item.first != NONE) {
+                operands.add(item.first);
+            }
+            cell = item.rest;
+        }
+        return operands.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @return the nodes declared as {@code owl:Ontology}, in the order they appear in the source
+     */
+    int[] getOntologies()
+    {
+        return this.ontologies.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @param node an ontology node
+     * @return the first {@code owl:versionInfo} of the ontology, or {@code null}
+     */
+    String getVersionInfo(int node)
+    {
+        return this.nodes.get(node).versionInfo;
+    }
+
+    private int intern(AResource resource)
+    {
+        String key = resource.isAnonymous() ? BLANK_NODE_PREFIX + resource.getAnonymousID() : resource.getURI();
+        Integer node = this.ids.get(key);
+        if (node == null) {
+            node = this.nodes.size();
+            this.nodes.add(new Node(resource.isAnonymous() ? null : key));
+            this.ids.put(key, node);
+        }
+        return node;
+    }
+
+    private String getPredicateName(String uri)
+    {
+        String name = this.localNames.get(uri);
+        if (name == null) {
+            name = NodeFactory.createURI(uri).getLocalName();
+            this.localNames.put(uri, name);
+        }
+        return name;
+    }
+
+    private void computeClosures()
+    {
+        final int size = this.nodes.size();
+        this.superClasses = new int[size][];
+        for (int i = 0; i < size; ++i) {
+            this.superClasses[i] = this.nodes.get(i).getSuperClasses();
+        }
+
+        this.ancestors = new int[size][];
+        final byte[] state = new byte[size];
+        final int[] stack = new int[size];
+        final int[] position = new int[size];
+        final BitSet collected = new BitSet(size);
+        for (int start = 0; start < size; ++start) {
+            if (state[start] != UNVISITED) {
+                continue;
+            }
+            // Iterative post-order traversal, so that deep hierarchies don't overflow the call stack
+            int depth = 0;
+            stack[0] = start;
+            position[0] = 0;
+            state[start] = VISITING;
+            while (depth >= 0) {
+                final int node = stack[depth];
+                final int[] parents = this.superClasses[node];
+                if (position[depth] < parents.length) {
+                    final int parent = parents[position[depth]++];
+                    if (state[parent] == UNVISITED) {
+                        state[parent] = VISITING;
+                        stack[++depth] = parent;
+                        position[depth] = 0;
+                    }
+                    // A VISITING parent closes a cycle, its closure isn't known yet and is left out
+                } else {
+                    this.ancestors[node] = collectAncestors(node, parents, collected);
+                    state[node] = DONE;
+                    --depth;
+                }
+            }
+        }
+
+        this.directSuperClasses = new int[size][];
+        for (int i = 0; i < size; ++i) {
+            this.directSuperClasses[i] = getDirect(this.superClasses[i]);
+        }
+    }
+
+    private int[] collectAncestors(int node, int[] parents, BitSet collected)
+    {
+        if (parents.length == 0) {
+            return NO_NODES;
+        }
+        for (int parent : parents) {
+            collected.set(parent);
+            if (this.ancestors[parent] != null) {
+                for (int ancestor : this.ancestors[parent]) {
+                    collected.set(ancestor);
+                }
+            }
+        }
+        collected.clear(node);
+        int[] result = new int[collected.cardinality()];
+        int i = 0;
+        for (int ancestor = collected.nextSetBit(0); ancestor >= 0; ancestor = collected.nextSetBit(ancestor + 1)) {
+            result[i++] = ancestor;
+        }
+        collected.clear();
+        return result;
+    }
+
+    private int[] getDirect(int[] parents)
+    {
+        if (parents.length < 2) {
+            return parents;
+        }
+        int[] result = new int[parents.length];
+        int count = 0;
+        for (int parent : parents) {
+            boolean inherited = false;
+            for (int other : parents) {
+                if (other != parent && hasAncestor(other, parent)) {
+                    inherited = true;
+                    break;
+                }
+            }
+            if (!inherited) {
+                result[count++] = parent;
+            }
+        }
+        return count == parents.length ? parents : Arrays.copyOf(result, count);
+    }
+
+    /** Records the triples of interest while the source is being parsed. */
+    private final class Collector implements StatementHandler
+    {
+        @Override
+        public void statement(AResource subject, AResource predicate, AResource object)
+        {
+            final String property = predicate.getURI();
+            if (SUB_CLASS_OF.equals(property)) {
+                node(subject).addSuperClass(intern(object));
+            } else if (TYPE.equals(property)) {
+                if (RESTRICTION.equals(object.getURI())) {
+                    node(subject).restriction = true;
+                } else if (ONTOLOGY.equals(object.getURI())) {
+                    OWLClassGraph.this.ontologies.add(intern(subject));
+                }
+            } else if (ON_PROPERTY.equals(property)) {
+                node(subject).onProperty = intern(object);
+            } else if (SOME_VALUES_FROM.equals(property)) {
+                node(subject).someValuesFrom = intern(object);
+            } else if (INTERSECTION_OF.equals(property)) {
+                node(subject).intersectionOf = intern(object);
+            } else if (FIRST.equals(property)) {
+                node(subject).first = intern(object);
+            } else if (REST.equals(property)) {
+                // rdf:nil is interned as a node without a first item and without a rest, which ends the list
+                node(subject).rest = intern(object);
+            }
+        }
+
+        @Override
+        public void statement(AResource subject, AResource predicate, ALiteral literal)
+        {
+            final String property = predicate.getURI();
+            final String value = literal.toString();
+            final Node node = node(subject);
+            if (HAS_VALUE.equals(property)) {
+                node.hasValue = value;
+            }
+            // Only the literals of named resources are indexed
+            if (node.uri != null) {
+                if (LABEL.equals(property) && node.label == null) {
+                    node.label = value;
+                } else if (VERSION_INFO.equals(property) && node.versionInfo == null) {
+                    node.versionInfo = value;
+                }
+                node.addLiteral(getPredicateName(property), value);
+            }
+        }
+
+        private Node node(AResource resource)
+        {
+            return OWLClassGraph.this.nodes.get(intern(resource));
+        }
+    }
+
+    /** Parsing errors abort the ingestion, warnings are ignored just like when reading into a model. */
+    private static final class FailingErrorHandler implements ErrorHandler
+    {
+        @Override
+        public void warning(SAXParseException exception)
+        {
+            // Not relevant for indexing
+        }
+
+        @Override
+        public void error(SAXParseException exception) throws SAXException
+        {
+            throw exception;
+        }
+
+        @Override
+        public void fatalError(SAXParseException exception) throws SAXException
+        {
+            throw exception;
+        }
+    }
+
+    /** What is known about one resource. */
+    private static final class Node
+    {
+        private final String uri;
+
+        private int[] superClasses = NO_NODES;
+
+        private int superClassCount;
+
+        /** Alternating predicate local names and literal values; {@code null} until the first literal. */
+        private List<String> literals;
+
+        private String label;
+
+        private String versionInfo;
+
+        private boolean restriction;
+
+        private int onProperty = NONE;
+
+        private int someValuesFrom = NONE;
+
+        private String hasValue;
+
+        private int intersectionOf = NONE;
+
+        private int first = NONE;
+
+        private int rest = NONE;
+
+        Node(String uri)
+        {
+            this.uri = uri;
+        }
+
+        void addSuperClass(int parent)
+        {
+            for (int i = 0; i < this.superClassCount; ++i) {
+                if (this.superClasses[i] == parent) {
+                    return;
+                }
+            }
+            if (this.superClassCount == this.superClasses.length) {
+                this.superClasses = Arrays.copyOf(this.superClasses, Math.max(2, this.superClassCount * 2));
+            }
+            this.superClasses[this.superClassCount++] = parent;
+        }
+
+        void addLiteral(String predicate, String value)
+        {
+            if (this.literals == null) {
+                this.literals = new ArrayList<>(4);
+            }
+            this.literals.add(predicate);
+            this.literals.add(value);
+        }
+
+        int[] getSuperClasses()
+        {
+            return this.superClassCount == this.superClasses.length
+                ? this.superClasses : Arrays.copyOf(this.superClasses, this.superClassCount);
+        }
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.internal.solr;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+
+/**
+ * Sends the terms of a vocabulary being reindexed to its replacement core, in three stages: the parser submits the
+ * parsed documents on its own thread, the {@link AbstractSolrVocabulary#extendTerm vocabulary extensions} are run on a
+ * pool of worker threads, and a single thread adds the extended documents to Solr in small chunks. The queues between
+ * the stages are bounded, so a slow stage blocks the previous one instead of accumulating documents in memory. A
+ * single commit is done at the end, in {@link #finish()}.
+ * <p>
+ * Worker threads are never interrupted, since interrupting a thread writing to a Solr index closes the index files;
+ * they stop on their own once the pipeline is {@link #close() closed} or a stage fails.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+final class VocabularyIndexingPipeline implements AutoCloseable
+{
+    /** Marks the end of the input in the queues. */
+    private static final SolrInputDocument END = new SolrInputDocument();
+
+    /** How many documents are sent to Solr in one request. */
+    private static final int ADD_BATCH_SIZE = 1000;
+
+    /** How many parsed documents can wait for each extension thread. */
+    private static final int QUEUED_PER_THREAD = 250;
+
+    /** How often blocked stages check if the pipeline failed, in milliseconds. */
+    private static final long CHECK_INTERVAL = 100;
+
+    private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+    private final AbstractSolrVocabulary vocabulary;
+
+    private final SolrClient client;
+
+    /** Called on the add thread for each document, right before sending it to Solr; may be {@code null}. */
+    private final Consumer<SolrInputDocument> listener;
+
+    private final int threads;
+
+    private final BlockingQueue<SolrInputDocument> parsed;
+
+    private final BlockingQueue<SolrInputDocument> extended = new ArrayBlockingQueue<>(2 * ADD_BATCH_SIZE);
+
+    private final ExecutorService executor;
+
+    private final List<Future<?>> stages = new ArrayList<>();
+
+    private final AtomicInteger runningExtensionThreads;
+
+    /** The first failure of any stage, or a marker that the pipeline was closed. */
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private final long start = System.nanoTime();
+
+    private long lastSubmit = this.start;
+
+    private long parseTime;
+
+    private long submitted;
+
+    private final AtomicLong extensionTime = new AtomicLong();
+
+    private volatile long addTime;
+
+    private volatile long added;
+
+    /**
+     * Starts the worker threads.
+     *
+     * @param vocabulary the vocabulary being reindexed
+     * @param client the replacement core where documents are added
+     * @param threads the number of threads running the vocabulary extensions; with {@code 0} or less, the extensions
+     *            are run on the thread submitting the documents
+     * @param listener called for each document once extended, on the thread adding documents to Solr; may be
+     *            {@code null}
+     */
+    VocabularyIndexingPipeline(AbstractSolrVocabulary vocabulary, SolrClient client, int threads,
+        Consumer<SolrInputDocument> listener)
+    {
+        this.vocabulary = vocabulary;
+        this.client = client;
+        this.listener = listener;
+        this.threads = Math.max(0, threads);
+        this.parsed = new ArrayBlockingQueue<>(Math.max(1, this.threads) * QUEUED_PER_THREAD);
+        this.runningExtensionThreads = new AtomicInteger(this.threads);
+        this.executor = Executors.newFixedThreadPool(this.threads + 1, new StageThreadFactory(vocabulary));
+        for (int i = 0; i < this.threads; ++i) {
+            this.stages.add(this.executor.submit(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    runExtensions();
+                }
+            }));
+        }
+        this.stages.add(this.executor.submit(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                runAdds();
+            }
+        }));
+    }
+
+    /**
+     * Queues a parsed document, waiting if the pipeline is full.
+     *
+     * @param doc the parsed document
+     * @throws SolrServerException if adding documents to Solr failed
+     * @throws IOException if communicating with Solr failed, or the thread was interrupted while waiting
+     */
+    void submit(SolrInputDocument doc) throws SolrServerException, IOException
+    {
+        long now = System.nanoTime();
+        this.parseTime += now - this.lastSubmit;
+        ++this.submitted;
+        boolean queued = false;
+        try {
+            if (this.threads == 0) {
+                extend(doc);
+                queued = put(this.extended, doc);
+            } else {
+                queued = put(this.parsed, doc);
+            }
+        } catch (InterruptedException ex) {
+            interrupted(ex);
+        }
+        if (!queued) {
+            checkFailure();
+        }
+        this.lastSubmit = System.nanoTime();
+    }
+
+    /**
+     * Waits for all the submitted documents to be added, commits them, and logs the throughput of each stage.
+     *
+     * @throws SolrServerException if adding or committing documents failed
+     * @throws IOException if communicating with Solr failed, or the thread was interrupted while waiting
+     */
+    void finish() throws SolrServerException, IOException
+    {
+        this.parseTime += System.nanoTime() - this.lastSubmit;
+        try {
+            if (this.threads == 0) {
+                put(this.extended, END);
+            } else {
+                for (int i = 0; i < this.threads; ++i) {
+                    put(this.parsed, END);
+                }
+            }
+            for (Future<?> stage : this.stages) {
+                try {
+                    stage.get();
+                } catch (ExecutionException ex) {
+                    fail(ex.getCause());
+                }
+            }
+        } catch (InterruptedException ex) {
+            interrupted(ex);
+        }
+        checkFailure();
+        long commitStart = System.nanoTime();
+        this.client.commit();
+        long end = System.nanoTime();
+        this.vocabulary.logger.info(
+            "Indexed {} terms in [{}] in {} ms: parsing {} terms/s, extensions {} terms/s on {} threads,"
+                + " adding {} terms/s, committing {} ms",
+            this.added, this.vocabulary.getIdentifier(), TimeUnit.NANOSECONDS.toMillis(end - this.start),
+            rate(this.submitted, this.parseTime), rate(this.submitted, this.extensionTime.get()),
+            Math.max(1, this.threads), rate(this.added, this.addTime),
+            TimeUnit.NANOSECONDS.toMillis(end - commitStart));
+    }
+
+    /**
+     * Stops the worker threads, abandoning the documents not yet added. Must always be called once the pipeline is no
+     * longer needed.
+     */
+    @Override
+    public void close()
+    {
+        this.failure.compareAndSet(null, new IllegalStateException("Indexing pipeline closed"));
+        this.executor.shutdown();
+    }
+
+    /** The body of the extension threads. */
+    private void runExtensions()
+    {
+        try {
+            SolrInputDocument doc;
+            while ((doc = take(this.parsed)) != END) {
+                if (doc == null) {
+                    return;
+                }
+                extend(doc);
+                if (!put(this.extended, doc)) {
+                    return;
+                }
+            }
+            if (this.runningExtensionThreads.decrementAndGet() == 0) {
+                put(this.extended, END);
+            }
+        } catch (InterruptedException ex) {
+            fail(ex);
+        } catch (RuntimeException | Error ex) {
+            fail(ex);
+            throw ex;
+        }
+    }
+
+    private void extend(SolrInputDocument doc)
+    {
+        long extensionStart = System.nanoTime();
+        this.vocabulary.extendTerm(new SolrVocabularyInputTerm(doc, this.vocabulary));
+        this.extensionTime.addAndGet(System.nanoTime() - extensionStart);
+    }
+
+    /** The body of the thread adding documents to Solr. */
+    private void runAdds()
+    {
+        try {
+            List<SolrInputDocument> batch = new ArrayList<>(ADD_BATCH_SIZE);
+            SolrInputDocument doc;
+            do {
+                doc = take(this.extended);
+                if (doc == null) {
+                    return;
+                }
+                if (doc != END) {
+                    if (this.listener != null) {
+                        this.listener.accept(doc);
+                    }
+                    batch.add(doc);
+                }
+                if (!batch.isEmpty() && (doc == END || batch.size() >= ADD_BATCH_SIZE)) {
+                    long addStart = System.nanoTime();
+                    this.client.add(batch);
+                    this.addTime += System.nanoTime() - addStart;
+                    this.added += batch.size();
+                    batch = new ArrayList<>(ADD_BATCH_SIZE);
+                }
+            } while (doc != END);
+        } catch (SolrServerException | IOException | InterruptedException ex) {
+            fail(ex);
+        } catch (RuntimeException | Error ex) {
+            fail(ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Waits for a document, checking regularly if the pipeline failed.
+     *
+     * @return the next document, or {@code null} if the pipeline failed
+     */
+    private SolrInputDocument take(BlockingQueue<SolrInputDocument> queue) throws InterruptedException
+    {
+        while (this.failure.get() == null) {
+            SolrInputDocument result = queue.poll(CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Waits for room in the queue, checking regularly if the pipeline failed.
+     *
+     * @return {@code true} if the document was queued, {@code false} if the pipeline failed
+     */
+    private boolean put(BlockingQueue<SolrInputDocument> queue, SolrInputDocument doc) throws InterruptedException
+    {
+        while (this.failure.get() == null) {
+            if (queue.offer(doc, CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Stops the pipeline when the thread submitting documents is interrupted. */
+    private void interrupted(InterruptedException ex) throws InterruptedIOException
+    {
+        Thread.currentThread().interrupt();
+        fail(ex);
+        throw new InterruptedIOException("Interrupted while indexing");
+    }
+
+    private void fail(Throwable cause)
+    {
+        this.failure.compareAndSet(null, cause);
+    }
+
+    /** Rethrows the failure of a stage, if any. */
+    private void checkFailure() throws SolrServerException, IOException
+    {
+        Throwable cause = this.failure.get();
+        if (cause == null) {
+            return;
+        }
+        if (cause instanceof SolrServerException) {
+            throw (SolrServerException) cause;
+        } else if (cause instanceof IOException) {
+            throw (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new IOException("Indexing failed: " + cause.getMessage(), cause);
+    }
+
+    private static long rate(long count, long nanos)
+    {
+        return nanos > 0 ? count * TimeUnit.SECONDS.toNanos(1) / nanos : count;
+    }
+
+    /** Creates daemon threads named after the vocabulary being indexed. */
+    private static final class StageThreadFactory implements ThreadFactory
+    {
+        private final String namePrefix;
+
+        private final AtomicInteger threadCounter = new AtomicInteger();
+
+        StageThreadFactory(AbstractSolrVocabulary vocabulary)
+        {
+            this.namePrefix =
+                "Vocabulary indexing " + POOL_COUNTER.incrementAndGet() + " [" + vocabulary.getIdentifier() + "] ";
+        }
+
+        @Override
+        public Thread newThread(Runnable stage)
+        {
+            Thread thread = new Thread(stage, this.namePrefix + this.threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.internal.solr;
+
+import org.phenotips.vocabulary.VocabularyExtension;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.apache.solr.client.solrj.SolrQuery;
+
+/**
+ * Caches, for one vocabulary, the list of {@link VocabularyExtension#isVocabularySupported supported extensions} and
+ * the query templates: the static search parameters of each type of query, already
+ * {@link VocabularyExtension#extendQuery extended}, for each locale. Searches only need to copy a template and bind
+ * the user input, the number of rows and the filter. Everything is computed again after {@link #invalidate()}, which
+ * must be called when extensions are registered or unregistered, or when the locale configuration changes. This class
+ * is thread safe.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+final class VocabularyQueryTemplates
+{
+    /** The extended templates, keyed by locale and query type; never handed out, only copied. */
+    private final Map<String, SolrQuery> templates = new ConcurrentHashMap<>();
+
+    /** Incremented whenever the cache is cleared, so that values computed before that aren't cached. */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** @see #getBuildCount() */
+    private final AtomicLong builds = new AtomicLong();
+
+    private volatile List<VocabularyExtension> supportedExtensions;
+
+    /**
+     * Returns the extensions supported by the vocabulary, looking them up only if they aren't already cached.
+     *
+     * @param lookup lists the extensions supported by the vocabulary
+     * @return the cached list of supported extensions
+     */
+    List<VocabularyExtension> getSupportedExtensions(Supplier<List<VocabularyExtension>> lookup)
+    {
+        List<VocabularyExtension> result = this.supportedExtensions;
+        if (result == null) {
+            long lookupGeneration = this.generation.get();
+            result = lookup.get();
+            if (lookupGeneration == this.generation.get()) {
+                this.supportedExtensions = result;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a copy of the template for a type of query in a locale, building and extending it only if it isn't
+     * already cached.
+     *
+     * @param locale the current locale, may be {@code null}
+     * @param queryType identifies the static parameters of the query, for example a category or a search mode
+     * @param builder creates the extended template; the result must not be modified afterwards
+     * @return a new query holding the template parameters, which can be freely modified
+     */
+    SolrQuery getTemplate(Locale locale, String queryType, Function<String, SolrQuery> builder)
+    {
+        String key = locale + "/" + queryType;
+        SolrQuery template = this.templates.get(key);
+        if (template == null) {
+            long buildGeneration = this.generation.get();
+            template = builder.apply(queryType);
+            this.builds.incrementAndGet();
+            if (buildGeneration == this.generation.get()) {
+                this.templates.put(key, template);
+            }
+        }
+        return template.getCopy();
+    }
+
+    /** Drops the cached extensions and templates. */
+    void invalidate()
+    {
+        this.generation.incrementAndGet();
+        this.supportedExtensions = null;
+        this.templates.clear();
+    }
+
+    /**
+     * How many templates were built, since the vocabulary was initialized.
+     *
+     * @return a positive number
+     */
+    long getBuildCount()
+    {
+        return this.builds.get();
+    }
+}
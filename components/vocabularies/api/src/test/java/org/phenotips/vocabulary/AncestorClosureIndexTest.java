@@ -0,0 +1,117 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link AncestorClosureIndex} class.
+ *
+ * @version $Id$
+ */
+public class AncestorClosureIndexTest
+{
+    private AncestorClosureIndex index;
+
+    @Before
+    public void setUp()
+    {
+        this.index = new AncestorClosureIndex.Builder()
+            .addTerm("HP:0000001", null)
+            .addTerm("HP:0000118", Arrays.asList("HP:0000001 ! All"))
+            .addTerm("HP:0000924", Arrays.asList("HP:0000118 ! Phenotypic abnormality"))
+            .addTerm("HP:0000707", Arrays.asList("HP:0000118 ! Phenotypic abnormality"))
+            .addTerm("HP:0011842", Arrays.asList("HP:0000924", "HP:0000707", "HP:9999999"))
+            .addAlias("HP:0000002", "HP:0011842")
+            .build();
+    }
+
+    @Test
+    public void ancestorsIncludeSelfAndAllIndirectAncestors()
+    {
+        Set<String> result = this.index.getAncestorIdsAndSelf("HP:0011842");
+        Assert.assertEquals(5, result.size());
+        Assert.assertTrue(result.containsAll(
+            Arrays.asList("HP:0011842", "HP:0000924", "HP:0000707", "HP:0000118", "HP:0000001")));
+    }
+
+    @Test
+    public void unknownParentsAreIgnored()
+    {
+        Assert.assertFalse(this.index.getAncestorIdsAndSelf("HP:0011842").contains("HP:9999999"));
+        Assert.assertFalse(this.index.contains("HP:9999999"));
+    }
+
+    @Test
+    public void rootOnlyContainsSelf()
+    {
+        Assert.assertEquals(Collections.singleton("HP:0000001"), this.index.getAncestorIdsAndSelf("HP:0000001"));
+    }
+
+    @Test
+    public void aliasesResolveToTheMainTerm()
+    {
+        Assert.assertTrue(this.index.contains("HP:0000002"));
+        Assert.assertEquals(this.index.getAncestorIdsAndSelf("HP:0011842"),
+            this.index.getAncestorIdsAndSelf("HP:0000002"));
+    }
+
+    @Test
+    public void unknownTermsReturnEmptySet()
+    {
+        Assert.assertTrue(this.index.getAncestorIdsAndSelf("HP:0000003").isEmpty());
+        Assert.assertTrue(this.index.getAncestorIdsAndSelf(null).isEmpty());
+        Assert.assertTrue(AncestorClosureIndex.empty().getAncestorIdsAndSelf("HP:0000001").isEmpty());
+    }
+
+    @Test
+    public void cyclesDontBreakTheBuild()
+    {
+        AncestorClosureIndex cyclic = new AncestorClosureIndex.Builder()
+            .addTerm("A", Arrays.asList("B"))
+            .addTerm("B", Arrays.asList("A"))
+            .build();
+        Assert.assertTrue(cyclic.getAncestorIdsAndSelf("A").containsAll(Arrays.asList("A", "B")));
+    }
+
+    @Test
+    public void serializationPreservesTheIndex() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        this.index.write(out);
+        AncestorClosureIndex read = AncestorClosureIndex.read(new ByteArrayInputStream(out.toByteArray()));
+        Assert.assertEquals(this.index.size(), read.size());
+        Assert.assertEquals(this.index.getAncestorIdsAndSelf("HP:0011842"), read.getAncestorIdsAndSelf("HP:0011842"));
+        Assert.assertEquals(this.index.getAncestorIdsAndSelf("HP:0011842"), read.getAncestorIdsAndSelf("HP:0000002"));
+    }
+
+    @Test(expected = IOException.class)
+    public void readingInvalidDataFails() throws IOException
+    {
+        AncestorClosureIndex.read(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }));
+    }
+}
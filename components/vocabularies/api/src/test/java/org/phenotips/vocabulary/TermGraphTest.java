@@ -0,0 +1,146 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link TermGraph} class.
+ *
+ * @version $Id$
+ */
+public class TermGraphTest
+{
+    private TermGraph graph;
+
+    /**
+     * Builds the following DAG:
+     *
+     * <pre>
+     *        R
+     *       / \
+     *      A   B
+     *     / \ / \
+     *    C   D   E
+     *    |       |
+     *    F       G
+     * </pre>
+     *
+     * with an alias {@code X} for {@code F}, and an isolated term {@code Z}.
+     */
+    @Before
+    public void setUp()
+    {
+        this.graph = new AncestorClosureIndex.Builder()
+            .addTerm("R", null)
+            .addTerm("A", Arrays.asList("R"))
+            .addTerm("B", Arrays.asList("R"))
+            .addTerm("C", Arrays.asList("A"))
+            .addTerm("D", Arrays.asList("A", "B"))
+            .addTerm("E", Arrays.asList("B"))
+            .addTerm("F", Arrays.asList("C"))
+            .addTerm("G", Arrays.asList("E"))
+            .addTerm("Z", null)
+            .addAlias("X", "F")
+            .build()
+            .getGraph();
+    }
+
+    @Test
+    public void parentsAndChildren()
+    {
+        Assert.assertEquals(new HashSet<>(Arrays.asList("A", "B")), new HashSet<>(this.graph.getParentIds("D")));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("C", "D")), new HashSet<>(this.graph.getChildIds("A")));
+        Assert.assertTrue(this.graph.getParentIds("R").isEmpty());
+        Assert.assertTrue(this.graph.getChildIds("G").isEmpty());
+        Assert.assertTrue(this.graph.getChildIds("unknown").isEmpty());
+        Assert.assertEquals(Collections.singletonList("C"), this.graph.getParentIds("X"));
+    }
+
+    @Test
+    public void distances()
+    {
+        Assert.assertEquals(0, this.graph.getDistance("F", "F"));
+        Assert.assertEquals(1, this.graph.getDistance("F", "C"));
+        Assert.assertEquals(3, this.graph.getDistance("F", "D"));
+        Assert.assertEquals(3, this.graph.getDistance("D", "F"));
+        Assert.assertEquals(2, this.graph.getDistance("D", "E"));
+        Assert.assertEquals(6, this.graph.getDistance("F", "G"));
+        Assert.assertEquals(3, this.graph.getDistance("X", "R"));
+    }
+
+    @Test
+    public void distanceToUnknownOrUnconnectedTerms()
+    {
+        Assert.assertEquals(-1, this.graph.getDistance("F", "Z"));
+        Assert.assertEquals(-1, this.graph.getDistance("F", "unknown"));
+        Assert.assertEquals(-1, this.graph.getDistance(null, "F"));
+    }
+
+    @Test
+    public void lowestCommonAncestor()
+    {
+        Assert.assertEquals("A", this.graph.getLowestCommonAncestor("F", "D"));
+        Assert.assertEquals("B", this.graph.getLowestCommonAncestor("D", "G"));
+        Assert.assertEquals("R", this.graph.getLowestCommonAncestor("F", "G"));
+        Assert.assertEquals("C", this.graph.getLowestCommonAncestor("C", "F"));
+        Assert.assertNull(this.graph.getLowestCommonAncestor("F", "Z"));
+        Assert.assertNull(this.graph.getLowestCommonAncestor("F", "unknown"));
+    }
+
+    @Test
+    public void batchDistancesMatchIndividualDistances()
+    {
+        List<String> from = Arrays.asList("F", "D", "unknown", "Z");
+        List<String> to = Arrays.asList("G", "C", "F", "R");
+        long[][] result = this.graph.getDistances(from, to);
+        Assert.assertEquals(from.size(), result.length);
+        for (int i = 0; i < from.size(); ++i) {
+            Assert.assertEquals(to.size(), result[i].length);
+            for (int j = 0; j < to.size(); ++j) {
+                Assert.assertEquals(this.graph.getDistance(from.get(i), to.get(j)), result[i][j]);
+            }
+        }
+    }
+
+    @Test
+    public void graphSurvivesSerialization() throws IOException
+    {
+        AncestorClosureIndex index = new AncestorClosureIndex.Builder()
+            .addTerm("R", null)
+            .addTerm("A", Arrays.asList("R"))
+            .addTerm("B", Arrays.asList("A", "R"))
+            .build();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        index.write(out);
+        TermGraph read = AncestorClosureIndex.read(new ByteArrayInputStream(out.toByteArray())).getGraph();
+        Assert.assertEquals(3, read.size());
+        Assert.assertEquals(1, read.getDistance("B", "R"));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("A", "B")), new HashSet<>(read.getChildIds("R")));
+    }
+}
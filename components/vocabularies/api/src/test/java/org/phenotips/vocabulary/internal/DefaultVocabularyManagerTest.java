@@ -19,11 +19,18 @@
 
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyManager;
+import org.phenotips.vocabulary.VocabularySearchStatistics;
 import org.phenotips.vocabulary.VocabularyTerm;
 
 import org.xwiki.component.phase.InitializationException;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -31,6 +38,9 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang3.StringUtils;
 import org.junit.Assert;
@@ -39,8 +49,13 @@
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.slf4j.Logger;
 
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -188,6 +203,15 @@ public void setUp() throws Exception
         this.mocker.registerComponent(Vocabulary.class, "ethnicity", this.ethnicity);
         this.mocker.registerComponent(Vocabulary.class, "omim", this.omim);
 
+        when(this.hgnc.getIdentifier()).thenReturn(HGNC_LABEL);
+        when(this.chebi.getIdentifier()).thenReturn(CHEBI_LABEL);
+        when(this.hpo.getIdentifier()).thenReturn(HPO_LABEL);
+        when(this.ethnicity.getIdentifier()).thenReturn(ETHNICITY_LABEL);
+        when(this.omim.getIdentifier()).thenReturn(OMIM_LABEL);
+
+        ConfigurationSource configuration = this.mocker.getInstance(ConfigurationSource.class, "xwikiproperties");
+        when(configuration.getProperty("phenotips.vocabularies.search.timeout", Long.class)).thenReturn(500L);
+
         this.vocabularyManager = this.mocker.getComponentUnderTest();
         this.logger = this.mocker.getMockedLogger();
     }
@@ -356,4 +380,166 @@ public void searchReturnsCorrectSortedListOfTermsIfOneVocabHasTermsWithNullForSc
         Assert.assertEquals(this.result4, terms.get(1));
         Assert.assertEquals(this.result6, terms.get(2));
     }
+
+    @Test
+    public void searchReturnsPartialResultsWhenAVocabularyIsTooSlow() throws Exception
+    {
+        when(this.result1.get(SCORE_LABEL)).thenReturn((float) 5.1);
+        when(this.result4.get(SCORE_LABEL)).thenReturn((float) 3.2353);
+        when(this.result5.get(SCORE_LABEL)).thenReturn((float) 3.27893);
+        // Blocks the slow vocabulary until the search is over
+        final CountDownLatch release = new CountDownLatch(1);
+        when(this.hgnc.search(SEARCH_QUERY_A_LABEL, GENE_CATEGORY, 3, null, null))
+            .thenAnswer(new Answer<List<VocabularyTerm>>()
+            {
+                @Override
+                public List<VocabularyTerm> answer(InvocationOnMock invocation) throws Exception
+                {
+                    release.await(10, TimeUnit.SECONDS);
+                    return Collections.singletonList(DefaultVocabularyManagerTest.this.result1);
+                }
+            });
+        when(this.omim.search(SEARCH_QUERY_A_LABEL, GENE_CATEGORY, 3, null, null)).thenReturn(
+            Arrays.asList(this.result4, this.result5));
+
+        final List<VocabularyTerm> terms;
+        try {
+            terms = this.vocabularyManager.search(SEARCH_QUERY_A_LABEL, GENE_CATEGORY, 3);
+        } finally {
+            release.countDown();
+        }
+        Assert.assertEquals(Arrays.asList(this.result5, this.result4), terms);
+
+        Map<String, VocabularySearchStatistics> statistics = this.vocabularyManager.getSearchStatistics();
+        Assert.assertEquals(1, statistics.get(HGNC_LABEL).getTimeouts());
+        Assert.assertEquals(0, statistics.get(OMIM_LABEL).getTimeouts());
+        verify(this.logger).warn(eq("Vocabulary [{}] didn't answer in {}ms, returning partial search results"),
+            eq(HGNC_LABEL), anyLong());
+    }
+
+    @Test
+    public void searchSkipsFailingVocabularies() throws Exception
+    {
+        when(this.result4.get(SCORE_LABEL)).thenReturn((float) 3.2353);
+        when(this.hgnc.search(SEARCH_QUERY_A_LABEL, GENE_CATEGORY, 3, null, null))
+            .thenThrow(new IllegalStateException("Core not available"));
+        when(this.omim.search(SEARCH_QUERY_A_LABEL, GENE_CATEGORY, 3, null, null)).thenReturn(
+            Collections.singletonList(this.result4));
+
+        final List<VocabularyTerm> terms = this.vocabularyManager.search(SEARCH_QUERY_A_LABEL, GENE_CATEGORY, 3);
+        Assert.assertEquals(Collections.singletonList(this.result4), terms);
+        Assert.assertEquals(1, this.vocabularyManager.getSearchStatistics().get(HGNC_LABEL).getFailures());
+        verify(this.logger).warn(eq("Failed to search vocabulary [{}]: {}"), eq(HGNC_LABEL), anyString());
+    }
+
+    @Test
+    public void searchRecordsLatencyForEachVocabulary() throws Exception
+    {
+        final ManualClock clock = new ManualClock();
+        ReflectionUtils.setFieldValue(this.vocabularyManager, "clock", clock);
+        when(this.hgnc.search(SEARCH_QUERY_A_LABEL, GENE_CATEGORY, 3, null, null))
+            .thenAnswer(new Answer<List<VocabularyTerm>>()
+            {
+                @Override
+                public List<VocabularyTerm> answer(InvocationOnMock invocation) throws Exception
+                {
+                    clock.advance(50);
+                    return Collections.emptyList();
+                }
+            });
+        when(this.omim.search(SEARCH_QUERY_A_LABEL, GENE_CATEGORY, 3, null, null))
+            .thenReturn(Collections.<VocabularyTerm>emptyList());
+        when(this.hpo.search(SEARCH_QUERY_A_LABEL, PHENOTYPE_CATEGORY, 3, null, null))
+            .thenReturn(Collections.<VocabularyTerm>emptyList());
+
+        this.vocabularyManager.search(SEARCH_QUERY_A_LABEL, GENE_CATEGORY, 3);
+        this.vocabularyManager.search(SEARCH_QUERY_A_LABEL, GENE_CATEGORY, 3);
+        this.vocabularyManager.search(SEARCH_QUERY_A_LABEL, PHENOTYPE_CATEGORY, 3);
+
+        Map<String, VocabularySearchStatistics> statistics = this.vocabularyManager.getSearchStatistics();
+        Assert.assertEquals(2, statistics.get(HGNC_LABEL).getSearches());
+        Assert.assertEquals(50, statistics.get(HGNC_LABEL).getAverageTime());
+        Assert.assertEquals(50, statistics.get(HGNC_LABEL).getMaxTime());
+        Assert.assertEquals(2, statistics.get(OMIM_LABEL).getSearches());
+        Assert.assertEquals(1, statistics.get(HPO_LABEL).getSearches());
+        Assert.assertFalse(statistics.containsKey(CHEBI_LABEL));
+    }
+
+    @Test
+    public void searchKeepsOnlyTheBestResults() throws Exception
+    {
+        when(this.result1.get(SCORE_LABEL)).thenReturn((float) 1);
+        when(this.result2.get(SCORE_LABEL)).thenReturn((float) 6);
+        when(this.result3.get(SCORE_LABEL)).thenReturn((float) 2);
+        when(this.result4.get(SCORE_LABEL)).thenReturn((float) 5);
+        when(this.result5.get(SCORE_LABEL)).thenReturn((float) 3);
+        when(this.result6.get(SCORE_LABEL)).thenReturn((float) 4);
+
+        when(this.hgnc.search(SEARCH_QUERY_A_LABEL, GENE_CATEGORY, 4, null, null)).thenReturn(
+            Arrays.asList(this.result1, this.result2, this.result3));
+        when(this.omim.search(SEARCH_QUERY_A_LABEL, GENE_CATEGORY, 4, null, null)).thenReturn(
+            Arrays.asList(this.result4, this.result5, this.result6));
+        final List<VocabularyTerm> terms = this.vocabularyManager.search(SEARCH_QUERY_A_LABEL, GENE_CATEGORY, 4);
+        Assert.assertEquals(Arrays.asList(this.result2, this.result4, this.result6, this.result5), terms);
+    }
+
+    @Test
+    public void searchRanksTermsWithTheSameScoreByVocabularyThenById() throws Exception
+    {
+        when(this.result1.get(SCORE_LABEL)).thenReturn((float) 2);
+        when(this.result1.getId()).thenReturn("HGNC:1");
+        when(this.result2.get(SCORE_LABEL)).thenReturn((float) 2);
+        when(this.result2.getId()).thenReturn("HGNC:2");
+        when(this.result3.get(SCORE_LABEL)).thenReturn((float) 2);
+        when(this.result3.getId()).thenReturn("MIM:1");
+        when(this.result4.get(SCORE_LABEL)).thenReturn((float) 3);
+        when(this.result4.getId()).thenReturn("MIM:2");
+
+        for (int maxResults = 3; maxResults <= 4; ++maxResults) {
+            when(this.hgnc.search(SEARCH_QUERY_A_LABEL, GENE_CATEGORY, maxResults, null, null)).thenReturn(
+                Arrays.asList(this.result2, this.result1));
+            when(this.omim.search(SEARCH_QUERY_A_LABEL, GENE_CATEGORY, maxResults, null, null)).thenReturn(
+                Arrays.asList(this.result3, this.result4));
+        }
+
+        Assert.assertEquals(Arrays.asList(this.result4, this.result1, this.result2),
+            this.vocabularyManager.search(SEARCH_QUERY_A_LABEL, GENE_CATEGORY, 3));
+        Assert.assertEquals(Arrays.asList(this.result4, this.result1, this.result2, this.result3),
+            this.vocabularyManager.search(SEARCH_QUERY_A_LABEL, GENE_CATEGORY, 4));
+    }
+
+    /** A clock which only moves forward when told to. */
+    private static final class ManualClock extends Clock
+    {
+        private final AtomicLong now = new AtomicLong(System.currentTimeMillis());
+
+        void advance(long milliseconds)
+        {
+            this.now.addAndGet(milliseconds);
+        }
+
+        @Override
+        public long millis()
+        {
+            return this.now.get();
+        }
+
+        @Override
+        public Instant instant()
+        {
+            return Instant.ofEpochMilli(millis());
+        }
+
+        @Override
+        public ZoneId getZone()
+        {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone)
+        {
+            return this;
+        }
+    }
 }
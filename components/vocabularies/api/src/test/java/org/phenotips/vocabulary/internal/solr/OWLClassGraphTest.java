@@ -0,0 +1,304 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.internal.solr;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.jena.ontology.OntClass;
+import org.apache.jena.ontology.OntModel;
+import org.apache.jena.ontology.OntModelSpec;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.vocabulary.OWL;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link OWLClassGraph} class, on a small ORDO-like fixture.
+ *
+ * @version $Id$
+ */
+public class OWLClassGraphTest
+{
+    private static final String FIXTURE = "/owl-class-graph.owl";
+
+    private static final String BASE = "http://www.orpha.net/ORDO/";
+
+    private static final List<String> CLASSES =
+        Arrays.asList("Orphanet_C001", "Orphanet_377788", "Orphanet_410296", "Orphanet_1", "Orphanet_2", "Orphanet_3");
+
+    private OWLClassGraph graph;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        try (InputStream in = getClass().getResourceAsStream(FIXTURE)) {
+            this.graph = OWLClassGraph.read(in, BASE);
+        }
+    }
+
+    @Test
+    public void namedResourcesAreFound()
+    {
+        int node = node("Orphanet_1");
+        Assert.assertEquals(BASE + "Orphanet_1", this.graph.getURI(node));
+        Assert.assertEquals("Orphanet_1", this.graph.getLocalName(node));
+        Assert.assertFalse(this.graph.isAnonymous(node));
+        Assert.assertEquals(OWLClassGraph.NONE, this.graph.getNode(BASE + "Orphanet_4"));
+    }
+
+    @Test
+    public void firstLabelIsKept()
+    {
+        Assert.assertEquals("Disease A", this.graph.getLabel(node("Orphanet_1")));
+        Assert.assertEquals("present in", this.graph.getLabel(node("Orphanet_C016")));
+        Assert.assertNull(this.graph.getLabel(this.graph.getSuperClasses(node("Orphanet_2"))[1]));
+    }
+
+    @Test
+    public void literalsAreListedInSourceOrder()
+    {
+        List<String> literals = new ArrayList<>();
+        this.graph.forEachLiteral(node("Orphanet_1"), (predicate, value) -> literals.add(predicate + '=' + value));
+        Assert.assertEquals(Arrays.asList("label=Disease A", "label=Maladie A", "definition=The first disease."),
+            literals);
+
+        List<String> none = new ArrayList<>();
+        this.graph.forEachLiteral(node("Orphanet_3"), (predicate, value) -> none.add(predicate));
+        Assert.assertEquals(Collections.singletonList("label"), none);
+    }
+
+    @Test
+    public void subclassEdgesAreKeptInSourceOrder()
+    {
+        int[] parents = this.graph.getSuperClasses(node("Orphanet_1"));
+        Assert.assertEquals(4, parents.length);
+        Assert.assertEquals(node("Orphanet_377788"), parents[0]);
+        Assert.assertEquals(node("Orphanet_C001"), parents[1]);
+        Assert.assertTrue(this.graph.isAnonymous(parents[2]));
+        Assert.assertTrue(this.graph.isAnonymous(parents[3]));
+        Assert.assertEquals(0, this.graph.getSuperClasses(node("Orphanet_C001")).length);
+    }
+
+    @Test
+    public void inheritedSuperClassesAreNotDirect()
+    {
+        int disease = node("Orphanet_1");
+        int[] direct = this.graph.getDirectSuperClasses(disease);
+        int[] parents = this.graph.getSuperClasses(disease);
+        Assert.assertArrayEquals(new int[] { parents[0], parents[2], parents[3] }, direct);
+        Assert.assertFalse(this.graph.hasDirectSuperClass(disease, node("Orphanet_C001")));
+        Assert.assertTrue(this.graph.hasDirectSuperClass(disease, node("Orphanet_377788")));
+        Assert.assertArrayEquals(new int[] { node("Orphanet_2") },
+            this.graph.getDirectSuperClasses(node("Orphanet_3")));
+    }
+
+    @Test
+    public void ancestorsAreTransitive()
+    {
+        int disease = node("Orphanet_3");
+        Assert.assertEquals(names("Orphanet_2", "Orphanet_1", "Orphanet_377788", "Orphanet_C001"),
+            namedAncestors(disease));
+        Assert.assertTrue(this.graph.hasAncestor(disease, node("Orphanet_C001")));
+        Assert.assertFalse(this.graph.hasAncestor(disease, node("Orphanet_410296")));
+        Assert.assertFalse(this.graph.hasAncestor(disease, disease));
+        // Anonymous super classes are inherited too
+        for (int parent : this.graph.getSuperClasses(node("Orphanet_1"))) {
+            Assert.assertTrue(this.graph.hasAncestor(disease, parent));
+        }
+        int[] ancestors = this.graph.getAncestors(disease);
+        int[] sorted = ancestors.clone();
+        Arrays.sort(sorted);
+        Assert.assertArrayEquals(sorted, ancestors);
+    }
+
+    @Test
+    public void restrictionsAreRead()
+    {
+        int[] parents = this.graph.getSuperClasses(node("Orphanet_1"));
+        int someValues = parents[2];
+        Assert.assertTrue(this.graph.isRestriction(someValues));
+        Assert.assertEquals(node("Orphanet_C016"), this.graph.getOnProperty(someValues));
+        Assert.assertEquals(node("Orphanet_410296"), this.graph.getSomeValuesFrom(someValues));
+        Assert.assertNull(this.graph.getHasValue(someValues));
+        Assert.assertFalse(this.graph.isIntersection(someValues));
+
+        int hasValue = parents[3];
+        Assert.assertTrue(this.graph.isRestriction(hasValue));
+        Assert.assertEquals(node("Orphanet_C017"), this.graph.getOnProperty(hasValue));
+        Assert.assertEquals("Autosomal recessive", this.graph.getHasValue(hasValue));
+        Assert.assertEquals(OWLClassGraph.NONE, this.graph.getSomeValuesFrom(hasValue));
+
+        Assert.assertFalse(this.graph.isRestriction(node("Orphanet_1")));
+    }
+
+    @Test
+    public void intersectionOperandsAreListedInOrder()
+    {
+        int intersection = this.graph.getSuperClasses(node("Orphanet_2"))[1];
+        Assert.assertTrue(this.graph.isIntersection(intersection));
+        Assert.assertFalse(this.graph.isRestriction(intersection));
+        int[] operands = this.graph.getIntersectionOperands(intersection);
+        Assert.assertEquals(2, operands.length);
+        Assert.assertTrue(this.graph.isRestriction(operands[0]));
+        Assert.assertEquals(node("Orphanet_410296"), this.graph.getSomeValuesFrom(operands[0]));
+        Assert.assertEquals(node("Orphanet_377788"), operands[1]);
+    }
+
+    @Test
+    public void ontologyVersionIsRead()
+    {
+        int[] ontologies = this.graph.getOntologies();
+        Assert.assertEquals(1, ontologies.length);
+        Assert.assertEquals("http://www.orpha.net/ontology/orphanet.owl", this.graph.getURI(ontologies[0]));
+        Assert.assertEquals("2.4", this.graph.getVersionInfo(ontologies[0]));
+    }
+
+    @Test
+    public void hierarchyMatchesTheInferenceModel() throws IOException
+    {
+        OntModel model = ModelFactory.createOntologyModel(OntModelSpec.OWL_DL_MEM_TRANS_INF);
+        try (InputStream in = getClass().getResourceAsStream(FIXTURE)) {
+            model.read(in, BASE);
+        }
+        for (String name : CLASSES) {
+            OntClass ontClass = model.getOntClass(BASE + name);
+            int node = node(name);
+            Assert.assertEquals(name, getNamedSuperClasses(ontClass, false), namedAncestors(node));
+            Set<String> direct = new HashSet<>();
+            int anonymous = 0;
+            for (int parent : this.graph.getDirectSuperClasses(node)) {
+                if (this.graph.isAnonymous(parent)) {
+                    ++anonymous;
+                } else {
+                    direct.add(this.graph.getURI(parent));
+                }
+            }
+            Assert.assertEquals(name, getNamedSuperClasses(ontClass, true), direct);
+            Assert.assertEquals(name, countAnonymousSuperClasses(ontClass), anonymous);
+            // The first label in the source is the English one
+            Assert.assertEquals(name, ontClass.getLabel("en"), this.graph.getLabel(node));
+        }
+    }
+
+    @Test
+    public void cyclesDontPreventTheClosure() throws IOException
+    {
+        OWLClassGraph cyclic = read("<owl:Class rdf:about=\"http://a/A\"><rdfs:subClassOf rdf:resource=\"http://a/B\"/>"
+            + "</owl:Class><owl:Class rdf:about=\"http://a/B\"><rdfs:subClassOf rdf:resource=\"http://a/A\"/>"
+            + "</owl:Class><owl:Class rdf:about=\"http://a/C\"><rdfs:subClassOf rdf:resource=\"http://a/A\"/>"
+            + "</owl:Class>");
+        int a = cyclic.getNode("http://a/A");
+        int b = cyclic.getNode("http://a/B");
+        int c = cyclic.getNode("http://a/C");
+        Assert.assertArrayEquals(new int[] { b }, cyclic.getAncestors(a));
+        Assert.assertArrayEquals(new int[] { a }, cyclic.getAncestors(b));
+        Assert.assertTrue(cyclic.hasAncestor(c, a));
+        Assert.assertTrue(cyclic.hasAncestor(c, b));
+        Assert.assertFalse(cyclic.hasAncestor(c, c));
+    }
+
+    @Test
+    public void missingParentsAreKeptAsUnlabeledNodes() throws IOException
+    {
+        OWLClassGraph partial = read("<owl:Class rdf:about=\"http://a/A\"><rdfs:label>A</rdfs:label>"
+            + "<rdfs:subClassOf rdf:resource=\"http://a/Missing\"/></owl:Class>");
+        int missing = partial.getNode("http://a/Missing");
+        Assert.assertNotEquals(OWLClassGraph.NONE, missing);
+        Assert.assertNull(partial.getLabel(missing));
+        Assert.assertArrayEquals(new int[] { missing }, partial.getAncestors(partial.getNode("http://a/A")));
+        Assert.assertEquals(0, partial.getOntologies().length);
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidSourceIsRejected() throws IOException
+    {
+        read("<owl:Class rdf:about=\"http://a/A\">");
+    }
+
+    private OWLClassGraph read(String classes) throws IOException
+    {
+        String source = "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\""
+            + " xmlns:rdfs=\"http://www.w3.org/2000/01/rdf-schema#\" xmlns:owl=\"http://www.w3.org/2002/07/owl#\">"
+            + classes + "</rdf:RDF>";
+        try (InputStream in = new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8))) {
+            return OWLClassGraph.read(in, "http://a/");
+        }
+    }
+
+    private int node(String name)
+    {
+        int node = this.graph.getNode(BASE + name);
+        Assert.assertNotEquals(name, OWLClassGraph.NONE, node);
+        return node;
+    }
+
+    private Set<String> names(String... names)
+    {
+        Set<String> result = new HashSet<>();
+        for (String name : names) {
+            result.add(BASE + name);
+        }
+        return result;
+    }
+
+    private Set<String> namedAncestors(int node)
+    {
+        Set<String> result = new HashSet<>();
+        for (int ancestor : this.graph.getAncestors(node)) {
+            if (!this.graph.isAnonymous(ancestor)) {
+                result.add(this.graph.getURI(ancestor));
+            }
+        }
+        return result;
+    }
+
+    /** The named super classes listed by Jena, without the reflexive and the implicit top classes. */
+    private Set<String> getNamedSuperClasses(OntClass ontClass, boolean direct)
+    {
+        Set<String> result = new HashSet<>();
+        for (OntClass parent : ontClass.listSuperClasses(direct).toList()) {
+            if (!parent.isAnon() && !parent.equals(ontClass) && !parent.equals(OWL.Thing)
+                && !parent.equals(RDFS.Resource)) {
+                result.add(parent.getURI());
+            }
+        }
+        return result;
+    }
+
+    private int countAnonymousSuperClasses(OntClass ontClass)
+    {
+        int result = 0;
+        for (OntClass parent : ontClass.listSuperClasses(true).toList()) {
+            if (parent.isAnon()) {
+                ++result;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.internal.solr;
+
+import org.phenotips.vocabulary.AncestorClosureIndex;
+import org.phenotips.vocabulary.TermGraph;
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.common.SolrDocument;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the term-based distance computation of {@link AbstractSolrVocabularyTerm#getDistanceTo(VocabularyTerm)}
+ * with the in-memory {@link TermGraph}, on a synthetic DAG shaped like HPO. The terms used by the term-based
+ * implementation are served from memory instead of Solr, so its measured cost is a lower bound of the real cost. Run
+ * with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.phenotips.vocabulary.internal.solr.TermDistanceBenchmark}.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TermDistanceBenchmark
+{
+    private static final int TERMS = 15000;
+
+    private static final int BATCH = 50;
+
+    private final Map<String, VocabularyTerm> terms = new HashMap<>();
+
+    private final List<String> ids = new ArrayList<>();
+
+    private TermGraph graph;
+
+    private List<String> from;
+
+    private List<String> to;
+
+    private int next;
+
+    /**
+     * Builds a random DAG where each term has one or two parents, chosen among the previously created terms.
+     */
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        Random random = new Random(42);
+        Vocabulary vocabulary = Mockito.mock(Vocabulary.class);
+        Mockito.when(vocabulary.getTerms(Matchers.anyCollectionOf(String.class)))
+            .thenAnswer(new Answer<Set<VocabularyTerm>>()
+            {
+                @Override
+                public Set<VocabularyTerm> answer(InvocationOnMock invocation)
+                {
+                    Set<VocabularyTerm> result = new LinkedHashSet<>();
+                    for (Object id : (Collection<?>) invocation.getArguments()[0]) {
+                        result.add(TermDistanceBenchmark.this.terms.get(id));
+                    }
+                    return result;
+                }
+            });
+
+        AncestorClosureIndex.Builder builder = new AncestorClosureIndex.Builder();
+        for (int i = 0; i < TERMS; ++i) {
+            String id = String.format("HP:%07d", i);
+            List<String> parents = new ArrayList<>();
+            if (i > 0) {
+                parents.add(this.ids.get(i - 1 - random.nextInt(Math.min(i, 20))));
+                if (i > 1 && random.nextBoolean()) {
+                    parents.add(this.ids.get(random.nextInt(i)));
+                }
+            }
+            SolrDocument doc = new SolrDocument();
+            doc.setField("id", id);
+            if (!parents.isEmpty()) {
+                doc.setField("is_a", parents);
+            }
+            this.terms.put(id, new SolrVocabularyTerm(doc, vocabulary));
+            builder.addTerm(id, parents);
+            this.ids.add(id);
+        }
+        this.graph = builder.build().getGraph();
+
+        this.from = new ArrayList<>(BATCH);
+        this.to = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; ++i) {
+            this.from.add(this.ids.get(random.nextInt(TERMS)));
+            this.to.add(this.ids.get(random.nextInt(TERMS)));
+        }
+    }
+
+    @Benchmark
+    public long termDistance()
+    {
+        int pair = this.next++ % BATCH;
+        return this.terms.get(this.from.get(pair)).getDistanceTo(this.terms.get(this.to.get(pair)));
+    }
+
+    @Benchmark
+    public long graphDistance()
+    {
+        int pair = this.next++ % BATCH;
+        return this.graph.getDistance(this.from.get(pair), this.to.get(pair));
+    }
+
+    @Benchmark
+    public long termDistanceMatrix()
+    {
+        long total = 0;
+        for (String fromId : this.from) {
+            VocabularyTerm fromTerm = this.terms.get(fromId);
+            for (String toId : this.to) {
+                total += fromTerm.getDistanceTo(this.terms.get(toId));
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long[][] graphDistanceMatrix()
+    {
+        return this.graph.getDistances(this.from, this.to);
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(TermDistanceBenchmark.class.getSimpleName()).build()).run();
+    }
+}
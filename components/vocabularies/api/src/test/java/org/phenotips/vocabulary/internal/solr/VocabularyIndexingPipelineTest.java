@@ -0,0 +1,184 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.internal.solr;
+
+import org.phenotips.vocabulary.VocabularyInputTerm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.slf4j.Logger;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link VocabularyIndexingPipeline} class.
+ *
+ * @version $Id$
+ */
+public class VocabularyIndexingPipelineTest
+{
+    private static final String EXTENDED_BY = "extended_by";
+
+    private static final int TERMS = 2500;
+
+    private AbstractSolrVocabulary vocabulary;
+
+    private SolrClient client;
+
+    private final List<SolrInputDocument> added = Collections.synchronizedList(new ArrayList<SolrInputDocument>());
+
+    private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.vocabulary = mock(AbstractSolrVocabulary.class);
+        this.vocabulary.logger = mock(Logger.class);
+        when(this.vocabulary.getIdentifier()).thenReturn("hpo");
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation)
+            {
+                VocabularyInputTerm term = (VocabularyInputTerm) invocation.getArguments()[0];
+                term.set(EXTENDED_BY, Thread.currentThread().getName());
+                return null;
+            }
+        }).when(this.vocabulary).extendTerm(any(VocabularyInputTerm.class));
+
+        this.client = mock(SolrClient.class);
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation)
+            {
+                @SuppressWarnings("unchecked")
+                Collection<SolrInputDocument> batch = (Collection<SolrInputDocument>) invocation.getArguments()[0];
+                VocabularyIndexingPipelineTest.this.batchSizes.add(batch.size());
+                VocabularyIndexingPipelineTest.this.added.addAll(batch);
+                return null;
+            }
+        }).when(this.client).add(anyCollectionOf(SolrInputDocument.class));
+    }
+
+    @Test
+    public void allTermsAreExtendedAddedInSmallBatchesAndCommittedOnce() throws Exception
+    {
+        final Set<String> listened = Collections.synchronizedSet(new HashSet<String>());
+        try (VocabularyIndexingPipeline pipeline =
+            new VocabularyIndexingPipeline(this.vocabulary, this.client, 3, new Consumer<SolrInputDocument>()
+            {
+                @Override
+                public void accept(SolrInputDocument doc)
+                {
+                    listened.add((String) doc.getFieldValue("id"));
+                }
+            })) {
+            submitTerms(pipeline);
+            pipeline.finish();
+        }
+
+        Assert.assertEquals(TERMS, this.added.size());
+        Assert.assertEquals(TERMS, listened.size());
+        Set<String> ids = new HashSet<>();
+        for (SolrInputDocument doc : this.added) {
+            ids.add((String) doc.getFieldValue("id"));
+            Assert.assertTrue(((String) doc.getFieldValue(EXTENDED_BY)).startsWith("Vocabulary indexing"));
+        }
+        Assert.assertEquals(TERMS, ids.size());
+        for (int size : this.batchSizes) {
+            Assert.assertTrue(size <= 1000);
+        }
+        verify(this.client, times(1)).commit();
+    }
+
+    @Test
+    public void extensionsCanRunOnTheParsingThread() throws Exception
+    {
+        try (VocabularyIndexingPipeline pipeline =
+            new VocabularyIndexingPipeline(this.vocabulary, this.client, 0, null)) {
+            submitTerms(pipeline);
+            pipeline.finish();
+        }
+
+        Assert.assertEquals(TERMS, this.added.size());
+        for (SolrInputDocument doc : this.added) {
+            Assert.assertEquals(Thread.currentThread().getName(), doc.getFieldValue(EXTENDED_BY));
+        }
+        verify(this.client, times(1)).commit();
+    }
+
+    @Test(expected = SolrServerException.class)
+    public void addFailuresArePropagatedAndNothingIsCommitted() throws Exception
+    {
+        doThrow(new SolrServerException("Index closed")).when(this.client)
+            .add(anyCollectionOf(SolrInputDocument.class));
+        try (VocabularyIndexingPipeline pipeline =
+            new VocabularyIndexingPipeline(this.vocabulary, this.client, 2, null)) {
+            submitTerms(pipeline);
+            pipeline.finish();
+        } finally {
+            verify(this.client, never()).commit();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void extensionFailuresArePropagated() throws Exception
+    {
+        doThrow(new IllegalStateException("Broken extension")).when(this.vocabulary)
+            .extendTerm(any(VocabularyInputTerm.class));
+        try (VocabularyIndexingPipeline pipeline =
+            new VocabularyIndexingPipeline(this.vocabulary, this.client, 2, null)) {
+            submitTerms(pipeline);
+            pipeline.finish();
+        } finally {
+            verify(this.client, never()).commit();
+        }
+    }
+
+    private void submitTerms(VocabularyIndexingPipeline pipeline) throws Exception
+    {
+        for (int i = 0; i < TERMS; ++i) {
+            SolrInputDocument doc = new SolrInputDocument();
+            doc.setField("id", String.format("HP:%07d", i));
+            pipeline.submit(doc);
+        }
+    }
+}
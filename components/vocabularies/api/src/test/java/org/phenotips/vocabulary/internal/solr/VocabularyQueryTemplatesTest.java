@@ -0,0 +1,117 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.internal.solr;
+
+import org.phenotips.vocabulary.VocabularyExtension;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.common.params.DisMaxParams;
+import org.junit.Assert;
+import org.junit.Test;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for the {@link VocabularyQueryTemplates} class.
+ *
+ * @version $Id$
+ */
+public class VocabularyQueryTemplatesTest
+{
+    private VocabularyQueryTemplates templates = new VocabularyQueryTemplates();
+
+    private AtomicInteger lookups = new AtomicInteger();
+
+    @Test
+    public void templatesAreBuiltOncePerLocaleAndType()
+    {
+        this.templates.getTemplate(Locale.ENGLISH, "text", this::build);
+        this.templates.getTemplate(Locale.ENGLISH, "text", this::build);
+        this.templates.getTemplate(Locale.FRENCH, "text", this::build);
+        this.templates.getTemplate(Locale.ENGLISH, "id", this::build);
+        this.templates.getTemplate(null, "id", this::build);
+
+        Assert.assertEquals(4, this.templates.getBuildCount());
+    }
+
+    @Test
+    public void returnedQueriesAreIndependentCopies()
+    {
+        SolrQuery first = this.templates.getTemplate(Locale.ENGLISH, "text", this::build);
+        first.setQuery("abnormal");
+        first.set(DisMaxParams.PF, "changed");
+
+        SolrQuery second = this.templates.getTemplate(Locale.ENGLISH, "text", this::build);
+        Assert.assertNotSame(first, second);
+        Assert.assertNull(second.getQuery());
+        Assert.assertEquals("name^10 text", second.get(DisMaxParams.PF));
+        Assert.assertEquals(1, this.templates.getBuildCount());
+    }
+
+    @Test
+    public void invalidationDropsTemplatesAndExtensions()
+    {
+        this.templates.getTemplate(Locale.ENGLISH, "text", this::build);
+        this.templates.getSupportedExtensions(this::lookup);
+        this.templates.getSupportedExtensions(this::lookup);
+        Assert.assertEquals(1, this.lookups.get());
+
+        this.templates.invalidate();
+        this.templates.getTemplate(Locale.ENGLISH, "text", this::build);
+        this.templates.getSupportedExtensions(this::lookup);
+
+        Assert.assertEquals(2, this.templates.getBuildCount());
+        Assert.assertEquals(2, this.lookups.get());
+    }
+
+    @Test
+    public void valuesComputedDuringAnInvalidationAreNotCached()
+    {
+        this.templates.getTemplate(Locale.ENGLISH, "text", type -> {
+            this.templates.invalidate();
+            return build(type);
+        });
+        this.templates.getTemplate(Locale.ENGLISH, "text", this::build);
+        Assert.assertEquals(2, this.templates.getBuildCount());
+
+        this.templates.getSupportedExtensions(() -> {
+            this.templates.invalidate();
+            return lookup();
+        });
+        this.templates.getSupportedExtensions(this::lookup);
+        Assert.assertEquals(2, this.lookups.get());
+    }
+
+    private SolrQuery build(String type)
+    {
+        SolrQuery query = new SolrQuery();
+        query.set(DisMaxParams.PF, "name^10 text");
+        return query;
+    }
+
+    private List<VocabularyExtension> lookup()
+    {
+        this.lookups.incrementAndGet();
+        return Collections.singletonList(mock(VocabularyExtension.class));
+    }
+}
@@ -71,6 +71,12 @@ public class HumanPhenotypeOntology extends AbstractOBOSolrVocabulary
     /** The default filter for phenotype qualifier vocabulary searches. */
     private static final String DEFAULT_QUALIFIER_FILTER = "term_category:HP\\:0012823";
 
+    /** The query template for free text searches. */
+    private static final String TEXT_QUERY = "text";
+
+    /** The query template for identifier searches. */
+    private static final String ID_QUERY = "id";
+
     @Override
     public String getDefaultSourceLocation()
     {
@@ -166,14 +172,12 @@ public List<VocabularyTerm> search(String input, String category, int maxResults
     private List<VocabularyTerm> search(@Nonnull final String input, final int maxResults, final String sort,
         final String customFilter, final boolean isId)
     {
-        SolrQuery query = new SolrQuery();
-        this.addGlobalQueryParameters(query);
-        if (!isId) {
-            this.addFieldQueryParameters(query);
-        }
+        SolrQuery query = isId
+            ? getQueryTemplate(ID_QUERY, this::addGlobalQueryParameters)
+            : getQueryTemplate(TEXT_QUERY, template -> addFieldQueryParameters(addGlobalQueryParameters(template)));
         List<VocabularyTerm> result = new LinkedList<>();
-        for (SolrDocument doc : this.search(addDynamicQueryParameters(input, maxResults, sort, customFilter, isId,
-            query))) {
+        for (SolrDocument doc : this.searchExtended(addDynamicQueryParameters(input, maxResults, sort, customFilter,
+            isId, query))) {
             result.add(new SolrVocabularyTerm(doc, this));
         }
         return result;
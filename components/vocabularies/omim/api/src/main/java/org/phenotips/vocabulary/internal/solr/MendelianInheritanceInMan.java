@@ -86,6 +86,9 @@ public class MendelianInheritanceInMan extends AbstractCSVSolrVocabulary
     /** The default filter for GENE OMIM vocabulary searches. */
     private static final String DEFAULT_GENE_FILTER = "+type:gene";
 
+    /** The query template for free text searches. */
+    private static final String TEXT_QUERY = "text";
+
     private static final String GENE_ANNOTATIONS_URL = "http://omim.org/static/omim/data/mim2gene.txt";
 
     private static final String GENEREVIEWS_MAPPING_URL =
@@ -251,10 +254,11 @@ public List<VocabularyTerm> search(String input, int maxResults, String sort, St
         if (StringUtils.isBlank(input)) {
             return Collections.emptyList();
         }
-        SolrQuery query = new SolrQuery();
-        addFieldQueryParameters(addGlobalQueryParameters(query));
+        SolrQuery query =
+            getQueryTemplate(TEXT_QUERY, template -> addFieldQueryParameters(addGlobalQueryParameters(template)));
         List<VocabularyTerm> result = new LinkedList<>();
-        for (SolrDocument doc : search(addDynamicQueryParameters(input, maxResults, sort, customFilter, query))) {
+        for (SolrDocument doc : searchExtended(addDynamicQueryParameters(input, maxResults, sort, customFilter,
+            query))) {
             result.add(new SolrVocabularyTerm(doc, this));
         }
         return result;
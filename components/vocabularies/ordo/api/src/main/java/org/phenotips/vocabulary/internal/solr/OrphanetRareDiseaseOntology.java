@@ -25,6 +25,7 @@
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
@@ -36,6 +37,7 @@
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.jena.ontology.IntersectionClass;
 import org.apache.jena.ontology.OntClass;
@@ -83,6 +85,9 @@ public class OrphanetRareDiseaseOntology extends AbstractOWLSolrVocabulary
 
     private static final String GENE = "gene";
 
+    /** The query template for free text searches. */
+    private static final String TEXT_QUERY = "text";
+
     /** The default filter for gene ORDO vocabulary searches. */
     private static final String DEFAULT_GENE_FILTER = "term_group:\"disorder-associated locus\" term_group:\"gene "
         + "with protein product\" term_group:\"non-coding RNA\"";
@@ -103,6 +108,9 @@ public class OrphanetRareDiseaseOntology extends AbstractOWLSolrVocabulary
 
     private Set<OntClass> hierarchyRoots;
 
+    /** The hierarchy roots, when indexing from a streamed {@link OWLClassGraph}. */
+    private int[] hierarchyRootNodes;
+
     private String region = StringUtils.EMPTY;
 
     private boolean isIntersection;
@@ -181,6 +189,31 @@ Collection<OntClass> getRootClasses(@Nonnull final OntModel ontModel)
         return selectedRoots.build();
     }
 
+    @Override
+    int[] getRootClasses(@Nonnull final OWLClassGraph graph)
+    {
+        final Set<Integer> hierarchyRootNodeSet = new LinkedHashSet<>();
+        for (final String uri : Arrays.asList(PHENOME_LABEL, GENETIC_MATERIAL_LABEL)) {
+            final int node = graph.getNode(uri);
+            if (node != OWLClassGraph.NONE) {
+                hierarchyRootNodeSet.add(node);
+            } else {
+                this.logger.warn("Hierarchy root [{}] not found in the ontology", uri);
+            }
+        }
+        this.hierarchyRootNodes = hierarchyRootNodeSet.stream().mapToInt(Integer::intValue).toArray();
+
+        final Set<Integer> selectedRoots = new LinkedHashSet<>();
+        for (final int hierarchyRoot : this.hierarchyRootNodes) {
+            for (int node = 0; node < graph.size(); ++node) {
+                if (graph.hasDirectSuperClass(node, hierarchyRoot)) {
+                    selectedRoots.add(node);
+                }
+            }
+        }
+        return selectedRoots.stream().mapToInt(Integer::intValue).toArray();
+    }
+
     @Override
     void extractClassData(@Nonnull final SolrInputDocument doc, @Nonnull final OntClass ontClass,
         @Nonnull final OntClass parent)
@@ -199,6 +232,22 @@ void extractClassData(@Nonnull final SolrInputDocument doc, @Nonnull final OntCl
         }
     }
 
+    @Override
+    void extractClassData(@Nonnull final SolrInputDocument doc, @Nonnull final OWLClassGraph graph,
+        final int ontClass, final int parent)
+    {
+        if (graph.isRestriction(parent)) {
+            extractRestrictionData(doc, graph, parent);
+        } else if (graph.isIntersection(parent)) {
+            extractIntersectionData(doc, graph, ontClass, parent);
+        } else if (!graph.isAnonymous(parent)) {
+            extractNamedClassData(doc, graph, ontClass, parent);
+        } else {
+            this.logger.warn("Parent class {} of {} is an anonymous class that is neither restriction nor intersection",
+                parent, graph.getLocalName(ontClass));
+        }
+    }
+
     /**
      * Extracts hierarchy data from the parent {@link OntClass} to ontClass {@link OntClass}. Updates the
      * {@link SolrInputDocument} for ontClass.
@@ -226,6 +275,27 @@ private void extractNamedClassData(@Nonnull final SolrInputDocument doc, @Nonnul
         }
     }
 
+    /**
+     * Extracts hierarchy data from a named parent to ontClass, in a streamed class graph. Updates the
+     * {@link SolrInputDocument} for ontClass.
+     *
+     * @param doc the Solr input document
+     * @param graph the streamed class graph
+     * @param ontClass the node of the ontology class
+     * @param parent the node of the parent of the ontology class
+     */
+    private void extractNamedClassData(@Nonnull final SolrInputDocument doc, @Nonnull final OWLClassGraph graph,
+        final int ontClass, final int parent)
+    {
+        if (!ArrayUtils.contains(this.hierarchyRootNodes, parent) && !hasHierarchyRootAsParent(graph, parent, DIRECT)) {
+            final String ordoId = getFormattedOntClassId(graph.getLocalName(parent));
+            addMultivaluedField(doc, TERM_CATEGORY_LABEL, ordoId);
+            if (graph.hasDirectSuperClass(ontClass, parent)) {
+                addMultivaluedField(doc, IS_A_LABEL, ordoId);
+            }
+        }
+    }
+
     /**
      * Extracts data from the parent of ontClass that is an {@link IntersectionClass}. Updates the
      * {@link SolrInputDocument} for ontClass.
@@ -250,6 +320,26 @@ private void extractIntersectionData(@Nonnull final SolrInputDocument doc, @Nonn
         operands.close();
     }
 
+    /**
+     * Extracts data from the parent of ontClass that is an intersection class, in a streamed class graph. Updates the
+     * {@link SolrInputDocument} for ontClass.
+     *
+     * @param doc the Solr input document
+     * @param graph the streamed class graph
+     * @param ontClass the node of the ontology class
+     * @param parent the node of the intersection class
+     */
+    private void extractIntersectionData(@Nonnull final SolrInputDocument doc, @Nonnull final OWLClassGraph graph,
+        final int ontClass, final int parent)
+    {
+        this.isIntersection = true;
+        for (final int operand : graph.getIntersectionOperands(parent)) {
+            extractClassData(doc, graph, ontClass, operand);
+        }
+        this.region = StringUtils.EMPTY;
+        this.isIntersection = false;
+    }
+
     /**
      * Extracts data from the parent of ontClass that is a {@link Restriction} and updates the{@link SolrInputDocument}
      * for ontClass.
@@ -288,18 +378,7 @@ private void extractSomeValuesFromRestriction(@Nonnull final SolrInputDocument d
         final String fieldName = getOnPropertyFromRestriction(restriction);
         final String fieldValue = getSomeValuesFromRestriction(restriction);
 
-        if (StringUtils.isNotBlank(fieldName) && StringUtils.isNotBlank(fieldValue)) {
-            if ("present_in".equals(fieldName)) {
-                this.region = fieldValue;
-                addMultivaluedField(doc, fieldName, fieldValue);
-                return;
-            }
-            if (!this.isIntersection) {
-                addMultivaluedField(doc, fieldName, fieldValue);
-            } else {
-                writeWorldwideDataFromRestriction(doc, fieldName, fieldValue);
-            }
-        } else {
+        if (!writeSomeValuesFromData(doc, fieldName, fieldValue)) {
             this.logger.warn("Could not extract data from someValuesFrom restriction {}, onProperty {}, in class {}",
                 restriction.getId(), fieldName, doc.getFieldValue(ID_FIELD_NAME));
         }
@@ -318,18 +397,104 @@ private void extractHasValueRestriction(@Nonnull final SolrInputDocument doc,
         // Not all of these have pretty names. Re-map these via managed-schema.xml field configurations.
         final String fieldName = getOnPropertyFromRestriction(restriction);
         final String fieldValue = restriction.asHasValueRestriction().getHasValue().asLiteral().getLexicalForm();
-        if (StringUtils.isNotBlank(fieldName) && StringUtils.isNotBlank(fieldValue)) {
-            if (!this.isIntersection) {
-                addMultivaluedField(doc, fieldName, fieldValue);
-            } else {
-                writeWorldwideDataFromRestriction(doc, fieldName, fieldValue);
-            }
-        } else {
+        if (!writeHasValueData(doc, fieldName, fieldValue)) {
             this.logger.warn("Could not extract data from hasValue restriction {}, onProperty {}, in class {}",
                 restriction.getId(), fieldName, doc.getFieldValue(ID_FIELD_NAME));
         }
     }
 
+    /**
+     * Extracts data from the parent of ontClass that is a restriction, in a streamed class graph. Updates the
+     * {@link SolrInputDocument} for ontClass.
+     *
+     * @param doc the Solr input document
+     * @param graph the streamed class graph
+     * @param parent the node of the restriction
+     */
+    private void extractRestrictionData(@Nonnull final SolrInputDocument doc, @Nonnull final OWLClassGraph graph,
+        final int parent)
+    {
+        final int onProperty = graph.getOnProperty(parent);
+        final String fieldName = onProperty != OWLClassGraph.NONE ? graph.getLabel(onProperty) : null;
+        final int someValuesFrom = graph.getSomeValuesFrom(parent);
+        if (someValuesFrom != OWLClassGraph.NONE) {
+            final String fieldValue = !hasHierarchyRootAsParent(graph, someValuesFrom, !DIRECT)
+                ? graph.getLabel(someValuesFrom)
+                : getFormattedOntClassId(graph.getLocalName(someValuesFrom));
+            if (!writeSomeValuesFromData(doc, fieldName, fieldValue)) {
+                this.logger.warn("Could not extract data from someValuesFrom restriction {}, onProperty {}, "
+                    + "in class {}", parent, fieldName, doc.getFieldValue(ID_FIELD_NAME));
+            }
+        } else if (graph.getHasValue(parent) != null) {
+            if (!writeHasValueData(doc, fieldName, graph.getHasValue(parent))) {
+                this.logger.warn("Could not extract data from hasValue restriction {}, onProperty {}, in class {}",
+                    parent, fieldName, doc.getFieldValue(ID_FIELD_NAME));
+            }
+        } else {
+            this.logger.warn("Restriction {} in class {} is neither someValuesFrom nor hasValue type.", parent,
+                doc.getFieldValue(ID_FIELD_NAME));
+        }
+    }
+
+    /**
+     * Writes the value of a someValuesFrom restriction to the Solr document. A {@code present_in} value also sets the
+     * region of the following prevalence data.
+     *
+     * @param doc the input Solr document
+     * @param fieldName the label of the restricted property, may be {@code null}
+     * @param fieldValue the restriction value, may be {@code null}
+     * @return {@code false} if the field name or value is missing, {@code true} otherwise
+     */
+    private boolean writeSomeValuesFromData(@Nonnull final SolrInputDocument doc, @Nullable final String fieldName,
+        @Nullable final String fieldValue)
+    {
+        if (StringUtils.isBlank(fieldName) || StringUtils.isBlank(fieldValue)) {
+            return false;
+        }
+        if ("present_in".equals(fieldName)) {
+            this.region = fieldValue;
+            addMultivaluedField(doc, fieldName, fieldValue);
+        } else {
+            writeRestrictionData(doc, fieldName, fieldValue);
+        }
+        return true;
+    }
+
+    /**
+     * Writes the value of a hasValue restriction to the Solr document.
+     *
+     * @param doc the input Solr document
+     * @param fieldName the label of the restricted property, may be {@code null}
+     * @param fieldValue the restriction value, may be {@code null}
+     * @return {@code false} if the field name or value is missing, {@code true} otherwise
+     */
+    private boolean writeHasValueData(@Nonnull final SolrInputDocument doc, @Nullable final String fieldName,
+        @Nullable final String fieldValue)
+    {
+        if (StringUtils.isBlank(fieldName) || StringUtils.isBlank(fieldValue)) {
+            return false;
+        }
+        writeRestrictionData(doc, fieldName, fieldValue);
+        return true;
+    }
+
+    /**
+     * Writes restriction data as is, or with its region when it is part of an intersection.
+     *
+     * @param doc the input Solr document
+     * @param fieldName the name of the field to be added
+     * @param fieldValue the value of the field to be added
+     */
+    private void writeRestrictionData(@Nonnull final SolrInputDocument doc, @Nonnull final String fieldName,
+        @Nonnull final String fieldValue)
+    {
+        if (!this.isIntersection) {
+            addMultivaluedField(doc, fieldName, fieldValue);
+        } else {
+            writeWorldwideDataFromRestriction(doc, fieldName, fieldValue);
+        }
+    }
+
     /**
      * A workaround to obtain the label for the onProperty field for a {@link Restriction}. Ideally, this should be done
      * by using the {@link Restriction#onProperty(Property)}, however for ORDO, the stored node cannot be converted into
@@ -385,40 +550,35 @@ private Boolean hasHierarchyRootAsParent(@Nonnull final OntClass ontClass, @Nonn
     }
 
     /**
-     * Extracts property hasDbXref from an {@link RDFNode} and adds it to the {@link SolrInputDocument}.
+     * Returns true iff a node of a streamed class graph has one of the hierarchy roots as a parent.
      *
-     * @param doc the Solr input document for an {@link OntClass} of interest
-     * @param object the {@link RDFNode} object contained within the {@link OntClass} of interest
+     * @param graph the streamed class graph
+     * @param node the node of the class
+     * @param level specifies the level to search: direct iff true, traverse entire tree otherwise
+     * @return true iff one of the hierarchy roots is a parent of the node
      */
-    private void extractDbxRef(@Nonnull final SolrInputDocument doc, @Nonnull final RDFNode object)
+    private boolean hasHierarchyRootAsParent(@Nonnull final OWLClassGraph graph, final int node,
+        @Nonnull final Boolean level)
     {
-        // If the node is not a literal, will throw a {@link LiteralRequiredException}. For ORDO, this is always a
-        // literal.
-        if (object.isLiteral()) {
-            final String externalRef = object.asLiteral().getLexicalForm();
-            final String ontology = StringUtils.substringBefore(externalRef, SEPARATOR);
-            final String externalId = StringUtils.substringAfter(externalRef, SEPARATOR);
-            addMultivaluedField(doc, ontology.toLowerCase() + "_id", externalId);
+        for (final int hierarchyRoot : this.hierarchyRootNodes) {
+            if (level ? graph.hasDirectSuperClass(node, hierarchyRoot) : graph.hasAncestor(node, hierarchyRoot)) {
+                return true;
+            }
         }
+        return false;
     }
 
     /**
-     * Extracts the fieldName property from the provided {@link RDFNode}, and adds this data to the
-     * {@link SolrInputDocument}.
+     * Extracts property hasDbXref from its lexical form and adds it to the {@link SolrInputDocument}.
      *
-     * @param doc the Solr input document
-     * @param fieldName the name of the field to be stored
-     * @param object the {@link RDFNode} object
+     * @param doc the Solr input document for an {@link OntClass} of interest
+     * @param externalRef the reference to another database, in the {@code DATABASE:ID} format
      */
-    private void extractField(@Nonnull final SolrInputDocument doc, @Nonnull final String fieldName,
-        @Nonnull final RDFNode object)
+    private void extractDbxRef(@Nonnull final SolrInputDocument doc, @Nonnull final String externalRef)
     {
-        // If the node is not a literal, will throw a {@link LiteralRequiredException}, so need to check. Non literals
-        // will be properties like Class or subClassOf. This kind of data is already added via parents.
-        if (object.isLiteral()) {
-            final String fieldValue = object.asLiteral().getLexicalForm();
-            addMultivaluedField(doc, fieldName, fieldValue);
-        }
+        final String ontology = StringUtils.substringBefore(externalRef, SEPARATOR);
+        final String externalId = StringUtils.substringAfter(externalRef, SEPARATOR);
+        addMultivaluedField(doc, ontology.toLowerCase() + "_id", externalId);
     }
 
     /**
@@ -534,12 +694,22 @@ private double getNumerator(@Nonnull final String firstVal, @Nullable final Stri
     @Override
     void writeProperty(@Nonnull final SolrInputDocument doc, @Nonnull final String relation,
         @Nonnull final RDFNode object)
+    {
+        // Non literals will be properties like Class or subClassOf. This kind of data is already added via parents.
+        if (object.isLiteral()) {
+            writeLiteralProperty(doc, relation, object.asLiteral().getLexicalForm());
+        }
+    }
+
+    @Override
+    void writeLiteralProperty(@Nonnull final SolrInputDocument doc, @Nonnull final String relation,
+        @Nonnull final String value)
     {
         // hasDBXRef stores references to other databases (e.g. OMIM).
         if (HASDBXREF_LABEL.equals(relation)) {
-            extractDbxRef(doc, object);
+            extractDbxRef(doc, value);
         } else {
-            extractField(doc, relation, object);
+            addMultivaluedField(doc, relation, value);
         }
     }
 
@@ -570,11 +740,10 @@ public List<VocabularyTerm> search(@Nullable final String input, final int maxRe
     private List<VocabularyTerm> searchMatches(@Nonnull final String input, final int maxResults,
         @Nullable final String sort, @Nullable final String customFilter)
     {
-        final SolrQuery query = new SolrQuery();
-        addGlobalQueryParam(query);
-        addFieldQueryParam(query);
-        final List<SolrDocument> searchResults = search(addDynamicQueryParam(input, maxResults, sort, customFilter,
-            query));
+        final SolrQuery query =
+            getQueryTemplate(TEXT_QUERY, template -> addFieldQueryParam(addGlobalQueryParam(template)));
+        final List<SolrDocument> searchResults = searchExtended(addDynamicQueryParam(input, maxResults, sort,
+            customFilter, query));
         final List<VocabularyTerm> results = new LinkedList<>();
         for (final SolrDocument doc : searchResults) {
             results.add(new SolrVocabularyTerm(doc, this));
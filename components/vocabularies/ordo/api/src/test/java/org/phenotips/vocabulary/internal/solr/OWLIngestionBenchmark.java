@@ -0,0 +1,127 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.internal.solr;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jena.ontology.OntClass;
+import org.apache.jena.ontology.OntModel;
+import org.apache.jena.ontology.OntModelSpec;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the two ways of ingesting ORDO: loading it into an {@code OWL_DL_MEM_TRANS_INF} ontology model, or
+ * streaming it into an {@link OWLClassGraph}. Both benchmarks read the ontology and visit, for each indexed class, the
+ * data that the indexer needs: its properties, all its super classes and its direct super classes. Each benchmark runs
+ * in its own fork, and the JMH {@code gc} profiler reports the memory allocated for each ingestion as
+ * {@code gc.alloc.rate.norm}, along with the number and duration of the garbage collections it caused. Download
+ * {@code ordo.owl} and run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.phenotips.vocabulary.internal.solr.OWLIngestionBenchmark -Dexec.args=/path/to/ordo.owl}.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class OWLIngestionBenchmark
+{
+    private static final String INPUT_PROPERTY = "ordo";
+
+    private final OrphanetRareDiseaseOntology ordo = new OrphanetRareDiseaseOntology();
+
+    private File input;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        this.input = new File(System.getProperty(INPUT_PROPERTY, "ordo.owl"));
+        if (!this.input.isFile()) {
+            throw new IllegalStateException("Missing ORDO file: " + this.input.getAbsolutePath());
+        }
+    }
+
+    @Benchmark
+    public long inferenceModel()
+    {
+        final OntModel ontModel = ModelFactory.createOntologyModel(OntModelSpec.OWL_DL_MEM_TRANS_INF);
+        ontModel.read(this.input.toURI().toString());
+        long visited = 0;
+        for (OntClass root : this.ordo.getRootClasses(ontModel)) {
+            ExtendedIterator<OntClass> subClasses = root.listSubClasses();
+            while (subClasses.hasNext()) {
+                OntClass ontClass = subClasses.next();
+                visited += ontClass.listProperties().toList().size();
+                visited += ontClass.listSuperClasses(false).toList().size();
+                visited += ontClass.listSuperClasses(true).toList().size();
+            }
+            subClasses.close();
+        }
+        return visited;
+    }
+
+    @Benchmark
+    public long streamedGraph() throws IOException
+    {
+        final OWLClassGraph graph;
+        try (InputStream in = new FileInputStream(this.input)) {
+            graph = OWLClassGraph.read(in, this.input.toURI().toString());
+        }
+        final long[] visited = new long[1];
+        for (int root : this.ordo.getRootClasses(graph)) {
+            for (int node = 0; node < graph.size(); ++node) {
+                if (!graph.isAnonymous(node) && graph.hasAncestor(node, root)) {
+                    graph.forEachLiteral(node, (relation, value) -> ++visited[0]);
+                    visited[0] += graph.getAncestors(node).length;
+                    visited[0] += graph.getDirectSuperClasses(node).length;
+                }
+            }
+        }
+        return visited[0];
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        String input = args.length > 0 ? args[0] : System.getProperty(INPUT_PROPERTY, "ordo.owl");
+        new Runner(new OptionsBuilder().include(OWLIngestionBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .jvmArgsAppend("-D" + INPUT_PROPERTY + "=" + new File(input).getAbsolutePath()).build()).run();
+    }
+}